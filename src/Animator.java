@@ -0,0 +1,515 @@
+import javafx.animation.AnimationTimer;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+
+/**
+ * Animator. Plays Shapes back through keyframes, moving, recolouring and scaling them from one
+ * keyframe to the next. Each keyframe records where a Shape is, how big it is and its Color, and
+ * keyframes are one second apart. While the keyframes play, an AnimationTimer works out every
+ * animated Shape's place, size and Color for each frame. The Shape is moved by setting its
+ * translation, just as a move would, but its Color is only used to paint it: setColor() is never
+ * called, so a Group keeps the Colors of its children.
+ * <p>
+ * Animated Shapes are left out of their Layer's cache and painted onto a motion Canvas above it,
+ * one per Layer. Each frame only clears and repaints the parts of the motion Canvas that the
+ * Shapes that changed covered before and cover now. Everything a frame needs, from the colours
+ * between two keyframes to the boxes of the Shapes, is made before playback starts, so frames
+ * allocate nothing. Playback only shows the keyframes: it leaves the Shapes as they were once it
+ * stops, and stops as soon as one of the animated Shapes is changed.
+ * @author Emily DeLisle
+ * @version 1.0
+ */
+class Animator implements SurfaceListener {
+
+    /** Time between one keyframe and the next, in seconds */
+    static final double KEY_SPACING = 1;
+
+    /** Number of steps the Color takes between two keyframes of different Colors */
+    private static final int COLOUR_STEPS = 64;
+
+    /** Distance added around each box that is repainted, to cover the edges of the Shapes */
+    private static final double PADDING = 2;
+
+    /** Most boxes repainted on one Layer in a frame before they are repainted as one box */
+    private static final int CLIP_BOXES = 32;
+
+    /** The Surface that holds the Shapes */
+    private Surface surface;
+
+    /** The keyframes of each Shape that has any */
+    private IdentityHashMap<Shape, Track> tracks = new IdentityHashMap<>();
+
+    /** Time of the next keyframe to be recorded, in seconds */
+    private double nextKeyTime;
+
+    /** The Tracks being played, by Layer and then from the bottom of each stack up */
+    private Track[] playing = new Track[0];
+
+    /** Index in playing of the first Track on each Layer being played, then playing.length */
+    private int[] layerStarts = new int[0];
+
+    /** The motion Canvas of each Layer being played */
+    private Canvas[] canvases = new Canvas[0];
+
+    /** Length of the playback, in seconds, after which it starts again */
+    private double duration;
+
+    /** Time the playback started, in nanoseconds, or -1 before the first frame */
+    private long startTime;
+
+    /** Whether the next frame repaints every Shape being played */
+    private boolean fresh;
+
+    /** Calls frame() once for every frame shown */
+    private AnimationTimer timer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            frame(now);
+        }
+    };
+
+    /**
+     * Constructor for the Animator.
+     * @param surface the Surface that holds the Shapes
+     */
+    Animator(Surface surface) {
+        this.surface = surface;
+    }
+
+    /**
+     * Records a keyframe for each of the specified Shapes, as they are now, and moves on to the
+     * time of the next keyframe.
+     * @param shapes the Shapes
+     */
+    void addKeyframes(Iterable<Shape> shapes) {
+        stop();
+        double[] bounds = new double[4];
+        for (Shape s : shapes) {
+            s.getSurfaceBounds(bounds);
+            tracks.computeIfAbsent(s, Track::new).add(nextKeyTime, bounds, s.color);
+        }
+        nextKeyTime += KEY_SPACING;
+    }
+
+    /** Stops playback and forgets every keyframe. */
+    void clear() {
+        stop();
+        tracks.clear();
+        nextKeyTime = 0;
+    }
+
+    /**
+     * Checks if the keyframes are being played.
+     * @return true while playing
+     */
+    boolean isPlaying() {
+        return playing.length > 0;
+    }
+
+    /**
+     * Plays the keyframes of every Shape still on the Surface that has at least two, from the
+     * first keyframe to the last and then over again, until stopped.
+     * @return true if there was anything to play
+     */
+    boolean play() {
+        stop();
+        ArrayList<Track> played = new ArrayList<>();
+        duration = 0;
+        for (Track t : tracks.values()) {
+            if (t.count > 1 && t.shape.committed && surface.isOnSurface(t.shape)) {
+                played.add(t);
+                duration = Math.max(duration, t.times[t.count - 1]);
+            }
+        }
+        if (played.isEmpty() || duration <= 0) {
+            return false;
+        }
+        played.sort(Comparator.comparingInt((Track t) -> t.shape.layer.index)
+                .thenComparingLong(t -> t.shape.id));
+        playing = played.toArray(new Track[0]);
+        int layerCount = 0;
+        layerStarts = new int[playing.length + 1];
+        canvases = new Canvas[playing.length];
+        for (int i = 0; i < playing.length; i++) {
+            Layer layer = playing[i].shape.layer;
+            if (i == 0 || layer != playing[i - 1].shape.layer) {
+                layerStarts[layerCount] = i;
+                canvases[layerCount] = new Canvas(surface.overlay.getWidth(),
+                        surface.overlay.getHeight());
+                layer.getChildren().add(canvases[layerCount]);
+                layerCount++;
+            }
+            playing[i].start();
+        }
+        layerStarts[layerCount] = playing.length;
+        layerStarts = Arrays.copyOf(layerStarts, layerCount + 1);
+        canvases = Arrays.copyOf(canvases, layerCount);
+        for (int k = 0; k < layerCount; k++) {
+            playing[layerStarts[k]].shape.layer.invalidate();
+        }
+        startTime = -1;
+        fresh = true;
+        timer.start();
+        return true;
+    }
+
+    /** Stops playback, putting every animated Shape back where it was, at its size. */
+    void stop() {
+        if (playing.length == 0) {
+            return;
+        }
+        timer.stop();
+        for (Track t : playing) {
+            t.finish();
+        }
+        for (int k = 0; k < canvases.length; k++) {
+            Layer layer = playing[layerStarts[k]].shape.layer;
+            layer.getChildren().remove(canvases[k]);
+            layer.invalidate();
+        }
+        playing = new Track[0];
+        layerStarts = new int[0];
+        canvases = new Canvas[0];
+    }
+
+    /**
+     * Shows one frame: moves and scales every animated Shape to where it is at the time of the
+     * frame and picks its Color, then repaints the parts of each motion Canvas that changed.
+     * @param now time of the frame, in nanoseconds
+     */
+    void frame(long now) {
+        if (startTime < 0) {
+            startTime = now;
+        }
+        double time = ((now - startTime) / 1e9) % duration;
+        for (int k = 0; k < canvases.length; k++) {
+            paintLayer(canvases[k].getGraphicsContext2D(), layerStarts[k], layerStarts[k + 1],
+                    time);
+        }
+        fresh = false;
+    }
+
+    /**
+     * Updates the Tracks on one Layer to a time, and repaints the parts of its motion Canvas
+     * that changed. The changed boxes are cleared and then every Track crossing them is
+     * repainted, with painting kept inside the boxes.
+     * @param g the GraphicsContext of the Layer's motion Canvas
+     * @param from index in playing of the first Track on the Layer
+     * @param to index in playing after the last Track on the Layer
+     * @param time the time, in seconds
+     */
+    private void paintLayer(GraphicsContext g, int from, int to, double time) {
+        int changed = 0;
+        double left = Double.POSITIVE_INFINITY;
+        double top = Double.POSITIVE_INFINITY;
+        double right = Double.NEGATIVE_INFINITY;
+        double bottom = Double.NEGATIVE_INFINITY;
+        for (int i = from; i < to; i++) {
+            Track t = playing[i];
+            t.changed = t.update(time) || fresh;
+            if (t.changed) {
+                changed++;
+                left = Math.min(left, Math.min(t.shown[0], t.next[0]));
+                top = Math.min(top, Math.min(t.shown[1], t.next[1]));
+                right = Math.max(right, Math.max(t.shown[2], t.next[2]));
+                bottom = Math.max(bottom, Math.max(t.shown[3], t.next[3]));
+            }
+        }
+        if (changed == 0) {
+            return;
+        }
+        left -= PADDING;
+        top -= PADDING;
+        right += PADDING;
+        bottom += PADDING;
+        g.save();
+        g.beginPath();
+        if (changed <= CLIP_BOXES && !fresh) {
+            for (int i = from; i < to; i++) {
+                Track t = playing[i];
+                if (t.changed) {
+                    double boxLeft = Math.min(t.shown[0], t.next[0]) - PADDING;
+                    double boxTop = Math.min(t.shown[1], t.next[1]) - PADDING;
+                    g.rect(boxLeft, boxTop,
+                            Math.max(t.shown[2], t.next[2]) + PADDING - boxLeft,
+                            Math.max(t.shown[3], t.next[3]) + PADDING - boxTop);
+                }
+            }
+        } else {
+            g.rect(left, top, right - left, bottom - top);
+        }
+        g.clip();
+        g.clearRect(left, top, right - left, bottom - top);
+        for (int i = from; i < to; i++) {
+            Track t = playing[i];
+            if (t.next[0] < right && t.next[2] > left && t.next[1] < bottom
+                    && t.next[3] > top) {
+                t.paint(g);
+            }
+        }
+        g.restore();
+        for (int i = from; i < to; i++) {
+            Track t = playing[i];
+            System.arraycopy(t.next, 0, t.shown, 0, 4);
+        }
+    }
+
+    @Override
+    public void shapeAdded(Shape s) {
+    }
+
+    @Override
+    public void shapeMoved(Shape s, double distanceX, double distanceY) {
+        if (s.animated) {
+            stop();
+        }
+    }
+
+    @Override
+    public void shapeTransformed(Shape s) {
+        if (s.animated) {
+            stop();
+        }
+    }
+
+    @Override
+    public void shapeRemoved(Shape s) {
+        if (s.animated) {
+            stop();
+        }
+        if (!s.stored) {
+            tracks.remove(s);
+        }
+    }
+
+    @Override
+    public void shapeRecoloured(Shape s) {
+        if (s.animated) {
+            stop();
+        }
+    }
+
+    /**
+     * The keyframes of one Shape, and the state of the Shape while they are played. The
+     * keyframes are kept in order of time, each as the centre, width, height and Color of the
+     * Shape as it is shown on the Surface.
+     */
+    private static final class Track {
+
+        /** The Shape */
+        final Shape shape;
+
+        /** Number of keyframes */
+        int count;
+
+        /** Time of each keyframe, in seconds */
+        double[] times = new double[2];
+
+        /** Centre, width and height of the Shape at each keyframe, four values per keyframe */
+        double[] poses = new double[8];
+
+        /** Color of the Shape at each keyframe */
+        Color[] colours = new Color[2];
+
+        /**
+         * The Colors the Shape takes on its way from each keyframe to the next, made when
+         * playback starts. Holds one Color when both keyframes have the same Color.
+         */
+        Color[][] ramps;
+
+        /** Index of the keyframe the last frame was at or after */
+        int cursor;
+
+        /** Centre of the Shape when playback started, on the X axis */
+        double baseX;
+
+        /** Centre of the Shape when playback started, on the Y axis */
+        double baseY;
+
+        /** Width of the Shape when playback started */
+        double baseWidth;
+
+        /** Height of the Shape when playback started */
+        double baseHeight;
+
+        /** Translation of the Shape when playback started, on the X axis */
+        double restX;
+
+        /** Translation of the Shape when playback started, on the Y axis */
+        double restY;
+
+        /** Color the Shape is painted with as of the latest frame */
+        Color colour;
+
+        /** Whether the keyframes give the Shape more than one Color */
+        boolean recoloured;
+
+        /** How much the Shape is stretched on the X axis */
+        double scaleX = 1;
+
+        /** How much the Shape is stretched on the Y axis */
+        double scaleY = 1;
+
+        /** Left, top, right and bottom edges of the Shape as it is shown on the motion Canvas */
+        final double[] shown = new double[4];
+
+        /** Left, top, right and bottom edges of the Shape as of the latest frame */
+        final double[] next = new double[4];
+
+        /** Whether the Shape changed in the latest frame */
+        boolean changed;
+
+        /**
+         * Constructor for the Track.
+         * @param shape the Shape
+         */
+        Track(Shape shape) {
+            this.shape = shape;
+        }
+
+        /**
+         * Adds a keyframe, replacing the last one if it is at the same time.
+         * @param time the time, in seconds, which is no earlier than the last keyframe
+         * @param bounds the left, top, right and bottom edges of the Shape on the Surface
+         * @param colour the Color of the Shape
+         */
+        void add(double time, double[] bounds, Color colour) {
+            if (count > 0 && times[count - 1] == time) {
+                count--;
+            }
+            if (count == times.length) {
+                times = Arrays.copyOf(times, count * 2);
+                poses = Arrays.copyOf(poses, count * 8);
+                colours = Arrays.copyOf(colours, count * 2);
+            }
+            times[count] = time;
+            poses[count * 4] = (bounds[0] + bounds[2]) / 2;
+            poses[count * 4 + 1] = (bounds[1] + bounds[3]) / 2;
+            poses[count * 4 + 2] = bounds[2] - bounds[0];
+            poses[count * 4 + 3] = bounds[3] - bounds[1];
+            colours[count] = colour;
+            count++;
+        }
+
+        /**
+         * Gets ready to play: remembers the Shape as it is, makes the Colors between each pair
+         * of keyframes and takes the Shape off its Layer's cache.
+         */
+        void start() {
+            restX = shape.translateX;
+            restY = shape.translateY;
+            shape.getSurfaceBounds(shown);
+            System.arraycopy(shown, 0, next, 0, 4);
+            baseX = (shown[0] + shown[2]) / 2;
+            baseY = (shown[1] + shown[3]) / 2;
+            baseWidth = shown[2] - shown[0];
+            baseHeight = shown[3] - shown[1];
+            ramps = new Color[count][];
+            for (int k = 0; k + 1 < count; k++) {
+                if (colours[k].equals(colours[k + 1])) {
+                    ramps[k] = new Color[] {colours[k]};
+                    continue;
+                }
+                ramps[k] = new Color[COLOUR_STEPS + 1];
+                for (int step = 0; step <= COLOUR_STEPS; step++) {
+                    ramps[k][step] = colours[k].interpolate(colours[k + 1],
+                            (double) step / COLOUR_STEPS);
+                }
+            }
+            ramps[count - 1] = new Color[] {colours[count - 1]};
+            recoloured = false;
+            for (int k = 1; k < count; k++) {
+                recoloured |= !colours[k].equals(colours[0]);
+            }
+            colour = shape.color;
+            cursor = 0;
+            shape.animated = true;
+        }
+
+        /**
+         * Moves and scales the Shape to where it is at a time, picks the Color it is painted
+         * with, and works out its new box.
+         * @param time the time, in seconds
+         * @return true if the Shape changed
+         */
+        boolean update(double time) {
+            if (cursor > 0 && time < times[cursor]) {
+                cursor = 0;
+            }
+            while (cursor + 1 < count && time >= times[cursor + 1]) {
+                cursor++;
+            }
+            int k = cursor;
+            double f = 0;
+            if (k + 1 < count && time > times[k]) {
+                f = (time - times[k]) / (times[k + 1] - times[k]);
+            }
+            int a = k * 4;
+            int b = Math.min(k + 1, count - 1) * 4;
+            double centreX = poses[a] + (poses[b] - poses[a]) * f;
+            double centreY = poses[a + 1] + (poses[b + 1] - poses[a + 1]) * f;
+            double width = poses[a + 2] + (poses[b + 2] - poses[a + 2]) * f;
+            double height = poses[a + 3] + (poses[b + 3] - poses[a + 3]) * f;
+            Color[] ramp = ramps[k];
+            Color step = ramp[(int) Math.round(f * (ramp.length - 1))];
+            boolean moved = step != colour;
+            colour = step;
+            shape.translateX = restX + centreX - baseX;
+            shape.translateY = restY + centreY - baseY;
+            scaleX = baseWidth > 0 ? width / baseWidth : 1;
+            scaleY = baseHeight > 0 ? height / baseHeight : 1;
+            next[0] = centreX - baseWidth * scaleX / 2;
+            next[1] = centreY - baseHeight * scaleY / 2;
+            next[2] = centreX + baseWidth * scaleX / 2;
+            next[3] = centreY + baseHeight * scaleY / 2;
+            return moved || next[0] != shown[0] || next[1] != shown[1] || next[2] != shown[2]
+                    || next[3] != shown[3];
+        }
+
+        /**
+         * Paints the Shape as of the latest frame, stretched about its centre, in the Color of the
+         * frame. A Group paints each child in its own Color, so a Group whose keyframes change
+         * its Color is filled as one outline instead.
+         * @param g the GraphicsContext to paint on
+         */
+        void paint(GraphicsContext g) {
+            g.setFill(colour);
+            boolean scaled = scaleX != 1 || scaleY != 1;
+            if (scaled) {
+                double centreX = (next[0] + next[2]) / 2;
+                double centreY = (next[1] + next[3]) / 2;
+                g.save();
+                g.translate(centreX, centreY);
+                g.scale(scaleX, scaleY);
+                g.translate(-centreX, -centreY);
+            }
+            if (recoloured && shape instanceof Group) {
+                g.beginPath();
+                shape.appendTransformedPath(g);
+                g.fill();
+            } else {
+                shape.paintTransformed(g);
+            }
+            if (scaled) {
+                g.restore();
+            }
+        }
+
+        /**
+         * Puts the Shape back where it was when playback started and returns it to its Layer's
+         * cache. Playback never changed its Color.
+         */
+        void finish() {
+            shape.translateX = restX;
+            shape.translateY = restY;
+            shape.animated = false;
+            ramps = null;
+            colour = null;
+        }
+    }
+}
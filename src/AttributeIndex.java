@@ -0,0 +1,197 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * AttributeIndex. Indexes the finished Shapes of a Layer by their type, their Color and their
+ * area, so that every Shape with one of these attributes can be found without testing every Shape
+ * on the Layer. Shapes of each type and of each packed ARGB Color are kept in a set of their own,
+ * and every Shape is kept in one tree ordered by area. The attributes each Shape was indexed with
+ * are remembered, so that its old entries can be found once the Shape has changed. A Shape tells
+ * its Layer's index itself whenever its Color is set, so the Colors stay right however a Shape is
+ * recoloured.
+ * @author Emily DeLisle
+ * @version 1.0
+ */
+class AttributeIndex {
+
+    /** The Shapes of each type, by type code */
+    private HashMap<Byte, Set<Shape>> byType = new HashMap<>();
+
+    /** The Shapes of each Color, by packed ARGB value */
+    private HashMap<Integer, Set<Shape>> byColour = new HashMap<>();
+
+    /** Every indexed Shape, ordered by area and then by identifier */
+    private TreeSet<Entry> byArea = new TreeSet<>();
+
+    /** The attributes each indexed Shape was indexed with */
+    private IdentityHashMap<Shape, Entry> entries = new IdentityHashMap<>();
+
+    /**
+     * Adds a Shape to the index, or updates its entries if it has changed since it was added.
+     * @param s the Shape to add
+     */
+    void add(Shape s) {
+        Entry entry = new Entry(s, ShapeRecord.typeOf(s), ShapeRecord.toArgb(s.color),
+                s.getArea());
+        Entry old = entries.get(s);
+        if (old != null) {
+            if (old.type == entry.type && old.argb == entry.argb && old.area == entry.area) {
+                return;
+            }
+            remove(s);
+        }
+        entries.put(s, entry);
+        byType.computeIfAbsent(entry.type, k -> newSet()).add(s);
+        byColour.computeIfAbsent(entry.argb, k -> newSet()).add(s);
+        byArea.add(entry);
+    }
+
+    /**
+     * Moves an indexed Shape to the set of its new Color. Shapes that are not indexed, such as
+     * the children of a Group, are left out. Called by Shape.setColor().
+     * @param s the Shape that was recoloured
+     */
+    void recoloured(Shape s) {
+        Entry old = entries.get(s);
+        if (old != null && old.argb != ShapeRecord.toArgb(s.color)) {
+            remove(s);
+            add(s);
+        }
+    }
+
+    /**
+     * Adds many Shapes at once.
+     * @param added the Shapes to add
+     */
+    void addAll(Collection<Shape> added) {
+        for (Shape s : added) {
+            add(s);
+        }
+    }
+
+    /**
+     * Removes a Shape from the index.
+     * @param s the Shape to remove
+     */
+    void remove(Shape s) {
+        Entry entry = entries.remove(s);
+        if (entry == null) {
+            return;
+        }
+        removeFrom(byType, entry.type, s);
+        removeFrom(byColour, entry.argb, s);
+        byArea.remove(entry);
+    }
+
+    /** Removes every Shape from the index. */
+    void clear() {
+        byType.clear();
+        byColour.clear();
+        byArea.clear();
+        entries.clear();
+    }
+
+    /**
+     * Finds every Shape of a type.
+     * @param type the type code, as given by ShapeRecord.typeOf()
+     * @return the Shapes, in no particular order
+     */
+    List<Shape> ofType(byte type) {
+        return new ArrayList<>(byType.getOrDefault(type, Collections.emptySet()));
+    }
+
+    /**
+     * Finds every Shape of a Color.
+     * @param argb the Color, packed by ShapeRecord.toArgb()
+     * @return the Shapes, in no particular order
+     */
+    List<Shape> ofColour(int argb) {
+        return new ArrayList<>(byColour.getOrDefault(argb, Collections.emptySet()));
+    }
+
+    /**
+     * Finds every Shape whose area is larger than the specified area.
+     * @param area the area, in square pixels
+     * @return the Shapes, from the smallest up
+     */
+    List<Shape> largerThan(double area) {
+        ArrayList<Shape> found = new ArrayList<>();
+        for (Entry entry : byArea.tailSet(new Entry(null, (byte) 0, 0, area), false)) {
+            found.add(entry.shape);
+        }
+        return found;
+    }
+
+    /**
+     * Removes a Shape from the set kept under a key, dropping the set once it is empty.
+     * @param <K> the type of the keys
+     * @param sets the sets, by key
+     * @param key the key
+     * @param s the Shape to remove
+     */
+    private static <K> void removeFrom(HashMap<K, Set<Shape>> sets, K key, Shape s) {
+        Set<Shape> set = sets.get(key);
+        set.remove(s);
+        if (set.isEmpty()) {
+            sets.remove(key);
+        }
+    }
+
+    /**
+     * Creates an empty set that tells Shapes apart by identity.
+     * @return the set
+     */
+    private static Set<Shape> newSet() {
+        return Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+    /**
+     * The attributes a Shape was indexed with. Entries are ordered by area and then by the
+     * identifier of their Shape; an entry without a Shape comes after every entry of its area.
+     */
+    private static final class Entry implements Comparable<Entry> {
+
+        /** The Shape, or null for an entry only used to search the tree */
+        final Shape shape;
+
+        /** Type code of the Shape */
+        final byte type;
+
+        /** Color of the Shape, packed as 32-bit ARGB */
+        final int argb;
+
+        /** Area of the Shape, in square pixels */
+        final double area;
+
+        /**
+         * Constructor for the Entry.
+         * @param shape the Shape, or null
+         * @param type type code of the Shape
+         * @param argb Color of the Shape, packed as 32-bit ARGB
+         * @param area area of the Shape
+         */
+        Entry(Shape shape, byte type, int argb, double area) {
+            this.shape = shape;
+            this.type = type;
+            this.argb = argb;
+            this.area = area;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int byArea = Double.compare(area, other.area);
+            if (byArea != 0) {
+                return byArea;
+            }
+            long id = shape == null ? Long.MAX_VALUE : shape.id;
+            long otherId = other.shape == null ? Long.MAX_VALUE : other.shape.id;
+            return Long.compare(id, otherId);
+        }
+    }
+}
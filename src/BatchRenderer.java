@@ -0,0 +1,170 @@
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * BatchRenderer. Paints many Shapes onto a single Canvas with as few fill calls as possible.
+ * Shapes are gathered into one batch per Color and each batch is filled as a single path, so
+ * the fill Color is only set once per batch.
+ * <p>
+ * Batching is only safe while the batched Shapes do not overlap, since filling a batch paints all
+ * of its Shapes at the same depth. The renderer keeps a coarse grid of the cells covered by the
+ * Shapes waiting to be filled. When the next Shape covers a cell that is already taken, every
+ * waiting batch is filled first, so Shapes that overlap are always painted in stacking order.
+ * Shapes entirely outside the Canvas are skipped. A Group is painted on its own at its place in
+ * the stack, once any waiting batch it overlaps has been filled.
+ * @author Emily DeLisle
+ * @version 1.0
+ */
+class BatchRenderer {
+
+    /** Width and height of a cell of the overlap grid, in pixels */
+    private static final int CELL = 16;
+
+    /** Batches waiting to be filled, by Color */
+    private LinkedHashMap<Color, ArrayList<Shape>> batches = new LinkedHashMap<>();
+
+    /** For each cell of the overlap grid, the pass in which it was last covered */
+    private int[] cells = new int[0];
+
+    /** Number of columns in the overlap grid */
+    private int columns;
+
+    /** Number of rows in the overlap grid */
+    private int rows;
+
+    /** The current pass. Cells covered in an earlier pass are free */
+    private int pass;
+
+    /** Box of the Shape being batched, reused between Shapes */
+    private double[] box = new double[4];
+
+    /** Number of fill calls made by the last render */
+    int fills;
+
+    /**
+     * Paints the specified Shapes onto the GraphicsContext, which is not cleared first.
+     * @param g the GraphicsContext to paint on
+     * @param bottomUp the Shapes to paint, from the bottom of the stack to the top
+     */
+    void render(GraphicsContext g, Iterable<Shape> bottomUp) {
+        double width = g.getCanvas().getWidth();
+        double height = g.getCanvas().getHeight();
+        resize(width, height);
+        fills = 0;
+        nextPass();
+        for (Shape s : bottomUp) {
+            s.getSurfaceBounds(box);
+            if (box[2] < 0 || box[3] < 0 || box[0] > width || box[1] > height) {
+                continue;
+            }
+            int left = clamp((int) Math.floor(box[0] / CELL), columns);
+            int top = clamp((int) Math.floor(box[1] / CELL), rows);
+            int right = clamp((int) Math.floor(box[2] / CELL), columns);
+            int bottom = clamp((int) Math.floor(box[3] / CELL), rows);
+            if (covered(left, top, right, bottom)) {
+                flush(g);
+                nextPass();
+            }
+            if (s instanceof Group) {
+                s.paintTransformed(g);
+                fills++;
+                continue;
+            }
+            cover(left, top, right, bottom);
+            ArrayList<Shape> batch = batches.get(s.color);
+            if (batch == null) {
+                batch = new ArrayList<>();
+                batches.put(s.color, batch);
+            }
+            batch.add(s);
+        }
+        flush(g);
+    }
+
+    /**
+     * Fills every waiting batch, one path per Color.
+     * @param g the GraphicsContext to paint on
+     */
+    private void flush(GraphicsContext g) {
+        for (Map.Entry<Color, ArrayList<Shape>> e : batches.entrySet()) {
+            g.setFill(e.getKey());
+            g.beginPath();
+            for (Shape s : e.getValue()) {
+                s.appendTransformedPath(g);
+            }
+            g.fill();
+            fills++;
+        }
+        batches.clear();
+    }
+
+    /**
+     * Checks if any cell in the specified range has been covered in the current pass.
+     * @param left the first column
+     * @param top the first row
+     * @param right the last column
+     * @param bottom the last row
+     * @return true if a cell is already covered
+     */
+    private boolean covered(int left, int top, int right, int bottom) {
+        for (int row = top; row <= bottom; row++) {
+            for (int i = row * columns + left, end = row * columns + right; i <= end; i++) {
+                if (cells[i] == pass) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Marks every cell in the specified range as covered in the current pass.
+     * @param left the first column
+     * @param top the first row
+     * @param right the last column
+     * @param bottom the last row
+     */
+    private void cover(int left, int top, int right, int bottom) {
+        for (int row = top; row <= bottom; row++) {
+            Arrays.fill(cells, row * columns + left, row * columns + right + 1, pass);
+        }
+    }
+
+    /** Starts a new pass, freeing every cell of the overlap grid. */
+    private void nextPass() {
+        if (++pass == Integer.MAX_VALUE) {
+            Arrays.fill(cells, 0);
+            pass = 1;
+        }
+    }
+
+    /**
+     * Makes the overlap grid large enough for a Canvas of the specified size.
+     * @param width the width of the Canvas
+     * @param height the height of the Canvas
+     */
+    private void resize(double width, double height) {
+        int c = (int) Math.ceil(width / CELL) + 1;
+        int r = (int) Math.ceil(height / CELL) + 1;
+        if (c != columns || r != rows) {
+            columns = c;
+            rows = r;
+            cells = new int[c * r];
+            pass = 0;
+        }
+    }
+
+    /**
+     * Limits a cell index to the overlap grid.
+     * @param cell the cell index
+     * @param count the number of cells along the axis
+     * @return the limited index
+     */
+    private static int clamp(int cell, int count) {
+        return Math.max(0, Math.min(count - 1, cell));
+    }
+}
@@ -1,3 +1,4 @@
+import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.paint.Color;
 
 /**
@@ -48,14 +49,60 @@ public class Circle extends Shape {
     }
 
     /**
-     * Clears the GraphicsContext and redraws the Circle with the with its X and Y coordinates
-     * translated by the specified distance.
-     * @param distanceX distance translated on the X axis
-     * @param distanceY distance translated on the Y axis
+     * Circles keep their width and height equal when resized.
+     * @return true
      */
     @Override
-    void move(double distanceX, double distanceY) {
-        super.move(distanceX, distanceY);
-        gc.fillOval(topLeft[0], topLeft[1], side, side);
+    boolean keepsAspectRatio() {
+        return true;
+    }
+
+    /**
+     * Paints the Circle on the specified GraphicsContext.
+     * @param g the GraphicsContext to paint on
+     */
+    @Override
+    void paint(GraphicsContext g) {
+        g.fillOval(topLeft[0], topLeft[1], side, side);
+    }
+
+    /**
+     * Adds the outline of the Circle to the current path of the specified GraphicsContext.
+     * @param g the GraphicsContext whose path is added to
+     */
+    @Override
+    void appendPath(GraphicsContext g) {
+        double radius = side / 2;
+        g.moveTo(topLeft[0] + side, topLeft[1] + radius);
+        g.arc(topLeft[0] + radius, topLeft[1] + radius, radius, radius, 0, 360);
+        g.closePath();
+    }
+
+    /**
+     * Gets the outline of the Circle, made of straight segments.
+     * @return the X and Y coordinates of each point, one after the other
+     */
+    @Override
+    double[] getOutline() {
+        return ellipseOutline();
+    }
+
+    /**
+     * Gets the points of the Circle that other Shapes can snap to, which are its centre and its
+     * four outermost points.
+     * @return the X and Y coordinates of each point, one after the other
+     */
+    @Override
+    double[] getSnapPoints() {
+        return ellipseSnapPoints();
+    }
+
+    /**
+     * Gets the area of the Circle, which is the area of its ellipse rather than of its outline.
+     * @return the area, in square pixels
+     */
+    @Override
+    double getArea() {
+        return ellipseArea();
     }
 }
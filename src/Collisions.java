@@ -0,0 +1,475 @@
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Collisions. Finds which finished Shapes overlap each other. The boxes of the Shapes are first
+ * swept and pruned: they are sorted by their left edges and swept from left to right, keeping the
+ * boxes the sweep is still inside, so only boxes that overlap on both axes are compared further.
+ * Pairs of unrotated Rectangles and Squares and of Circles are then compared exactly from their
+ * boxes and radii. Other Shapes are compared by the rings of points outlining them, with round
+ * Shapes outlined by straight segments: two Shapes overlap when an edge of one meets an edge of
+ * the other, found by sweeping the edges the same way, or when one lies inside the other. Shapes
+ * that only touch count as overlapping.
+ * @author Emily DeLisle
+ * @version 1.0
+ */
+final class Collisions {
+
+    /** Kind of a Shape that is exactly its box: an unrotated Rectangle or Square */
+    private static final int BOX = 0;
+
+    /** Kind of a Circle */
+    private static final int ROUND = 1;
+
+    /** Kind of any other Shape, compared by its outline */
+    private static final int OUTLINE = 2;
+
+    /** Private constructor, since Collisions only has static methods. */
+    private Collisions() {
+    }
+
+    /**
+     * Finds every pair of overlapping Shapes among the specified records. Takes time in
+     * proportion to n log n for n Shapes, plus the number of pairs of boxes that overlap, as long
+     * as few boxes are crossed by any one vertical line.
+     * @param records the records of the Shapes
+     * @return the identifiers of the Shapes in each overlapping pair, one pair after the other
+     * with the lower identifier first
+     */
+    static long[] pairs(Collection<ShapeRecord> records) {
+        Body[] bodies = new Body[records.size()];
+        int n = 0;
+        for (ShapeRecord r : records) {
+            bodies[n++] = new Body(r.toShape());
+        }
+        float[] left = new float[n];
+        float[] top = new float[n];
+        float[] right = new float[n];
+        float[] bottom = new float[n];
+        for (int i = 0; i < n; i++) {
+            left[i] = Math.nextDown((float) bodies[i].box[0]);
+            top[i] = Math.nextDown((float) bodies[i].box[1]);
+            right[i] = Math.nextUp((float) bodies[i].box[2]);
+            bottom[i] = Math.nextUp((float) bodies[i].box[3]);
+        }
+        long[] found = new long[64];
+        int count = 0;
+        int[] active = new int[16];
+        int size = 0;
+        for (int i : sortByLeft(left, n)) {
+            int kept = 0;
+            for (int k = 0; k < size; k++) {
+                if (right[active[k]] >= left[i]) {
+                    active[kept++] = active[k];
+                }
+            }
+            size = kept;
+            for (int k = 0; k < size; k++) {
+                int j = active[k];
+                if (top[j] <= bottom[i] && bottom[j] >= top[i] && overlap(bodies[j], bodies[i])) {
+                    if (count + 2 > found.length) {
+                        found = Arrays.copyOf(found, found.length * 2);
+                    }
+                    long a = bodies[i].shape.id;
+                    long b = bodies[j].shape.id;
+                    found[count++] = Math.min(a, b);
+                    found[count++] = Math.max(a, b);
+                }
+            }
+            if (size == active.length) {
+                active = Arrays.copyOf(active, size * 2);
+            }
+            active[size++] = i;
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    /**
+     * Checks whether two Shapes overlap, as they are shown on the Surface.
+     * @param a one Shape
+     * @param b the other Shape
+     * @return true if the Shapes overlap or touch
+     */
+    static boolean overlap(Shape a, Shape b) {
+        return overlap(new Body(a), new Body(b));
+    }
+
+    /**
+     * Checks whether two Shapes overlap, choosing the exact test for their kinds.
+     * @param a one Shape
+     * @param b the other Shape
+     * @return true if the Shapes overlap or touch
+     */
+    private static boolean overlap(Body a, Body b) {
+        if (a.box[0] > b.box[2] || b.box[0] > a.box[2] || a.box[1] > b.box[3]
+                || b.box[1] > a.box[3]) {
+            return false;
+        }
+        if (a.kind == BOX && b.kind == BOX) {
+            return true;
+        }
+        if (a.kind == ROUND && b.kind == ROUND) {
+            double dx = a.centreX - b.centreX;
+            double dy = a.centreY - b.centreY;
+            double reach = a.radius + b.radius;
+            return dx * dx + dy * dy <= reach * reach;
+        }
+        if (a.kind == ROUND && b.kind == BOX) {
+            return circleMeetsBox(a, b.box);
+        }
+        if (a.kind == BOX && b.kind == ROUND) {
+            return circleMeetsBox(b, a.box);
+        }
+        return ringsOverlap(a.rings(), b.rings());
+    }
+
+    /**
+     * Checks whether a Circle meets a box, from the distance between its centre and the nearest
+     * point of the box.
+     * @param circle the Circle
+     * @param box the left, top, right and bottom edges of the box
+     * @return true if they overlap or touch
+     */
+    private static boolean circleMeetsBox(Body circle, double[] box) {
+        double dx = circle.centreX - Math.max(box[0], Math.min(circle.centreX, box[2]));
+        double dy = circle.centreY - Math.max(box[1], Math.min(circle.centreY, box[3]));
+        return dx * dx + dy * dy <= circle.radius * circle.radius;
+    }
+
+    /**
+     * Checks whether two areas overlap: whether an edge of one meets an edge of the other, or
+     * whether a ring of one lies inside the other.
+     * @param a the points of every ring of one area, the rings separated by a pair of NaNs
+     * @param b the points of every ring of the other area
+     * @return true if the areas overlap or touch
+     */
+    private static boolean ringsOverlap(double[] a, double[] b) {
+        if (a.length == 0 || b.length == 0) {
+            return false;
+        }
+        return ringStartsInside(a, b) || ringStartsInside(b, a) || edgesMeet(a, b);
+    }
+
+    /**
+     * Checks whether the first point of any ring of one area lies inside another area.
+     * @param rings the rings whose first points are tested
+     * @param area the rings of the area tested against
+     * @return true if a first point lies inside the area
+     */
+    private static boolean ringStartsInside(double[] rings, double[] area) {
+        boolean start = true;
+        for (int i = 0; i + 1 < rings.length; i += 2) {
+            if (Double.isNaN(rings[i])) {
+                start = true;
+            } else if (start) {
+                if (inside(area, rings[i], rings[i + 1])) {
+                    return true;
+                }
+                start = false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether a point lies inside an area, counting how many edges are crossed going right
+     * from it, so points in holes are outside.
+     * @param rings the points of every ring of the area, the rings separated by a pair of NaNs
+     * @param x the X coordinate of the point
+     * @param y the Y coordinate of the point
+     * @return true if the point is inside
+     */
+    private static boolean inside(double[] rings, double x, double y) {
+        boolean inside = false;
+        int start = 0;
+        while (start < rings.length) {
+            int end = start;
+            while (end < rings.length && !Double.isNaN(rings[end])) {
+                end += 2;
+            }
+            for (int i = start; i < end; i += 2) {
+                int j = i + 2 < end ? i + 2 : start;
+                double y0 = rings[i + 1];
+                double y1 = rings[j + 1];
+                if ((y0 <= y && y < y1) || (y1 <= y && y < y0)) {
+                    if (rings[i] + (y - y0) * (rings[j] - rings[i]) / (y1 - y0) > x) {
+                        inside = !inside;
+                    }
+                }
+            }
+            start = end + 2;
+        }
+        return inside;
+    }
+
+    /**
+     * Checks whether any edge of one area meets any edge of another. Only the edges within the
+     * box the two areas share are kept, and they are swept from left to right like the boxes of
+     * the Shapes, so each edge is only compared with the edges of the other area it overlaps.
+     * @param a the points of every ring of one area, the rings separated by a pair of NaNs
+     * @param b the points of every ring of the other area
+     * @return true if two edges meet
+     */
+    private static boolean edgesMeet(double[] a, double[] b) {
+        double[] shared = bounds(a);
+        double[] other = bounds(b);
+        shared[0] = Math.max(shared[0], other[0]);
+        shared[1] = Math.max(shared[1], other[1]);
+        shared[2] = Math.min(shared[2], other[2]);
+        shared[3] = Math.min(shared[3], other[3]);
+        if (shared[0] > shared[2] || shared[1] > shared[3]) {
+            return false;
+        }
+        Edges edges = new Edges((a.length + b.length) / 2);
+        edges.addRings(a, 0, shared);
+        edges.addRings(b, 1, shared);
+        int[][] active = {new int[16], new int[16]};
+        int[] size = new int[2];
+        for (int e : sortByLeft(edges.left, edges.count)) {
+            for (int side = 0; side < 2; side++) {
+                int kept = 0;
+                for (int k = 0; k < size[side]; k++) {
+                    if (edges.right[active[side][k]] >= edges.left[e]) {
+                        active[side][kept++] = active[side][k];
+                    }
+                }
+                size[side] = kept;
+            }
+            int own = edges.owner[e];
+            int[] against = active[1 - own];
+            for (int k = 0; k < size[1 - own]; k++) {
+                if (edges.meet(e, against[k])) {
+                    return true;
+                }
+            }
+            if (size[own] == active[own].length) {
+                active[own] = Arrays.copyOf(active[own], size[own] * 2);
+            }
+            active[own][size[own]++] = e;
+        }
+        return false;
+    }
+
+    /**
+     * Finds the box holding every point of an area.
+     * @param rings the points of every ring, the rings separated by a pair of NaNs
+     * @return the left, top, right and bottom edges of the box
+     */
+    private static double[] bounds(double[] rings) {
+        double[] box = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+            Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (int i = 0; i + 1 < rings.length; i += 2) {
+            if (!Double.isNaN(rings[i])) {
+                box[0] = Math.min(box[0], rings[i]);
+                box[1] = Math.min(box[1], rings[i + 1]);
+                box[2] = Math.max(box[2], rings[i]);
+                box[3] = Math.max(box[3], rings[i + 1]);
+            }
+        }
+        return box;
+    }
+
+    /**
+     * Sorts indexes by the left edges they have. The edges are floats, so each is packed with its
+     * index into one long whose order is the order of the edges and the whole array is sorted as
+     * primitives.
+     * @param left the left edge of each index
+     * @param n the number of indexes
+     * @return the indexes, from the leftmost edge to the rightmost
+     */
+    private static int[] sortByLeft(float[] left, int n) {
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            int bits = Float.floatToIntBits(left[i]);
+            bits ^= (bits >> 31) & 0x7FFFFFFF;
+            keys[i] = ((long) bits << 32) | i;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = (int) keys[i];
+        }
+        return order;
+    }
+
+    /**
+     * A Shape being compared, with its box and whatever else its kind is compared by.
+     */
+    private static final class Body {
+
+        /** The Shape */
+        final Shape shape;
+
+        /** BOX, ROUND or OUTLINE */
+        final int kind;
+
+        /** Left, top, right and bottom edges of the box holding the Shape on the Surface */
+        final double[] box = new double[4];
+
+        /** Centre of a Circle on the X axis */
+        double centreX;
+
+        /** Centre of a Circle on the Y axis */
+        double centreY;
+
+        /** Radius of a Circle */
+        double radius;
+
+        /** Rings outlining the Shape on the Surface, found when first needed */
+        private double[] rings;
+
+        /**
+         * Constructor for the Body.
+         * @param s the Shape
+         */
+        Body(Shape s) {
+            shape = s;
+            s.getSurfaceBounds(box);
+            byte type = ShapeRecord.typeOf(s);
+            if (type == ShapeRecord.CIRCLE) {
+                s.determineCorners();
+                kind = ROUND;
+                radius = (s.bottomRight[0] - s.topLeft[0]) / 2;
+                centreX = s.topLeft[0] + radius + s.translateX;
+                centreY = s.topLeft[1] + radius + s.translateY;
+            } else if (s.rotation == 0
+                    && (type == ShapeRecord.RECTANGLE || type == ShapeRecord.SQUARE)) {
+                kind = BOX;
+            } else {
+                kind = OUTLINE;
+            }
+        }
+
+        /**
+         * Gets the rings outlining the Shape on the Surface.
+         * @return the points of every ring, the rings separated by a pair of NaNs
+         */
+        double[] rings() {
+            if (rings == null) {
+                rings = Surface.areaOf(shape);
+            }
+            return rings;
+        }
+    }
+
+    /**
+     * The edges of two areas, with the box of each edge rounded outwards to floats for the sweep.
+     */
+    private static final class Edges {
+
+        /** Number of edges */
+        int count;
+
+        /** X coordinate of the start of each edge */
+        double[] x1;
+
+        /** Y coordinate of the start of each edge */
+        double[] y1;
+
+        /** X coordinate of the end of each edge */
+        double[] x2;
+
+        /** Y coordinate of the end of each edge */
+        double[] y2;
+
+        /** Left edge of the box of each edge */
+        float[] left;
+
+        /** Right edge of the box of each edge */
+        float[] right;
+
+        /** Which area, 0 or 1, each edge belongs to */
+        int[] owner;
+
+        /**
+         * Constructor for the Edges.
+         * @param capacity the greatest number of edges that will be added
+         */
+        Edges(int capacity) {
+            x1 = new double[capacity];
+            y1 = new double[capacity];
+            x2 = new double[capacity];
+            y2 = new double[capacity];
+            left = new float[capacity];
+            right = new float[capacity];
+            owner = new int[capacity];
+        }
+
+        /**
+         * Adds the edges of every ring of an area whose boxes overlap a box.
+         * @param rings the points of every ring, the rings separated by a pair of NaNs
+         * @param area 0 or 1, the area the edges belong to
+         * @param within the left, top, right and bottom edges of the box
+         */
+        void addRings(double[] rings, int area, double[] within) {
+            int start = 0;
+            while (start < rings.length) {
+                int end = start;
+                while (end < rings.length && !Double.isNaN(rings[end])) {
+                    end += 2;
+                }
+                for (int i = start; i < end; i += 2) {
+                    int j = i + 2 < end ? i + 2 : start;
+                    add(rings[i], rings[i + 1], rings[j], rings[j + 1], area, within);
+                }
+                start = end + 2;
+            }
+        }
+
+        /**
+         * Adds an edge if its box overlaps a box.
+         * @param ax X coordinate of the start
+         * @param ay Y coordinate of the start
+         * @param bx X coordinate of the end
+         * @param by Y coordinate of the end
+         * @param area 0 or 1, the area the edge belongs to
+         * @param within the left, top, right and bottom edges of the box
+         */
+        private void add(double ax, double ay, double bx, double by, int area,
+                double[] within) {
+            if (Math.max(ax, bx) < within[0] || Math.min(ax, bx) > within[2]
+                    || Math.max(ay, by) < within[1] || Math.min(ay, by) > within[3]) {
+                return;
+            }
+            x1[count] = ax;
+            y1[count] = ay;
+            x2[count] = bx;
+            y2[count] = by;
+            left[count] = Math.nextDown((float) Math.min(ax, bx));
+            right[count] = Math.nextUp((float) Math.max(ax, bx));
+            owner[count] = area;
+            count++;
+        }
+
+        /**
+         * Checks whether two edges meet, including at their ends or along a shared stretch.
+         * @param e one edge
+         * @param f the other edge
+         * @return true if the edges meet
+         */
+        boolean meet(int e, int f) {
+            if (Math.max(y1[e], y2[e]) < Math.min(y1[f], y2[f])
+                    || Math.max(y1[f], y2[f]) < Math.min(y1[e], y2[e])
+                    || Math.max(x1[e], x2[e]) < Math.min(x1[f], x2[f])
+                    || Math.max(x1[f], x2[f]) < Math.min(x1[e], x2[e])) {
+                return false;
+            }
+            double d1 = Math.signum(side(e, x1[f], y1[f]));
+            double d2 = Math.signum(side(e, x2[f], y2[f]));
+            double d3 = Math.signum(side(f, x1[e], y1[e]));
+            double d4 = Math.signum(side(f, x2[e], y2[e]));
+            return d1 * d2 <= 0 && d3 * d4 <= 0;
+        }
+
+        /**
+         * Finds which side of an edge's line a point is on.
+         * @param e the edge
+         * @param x the X coordinate of the point
+         * @param y the Y coordinate of the point
+         * @return positive on one side, negative on the other and zero on the line
+         */
+        private double side(int e, double x, double y) {
+            return (x2[e] - x1[e]) * (y - y1[e]) - (y2[e] - y1[e]) * (x - x1[e]);
+        }
+    }
+}
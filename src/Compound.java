@@ -0,0 +1,214 @@
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+import java.util.Arrays;
+
+/**
+ * Compound shape. The result of combining other Shapes with a union, intersection or
+ * subtraction, made of one or more rings of points. Rings inside other rings are holes. The
+ * points are kept in one flat array of X and Y coordinates, with the rings separated by a pair of
+ * NaNs; the rings run one way around the outside and the other way around holes, so they fill
+ * correctly with either fill rule.
+ * @author Emily DeLisle
+ * @version 1.0
+ */
+class Compound extends Shape {
+
+    /** Points of every ring as X and Y coordinates, the rings separated by a pair of NaNs */
+    private double[] points = new double[0];
+
+    /**
+     * Constructor for the Compound.
+     * @param color Color value for this Compound
+     */
+    Compound(Color color) {
+        super(color);
+    }
+
+    /**
+     * Constructor for a Compound with the specified rings.
+     * @param color Color value for this Compound
+     * @param rings the points of every ring, the rings separated by a pair of NaNs
+     */
+    Compound(Color color, double[] rings) {
+        super(color);
+        setGeometry(rings);
+    }
+
+    /**
+     * Compounds are made by combining Shapes rather than drawn with the Cursor, so this only
+     * repaints the Compound.
+     * @param x X coordinate of the cursor
+     * @param y Y coordinate of the cursor
+     */
+    @Override
+    void draw(double x, double y) {
+        redraw();
+    }
+
+    /**
+     * Paints the Compound on the specified GraphicsContext.
+     * @param g the GraphicsContext to paint on
+     */
+    @Override
+    void paint(GraphicsContext g) {
+        g.beginPath();
+        appendPath(g);
+        g.fill();
+    }
+
+    /**
+     * Adds every ring of the Compound to the current path of the specified GraphicsContext.
+     * @param g the GraphicsContext whose path is added to
+     */
+    @Override
+    void appendPath(GraphicsContext g) {
+        boolean start = true;
+        for (int i = 0; i + 1 < points.length; i += 2) {
+            if (Double.isNaN(points[i])) {
+                g.closePath();
+                start = true;
+            } else if (start) {
+                g.moveTo(points[i], points[i + 1]);
+                start = false;
+            } else {
+                g.lineTo(points[i], points[i + 1]);
+            }
+        }
+        if (!start) {
+            g.closePath();
+        }
+    }
+
+    /**
+     * Moves the points of the Compound by the specified distance in place, without redrawing it.
+     * @param distanceX distance to move on the X axis
+     * @param distanceY distance to move on the Y axis
+     */
+    @Override
+    void translate(double distanceX, double distanceY) {
+        for (int i = 0; i + 1 < points.length; i += 2) {
+            points[i] += distanceX;
+            points[i + 1] += distanceY;
+        }
+        determineCorners();
+    }
+
+    /**
+     * Checks if the coordinates fall inside the Compound, counting how many edges are crossed
+     * going right from them, so points in holes are outside.
+     * @param x the X coordinate, in the coordinates of the geometry
+     * @param y the Y coordinate, in the coordinates of the geometry
+     * @return true if the point is within the Compound
+     */
+    @Override
+    boolean contains(double x, double y) {
+        if (x < topLeft[0] || x > bottomRight[0] || y < topLeft[1] || y > bottomRight[1]) {
+            return false;
+        }
+        boolean inside = false;
+        int start = 0;
+        while (start < points.length) {
+            int end = start;
+            while (end < points.length && !Double.isNaN(points[end])) {
+                end += 2;
+            }
+            for (int i = start; i < end; i += 2) {
+                int j = i + 2 < end ? i + 2 : start;
+                double y0 = points[i + 1];
+                double y1 = points[j + 1];
+                if ((y0 <= y && y < y1) || (y1 <= y && y < y0)) {
+                    if (points[i] + (y - y0) * (points[j] - points[i]) / (y1 - y0) > x) {
+                        inside = !inside;
+                    }
+                }
+            }
+            start = end + 2;
+        }
+        return inside;
+    }
+
+    /**
+     * Gets the geometry of the Compound, which is the points of its rings.
+     * @return the coordinates describing the Compound
+     */
+    @Override
+    double[] getGeometry() {
+        return points.clone();
+    }
+
+    /**
+     * Sets the rings of the Compound from a flat array of coordinates created by getGeometry().
+     * @param g the coordinates describing the Compound
+     */
+    @Override
+    void setGeometry(double[] g) {
+        points = g.clone();
+        determineCorners();
+    }
+
+    /**
+     * Gets the outline of the Compound, which is every one of its rings, separated by a pair of
+     * NaNs.
+     * @return the X and Y coordinates of each point
+     */
+    @Override
+    double[] getOutline() {
+        return points.clone();
+    }
+
+    /**
+     * Gets the points of the Compound that other Shapes can snap to, which are the points of all
+     * of its rings.
+     * @return the X and Y coordinates of each point, one after the other
+     */
+    @Override
+    double[] getSnapPoints() {
+        double[] snap = new double[points.length];
+        int n = 0;
+        for (int i = 0; i + 1 < points.length; i += 2) {
+            if (!Double.isNaN(points[i])) {
+                snap[n++] = points[i];
+                snap[n++] = points[i + 1];
+            }
+        }
+        return Arrays.copyOf(snap, n);
+    }
+
+    /**
+     * Finds the most extreme points of the rings and assigns their values to the topLeft and
+     * bottomRight points so the Compound can be found.
+     */
+    @Override
+    void determineCorners() {
+        double left = Double.POSITIVE_INFINITY;
+        double top = Double.POSITIVE_INFINITY;
+        double right = Double.NEGATIVE_INFINITY;
+        double bottom = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i + 1 < points.length; i += 2) {
+            if (!Double.isNaN(points[i])) {
+                left = Math.min(left, points[i]);
+                top = Math.min(top, points[i + 1]);
+                right = Math.max(right, points[i]);
+                bottom = Math.max(bottom, points[i + 1]);
+            }
+        }
+        if (left > right) {
+            return;
+        }
+        topLeft[0] = left;
+        topLeft[1] = top;
+        bottomRight[0] = right;
+        bottomRight[1] = bottom;
+    }
+
+    /**
+     * Makes a copy of the Compound, with its own copy of the points of its rings.
+     * @return the copy
+     */
+    @Override
+    Compound copy() {
+        Compound c = (Compound) super.copy();
+        c.points = points.clone();
+        return c;
+    }
+}
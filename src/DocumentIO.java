@@ -0,0 +1,434 @@
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * DocumentIO. Saves, opens, imports and exports documents on background threads so that the
+ * JavaFX thread is never blocked by file work. Saving and exporting work from a snapshot of the
+ * Surface's Shape records taken on the JavaFX thread, so the user can keep drawing while the file
+ * is written. Each operation is a JavaFX Task, so its progress can be shown and it can be
+ * cancelled.
+ * @author Emily DeLisle
+ * @version 1.0
+ */
+class DocumentIO {
+
+    /** Magic number at the start of a document file */
+    private static final int MAGIC = 0x44524157;
+
+    /** Version of the document file format, which is also the version of its Shape records */
+    private static final int VERSION = ShapeRecord.FORMAT;
+
+    /** Number of imported Shapes handed to the Surface at a time */
+    private static final int IMPORT_BATCH = 8192;
+
+    /** The Surface whose Shapes are saved, opened and exported */
+    private Surface surface;
+
+    /** Runs the file work. Uses virtual threads when the runtime supports them */
+    private ExecutorService executor = createExecutor();
+
+    /**
+     * An InputStream that counts the bytes read through it, so progress through a text file can
+     * be measured in bytes however many bytes each character takes.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        /** Number of bytes read so far */
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    /**
+     * Constructor for the DocumentIO.
+     * @param surface the Surface whose Shapes are saved, opened and exported
+     */
+    DocumentIO(Surface surface) {
+        this.surface = surface;
+    }
+
+    /**
+     * Creates the executor for the file work. Virtual threads are used if the runtime has them,
+     * otherwise a cached pool of daemon threads is used.
+     * @return the executor
+     */
+    private static ExecutorService createExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "Document I/O");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /** Stops accepting new work. Work already started is allowed to finish. */
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Saves the finished Shapes to the specified file. The file is written to a temporary file
+     * in the same directory first and only moved over the old file, in one step, once it is
+     * complete, so a cancelled or failed save leaves the old file as it was and no temporary file
+     * behind.
+     * @param file the file to save to
+     * @return the running Task
+     */
+    Task<Void> save(File file) {
+        Collection<ShapeRecord> records = surface.documentSnapshot();
+        Task<Void> task = new Task<Void>() {
+            @Override
+            protected Void call() throws IOException {
+                Path target = file.toPath();
+                Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+                try {
+                    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                            Files.newOutputStream(temp), 1 << 16))) {
+                        out.writeInt(MAGIC);
+                        out.writeInt(VERSION);
+                        out.writeInt(records.size());
+                        long done = 0;
+                        for (ShapeRecord r : records) {
+                            if (isCancelled()) {
+                                break;
+                            }
+                            r.write(out);
+                            updateProgress(++done, records.size());
+                        }
+                    }
+                    if (isCancelled()) {
+                        Files.deleteIfExists(temp);
+                    } else {
+                        moveIntoPlace(temp, target);
+                    }
+                } catch (IOException e) {
+                    Files.deleteIfExists(temp);
+                    throw e;
+                }
+                return null;
+            }
+        };
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Opens the specified file. The file is read on a background thread, and the Shapes on the
+     * Surface are replaced with the Shapes read once reading has succeeded.
+     * @param file the file to open
+     * @return the running Task
+     */
+    Task<List<Shape>> open(File file) {
+        Task<List<Shape>> task = new Task<List<Shape>>() {
+            @Override
+            protected List<Shape> call() throws IOException {
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                        Files.newInputStream(file.toPath()), 1 << 16))) {
+                    int version = readVersion(in, file);
+                    int count = in.readInt();
+                    ArrayList<Shape> loaded = new ArrayList<>(count);
+                    for (int i = 0; i < count && !isCancelled(); i++) {
+                        loaded.add(ShapeRecord.read(in, version).toShape());
+                        updateProgress(i + 1, count);
+                    }
+                    return loaded;
+                }
+            }
+        };
+        task.setOnSucceeded(event -> {
+            surface.clearShapes();
+            surface.loadShapes(task.getValue());
+        });
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Reads the records of every Shape in a document file on the calling thread. Used where no
+     * Surface is involved, such as rendering thumbnails.
+     * @param file the file to read
+     * @return the records, from the bottom of the stack to the top
+     * @throws IOException if the file cannot be read or is not a document
+     */
+    static List<ShapeRecord> readRecords(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(file.toPath()), 1 << 16))) {
+            int version = readVersion(in, file);
+            int count = in.readInt();
+            ArrayList<ShapeRecord> records = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                records.add(ShapeRecord.read(in, version));
+            }
+            return records;
+        }
+    }
+
+    /**
+     * Reads the header of a document file and checks that it is a version that can be read.
+     * @param in the input to read from
+     * @param file the file being read, named in the error
+     * @return the version of the file format
+     * @throws IOException if the file is not a document
+     */
+    private static int readVersion(DataInputStream in, File file) throws IOException {
+        int version = in.readInt() == MAGIC ? in.readInt() : -1;
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Not a Draw document: " + file);
+        }
+        return version;
+    }
+
+    /**
+     * Imports Shapes from a file of CSV or line-delimited JSON shape data into the active Layer,
+     * adding them on top of the Shapes already there. The file is streamed on a background
+     * thread and the Shapes are handed to the Surface in batches, so memory is not held for the
+     * text of the whole file and the JavaFX thread stays responsive. The Layer is only repainted
+     * once the import has finished, failed or been cancelled; Shapes from batches already handed
+     * over are kept. Progress is measured in bytes of the file read so far.
+     * @param file the file to import
+     * @return the running Task
+     */
+    Task<Void> importData(File file) {
+        Layer layer = surface.getActiveLayer();
+        Task<Void> task = new Task<Void>() {
+            @Override
+            protected Void call() throws IOException {
+                ShapeImporter importer = new ShapeImporter();
+                long total = Math.max(1, Files.size(file.toPath()));
+                ArrayList<Shape> batch = new ArrayList<>(IMPORT_BATCH);
+                CountingInputStream bytes = new CountingInputStream(
+                        Files.newInputStream(file.toPath()));
+                try (BufferedReader in = new BufferedReader(new InputStreamReader(bytes,
+                        StandardCharsets.UTF_8.newDecoder()))) {
+                    String line;
+                    while ((line = in.readLine()) != null && !isCancelled()) {
+                        Shape s = importer.parse(line);
+                        if (s != null) {
+                            batch.add(s);
+                        }
+                        if (batch.size() == IMPORT_BATCH) {
+                            hand(batch);
+                            batch = new ArrayList<>(IMPORT_BATCH);
+                            updateProgress(Math.min(bytes.count, total), total);
+                        }
+                    }
+                    if (!isCancelled()) {
+                        hand(batch);
+                        updateProgress(total, total);
+                    }
+                } finally {
+                    Platform.runLater(() -> surface.finishImport(layer));
+                }
+                return null;
+            }
+
+            /**
+             * Hands a batch of Shapes to the Surface on the JavaFX thread.
+             * @param shapes the batch
+             */
+            private void hand(List<Shape> shapes) {
+                if (!shapes.isEmpty()) {
+                    Platform.runLater(() -> surface.importShapes(shapes, layer));
+                }
+            }
+        };
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Exports the finished Shapes to the specified file as an SVG image. The image is written to
+     * a temporary file in the same directory first and only moved into place, in one step, once it
+     * is complete, so a cancelled or failed export never leaves part of an image behind.
+     * @param file the file to export to
+     * @return the running Task
+     */
+    Task<Void> export(File file) {
+        Collection<ShapeRecord> records = surface.documentSnapshot();
+        Task<Void> task = new Task<Void>() {
+            @Override
+            protected Void call() throws IOException {
+                Path target = file.toPath();
+                Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+                try {
+                    try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                        out.write("<svg xmlns=\"http://www.w3.org/2000/svg\" "
+                                + "width=\"1000\" height=\"780\">\n");
+                        long done = 0;
+                        for (ShapeRecord r : records) {
+                            if (isCancelled()) {
+                                break;
+                            }
+                            writeSvg(r, out);
+                            updateProgress(++done, records.size());
+                        }
+                        out.write("</svg>\n");
+                    }
+                    if (isCancelled()) {
+                        Files.deleteIfExists(temp);
+                    } else {
+                        moveIntoPlace(temp, target);
+                    }
+                } catch (IOException e) {
+                    Files.deleteIfExists(temp);
+                    throw e;
+                }
+                return null;
+            }
+        };
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Moves a finished temporary file over the file it was written for. The move is made in one
+     * step, so no reader sees part of a file, unless the file system cannot, in which case the
+     * file is replaced by an ordinary move.
+     * @param temp the temporary file, in the same directory as the target
+     * @param target the file to replace
+     * @throws IOException if the file cannot be moved
+     */
+    private static void moveIntoPlace(Path temp, Path target) throws IOException {
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Writes one Shape record as an SVG element.
+     * @param r the record to write
+     * @param out the output to write to
+     * @throws IOException if the output cannot be written
+     */
+    private static void writeSvg(ShapeRecord r, Writer out) throws IOException {
+        double[] g = r.getGeometry();
+        String rotate = rotation(r);
+        if (r.type == ShapeRecord.GROUP) {
+            out.write(String.format(Locale.ROOT, "<g transform=\"%stranslate(%.2f,%.2f)\">\n",
+                    rotate, g[0], g[1]));
+            for (ShapeRecord child : Group.childRecords(g)) {
+                writeSvg(child, out);
+            }
+            out.write("</g>\n");
+            return;
+        }
+        String fill = String.format(Locale.ROOT, " fill=\"#%06x\" fill-opacity=\"%.3f\"/>\n",
+                r.argb & 0xFFFFFF, ((r.argb >>> 24) & 0xFF) / 255.0);
+        switch (r.type) {
+            case ShapeRecord.RECTANGLE:
+            case ShapeRecord.SQUARE:
+                out.write(String.format(Locale.ROOT,
+                        "<rect x=\"%.2f\" y=\"%.2f\" width=\"%.2f\" height=\"%.2f\"",
+                        g[0], g[1], g[2] - g[0], g[3] - g[1]));
+                break;
+            case ShapeRecord.OVAL:
+            case ShapeRecord.CIRCLE:
+                out.write(String.format(Locale.ROOT,
+                        "<ellipse cx=\"%.2f\" cy=\"%.2f\" rx=\"%.2f\" ry=\"%.2f\"",
+                        (g[0] + g[2]) / 2, (g[1] + g[3]) / 2, (g[2] - g[0]) / 2,
+                        (g[3] - g[1]) / 2));
+                break;
+            case ShapeRecord.COMPOUND:
+            case ShapeRecord.RASTER:
+                double[] rings = r.type == ShapeRecord.RASTER ? r.toShape().getOutline() : g;
+                StringBuilder path = new StringBuilder("<path fill-rule=\"evenodd\" d=\"");
+                boolean start = true;
+                for (int i = 0; i + 1 < rings.length; i += 2) {
+                    if (Double.isNaN(rings[i])) {
+                        path.append("Z ");
+                        start = true;
+                    } else {
+                        path.append(String.format(Locale.ROOT, "%s%.2f,%.2f ",
+                                start ? "M" : "L", rings[i], rings[i + 1]));
+                        start = false;
+                    }
+                }
+                path.append("Z\"");
+                out.write(path.toString());
+                break;
+            default:
+                StringBuilder points = new StringBuilder("<polygon points=\"");
+                for (int i = 0; i + 1 < g.length; i += 2) {
+                    points.append(String.format(Locale.ROOT, "%.2f,%.2f ", g[i], g[i + 1]));
+                }
+                points.append('"');
+                out.write(points.toString());
+        }
+        if (!rotate.isEmpty()) {
+            out.write(" transform=\"" + rotate.trim() + "\"");
+        }
+        out.write(fill);
+    }
+
+    /**
+     * Describes the rotation of a Shape record as an SVG rotate transform about the centre of its
+     * geometry.
+     * @param r the record
+     * @return the transform followed by a space, or an empty String if the Shape is not rotated
+     */
+    private static String rotation(ShapeRecord r) {
+        if (r.rotation == 0) {
+            return "";
+        }
+        Shape s = r.toShape();
+        s.determineCorners();
+        return String.format(Locale.ROOT, "rotate(%.3f %.2f %.2f) ", Math.toDegrees(r.rotation),
+                (s.topLeft[0] + s.bottomRight[0]) / 2, (s.topLeft[1] + s.bottomRight[1]) / 2);
+    }
+}
@@ -1,7 +1,13 @@
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.scene.Scene;
 import javafx.scene.layout.BorderPane;
 import javafx.stage.Stage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
 
 /**
  * GUI for the Draw application.
@@ -10,21 +16,161 @@ import javafx.stage.Stage;
  */
 public class Draw extends Application {
 
+    /** Directory the document is autosaved to */
+    private static final Path SAVE_DIRECTORY = Paths.get(System.getProperty("user.home"), ".draw");
+
+    /** System property that turns on the startup timing report */
+    private static final String STARTUP_TIMING = "draw.startupTiming";
+
+    /**
+     * System property that makes the program quit once its first frame has been laid out, used
+     * by the build to record which classes are loaded at startup for the AppCDS archive
+     */
+    private static final String TRAINING_RUN = "draw.trainingRun";
+
+    /** System property giving the port to share the drawing on with other users */
+    private static final String SYNC_HOST = "draw.syncHost";
+
+    /** System property giving the host:port of a shared drawing to join */
+    private static final String SYNC_JOIN = "draw.syncJoin";
+
+    /**
+     * System property that keeps opened and imported Shapes outside the heap: "memory", or the
+     * directory to keep their files in
+     */
+    private static final String OFF_HEAP = "draw.offHeap";
+
+    /** Journal that autosaves the Shapes */
+    private Journal journal;
+
+    /** Saves, opens and exports documents in the background */
+    private DocumentIO documentIO;
+
+    /** Shares the drawing with other users, or null when it is not shared */
+    private SyncClient syncClient;
+
     /**
      * Launches the program.
      * @param primaryStage the primary Stage
      */
     @Override
     public void start(Stage primaryStage) {
+        long entered = System.nanoTime();
         Surface surface = new Surface();
+        String offHeap = System.getProperty(OFF_HEAP);
+        if (offHeap != null) {
+            surface.useShapeStores(offHeap.equals("memory") ? null : Paths.get(offHeap));
+        }
         BorderPane layout = new BorderPane(surface);
         Pen pen = new Pen(surface);
         Scene scene = new Scene(layout,1000, 780);
-        Menu menu = new Menu(pen, scene);
+        documentIO = new DocumentIO(surface);
+        Menu menu = new Menu(pen, scene, documentIO);
         menu.setStyle("-fx-background-color: lightGrey;");
         layout.setTop(menu);
+        long built = System.nanoTime();
+        startAutosave(surface);
+        long restored = System.nanoTime();
+        startSync(surface);
         primaryStage.setScene(scene);
         primaryStage.setTitle("Draw");
         primaryStage.show();
+        boolean timing = Boolean.getBoolean(STARTUP_TIMING);
+        boolean training = Boolean.getBoolean(TRAINING_RUN);
+        if (timing || training) {
+            long launch = ProcessHandle.current().info().startInstant()
+                    .map(i -> Duration.between(i, Instant.now()).toNanos()).orElse(0L)
+                    - (System.nanoTime() - entered);
+            Runnable[] firstFrame = new Runnable[1];
+            firstFrame[0] = () -> {
+                scene.removePostLayoutPulseListener(firstFrame[0]);
+                if (timing) {
+                    reportStartup(launch, built - entered, restored - built,
+                            System.nanoTime() - entered);
+                }
+                if (training) {
+                    Platform.exit();
+                }
+            };
+            scene.addPostLayoutPulseListener(firstFrame[0]);
+        }
+    }
+
+    /**
+     * Prints how long each part of starting up took, once the first frame has been laid out.
+     * @param launch nanoseconds from the launch of the process to start()
+     * @param build nanoseconds spent building the window
+     * @param restore nanoseconds spent restoring the previous session
+     * @param firstFrame nanoseconds from start() to the first frame
+     */
+    private static void reportStartup(long launch, long build, long restore, long firstFrame) {
+        System.err.printf("Startup: launch to start() %d ms, build %d ms, restore %d ms, "
+                + "start() to first frame %d ms%n", launch / 1000000, build / 1000000,
+                restore / 1000000, firstFrame / 1000000);
+    }
+
+    /**
+     * Stops the program, making sure everything autosaved has been written.
+     * @throws InterruptedException if interrupted while the autosave is being written
+     */
+    @Override
+    public void stop() throws InterruptedException {
+        if (syncClient != null) {
+            syncClient.stop();
+        }
+        if (documentIO != null) {
+            documentIO.shutdown();
+        }
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    /**
+     * Restores the Shapes saved by the previous session, then starts autosaving any changes. The
+     * Journal only starts listening to the Surface after the Shapes have been restored.
+     * @param surface the Surface to restore the Shapes on and autosave
+     */
+    private void startAutosave(Surface surface) {
+        journal = new Journal(SAVE_DIRECTORY, surface);
+        try {
+            for (Shape s : journal.recover()) {
+                surface.restoreShape(s);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not restore the previous session: " + e);
+        }
+        journal.start();
+    }
+
+    /**
+     * Shares the drawing with other users when asked to by a system property. Sharing it starts
+     * a SyncServer seeded with the drawing and connects this program to it directly; joining
+     * replaces the drawing with the shared one.
+     * @param surface the Surface to share
+     */
+    private void startSync(Surface surface) {
+        String host = System.getProperty(SYNC_HOST);
+        String join = System.getProperty(SYNC_JOIN);
+        if (host == null && join == null) {
+            return;
+        }
+        syncClient = new SyncClient(surface, Platform::runLater);
+        try {
+            if (host != null) {
+                SyncServer server = new SyncServer(surface.documentSnapshot());
+                syncClient.setServer(server.connect(syncClient::receive));
+                SyncSocket.serve(server, Integer.parseInt(host));
+            } else {
+                int colon = join.lastIndexOf(':');
+                SyncSocket.connect(join.substring(0, colon),
+                        Integer.parseInt(join.substring(colon + 1)), syncClient);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not share the drawing: " + e);
+            syncClient = null;
+            return;
+        }
+        syncClient.start();
     }
 }
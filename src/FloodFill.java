@@ -0,0 +1,93 @@
+import java.util.Arrays;
+
+/**
+ * FloodFill. Finds the region of same-coloured pixels around a point in an array of ARGB pixels,
+ * as spans of pixels along each row. The region is grown a whole span at a time: the span holding
+ * a seed pixel is widened left and right as far as the colour reaches, and the stretches of the
+ * rows above and below it that have the colour become new seeds. Seeds wait on a stack of
+ * primitive ints rather than in recursive calls, so regions of millions of pixels take a few
+ * passes over their rows.
+ * @author Emily DeLisle
+ * @version 1.0
+ */
+final class FloodFill {
+
+    /** Private constructor, since FloodFill only has static methods. */
+    private FloodFill() {
+    }
+
+    /**
+     * Finds the region of pixels connected to a point by pixels of the same colour, going up,
+     * down, left or right. The pixels of the region are overwritten while it is found.
+     * @param pixels the pixels, row by row, packed as 32-bit ARGB
+     * @param width width of the picture, in pixels
+     * @param height height of the picture, in pixels
+     * @param x the column of the point
+     * @param y the row of the point
+     * @return the row, first column and one past the last column of each span of the region,
+     * sorted by row and then column, or an empty array if the point is outside the picture
+     */
+    static int[] fill(int[] pixels, int width, int height, int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return new int[0];
+        }
+        int target = pixels[y * width + x];
+        int mark = ~target;
+        int[] stack = new int[64];
+        int top = 0;
+        long[] spans = new long[64];
+        int count = 0;
+        stack[top++] = x;
+        stack[top++] = y;
+        while (top > 0) {
+            int row = stack[--top];
+            int column = stack[--top];
+            int offset = row * width;
+            if (pixels[offset + column] != target) {
+                continue;
+            }
+            int left = column;
+            while (left > 0 && pixels[offset + left - 1] == target) {
+                left--;
+            }
+            int right = column + 1;
+            while (right < width && pixels[offset + right] == target) {
+                right++;
+            }
+            Arrays.fill(pixels, offset + left, offset + right, mark);
+            if (count == spans.length) {
+                spans = Arrays.copyOf(spans, count * 2);
+            }
+            spans[count++] = ((long) row << 42) | ((long) left << 21) | right;
+            for (int next = row - 1; next <= row + 1; next += 2) {
+                if (next < 0 || next >= height) {
+                    continue;
+                }
+                int nextOffset = next * width;
+                int i = left;
+                while (i < right) {
+                    if (pixels[nextOffset + i] != target) {
+                        i++;
+                        continue;
+                    }
+                    if (top + 2 > stack.length) {
+                        stack = Arrays.copyOf(stack, stack.length * 2);
+                    }
+                    stack[top++] = i;
+                    stack[top++] = next;
+                    while (i < right && pixels[nextOffset + i] == target) {
+                        i++;
+                    }
+                }
+            }
+        }
+        Arrays.sort(spans, 0, count);
+        int[] result = new int[count * 3];
+        for (int k = 0; k < count; k++) {
+            result[k * 3] = (int) (spans[k] >>> 42);
+            result[k * 3 + 1] = (int) (spans[k] >>> 21) & 0x1FFFFF;
+            result[k * 3 + 2] = (int) spans[k] & 0x1FFFFF;
+        }
+        return result;
+    }
+}
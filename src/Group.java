@@ -0,0 +1,435 @@
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Group shape. Holds other Shapes so they can be treated as one unit. The Group keeps the union
+ * of its children's bounding boxes, so finding and painting only look at the children when the
+ * Group's own box matches, and Groups inside Groups are only descended into as far as needed.
+ * <p>
+ * The children keep their own coordinates. A finished move only adds to the Group's offset, which
+ * is added to the coordinates of every child when the Group is painted or searched, so a move
+ * takes the same time however many children the Group has.
+ * @author Emily DeLisle
+ * @version 1.0
+ */
+class Group extends Shape {
+
+    /** The children, from the bottom of the Group up */
+    private ArrayList<Shape> children = new ArrayList<>();
+
+    /** Union of the children's bounding boxes, without the offset: left, top, right, bottom */
+    private double[] bounds = new double[4];
+
+    /** Distance the Group has been moved on the X axis since it was created */
+    private double offsetX;
+
+    /** Distance the Group has been moved on the Y axis since it was created */
+    private double offsetY;
+
+    /**
+     * Constructor for an empty Group, whose children are given later with setGeometry().
+     * @param color Color value for this Group
+     */
+    Group(Color color) {
+        super(color);
+    }
+
+    /**
+     * Constructor for the Group.
+     * @param children the Shapes to group, from the bottom up. The Group takes the Color of the
+     * bottom Shape
+     */
+    Group(List<Shape> children) {
+        super(children.get(0).color);
+        this.children.addAll(children);
+        measure();
+    }
+
+    /** Finds the union of the children's bounding boxes. */
+    private void measure() {
+        bounds[0] = Double.POSITIVE_INFINITY;
+        bounds[1] = Double.POSITIVE_INFINITY;
+        bounds[2] = Double.NEGATIVE_INFINITY;
+        bounds[3] = Double.NEGATIVE_INFINITY;
+        double[] box = new double[4];
+        for (Shape s : children) {
+            s.getSurfaceBounds(box);
+            bounds[0] = Math.min(bounds[0], box[0]);
+            bounds[1] = Math.min(bounds[1], box[1]);
+            bounds[2] = Math.max(bounds[2], box[2]);
+            bounds[3] = Math.max(bounds[3], box[3]);
+        }
+        if (children.isEmpty()) {
+            bounds = new double[4];
+        }
+        determineCorners();
+    }
+
+    /**
+     * Gets the children of the Group, without the Group's offset or rotation. The list should not
+     * be changed.
+     * @return the children, from the bottom up
+     */
+    List<Shape> getChildren() {
+        return children;
+    }
+
+    /**
+     * Gets the offset of the Group: how far it has been moved since it was created.
+     * @return the X and Y distances
+     */
+    double[] getOffset() {
+        return new double[] {offsetX, offsetY};
+    }
+
+    /**
+     * Gets the children of the Group with the Group's offset and rotation added to them, so they
+     * can stand on their own again. The Group should not be used afterwards.
+     * @return the children, from the bottom up
+     */
+    List<Shape> ungroup() {
+        determineCorners();
+        double centreX = (topLeft[0] + bottomRight[0]) / 2;
+        double centreY = (topLeft[1] + bottomRight[1]) / 2;
+        double cos = Math.cos(rotation);
+        double sin = Math.sin(rotation);
+        for (Shape s : children) {
+            s.translate(offsetX, offsetY);
+            if (rotation != 0) {
+                // Turns the child's centre about the Group's centre, then the child about its own
+                s.determineCorners();
+                double x = (s.topLeft[0] + s.bottomRight[0]) / 2 - centreX;
+                double y = (s.topLeft[1] + s.bottomRight[1]) / 2 - centreY;
+                s.translate(x * cos - y * sin - x, x * sin + y * cos - y);
+                s.rotation += rotation;
+            }
+        }
+        offsetX = 0;
+        offsetY = 0;
+        rotation = 0;
+        return children;
+    }
+
+    /**
+     * Groups are made from finished Shapes rather than drawn with the Cursor, so this does
+     * nothing.
+     * @param x X coordinate of the cursor
+     * @param y Y coordinate of the cursor
+     */
+    @Override
+    void draw(double x, double y) {
+    }
+
+    /**
+     * Moves the Group by adding to its offset, without redrawing it or touching its children.
+     * @param distanceX distance to move on the X axis
+     * @param distanceY distance to move on the Y axis
+     */
+    @Override
+    void translate(double distanceX, double distanceY) {
+        offsetX += distanceX;
+        offsetY += distanceY;
+        determineCorners();
+    }
+
+    /**
+     * Paints every child that falls on the Canvas, each in its own Color. The Group's own
+     * translation and rotation are expected to be applied by the caller.
+     * @param g the GraphicsContext to paint on
+     */
+    @Override
+    void paint(GraphicsContext g) {
+        if (rotation != 0) {
+            paintWithin(g, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                    Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+            return;
+        }
+        Canvas c = g.getCanvas();
+        paintWithin(g, -translateX, -translateY, c.getWidth() - translateX,
+                c.getHeight() - translateY);
+    }
+
+    /**
+     * Paints every child that falls within the specified area, descending into Groups only when
+     * their box falls within it.
+     * @param g the GraphicsContext to paint on
+     * @param left the left edge of the area
+     * @param top the top edge of the area
+     * @param right the right edge of the area
+     * @param bottom the bottom edge of the area
+     */
+    private void paintWithin(GraphicsContext g, double left, double top, double right,
+            double bottom) {
+        g.save();
+        g.translate(offsetX, offsetY);
+        left -= offsetX;
+        top -= offsetY;
+        right -= offsetX;
+        bottom -= offsetY;
+        double[] box = new double[4];
+        for (Shape s : children) {
+            s.getSurfaceBounds(box);
+            if (box[2] < left || box[3] < top || box[0] > right || box[1] > bottom) {
+                continue;
+            }
+            if (s instanceof Group && !s.isTransformed()) {
+                ((Group) s).paintWithin(g, left, top, right, bottom);
+            } else {
+                g.setFill(s.color);
+                s.paintTransformed(g);
+            }
+        }
+        g.restore();
+    }
+
+    /**
+     * Adds the outlines of every child to the current path of the specified GraphicsContext.
+     * @param g the GraphicsContext whose path is added to
+     */
+    @Override
+    void appendPath(GraphicsContext g) {
+        g.save();
+        g.translate(offsetX, offsetY);
+        for (Shape s : children) {
+            s.appendTransformedPath(g);
+        }
+        g.restore();
+    }
+
+    /**
+     * Checks the Group's box first, and only if it matches looks for a child (going down from the
+     * top of the Group) that the coordinates fall within.
+     * @param x the X coordinate, in the coordinates of the geometry
+     * @param y the Y coordinate, in the coordinates of the geometry
+     * @return true if a child was found
+     */
+    @Override
+    boolean contains(double x, double y) {
+        if (x < topLeft[0] || x > bottomRight[0] || y < topLeft[1] || y > bottomRight[1]) {
+            return false;
+        }
+        for (int i = children.size() - 1; i >= 0; i--) {
+            if (children.get(i).shapeExists(x - offsetX, y - offsetY)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stretches every child so that the Group's box becomes the specified box. The box of each
+     * child, before its rotation, is scaled by the Group's horizontal and vertical factors and
+     * moved along the Group's axes. A rotated child keeps its rotation, so it is never sheared,
+     * but a resize that is not the same on both axes only approximates a true stretch of it: its
+     * width is scaled by the horizontal factor and its height by the vertical one, whichever way
+     * it is turned.
+     * @param left the new left edge
+     * @param top the new top edge
+     * @param right the new right edge
+     * @param bottom the new bottom edge
+     */
+    @Override
+    void resize(double left, double top, double right, double bottom) {
+        determineCorners();
+        double width = bottomRight[0] - topLeft[0];
+        double height = bottomRight[1] - topLeft[1];
+        double scaleX = width == 0 ? 0 : (right - left) / width;
+        double scaleY = height == 0 ? 0 : (bottom - top) / height;
+        double oldLeft = topLeft[0] - offsetX;
+        double oldTop = topLeft[1] - offsetY;
+        double newLeft = left - offsetX;
+        double newTop = top - offsetY;
+        for (Shape s : children) {
+            s.determineCorners();
+            s.resize(newLeft + (s.topLeft[0] - oldLeft) * scaleX,
+                    newTop + (s.topLeft[1] - oldTop) * scaleY,
+                    newLeft + (s.bottomRight[0] - oldLeft) * scaleX,
+                    newTop + (s.bottomRight[1] - oldTop) * scaleY);
+        }
+        measure();
+    }
+
+    /** Sets the corners of the Group from the union of its children's boxes and its offset. */
+    @Override
+    void determineCorners() {
+        topLeft[0] = bounds[0] + offsetX;
+        topLeft[1] = bounds[1] + offsetY;
+        bottomRight[0] = bounds[2] + offsetX;
+        bottomRight[1] = bounds[3] + offsetY;
+        pointA[0] = topLeft[0];
+        pointA[1] = topLeft[1];
+        pointB[0] = bottomRight[0];
+        pointB[1] = bottomRight[1];
+    }
+
+    /**
+     * Gets the snap points of every child as the child is shown, moved by the Group's offset.
+     * @return the X and Y coordinates of each point, one after the other
+     */
+    @Override
+    double[] getSnapPoints() {
+        ArrayList<double[]> parts = new ArrayList<>(children.size());
+        int length = 0;
+        for (Shape s : children) {
+            double[] p = s.toSurface(s.getSnapPoints());
+            parts.add(p);
+            length += p.length;
+        }
+        double[] points = new double[length];
+        int k = 0;
+        for (double[] p : parts) {
+            for (int i = 0; i + 1 < p.length; i += 2) {
+                points[k++] = p[i] + offsetX;
+                points[k++] = p[i + 1] + offsetY;
+            }
+        }
+        return points;
+    }
+
+    /**
+     * Gets the area of the Group, which is the sum of its children's areas, so children that
+     * overlap each other are counted more than once.
+     * @return the area, in square pixels
+     */
+    @Override
+    double getArea() {
+        double area = 0;
+        for (Shape s : children) {
+            area += s.getArea();
+        }
+        return area;
+    }
+
+    /**
+     * Makes a copy of the Group with a copy of every child.
+     * @return the copy
+     */
+    @Override
+    Group copy() {
+        Group g = (Group) super.copy();
+        g.bounds = bounds.clone();
+        g.children = new ArrayList<>(children.size());
+        for (Shape s : children) {
+            g.children.add(s.copy());
+        }
+        return g;
+    }
+
+    /**
+     * Gives the Group and every child the specified Color.
+     * @param c the Color value to set
+     */
+    @Override
+    void setColor(Color c) {
+        super.setColor(c);
+        for (Shape s : children) {
+            s.setColor(c);
+        }
+    }
+
+    /**
+     * Gets the geometry of the Group: its offset and number of children, followed by the type
+     * code, packed Color, rotation, geometry length and geometry of each child.
+     * @return the coordinates describing the Group
+     */
+    @Override
+    double[] getGeometry() {
+        ArrayList<double[]> parts = new ArrayList<>(children.size());
+        int length = 3;
+        for (Shape s : children) {
+            double[] p = s.getGeometry();
+            parts.add(p);
+            length += 4 + p.length;
+        }
+        double[] g = new double[length];
+        g[0] = offsetX;
+        g[1] = offsetY;
+        g[2] = children.size();
+        int k = 3;
+        for (int i = 0; i < children.size(); i++) {
+            Shape s = children.get(i);
+            double[] p = parts.get(i);
+            g[k++] = ShapeRecord.typeOf(s);
+            g[k++] = ShapeRecord.toArgb(s.color);
+            g[k++] = s.rotation;
+            g[k++] = p.length;
+            System.arraycopy(p, 0, g, k, p.length);
+            k += p.length;
+        }
+        return g;
+    }
+
+    /**
+     * Sets the offset and children of the Group from an array created by getGeometry().
+     * @param g the coordinates describing the Group
+     */
+    @Override
+    void setGeometry(double[] g) {
+        offsetX = g[0];
+        offsetY = g[1];
+        children.clear();
+        for (ShapeRecord r : childRecords(g)) {
+            children.add(r.toShape());
+        }
+        measure();
+    }
+
+    /**
+     * Reads the records of the children from the geometry of a Group.
+     * @param g the coordinates describing the Group, as created by getGeometry()
+     * @return the records of the children, from the bottom up
+     */
+    static List<ShapeRecord> childRecords(double[] g) {
+        int count = (int) g[2];
+        ArrayList<ShapeRecord> records = new ArrayList<>(count);
+        int k = 3;
+        for (int i = 0; i < count; i++) {
+            byte type = (byte) g[k];
+            int argb = (int) (long) g[k + 1];
+            double rotation = g[k + 2];
+            int length = (int) g[k + 3];
+            k += 4;
+            double[] p = new double[length];
+            System.arraycopy(g, k, p, 0, length);
+            k += length;
+            records.add(new ShapeRecord(0, type, argb, 0, rotation, p));
+        }
+        return records;
+    }
+
+    /**
+     * Converts the geometry of a Group written before Shapes could be rotated, which has no
+     * rotation for each child, into the current layout.
+     * @param g the old geometry
+     * @return the geometry in the current layout
+     */
+    static double[] upgradeGeometry(double[] g) {
+        int count = (int) g[2];
+        ArrayList<double[]> parts = new ArrayList<>();
+        parts.add(new double[] {g[0], g[1], g[2]});
+        int length = 3;
+        int k = 3;
+        for (int i = 0; i < count; i++) {
+            int size = (int) g[k + 2];
+            double[] p = new double[size];
+            System.arraycopy(g, k + 3, p, 0, size);
+            if ((byte) g[k] == ShapeRecord.GROUP) {
+                p = upgradeGeometry(p);
+            }
+            parts.add(new double[] {g[k], g[k + 1], 0, p.length});
+            parts.add(p);
+            length += 4 + p.length;
+            k += 3 + size;
+        }
+        double[] upgraded = new double[length];
+        int j = 0;
+        for (double[] p : parts) {
+            System.arraycopy(p, 0, upgraded, j, p.length);
+            j += p.length;
+        }
+        return upgraded;
+    }
+}
@@ -0,0 +1,270 @@
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+/**
+ * Handles. Shows the rotate and resize handles of the selected Shape on the Surface's overlay,
+ * and works out how the Shape changes while a handle is dragged. There is a resize handle at each
+ * corner of the Shape's box and a rotate handle above the middle of its top side. The handles
+ * turn with the Shape. Resizing keeps the opposite corner where it is on the Surface. While a
+ * handle is dragged, only a ghost of the Shape is rotated or resized, and the Shape itself is
+ * changed once the handle is let go.
+ * @author Emily DeLisle
+ * @version 1.0
+ */
+class Handles {
+
+    /** Returned by handleAt() when no handle is under the Cursor */
+    static final int NONE = -1;
+
+    /** Returned by handleAt() for the rotate handle. The corners are numbered 0 to 3 */
+    static final int ROTATE = 4;
+
+    /** Width and height of a handle, in pixels */
+    private static final double SIZE = 8;
+
+    /** Distance from the top side of the Shape's box to the rotate handle, in pixels */
+    private static final double ROTATE_DISTANCE = 24;
+
+    /** Smallest width and height a Shape can be resized to, in pixels */
+    private static final double MIN_SIZE = 1;
+
+    /** The overlay the handles are drawn on */
+    private Overlay overlay;
+
+    /** The Shape whose handles are shown, or null if none are shown */
+    private Shape shape;
+
+    /** Copy of the Shape that is rotated or resized while a handle is dragged */
+    private Shape ghost;
+
+    /** Left, top, right and bottom edges the ghost was last resized to */
+    private double[] resized = new double[4];
+
+    /** Whether the ghost has been resized since the handle was pressed */
+    private boolean reshaped;
+
+    /** The handle being dragged */
+    private int dragged = NONE;
+
+    /**
+     * For a resize, the fixed corner turned into the Shape's frame. For a rotation, the centre of
+     * the Shape on the Surface.
+     */
+    private double[] anchor = new double[2];
+
+    /** Angle from the centre to the Cursor when a rotation started */
+    private double startAngle;
+
+    /** Rotation of the Shape when a rotation started */
+    private double startRotation;
+
+    /**
+     * Constructor for the Handles.
+     * @param overlay the Overlay to draw the handles on
+     */
+    Handles(Overlay overlay) {
+        this.overlay = overlay;
+    }
+
+    /**
+     * Shows the handles of a Shape, replacing any handles already shown.
+     * @param s the Shape, or null to hide the handles
+     */
+    void show(Shape s) {
+        shape = s;
+        dragged = NONE;
+        if (ghost != null) {
+            ghost = null;
+            overlay.showGhost(null);
+        }
+        redraw();
+    }
+
+    /**
+     * Gets the Shape whose handles are shown.
+     * @return the Shape, or null if no handles are shown
+     */
+    Shape getShape() {
+        return shape;
+    }
+
+    /** Draws the handles again after the Shape or its ghost has changed. */
+    void redraw() {
+        overlay.invalidate();
+    }
+
+    /**
+     * Paints the handles of the Shape, or of its ghost while a handle is dragged.
+     * @param g the GraphicsContext of the overlay
+     */
+    void paint(GraphicsContext g) {
+        if (shape == null) {
+            return;
+        }
+        Shape shown = ghost != null ? ghost : shape;
+        double[] box = shown.getOrientedBox();
+        double[] rotate = rotateHandle(box, shown.rotation);
+        g.setStroke(Color.DODGERBLUE);
+        g.setLineWidth(1);
+        g.strokePolygon(new double[] {box[0], box[2], box[4], box[6]},
+                new double[] {box[1], box[3], box[5], box[7]}, 4);
+        g.strokeLine((box[0] + box[2]) / 2, (box[1] + box[3]) / 2, rotate[0], rotate[1]);
+        g.setFill(Color.WHITE);
+        for (int i = 0; i < 4; i++) {
+            g.fillRect(box[i * 2] - SIZE / 2, box[i * 2 + 1] - SIZE / 2, SIZE, SIZE);
+            g.strokeRect(box[i * 2] - SIZE / 2, box[i * 2 + 1] - SIZE / 2, SIZE, SIZE);
+        }
+        g.fillOval(rotate[0] - SIZE / 2, rotate[1] - SIZE / 2, SIZE, SIZE);
+        g.strokeOval(rotate[0] - SIZE / 2, rotate[1] - SIZE / 2, SIZE, SIZE);
+    }
+
+    /**
+     * Finds the position of the rotate handle: above the middle of the top side of the box, in
+     * the direction the Shape has been turned to.
+     * @param box the corners of the Shape's box on the Surface
+     * @param rotation the rotation of the Shape
+     * @return the X and Y coordinates of the rotate handle
+     */
+    private double[] rotateHandle(double[] box, double rotation) {
+        return new double[] {(box[0] + box[2]) / 2 + Math.sin(rotation) * ROTATE_DISTANCE,
+                (box[1] + box[3]) / 2 - Math.cos(rotation) * ROTATE_DISTANCE};
+    }
+
+    /**
+     * Finds the handle under the Cursor.
+     * @param x the X coordinate of the Cursor
+     * @param y the Y coordinate of the Cursor
+     * @return the corner number, ROTATE, or NONE if no handle is under the Cursor
+     */
+    int handleAt(double x, double y) {
+        if (shape == null) {
+            return NONE;
+        }
+        double[] box = shape.getOrientedBox();
+        double[] rotate = rotateHandle(box, shape.rotation);
+        if (Math.abs(x - rotate[0]) <= SIZE && Math.abs(y - rotate[1]) <= SIZE) {
+            return ROTATE;
+        }
+        for (int i = 0; i < 4; i++) {
+            if (Math.abs(x - box[i * 2]) <= SIZE && Math.abs(y - box[i * 2 + 1]) <= SIZE) {
+                return i;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Starts dragging the handle under the Cursor, if there is one, and shows a ghost of the
+     * Shape on the overlay.
+     * @param x the X coordinate of the Cursor
+     * @param y the Y coordinate of the Cursor
+     * @return true if a handle is being dragged
+     */
+    boolean press(double x, double y) {
+        dragged = handleAt(x, y);
+        if (dragged == NONE) {
+            return false;
+        }
+        double[] box = shape.getOrientedBox();
+        if (dragged == ROTATE) {
+            anchor[0] = (box[0] + box[4]) / 2;
+            anchor[1] = (box[1] + box[5]) / 2;
+            startAngle = Math.atan2(y - anchor[1], x - anchor[0]);
+            startRotation = shape.rotation;
+        } else {
+            int fixed = (dragged + 2) % 4;
+            toFrame(box[fixed * 2], box[fixed * 2 + 1], anchor);
+        }
+        ghost = shape.copy();
+        reshaped = false;
+        overlay.showGhost(ghost);
+        return true;
+    }
+
+    /**
+     * Rotates or resizes the ghost to follow the Cursor. Only the ghost's rotation or geometry is
+     * changed; the caller redraws the handles.
+     * @param x the X coordinate of the Cursor
+     * @param y the Y coordinate of the Cursor
+     */
+    void drag(double x, double y) {
+        if (dragged == ROTATE) {
+            ghost.rotation = startRotation + Math.atan2(y - anchor[1], x - anchor[0])
+                    - startAngle;
+        } else if (dragged != NONE) {
+            resizeTo(x, y);
+        }
+    }
+
+    /**
+     * Stops dragging the handle and gives the Shape the rotation or size of its ghost. The
+     * caller tells the Surface that the Shape has changed.
+     */
+    void release() {
+        if (dragged == ROTATE) {
+            shape.rotation = ghost.rotation;
+        } else if (dragged != NONE && reshaped) {
+            shape.resize(resized[0], resized[1], resized[2], resized[3]);
+        }
+        dragged = NONE;
+        ghost = null;
+        overlay.showGhost(null);
+    }
+
+    /**
+     * Checks if a handle is being dragged.
+     * @return true if a handle is being dragged
+     */
+    boolean isDragging() {
+        return dragged != NONE;
+    }
+
+    /**
+     * Resizes the ghost so the dragged corner follows the Cursor while the opposite corner stays
+     * where it is. The box is worked out in the Shape's turned frame, then moved so that turning
+     * it about its new centre puts the fixed corner back in place.
+     * @param x the X coordinate of the Cursor
+     * @param y the Y coordinate of the Cursor
+     */
+    private void resizeTo(double x, double y) {
+        double[] corner = new double[2];
+        toFrame(x, y, corner);
+        double width = corner[0] - anchor[0];
+        double height = corner[1] - anchor[1];
+        if (shape.keepsAspectRatio()) {
+            double side = Math.max(Math.abs(width), Math.abs(height));
+            width = Math.copySign(side, width);
+            height = Math.copySign(side, height);
+        }
+        width = Math.copySign(Math.max(MIN_SIZE, Math.abs(width)), width);
+        height = Math.copySign(Math.max(MIN_SIZE, Math.abs(height)), height);
+        double left = Math.min(anchor[0], anchor[0] + width);
+        double top = Math.min(anchor[1], anchor[1] + height);
+        double centreX = left + Math.abs(width) / 2;
+        double centreY = top + Math.abs(height) / 2;
+        double cos = Math.cos(shape.rotation);
+        double sin = Math.sin(shape.rotation);
+        double shiftX = centreX * cos - centreY * sin - centreX;
+        double shiftY = centreX * sin + centreY * cos - centreY;
+        resized[0] = left + shiftX;
+        resized[1] = top + shiftY;
+        resized[2] = left + Math.abs(width) + shiftX;
+        resized[3] = top + Math.abs(height) + shiftY;
+        ghost.resize(resized[0], resized[1], resized[2], resized[3]);
+        reshaped = true;
+    }
+
+    /**
+     * Turns a point on the Surface into the Shape's frame, by undoing the Shape's rotation about
+     * the origin.
+     * @param x the X coordinate on the Surface
+     * @param y the Y coordinate on the Surface
+     * @param result receives the X and Y coordinates in the Shape's frame
+     */
+    private void toFrame(double x, double y, double[] result) {
+        double cos = Math.cos(shape.rotation);
+        double sin = Math.sin(shape.rotation);
+        result[0] = x * cos + y * sin;
+        result[1] = -x * sin + y * cos;
+    }
+}
@@ -0,0 +1,509 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+/**
+ * Journal. Autosaves the Shapes on a Surface to an append-only journal of operations (add, move,
+ * rotate or resize, delete and recolour). Operations are encoded on the JavaFX thread and written
+ * by a background thread, which writes every operation waiting in the queue before forcing them to
+ * disk at once (group commit). Once enough operations have been written, the journal is compacted
+ * into a snapshot of the whole document and a new, empty journal is started. A large batch of
+ * added Shapes, such as an import, is not journalled Shape by Shape: the journal is compacted once
+ * the last batch has been added, so the snapshot records them all. Many Shapes recoloured or
+ * removed at once are recorded the same way, by compacting straight away.
+ * <p>
+ * Both files carry a generation number. A journal is only replayed on top of the snapshot with
+ * the same generation, so a crash part way through a compaction never applies operations twice.
+ * Each journal entry is framed with its length and a CRC32, so an entry torn by a crash is
+ * detected and ignored on recovery.
+ * @author Emily DeLisle
+ * @version 1.0
+ */
+class Journal implements SurfaceListener {
+
+    /** Operation code for a Shape being added */
+    private static final byte ADD = 1;
+
+    /** Operation code for a Shape being moved */
+    private static final byte MOVE = 2;
+
+    /** Operation code for a Shape being deleted */
+    private static final byte DELETE = 3;
+
+    /** Operation code for a Shape being recoloured */
+    private static final byte RECOLOUR = 4;
+
+    /** Operation code for a Shape being rotated or resized, followed by its whole record */
+    private static final byte RESHAPE = 5;
+
+    /**
+     * Magic numbers at the start of the snapshot file for each version of the ShapeRecord layout,
+     * starting from version 1. The last one is written.
+     */
+    private static final int[] SNAPSHOT_MAGIC = {0x44525753, 0x44525732, 0x44525733};
+
+    /**
+     * Magic numbers at the start of the journal file for each version of the ShapeRecord layout,
+     * starting from version 1. The last one is written.
+     */
+    private static final int[] JOURNAL_MAGIC = {0x44524A4C, 0x44524A32, 0x44524A33};
+
+    /** Number of operations written before the journal is compacted into a snapshot */
+    private static final int COMPACT_THRESHOLD = 2000;
+
+    /** The Surface whose Shapes are saved */
+    private Surface surface;
+
+    /** The snapshot file */
+    private Path snapshotFile;
+
+    /** The journal file */
+    private Path journalFile;
+
+    /** Encoded operations and snapshots waiting to be written by the writer thread */
+    private LinkedBlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+
+    /** Marker placed in the queue to stop the writer thread */
+    private static final Object CLOSE = new Object();
+
+    /** Background thread that writes to the journal */
+    private Thread writer;
+
+    /**
+     * Whether the writer thread has stopped because the journal could not be written, after
+     * which nothing more is queued
+     */
+    private volatile boolean failed;
+
+    /** Generation of the snapshot and journal currently being written */
+    private long generation;
+
+    /** Number of operations queued since the last snapshot */
+    private int operations;
+
+    /**
+     * Whether Shapes added in batches have been left out of the journal, to be recorded by the
+     * next snapshot
+     */
+    private boolean deferred;
+
+    /**
+     * A snapshot waiting to be written by the writer thread. Everything queued before it is
+     * already part of the snapshot, so the journal is restarted once it has been written.
+     */
+    private static class Snapshot {
+
+        /** The records of the Shapes, from the bottom of the stack to the top */
+        final Collection<ShapeRecord> records;
+
+        /** The generation of the new snapshot */
+        final long generation;
+
+        Snapshot(Collection<ShapeRecord> records, long generation) {
+            this.records = records;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * Constructor for the Journal.
+     * @param directory the directory to keep the snapshot and journal files in
+     * @param surface the Surface whose Shapes are saved
+     */
+    Journal(Path directory, Surface surface) {
+        this.surface = surface;
+        snapshotFile = directory.resolve("document.snapshot");
+        journalFile = directory.resolve("document.journal");
+    }
+
+    /**
+     * Recovers the saved Shapes by reading the snapshot and then replaying the journal written
+     * after it. Must be called before start().
+     * @return the recovered Shapes, from the bottom of the stack to the top
+     * @throws IOException if the files exist but cannot be read
+     */
+    Collection<Shape> recover() throws IOException {
+        LinkedHashMap<Long, Shape> recovered = new LinkedHashMap<>();
+        if (Files.exists(snapshotFile)) {
+            try (DataInputStream in = open(snapshotFile)) {
+                int format = format(SNAPSHOT_MAGIC, in.readInt());
+                if (format < 0) {
+                    throw new IOException("Not a snapshot file: " + snapshotFile);
+                }
+                generation = in.readLong();
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    Shape s = ShapeRecord.read(in, format).toShape();
+                    recovered.put(s.id, s);
+                }
+            }
+        }
+        if (Files.exists(journalFile)) {
+            try (DataInputStream in = open(journalFile)) {
+                int format = format(JOURNAL_MAGIC, in.readInt());
+                if (format > 0 && in.readLong() == generation) {
+                    replay(in, recovered, format);
+                }
+            } catch (EOFException e) {
+                // The journal header was never completely written
+            }
+        }
+        return recovered.values();
+    }
+
+    /**
+     * Replays the entries of the journal on the recovered Shapes, stopping at the end of the file
+     * or at the first entry that was torn by a crash.
+     * @param in the journal, positioned after its header
+     * @param recovered the recovered Shapes by identifier
+     * @param format the version of the ShapeRecord layout the journal was written with
+     * @throws IOException if the journal cannot be read
+     */
+    private void replay(DataInputStream in, LinkedHashMap<Long, Shape> recovered,
+            int format) throws IOException {
+        CRC32 crc = new CRC32();
+        while (true) {
+            byte[] entry;
+            try {
+                int length = in.readInt();
+                if (length <= 0 || length > (1 << 26)) {
+                    return;
+                }
+                entry = new byte[length];
+                in.readFully(entry);
+                crc.reset();
+                crc.update(entry, 0, length);
+                if (in.readInt() != (int) crc.getValue()) {
+                    return;
+                }
+            } catch (EOFException e) {
+                return;
+            }
+            DataInputStream op = new DataInputStream(new ByteArrayInputStream(entry));
+            byte code = op.readByte();
+            if (code == ADD) {
+                Shape s = ShapeRecord.read(op, format).toShape();
+                recovered.put(s.id, s);
+                continue;
+            }
+            if (code == RESHAPE) {
+                Shape s = ShapeRecord.read(op, format).toShape();
+                if (recovered.containsKey(s.id)) {
+                    recovered.put(s.id, s);
+                }
+                continue;
+            }
+            Shape s = recovered.get(op.readLong());
+            if (s == null) {
+                continue;
+            }
+            if (code == MOVE) {
+                s.translate(-op.readDouble(), -op.readDouble());
+            } else if (code == DELETE) {
+                recovered.remove(s.id);
+            } else if (code == RECOLOUR) {
+                s.setColor(ShapeRecord.toColor(op.readInt()));
+            }
+        }
+    }
+
+    /**
+     * Finds the version of the ShapeRecord layout from the magic number at the start of a file.
+     * @param magics the magic numbers for each version
+     * @param magic the magic number read from the file
+     * @return the version, or -1 if the magic number is not known
+     */
+    private static int format(int[] magics, int magic) {
+        for (int i = 0; i < magics.length; i++) {
+            if (magics[i] == magic) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Opens a file for buffered reading.
+     * @param file the file to open
+     * @return the input stream
+     * @throws IOException if the file cannot be opened
+     */
+    private static DataInputStream open(Path file) throws IOException {
+        InputStream in = Files.newInputStream(file);
+        return new DataInputStream(new BufferedInputStream(in, 1 << 16));
+    }
+
+    /**
+     * Starts the writer thread and registers with the Surface. The recovered document is
+     * compacted straight away, so the journal always starts empty.
+     */
+    void start() {
+        writer = new Thread(this::writeLoop, "Journal writer");
+        writer.setDaemon(true);
+        writer.start();
+        compact();
+        surface.addListener(this);
+    }
+
+    /**
+     * Writes everything still queued and stops the writer thread.
+     * @throws InterruptedException if interrupted while waiting for the writer thread
+     */
+    void close() throws InterruptedException {
+        if (writer != null) {
+            queue.add(CLOSE);
+            writer.join();
+            writer = null;
+        }
+    }
+
+    @Override
+    public void shapeAdded(Shape s) {
+        appendRecord(ADD, s);
+    }
+
+    @Override
+    public void shapesAdded(Collection<Shape> added) {
+        if (deferred || operations + added.size() >= COMPACT_THRESHOLD) {
+            deferred = true;
+            return;
+        }
+        for (Shape s : added) {
+            appendRecord(ADD, s);
+        }
+    }
+
+    @Override
+    public void shapesRemoved(Collection<Shape> removed) {
+        if (!compactFor(removed.size())) {
+            for (Shape s : removed) {
+                shapeRemoved(s);
+            }
+        }
+    }
+
+    @Override
+    public void shapesRecoloured(Collection<Shape> recoloured) {
+        if (!compactFor(recoloured.size())) {
+            for (Shape s : recoloured) {
+                shapeRecoloured(s);
+            }
+        }
+    }
+
+    /**
+     * Compacts the journal instead of journalling a batch of operations that would reach the
+     * compaction threshold. The Surface already shows the operations, so the snapshot records
+     * them all.
+     * @param count the number of operations in the batch
+     * @return true if the journal was compacted, and the operations should not be journalled
+     */
+    private boolean compactFor(int count) {
+        if (operations + count < COMPACT_THRESHOLD) {
+            return false;
+        }
+        compact();
+        return true;
+    }
+
+    @Override
+    public void batchesFinished() {
+        if (deferred) {
+            compact();
+        }
+    }
+
+    @Override
+    public void shapeTransformed(Shape s) {
+        appendRecord(RESHAPE, s);
+    }
+
+    /**
+     * Queues an operation made of an operation code and the record of a Shape.
+     * @param code the operation code
+     * @param s the Shape whose record is written
+     */
+    private void appendRecord(byte code, Shape s) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(code);
+            s.record.write(out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        append(bytes.toByteArray());
+    }
+
+    @Override
+    public void shapeMoved(Shape s, double distanceX, double distanceY) {
+        append(ByteBuffer.allocate(25).put(MOVE).putLong(s.id)
+                .putDouble(distanceX).putDouble(distanceY).array());
+    }
+
+    @Override
+    public void shapeRemoved(Shape s) {
+        append(ByteBuffer.allocate(9).put(DELETE).putLong(s.id).array());
+    }
+
+    @Override
+    public void shapeRecoloured(Shape s) {
+        append(ByteBuffer.allocate(13).put(RECOLOUR).putLong(s.id)
+                .putInt(ShapeRecord.toArgb(s.color)).array());
+    }
+
+    /**
+     * Queues an encoded operation for the writer thread, compacting the journal once enough
+     * operations have been queued. While added Shapes are waiting for a snapshot, the journal is
+     * compacted instead, since the Surface already shows the operation. Nothing is queued once
+     * the writer thread has failed.
+     * @param entry the encoded operation
+     */
+    private void append(byte[] entry) {
+        if (failed) {
+            return;
+        }
+        if (deferred) {
+            compact();
+            return;
+        }
+        queue.add(entry);
+        if (++operations >= COMPACT_THRESHOLD) {
+            compact();
+        }
+    }
+
+    /**
+     * Takes a snapshot of the finished Shapes on the Surface and queues it to be written. The
+     * snapshot is encoded by the writer thread. Nothing is queued once the writer thread has
+     * failed.
+     */
+    private void compact() {
+        if (failed) {
+            return;
+        }
+        generation++;
+        operations = 0;
+        deferred = false;
+        queue.add(new Snapshot(surface.documentSnapshot(), generation));
+    }
+
+    /**
+     * Body of the writer thread. Takes everything waiting in the queue, writes it, and forces it
+     * to disk once per batch. Only the newest snapshot in a batch is written, since it already
+     * holds everything queued before it. If the journal cannot be written, the failure is reported
+     * once and everything still queued is dropped, since no more will be written.
+     */
+    private void writeLoop() {
+        ArrayList<Object> batch = new ArrayList<>();
+        FileChannel channel = null;
+        CRC32 crc = new CRC32();
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                int first = 0;
+                for (int i = 0; i < batch.size() && batch.get(i) != CLOSE; i++) {
+                    if (batch.get(i) instanceof Snapshot) {
+                        first = i;
+                    }
+                }
+                for (Object o : batch.subList(first, batch.size())) {
+                    if (o == CLOSE) {
+                        return;
+                    } else if (o instanceof Snapshot) {
+                        if (channel != null) {
+                            channel.force(false);
+                            channel.close();
+                            channel = null;
+                        }
+                        channel = writeSnapshot((Snapshot) o);
+                    } else if (channel != null) {
+                        byte[] entry = (byte[]) o;
+                        crc.reset();
+                        crc.update(entry, 0, entry.length);
+                        ByteBuffer frame = ByteBuffer.allocate(entry.length + 8);
+                        frame.putInt(entry.length).put(entry).putInt((int) crc.getValue());
+                        frame.flip();
+                        while (frame.hasRemaining()) {
+                            channel.write(frame);
+                        }
+                    }
+                }
+                batch.clear();
+                if (channel != null) {
+                    channel.force(false);
+                }
+            }
+        } catch (IOException e) {
+            failed = true;
+            queue.clear();
+            System.err.println("Autosave stopped: " + e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (channel != null) {
+                try {
+                    channel.force(false);
+                    channel.close();
+                } catch (IOException e) {
+                    System.err.println("Autosave could not be closed: " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot to a temporary file, moves it into place, then starts a new journal with
+     * the snapshot's generation.
+     * @param snapshot the snapshot to write
+     * @return the channel of the new journal
+     * @throws IOException if the files cannot be written
+     */
+    private FileChannel writeSnapshot(Snapshot snapshot) throws IOException {
+        Files.createDirectories(snapshotFile.getParent());
+        Path temp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(channel), 1 << 16));
+            out.writeInt(SNAPSHOT_MAGIC[ShapeRecord.FORMAT - 1]);
+            out.writeLong(snapshot.generation);
+            out.writeInt(snapshot.records.size());
+            for (ShapeRecord r : snapshot.records) {
+                r.write(out);
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(12).putInt(JOURNAL_MAGIC[ShapeRecord.FORMAT - 1])
+                .putLong(snapshot.generation);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        return channel;
+    }
+}
@@ -0,0 +1,143 @@
+import javafx.application.Platform;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.layout.Pane;
+import java.util.ArrayList;
+
+/**
+ * Layer. One layer of the Surface, holding its own stack of Shapes. The finished Shapes of a
+ * Layer are painted together onto a single cache Canvas, so changing one Layer only repaints
+ * that Layer while every other Layer keeps showing its cached picture. A Shape that is being
+ * drawn is shown on its own Canvas above the cache until it is finished, and Shapes being
+ * animated are shown on the Animator's motion Canvas above the cache. Shapes being moved stay in
+ * the cache until the move is finished, while the Surface's Overlay shows where they will go.
+ * A hidden Layer is neither painted nor searched when finding Shapes. Finished Shapes are also
+ * kept in a SpatialIndex, so finding a Shape does not have to test every Shape on the Layer.
+ * Shapes kept in a ShapeStore are painted in order of their identifiers together with the Shapes
+ * in the stack, so a Shape taken out of the store keeps its place among the stored Shapes.
+ * @author Emily DeLisle
+ * @version 1.0
+ */
+class Layer extends Pane {
+
+    /** Position of this Layer on the Surface, counting up from the bottom */
+    final int index;
+
+    /** Stack of Shapes. Only changed on the JavaFX thread, but may be read from any thread */
+    volatile ShapeStack shapes = ShapeStack.EMPTY;
+
+    /** Finds the finished Shapes under the Cursor */
+    final SpatialIndex spatialIndex = new SpatialIndex();
+
+    /** Finds the finished Shapes of a type, of a Color or above a size */
+    final AttributeIndex attributeIndex = new AttributeIndex();
+
+    /**
+     * Finished Shapes kept outside the heap, painted in order of their identifiers among the
+     * Shapes in the stack, or null if the Layer has none
+     */
+    ShapeStore store;
+
+    /** The Canvas that the finished Shapes are painted onto */
+    private Canvas cache = new Canvas(1000, 780);
+
+    /** Paints the finished Shapes onto the cache */
+    private BatchRenderer renderer;
+
+    /** Whether the cache no longer matches the Shapes */
+    private boolean dirty;
+
+    /** Whether a repaint of the cache has been scheduled */
+    private boolean scheduled;
+
+    /**
+     * Constructor for the Layer.
+     * @param index position of the Layer on the Surface
+     * @param renderer paints the finished Shapes onto the cache
+     */
+    Layer(int index, BatchRenderer renderer) {
+        this.index = index;
+        this.renderer = renderer;
+        this.getChildren().add(cache);
+    }
+
+    /**
+     * Marks the cache as out of date and schedules a repaint. Any number of changes made before
+     * the repaint runs are painted together.
+     */
+    void invalidate() {
+        dirty = true;
+        if (!scheduled && isVisible()) {
+            scheduled = true;
+            Platform.runLater(this::repaint);
+        }
+    }
+
+    /** Repaints the cache with every finished Shape that is not being animated. */
+    void repaint() {
+        scheduled = false;
+        if (!dirty || !isVisible()) {
+            return;
+        }
+        dirty = false;
+        GraphicsContext g = cache.getGraphicsContext2D();
+        g.clearRect(0, 0, cache.getWidth(), cache.getHeight());
+        ArrayList<Shape> gathered = new ArrayList<>(shapes.size());
+        paintShapes(g, renderer, gathered, false);
+        renderer.render(g, gathered);
+    }
+
+    /**
+     * Paints the finished Shapes of the Layer, from the bottom up, in order of their identifiers.
+     * The Shapes in the stack are gathered for a BatchRenderer, and the gathered Shapes are only
+     * painted when a Shape in the ShapeStore has to go above them. The Shapes above the last
+     * stored Shape are left gathered, for the caller to paint.
+     * @param g the GraphicsContext to paint on
+     * @param batches paints the gathered Shapes
+     * @param gathered Shapes gathered but not yet painted, which may hold Shapes of lower Layers
+     * @param animated whether Shapes being animated are painted too
+     */
+    void paintShapes(GraphicsContext g, BatchRenderer batches, ArrayList<Shape> gathered,
+            boolean animated) {
+        double width = g.getCanvas().getWidth();
+        double height = g.getCanvas().getHeight();
+        long from = Long.MIN_VALUE;
+        for (Shape s : shapes.bottomUp()) {
+            if (!s.committed || (s.animated && !animated)) {
+                continue;
+            }
+            if (store != null && store.holds(from, s.id)) {
+                batches.render(g, gathered);
+                gathered.clear();
+                store.paint(g, width, height, from, s.id);
+            }
+            from = s.id + 1;
+            gathered.add(s);
+        }
+        if (store != null && store.holds(from, Long.MAX_VALUE)) {
+            batches.render(g, gathered);
+            gathered.clear();
+            store.paint(g, width, height, from, Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Shows or hides the Layer. A Layer that changed while hidden is repainted when shown.
+     * @param shown true to show the Layer
+     */
+    void setShown(boolean shown) {
+        setVisible(shown);
+        if (shown && dirty) {
+            invalidate();
+        }
+    }
+
+    /**
+     * Gets the name of the Layer, shown in the Menu.
+     * @return the name
+     */
+    @Override
+    public String toString() {
+        return "Layer " + (index + 1);
+    }
+}
@@ -0,0 +1,79 @@
+import java.util.ArrayDeque;
+
+/**
+ * LoopbackTransport. Connects SyncClients to a SyncServer in the same process, so several users
+ * editing one drawing can be tried out, tested and measured on one machine. Messages are not
+ * delivered when they are sent but queued in one shared queue, the way they would be held up on
+ * a network, until pump() is called. A single pump delivers them in the order they were sent, so
+ * a run is always the same.
+ * @author Emily DeLisle
+ * @version 1.0
+ */
+class LoopbackTransport {
+
+    /** Deliveries waiting to happen, oldest first */
+    private ArrayDeque<Runnable> queue = new ArrayDeque<>();
+
+    /** Number of messages delivered so far */
+    private long messages;
+
+    /** Number of bytes delivered so far */
+    private long bytes;
+
+    /**
+     * Connects a client to a server. The server's welcome and its drawing are queued for the
+     * client.
+     * @param server the server
+     * @param client the client
+     */
+    void connect(SyncServer server, SyncClient client) {
+        SyncChannel toServer = server.connect(message -> post(message, client::receive));
+        client.setServer(message -> post(message, toServer));
+    }
+
+    /**
+     * Queues a message for delivery.
+     * @param message the message
+     * @param to the channel to deliver it on
+     */
+    private synchronized void post(byte[] message, SyncChannel to) {
+        queue.add(() -> to.send(message));
+        messages++;
+        bytes += message.length;
+    }
+
+    /**
+     * Delivers queued messages, including those sent while delivering, until none are left.
+     * @return the number of messages delivered
+     */
+    int pump() {
+        int delivered = 0;
+        while (true) {
+            Runnable next;
+            synchronized (this) {
+                next = queue.poll();
+            }
+            if (next == null) {
+                return delivered;
+            }
+            next.run();
+            delivered++;
+        }
+    }
+
+    /**
+     * Gets the number of messages sent so far.
+     * @return the number of messages
+     */
+    synchronized long getMessages() {
+        return messages;
+    }
+
+    /**
+     * Gets the number of bytes sent so far.
+     * @return the number of bytes
+     */
+    synchronized long getBytes() {
+        return bytes;
+    }
+}
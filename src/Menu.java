@@ -1,8 +1,16 @@
+import javafx.concurrent.Task;
+import javafx.concurrent.WorkerStateEvent;
 import javafx.geometry.Insets;
 import javafx.scene.Cursor;
+import javafx.scene.Node;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
+import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.ColorPicker;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.control.TextField;
+import javafx.scene.control.ToggleButton;
+import javafx.scene.control.Tooltip;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.input.KeyCode;
@@ -13,6 +21,8 @@ import javafx.scene.paint.Color;
 import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
 import javafx.scene.text.Text;
+import javafx.stage.FileChooser;
+import java.io.File;
 
 /**
  * The Menu Pane for the Draw application. Extends from HBox, so all elements automatically stack
@@ -27,68 +37,33 @@ class Menu extends HBox {
     /** Contains all of the GUI buttons for the Draw application. */
     class Buttons extends HBox {
 
+        /** Width the icons are shown and decoded at, in pixels */
+        private static final double ICON_SIZE = 20;
+
+        /** The controls shown in Draw mode */
+        private Node[] drawControls;
+
+        /** The controls shown in Select/Move mode, or null until that mode is first chosen */
+        private Node[] selectControls;
+
         /** Constructor for the Buttons class */
         Buttons() {
             init();
         }
 
-        /** Initializes all of the display and functionality of the GUI buttons */
+        /**
+         * Initializes the display and functionality of the GUI buttons shown in Draw mode, which
+         * is the mode the application starts in. The buttons for Select/Move mode are only created
+         * when that mode is first chosen.
+         */
         private void init() {
-            // Draw button
-            Image drawIcon = new Image("images/draw.png");
-            ImageView drawView = new ImageView(drawIcon);
-            drawView.setFitWidth(20);
-            drawView.setPreserveRatio(true);
-            Button drawButton = new Button("", drawView);
-
-            // Move/Select button
-            Image moveIcon = new Image("images/move.png");
-            ImageView moveView = new ImageView(moveIcon);
-            moveView.setFitWidth(20);
-            moveView.setPreserveRatio(true);
-            Button moveButton = new Button("", moveView);
-
-            // Rectangle button
-            Image rectIcon = new Image("images/rectangle.png");
-            ImageView rectView = new ImageView(rectIcon);
-            rectView.setFitWidth(20);
-            rectView.setPreserveRatio(true);
-            Button rectButton = new Button("", rectView);
-
-            // Square button
-            Image sqIcon = new Image("images/square.png");
-            ImageView sqView = new ImageView(sqIcon);
-            sqView.setFitWidth(20);
-            sqView.setPreserveRatio(true);
-            Button sqButton = new Button("", sqView);
-
-            // Oval button
-            Image ovalIcon = new Image("images/oval.png");
-            ImageView ovalView = new ImageView(ovalIcon);
-            ovalView.setFitWidth(20);
-            ovalView.setPreserveRatio(true);
-            Button ovalButton = new Button("", ovalView);
-
-            // Circle button
-            Image circIcon = new Image("images/circle.png");
-            ImageView circView = new ImageView(circIcon);
-            circView.setFitWidth(20);
-            circView.setPreserveRatio(true);
-            Button circButton = new Button("", circView);
-
-            // Triangle button
-            Image triIcon = new Image("images/triangle.png");
-            ImageView triView = new ImageView(triIcon);
-            triView.setFitWidth(20);
-            triView.setPreserveRatio(true);
-            Button triButton = new Button("", triView);
-
-            // Polygon button
-            Image polyIcon = new Image("images/star.png");
-            ImageView polyView = new ImageView(polyIcon);
-            polyView.setFitWidth(20);
-            polyView.setPreserveRatio(true);
-            Button polyButton = new Button("", polyView);
+            Button moveButton = iconButton("move.png");
+            Button rectButton = iconButton("rectangle.png");
+            Button sqButton = iconButton("square.png");
+            Button ovalButton = iconButton("oval.png");
+            Button circButton = iconButton("circle.png");
+            Button triButton = iconButton("triangle.png");
+            Button polyButton = iconButton("star.png");
 
             // ColorPicker button
             ColorPicker colorPicker = new ColorPicker();
@@ -96,51 +71,36 @@ class Menu extends HBox {
             colorPicker.setStyle("-fx-color-label-visible: false ;");
             colorPicker.setMinSize(50, 30);
 
-            // Delete button
-            Image deleteIcon = new Image("images/delete.png");
-            ImageView deleteView = new ImageView(deleteIcon);
-            deleteView.setFitWidth(20);
-            deleteView.setPreserveRatio(true);
-            Button deleteButton = new Button("", deleteView);
+            // Snapping buttons
+            ToggleButton snapButton = new ToggleButton("Snap");
+            snapButton.setTooltip(new Tooltip("Snap to the points and edges of other shapes"));
+            ToggleButton gridButton = new ToggleButton("Grid");
+            gridButton.setTooltip(new Tooltip("Snap to a grid"));
+            snapButton.setMinSize(30, 30);
+            gridButton.setMinSize(30, 30);
 
-            this.getChildren().addAll(moveButton, rectButton, sqButton,
-                    ovalButton, circButton, triButton, polyButton, colorPicker);
+            // Bucket fill button
+            Button fillButton = new Button("Fill");
+            fillButton.setTooltip(new Tooltip("Fill the area of one colour that is clicked"));
+            fillButton.setMinSize(30, 30);
+
+            drawControls = new Node[] {moveButton, rectButton, sqButton, ovalButton, circButton,
+                    triButton, polyButton, fillButton, colorPicker, snapButton, gridButton};
+            this.getChildren().addAll(drawControls);
 
             // Changes the cursor to a hand icon when the buttons are hovered over
             this.setOnMouseEntered(event -> scene.setCursor(Cursor.HAND));
             this.setOnMouseExited(event -> scene.setCursor(Cursor.DEFAULT));
 
             // Button functionality
-            drawButton.setOnMouseClicked(event -> {
-                pen.initDraw();
-                this.getChildren().removeAll(drawButton, deleteButton);
-                this.getChildren().addAll(moveButton, rectButton, sqButton,
-                        ovalButton, circButton, triButton, polyButton, colorPicker);
-                toolText.setText("Draw");
-                shapeText.setVisible(true);
-                currentShapeText.setVisible(true);
-            });
             moveButton.setOnMouseClicked(event -> {
                 pen.initSelect();
-                this.getChildren().addAll(drawButton, deleteButton);
-                this.getChildren().removeAll(moveButton, rectButton, sqButton,
-                        ovalButton, circButton, triButton, polyButton, colorPicker);
+                this.getChildren().removeAll(drawControls);
+                this.getChildren().addAll(selectControls());
                 toolText.setText("Select/Move");
                 shapeText.setVisible(false);
                 currentShapeText.setVisible(false);
             });
-            // Deletes the Pen's current shape, then gives the Pen a reference to the next Shape in
-            // the stack (if one exists)
-            deleteButton.setOnMouseClicked(event -> {
-                if (pen.shape != null) {
-                    pen.deleteShape();
-                    if (!pen.surface.shapes.isEmpty()) {
-                        pen.shape = pen.surface.shapes.getFirst();
-                    }
-                }
-            });
-
-            // Button functionality
             rectButton.setOnMouseClicked(event -> {
                 pen.setRectangle();
                 shapeText.setText("Rectangle");
@@ -165,15 +125,293 @@ class Menu extends HBox {
                 pen.setPolygon();
                 shapeText.setText("Polygon");
             });
+            fillButton.setOnMouseClicked(event -> {
+                pen.setBucket();
+                shapeText.setText("Fill");
+            });
             colorPicker.setOnAction(event -> pen.setColor(colorPicker.getValue()));
+            snapButton.setOnAction(event -> pen.snapper.setSnapToShapes(snapButton.isSelected()));
+            gridButton.setOnAction(event -> pen.snapper.setSnapToGrid(gridButton.isSelected()));
 
             // Adds a key press listener to allow the ability to delete the currently selected
-            // shape by hitting the delete or backspace key
+            // shapes by hitting the delete or backspace key, and to copy, paste and duplicate them
+            // with the shortcut key and C, V or D, unless a text field is being typed in
             scene.setOnKeyPressed(event -> {
+                if (event.getTarget() instanceof TextField) {
+                    return;
+                }
                 if (event.getCode() == KeyCode.DELETE || event.getCode() == KeyCode.BACK_SPACE) {
-                    pen.deleteShape();
+                    pen.deleteSelection();
+                } else if (event.isShortcutDown() && event.getCode() == KeyCode.C) {
+                    pen.copySelection();
+                } else if (event.isShortcutDown() && event.getCode() == KeyCode.V) {
+                    pen.paste();
+                } else if (event.isShortcutDown() && event.getCode() == KeyCode.D) {
+                    pen.duplicateSelection();
+                }
+            });
+        }
+
+        /**
+         * Gets the controls shown in Select/Move mode, creating them the first time.
+         * @return the controls
+         */
+        private Node[] selectControls() {
+            if (selectControls != null) {
+                return selectControls;
+            }
+            Button drawButton = iconButton("draw.png");
+
+            // Grouping buttons
+            Button groupButton = new Button("Group");
+            groupButton.setTooltip(new Tooltip("Group the shapes selected with Shift-click"));
+            Button ungroupButton = new Button("Ungroup");
+            ungroupButton.setTooltip(new Tooltip("Take the selected group apart"));
+            groupButton.setMinSize(30, 30);
+            ungroupButton.setMinSize(30, 30);
+
+            // Combining buttons
+            Button unionButton = new Button("Union");
+            unionButton.setTooltip(new Tooltip("Merge the selected shapes into one"));
+            Button intersectButton = new Button("Intersect");
+            intersectButton.setTooltip(new Tooltip("Keep only where the selected shapes overlap"));
+            Button subtractButton = new Button("Subtract");
+            subtractButton.setTooltip(new Tooltip(
+                    "Cut the shapes selected later out of the first one selected"));
+            unionButton.setMinSize(30, 30);
+            intersectButton.setMinSize(30, 30);
+            subtractButton.setMinSize(30, 30);
+
+            // Clipboard buttons
+            Button copyButton = new Button("Copy");
+            copyButton.setTooltip(new Tooltip("Copy the selected shapes"));
+            Button pasteButton = new Button("Paste");
+            pasteButton.setTooltip(new Tooltip("Paste the copied shapes onto the active layer"));
+            Button duplicateButton = new Button("Duplicate");
+            duplicateButton.setTooltip(new Tooltip("Copy and paste the selected shapes"));
+            copyButton.setMinSize(30, 30);
+            pasteButton.setMinSize(30, 30);
+            duplicateButton.setMinSize(30, 30);
+
+            // Select-by and bulk editing controls
+            Button typeButton = new Button("Same type");
+            typeButton.setTooltip(new Tooltip("Select every shape of the clicked shape's type"));
+            Button colourButton = new Button("Same colour");
+            colourButton.setTooltip(new Tooltip(
+                    "Select every shape of the clicked shape's colour"));
+            TextField areaField = new TextField();
+            areaField.setPromptText("Area px\u00b2");
+            areaField.setPrefColumnCount(6);
+            Button largerButton = new Button("Larger");
+            largerButton.setTooltip(new Tooltip("Select every shape larger than the area"));
+            Button recolourButton = new Button("Recolour");
+            recolourButton.setTooltip(new Tooltip("Give the selected shapes the chosen colour"));
+            typeButton.setMinSize(30, 30);
+            colourButton.setMinSize(30, 30);
+            largerButton.setMinSize(30, 30);
+            recolourButton.setMinSize(30, 30);
+
+            // Animation buttons
+            Button keyframeButton = new Button("Keyframe");
+            keyframeButton.setTooltip(new Tooltip(
+                    "Record where the selected shapes are, their size and colour"));
+            Button playButton = new Button("Play");
+            playButton.setTooltip(new Tooltip("Play the keyframes, or stop playing them"));
+            keyframeButton.setMinSize(30, 30);
+            playButton.setMinSize(30, 30);
+
+            Button deleteButton = iconButton("delete.png");
+            selectControls = new Node[] {drawButton, deleteButton, groupButton, ungroupButton,
+                    unionButton, intersectButton, subtractButton, copyButton, pasteButton,
+                    duplicateButton, typeButton, colourButton, areaField, largerButton,
+                    recolourButton, keyframeButton, playButton};
+
+            drawButton.setOnMouseClicked(event -> {
+                pen.initDraw();
+                this.getChildren().removeAll(selectControls);
+                this.getChildren().addAll(drawControls);
+                toolText.setText("Draw");
+                shapeText.setVisible(true);
+                currentShapeText.setVisible(true);
+            });
+            // Deletes the selected shapes, then gives the Pen a reference to the next Shape in the
+            // stack (if one exists)
+            deleteButton.setOnMouseClicked(event -> {
+                pen.deleteSelection();
+                pen.shape = pen.surface.topShape();
+            });
+            groupButton.setOnMouseClicked(event -> pen.groupSelection());
+            ungroupButton.setOnMouseClicked(event -> pen.ungroupSelection());
+            unionButton.setOnMouseClicked(event -> pen.combineSelection(PolygonClipper.UNION));
+            intersectButton.setOnMouseClicked(
+                    event -> pen.combineSelection(PolygonClipper.INTERSECTION));
+            subtractButton.setOnMouseClicked(
+                    event -> pen.combineSelection(PolygonClipper.DIFFERENCE));
+            copyButton.setOnMouseClicked(event -> pen.copySelection());
+            pasteButton.setOnMouseClicked(event -> pen.paste());
+            duplicateButton.setOnMouseClicked(event -> pen.duplicateSelection());
+            typeButton.setOnMouseClicked(event -> pen.selectSameType());
+            colourButton.setOnMouseClicked(event -> pen.selectSameColour());
+            largerButton.setOnMouseClicked(event -> {
+                try {
+                    pen.selectLargerThan(Double.parseDouble(areaField.getText().trim()));
+                } catch (NumberFormatException e) {
+                    areaField.clear();
                 }
             });
+            recolourButton.setOnMouseClicked(event -> pen.recolourSelection());
+            keyframeButton.setOnMouseClicked(event -> pen.keyframeSelection());
+            playButton.setOnMouseClicked(event -> pen.togglePlayback());
+            return selectControls;
+        }
+
+        /**
+         * Creates a button showing one of the icons in the images directory. The icon is decoded
+         * at the size it is shown, on a background thread, so creating the button does not wait
+         * for the image file.
+         * @param name the file name of the icon
+         * @return the button
+         */
+        private Button iconButton(String name) {
+            ImageView view = new ImageView(new Image("images/" + name, ICON_SIZE, 0, true, true,
+                    true));
+            view.setFitWidth(ICON_SIZE);
+            view.setPreserveRatio(true);
+            return new Button("", view);
+        }
+    }
+
+    /**
+     * Contains the buttons for opening, importing, saving and exporting documents, and shows the
+     * progress of the file work while it runs in the background. The file work can be cancelled.
+     */
+    class FileButtons extends HBox {
+
+        /** Shows the progress of the running file work */
+        private ProgressBar progressBar = new ProgressBar();
+
+        /** Cancels the running file work */
+        private Button cancelButton = new Button("Cancel");
+
+        /** The running file work, or null if there is none */
+        private Task<?> running;
+
+        /** Constructor for the FileButtons */
+        FileButtons() {
+            Button openButton = new Button("Open");
+            Button importButton = new Button("Import");
+            Button saveButton = new Button("Save");
+            Button exportButton = new Button("Export");
+            progressBar.setVisible(false);
+            cancelButton.setVisible(false);
+            this.setSpacing(2);
+            this.getChildren().addAll(openButton, importButton, saveButton, exportButton,
+                    progressBar, cancelButton);
+
+            openButton.setOnMouseClicked(event -> {
+                File file = choose("Open", "*.draw").showOpenDialog(scene.getWindow());
+                if (file != null) {
+                    track(documentIO.open(file));
+                }
+            });
+            importButton.setOnMouseClicked(event -> {
+                File file = choose("Import", "*.csv", "*.ndjson", "*.jsonl")
+                        .showOpenDialog(scene.getWindow());
+                if (file != null) {
+                    track(documentIO.importData(file));
+                }
+            });
+            saveButton.setOnMouseClicked(event -> {
+                File file = choose("Save", "*.draw").showSaveDialog(scene.getWindow());
+                if (file != null) {
+                    track(documentIO.save(file));
+                }
+            });
+            exportButton.setOnMouseClicked(event -> {
+                File file = choose("Export", "*.svg").showSaveDialog(scene.getWindow());
+                if (file != null) {
+                    track(documentIO.export(file));
+                }
+            });
+            cancelButton.setOnMouseClicked(event -> {
+                if (running != null) {
+                    running.cancel();
+                }
+            });
+        }
+
+        /**
+         * Creates a FileChooser for the specified kind of file.
+         * @param title the title of the FileChooser
+         * @param extensions the file extensions to show
+         * @return the FileChooser
+         */
+        private FileChooser choose(String title, String... extensions) {
+            FileChooser chooser = new FileChooser();
+            chooser.setTitle(title);
+            chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter(title, extensions));
+            return chooser;
+        }
+
+        /**
+         * Shows the progress of the specified file work until it finishes.
+         * @param task the running file work
+         */
+        private void track(Task<?> task) {
+            running = task;
+            progressBar.progressProperty().bind(task.progressProperty());
+            progressBar.setVisible(true);
+            cancelButton.setVisible(true);
+            task.addEventHandler(WorkerStateEvent.WORKER_STATE_SUCCEEDED, event -> finish(task));
+            task.addEventHandler(WorkerStateEvent.WORKER_STATE_CANCELLED, event -> finish(task));
+            task.addEventHandler(WorkerStateEvent.WORKER_STATE_FAILED, event -> {
+                finish(task);
+                System.err.println("File operation failed: " + task.getException());
+            });
+        }
+
+        /**
+         * Hides the progress once the specified file work has finished.
+         * @param task the finished file work
+         */
+        private void finish(Task<?> task) {
+            if (running == task) {
+                running = null;
+                progressBar.progressProperty().unbind();
+                progressBar.setVisible(false);
+                cancelButton.setVisible(false);
+            }
+        }
+    }
+
+    /**
+     * Contains the controls for the Layers of the Surface: a choice of the active Layer, a button
+     * that adds a new Layer on top, and a toggle that hides the active Layer.
+     */
+    class LayerButtons extends HBox {
+
+        /** Constructor for the LayerButtons */
+        LayerButtons() {
+            Surface surface = pen.surface;
+            ChoiceBox<Layer> layerChoice = new ChoiceBox<>();
+            layerChoice.setItems(surface.layers);
+            layerChoice.setValue(surface.getActiveLayer());
+            Button newLayerButton = new Button("New Layer");
+            ToggleButton hideButton = new ToggleButton("Hide");
+            this.setSpacing(2);
+            this.getChildren().addAll(layerChoice, newLayerButton, hideButton);
+
+            layerChoice.setOnAction(event -> {
+                Layer layer = layerChoice.getValue();
+                if (layer != null) {
+                    surface.setActiveLayer(layer);
+                    hideButton.setSelected(!layer.isVisible());
+                }
+            });
+            newLayerButton.setOnMouseClicked(event ->
+                    layerChoice.setValue(surface.addLayer()));
+            hideButton.setOnAction(event ->
+                    surface.getActiveLayer().setShown(!hideButton.isSelected()));
         }
     }
 
@@ -211,16 +449,21 @@ class Menu extends HBox {
     /** Scene for the Application */
     private Scene scene;
 
+    /** Saves, opens and exports documents in the background */
+    private DocumentIO documentIO;
+
     /**
      * Constructor for the Menu. Initializes the inner class sub menus and adds them to the Menu
      * root.
      */
-    Menu(Pen pen, Scene scene) {
+    Menu(Pen pen, Scene scene, DocumentIO documentIO) {
         this.pen = pen;
         this.scene = scene;
+        this.documentIO = documentIO;
         Region space = new Region();
         HBox.setHgrow(space, Priority.ALWAYS);
-        this.getChildren().addAll(new Buttons(), space, new Infobar());
+        this.getChildren().addAll(new Buttons(), new FileButtons(), new LayerButtons(), space,
+                new Infobar());
     }
 }
 
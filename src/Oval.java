@@ -1,3 +1,4 @@
+import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.paint.Color;
 
 /**
@@ -29,16 +30,54 @@ class Oval extends Shape {
     }
 
     /**
-     * Clears the GraphicsContext and redraws the Oval with the with its X and Y coordinates
-     * translated by the specified distance.
-     * @param distanceX distance translated on the X axis
-     * @param distanceY distance translated on the Y axis
+     * Paints the Oval on the specified GraphicsContext.
+     * @param g the GraphicsContext to paint on
      */
     @Override
-    void move(double distanceX, double distanceY) {
-        super.move(distanceX, distanceY);
-        gc.fillOval(topLeft[0], topLeft[1],
+    void paint(GraphicsContext g) {
+        g.fillOval(topLeft[0], topLeft[1],
                 bottomRight[0] - topLeft[0],
                 bottomRight[1] - topLeft[1]);
     }
+
+    /**
+     * Adds the outline of the Oval to the current path of the specified GraphicsContext.
+     * @param g the GraphicsContext whose path is added to
+     */
+    @Override
+    void appendPath(GraphicsContext g) {
+        double radiusX = (bottomRight[0] - topLeft[0]) / 2;
+        double radiusY = (bottomRight[1] - topLeft[1]) / 2;
+        g.moveTo(topLeft[0] + radiusX * 2, topLeft[1] + radiusY);
+        g.arc(topLeft[0] + radiusX, topLeft[1] + radiusY, radiusX, radiusY, 0, 360);
+        g.closePath();
+    }
+
+    /**
+     * Gets the outline of the Oval, made of straight segments.
+     * @return the X and Y coordinates of each point, one after the other
+     */
+    @Override
+    double[] getOutline() {
+        return ellipseOutline();
+    }
+
+    /**
+     * Gets the points of the Oval that other Shapes can snap to, which are its centre and its
+     * four outermost points.
+     * @return the X and Y coordinates of each point, one after the other
+     */
+    @Override
+    double[] getSnapPoints() {
+        return ellipseSnapPoints();
+    }
+
+    /**
+     * Gets the area of the Oval, which is the area of its ellipse rather than of its outline.
+     * @return the area, in square pixels
+     */
+    @Override
+    double getArea() {
+        return ellipseArea();
+    }
 }
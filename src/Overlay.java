@@ -0,0 +1,183 @@
+import javafx.application.Platform;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Overlay. The Canvas above every Layer of the Surface, showing the feedback for what the user is
+ * doing: the outlines of the selected Shapes, the rubber band of a Polygon being drawn, the ghost
+ * of a Shape being moved, rotated or resized, and the handles of the selected Shape. None of this
+ * belongs to the drawing, so the Overlay is repainted on its own and the Layers' caches are left
+ * alone until a change is finished. Like a Layer, any number of changes made before a repaint
+ * runs are painted together.
+ * @author Emily DeLisle
+ * @version 1.0
+ */
+class Overlay extends Canvas {
+
+    /** Most selected Shapes outlined one by one; more are outlined by one box around them all */
+    private static final int MAX_OUTLINES = 1000;
+
+    /** Opacity a ghost is painted with */
+    private static final double GHOST_OPACITY = 0.5;
+
+    /** Length of the dashes and gaps of outlines and rubber bands, in pixels */
+    private static final double DASH = 4;
+
+    /** Colour of the outlines of the selected Shapes */
+    private static final Color OUTLINE_COLOR = Color.DODGERBLUE;
+
+    /** The handles of the selected Shape, or null if there are none */
+    private Handles handles;
+
+    /** The selected Shapes, which are outlined */
+    private List<Shape> selection = Collections.emptyList();
+
+    /** The selected Shapes kept in ShapeStores, which are outlined as well */
+    private StoredShapes stored = new StoredShapes();
+
+    /** The ghost being shown, or null if there is none */
+    private Shape ghost;
+
+    /** The Polygon whose rubber band is shown, or null if there is none */
+    private Polygon band;
+
+    /** Position of the Cursor that the rubber band reaches to */
+    private double[] bandEnd = new double[2];
+
+    /** Whether a repaint has been scheduled */
+    private boolean scheduled;
+
+    /**
+     * Constructor for the Overlay.
+     * @param width width of the Overlay
+     * @param height height of the Overlay
+     */
+    Overlay(double width, double height) {
+        super(width, height);
+    }
+
+    /**
+     * Sets the handles shown on the Overlay and the Shapes that are outlined as selected.
+     * @param handles the handles
+     * @param selection the selected Shapes, which the Overlay reads whenever it is repainted
+     * @param stored the selected Shapes kept in ShapeStores, read in the same way
+     */
+    void attach(Handles handles, List<Shape> selection, StoredShapes stored) {
+        this.handles = handles;
+        this.selection = selection;
+        this.stored = stored;
+        invalidate();
+    }
+
+    /**
+     * Shows a ghost: a see-through copy of a Shape as it will be once a move, rotation or resize is
+     * finished. The ghost is painted with its own translation and rotation.
+     * @param s the ghost, or null to stop showing one
+     */
+    void showGhost(Shape s) {
+        ghost = s;
+        invalidate();
+    }
+
+    /**
+     * Shows the rubber band of a Polygon being drawn: the sides drawn so far and a line from the
+     * last point to the Cursor.
+     * @param p the Polygon
+     * @param x the X coordinate of the Cursor
+     * @param y the Y coordinate of the Cursor
+     */
+    void showBand(Polygon p, double x, double y) {
+        band = p;
+        bandEnd[0] = x;
+        bandEnd[1] = y;
+        invalidate();
+    }
+
+    /** Stops showing the rubber band. */
+    void hideBand() {
+        if (band != null) {
+            band = null;
+            invalidate();
+        }
+    }
+
+    /** Schedules a repaint of the Overlay. */
+    void invalidate() {
+        if (!scheduled) {
+            scheduled = true;
+            Platform.runLater(this::repaint);
+        }
+    }
+
+    /** Repaints the Overlay: the outlines, then the ghost, the rubber band and the handles. */
+    void repaint() {
+        scheduled = false;
+        GraphicsContext g = getGraphicsContext2D();
+        g.clearRect(0, 0, getWidth(), getHeight());
+        g.save();
+        g.setLineWidth(1);
+        g.setLineDashes(DASH, DASH);
+        paintOutlines(g);
+        if (band != null) {
+            g.setStroke(band.color);
+            band.strokeBand(g, bandEnd[0], bandEnd[1]);
+        }
+        g.restore();
+        if (ghost != null) {
+            g.save();
+            g.setGlobalAlpha(GHOST_OPACITY);
+            g.setFill(ghost.color);
+            ghost.paintTransformed(g);
+            g.restore();
+        }
+        if (handles != null) {
+            handles.paint(g);
+        }
+    }
+
+    /**
+     * Outlines the box of every selected Shape, turned with the Shape. When too many Shapes are
+     * selected to outline one by one, a single box is drawn around them all instead, read from
+     * the bounds of the stored Shapes without making Shapes of them.
+     * @param g the GraphicsContext to paint on
+     */
+    private void paintOutlines(GraphicsContext g) {
+        if (selection.isEmpty() && stored.isEmpty()) {
+            return;
+        }
+        g.setStroke(OUTLINE_COLOR);
+        if (selection.size() + stored.size() > MAX_OUTLINES) {
+            double[] bounds = new double[4];
+            double[] box = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+                    Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+            for (Shape s : selection) {
+                s.getSurfaceBounds(bounds);
+                box[0] = Math.min(box[0], bounds[0]);
+                box[1] = Math.min(box[1], bounds[1]);
+                box[2] = Math.max(box[2], bounds[2]);
+                box[3] = Math.max(box[3], bounds[3]);
+            }
+            stored.widen(box);
+            if (box[0] <= box[2]) {
+                g.strokeRect(box[0], box[1], box[2] - box[0], box[3] - box[1]);
+            }
+            return;
+        }
+        double[] xs = new double[4];
+        double[] ys = new double[4];
+        ArrayList<Shape> outlined = new ArrayList<>(selection);
+        outlined.addAll(stored.toShapes());
+        for (Shape s : outlined) {
+            double[] box = s.getOrientedBox();
+            for (int i = 0; i < 4; i++) {
+                xs[i] = box[i * 2];
+                ys[i] = box[i * 2 + 1];
+            }
+            g.strokePolygon(xs, ys, 4);
+        }
+    }
+}
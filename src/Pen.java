@@ -1,4 +1,8 @@
+import javafx.scene.input.MouseEvent;
 import javafx.scene.paint.Color;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 
 /**
  * Pen class, used for MouseEvents.
@@ -7,72 +11,173 @@ import javafx.scene.paint.Color;
  */
 class Pen {
 
+    /** Distance each paste is moved from the Shapes it was copied from, on both axes */
+    private static final double PASTE_OFFSET = 10;
+
     /** The Surface that holds the Shapes and GraphicsContext objects the Shapes are drawn on */
     Surface surface;
 
+    /** Snaps the Cursor to other Shapes or to the grid while drawing */
+    Snapper snapper = new Snapper();
+
+    /** Plays the selected Shapes back through their keyframes */
+    private Animator animator;
+
+    /** The rotate and resize handles of the selected Shape */
+    private Handles handles;
+
     /** The currently-selected Color value */
     private Color color = Color.RED;
 
     /** The currently-active Shape */
     Shape shape;
 
+    /** Copy of the Shape being moved, shown on the overlay where the Shape will be dropped */
+    private Shape ghost;
+
+    /** The Shapes selected in Move/Select mode, in the order they were selected */
+    private ArrayList<Shape> selection = new ArrayList<>();
+
+    /**
+     * The Shapes selected by type, Color or area that are still kept in ShapeStores, which are
+     * only taken out of them once they are changed
+     */
+    private final StoredShapes stored = new StoredShapes();
+
+    /** Copies of the Shapes last copied, which are copied again for every paste */
+    private List<Shape> clipboard = new ArrayList<>();
+
+    /** Number of times the clipboard has been pasted since it was filled */
+    private int pastes;
+
     /** The Shape that will be drawn */
     private Shape shapeToDraw = new Rectangle(color);
 
     /** The starting coordinates of a MouseDragged event */
     private double[] startCoords = new double[2];
 
+    /** Whether the Shape being drawn has been dragged out since the mouse was pressed */
+    private boolean dragged;
+
     /**
      * Constructor for the Pen. Sets up the reference to the Surface that holds the Shapes and
-     * initializes with Drawing mode.
+     * initializes with Drawing mode. Any press of the mouse on the Surface, like every command
+     * that works on the Shapes, stops the playback of keyframes first, so the Shapes are back
+     * where they belong before they are worked on.
      * @param surface the Surface to store Shapes
      */
     Pen (Surface surface) {
         this.surface = surface;
+        this.handles = new Handles(surface.overlay);
+        surface.overlay.attach(handles, selection, stored);
+        this.animator = new Animator(surface);
+        surface.addListener(snapper);
+        surface.addListener(animator);
+        surface.addEventFilter(MouseEvent.MOUSE_PRESSED, event -> animator.stop());
         initDraw();
     }
 
     /**
      * Initializes Draw mode. Sets up three different Mouse Events:
      * 1. MousePressed - calls setShape() to initialize the current Shape type
-     * 2. MouseDragged - calls the current Shape's draw() method
-     * 3. MouseReleased - creates a new Shape so that subsequent MousePress and MouseDrag events
-     * will create new Shapes each time
+     * 2. MouseDragged - calls the current Shape's draw() method with the snapped Cursor position
+     * 3. MouseReleased - commits the Shape if it was dragged out and covers some area. A click
+     * without a drag, or a drag that leaves the Shape empty, discards it instead. The next
+     * MousePressed creates a new Shape either way
      */
     void initDraw() {
+        animator.stop();
+        handles.show(null);
+        selection.clear();
+        stored.clear();
+        surface.overlay.hideBand();
+        surface.setOnMouseMoved(null);
         setShape();
-        surface.setOnMouseDragged(event -> shape.draw(event.getX(), event.getY()));
+        surface.setOnMouseDragged(event -> {
+            double[] point = snapper.snap(event.getX(), event.getY());
+            shape.draw(point[0], point[1]);
+            dragged = true;
+        });
         surface.setOnMouseReleased(event -> {
-            newShape();
-            shape = surface.shapes.getFirst();
+            if (shape == null || shape.committed) {
+                return;
+            }
+            if (dragged && shape.getArea() > 0) {
+                surface.commitShape(shape);
+            } else {
+                surface.discardShape(shape);
+                shape = null;
+            }
+            dragged = false;
         });
     }
 
     /**
      * Initializes Move/Select mode. Sets up three different Mouse Events:
-     * 1. MousePressed - tries to find the Shape at the location the mouse was pressed. If found,
-     *    gets the coordinates of the press.
-     * 2. MouseDragged - if the initial press found a Shape, calculates the distance between the
-     *    coordinates of the initial mouse press and the current position, then redraws the shape
-     *    being moved translated that distance.
-     * 3. MouseReleased - removes the MouseEvent handler set up with initDraw()
+     * 1. MousePressed - if the mouse was pressed on a handle of the selected Shape, starts
+     *    rotating or resizing a ghost of it. Otherwise tries to find the Shape at the location the
+     *    mouse was pressed. If found, gets the coordinates of the press and shows a ghost of the
+     *    Shape on the overlay. The Shape becomes the selection, or is added to it if Shift is held
+     *    down, and its handles are shown.
+     * 2. MouseDragged - if a handle is being dragged, rotates or resizes the ghost. Otherwise, if
+     *    the initial press found a Shape, calculates the distance between the coordinates of the
+     *    initial mouse press and the current position, then sets the translation of the ghost to
+     *    that distance. The Shape itself is left alone, so its Layer is not repainted.
+     * 3. MouseReleased - if the ghost was rotated or resized, gives the Shape its rotation or size
+     *    and tells the Surface. If it was moved, moves the Shape's geometry by the ghost's
+     *    translation and tells the Surface the total distance moved. Then hides the ghost
      */
     void initSelect() {
+        animator.stop();
+        surface.overlay.hideBand();
+        surface.setOnMouseMoved(null);
         surface.setOnMousePressed(event -> {
+            if (handles.press(event.getX(), event.getY())) {
+                shape = handles.getShape();
+                return;
+            }
             shape = surface.findShape(event.getX(), event.getY());
+            if (!event.isShiftDown()) {
+                selection.clear();
+                stored.clear();
+            }
+            if (shape != null && !selection.contains(shape)) {
+                selection.add(shape);
+            }
+            handles.show(shape);
             if (shape != null) {
                 startCoords[0] = event.getX();
                 startCoords[1] = event.getY();
+                ghost = shape.copy();
+                surface.overlay.showGhost(ghost);
             }
         });
         surface.setOnMouseDragged(event -> {
-            if (shape != null) {
-                shape.move(calculateXDistance(event.getX()), calculateYDistance(event.getY()));
-                startCoords[0] = event.getX();
-                startCoords[1] = event.getY();
+            if (handles.isDragging()) {
+                handles.drag(event.getX(), event.getY());
+                handles.redraw();
+            } else if (ghost != null) {
+                ghost.translateX = -calculateXDistance(event.getX());
+                ghost.translateY = -calculateYDistance(event.getY());
+                surface.overlay.invalidate();
+            }
+        });
+        surface.setOnMouseReleased(event -> {
+            if (handles.isDragging()) {
+                handles.release();
+                surface.shapeTransformed(shape);
+            } else if (ghost != null) {
+                double distanceX = ghost.translateX;
+                double distanceY = ghost.translateY;
+                ghost = null;
+                surface.overlay.showGhost(null);
+                if (distanceX != 0 || distanceY != 0) {
+                    shape.translate(distanceX, distanceY);
+                    surface.shapeMoved(shape, -distanceX, -distanceY);
+                    handles.redraw();
+                }
             }
         });
-        surface.setOnMouseReleased(null);
     }
 
     /**
@@ -99,9 +204,236 @@ class Pen {
 
     /** Removes a shape from the Surface's Stack */
     void deleteShape() {
+        animator.stop();
+        selection.remove(shape);
+        handles.show(null);
         surface.removeShape(shape);
     }
 
+    /**
+     * Removes the selected Shapes from the Surface, or the active Shape if no Shapes are
+     * selected. Selected Shapes kept in ShapeStores are removed from the stores as they are.
+     */
+    void deleteSelection() {
+        animator.stop();
+        if (selection.isEmpty() && stored.isEmpty()) {
+            if (shape != null) {
+                deleteShape();
+            }
+            return;
+        }
+        handles.show(null);
+        surface.removeShapes(selection);
+        surface.removeStored(stored);
+        selection.clear();
+        stored.clear();
+        shape = null;
+    }
+
+    /** Gives the selected Shapes the current Color. */
+    void recolourSelection() {
+        animator.stop();
+        takeStored();
+        surface.recolourShapes(selection, color);
+    }
+
+    /**
+     * Takes the selected Shapes kept in ShapeStores out of them, so that they can be changed, and
+     * adds them to the rest of the selection.
+     */
+    private void takeStored() {
+        if (!stored.isEmpty()) {
+            selection.addAll(surface.takeStored(stored));
+            stored.clear();
+        }
+    }
+
+    /** Selects every Shape on the shown Layers of the same type as the active Shape. */
+    void selectSameType() {
+        animator.stop();
+        if (shape != null) {
+            byte type = ShapeRecord.typeOf(shape);
+            select(surface.shapesOfType(type), surface.storedOfType(type));
+        }
+    }
+
+    /** Selects every Shape on the shown Layers of the same Color as the active Shape. */
+    void selectSameColour() {
+        animator.stop();
+        if (shape != null) {
+            select(surface.shapesOfColour(shape.color), surface.storedOfColour(shape.color));
+        }
+    }
+
+    /**
+     * Selects every Shape on the shown Layers that covers more than an area.
+     * @param area the area, in square pixels
+     */
+    void selectLargerThan(double area) {
+        animator.stop();
+        select(surface.shapesLargerThan(area), surface.storedLargerThan(area));
+    }
+
+    /**
+     * Replaces the selection with the specified Shapes, which are left in their ShapeStores
+     * until they are changed. The top Shape in a stack becomes the active Shape.
+     * @param shapes the Shapes to select from the Layers' stacks
+     * @param found the Shapes to select from the Layers' ShapeStores
+     */
+    private void select(List<Shape> shapes, StoredShapes found) {
+        selection.clear();
+        selection.addAll(shapes);
+        stored.clear();
+        stored.addAll(found);
+        shape = shapes.isEmpty() ? null : shapes.get(shapes.size() - 1);
+        handles.show(shape);
+    }
+
+    /** Puts copies of the selected Shapes, or of the active Shape, on the clipboard. */
+    void copySelection() {
+        animator.stop();
+        List<Shape> copied = selectedShapes();
+        if (!copied.isEmpty()) {
+            clipboard = copiesOf(copied, 0);
+            pastes = 0;
+        }
+    }
+
+    /**
+     * Adds copies of the Shapes on the clipboard to the top of the active Layer, each paste
+     * moved a little further from the Shapes that were copied. The copies become the selection.
+     */
+    void paste() {
+        animator.stop();
+        if (!clipboard.isEmpty()) {
+            pastes++;
+            place(copiesOf(clipboard, PASTE_OFFSET * pastes));
+        }
+    }
+
+    /**
+     * Adds copies of the selected Shapes, or of the active Shape, to the top of the active Layer,
+     * moved a little from the originals, without changing the clipboard. The copies become the
+     * selection.
+     */
+    void duplicateSelection() {
+        animator.stop();
+        List<Shape> originals = selectedShapes();
+        if (!originals.isEmpty()) {
+            place(copiesOf(originals, PASTE_OFFSET));
+        }
+    }
+
+    /**
+     * Gets the selected Shapes, or the active Shape if none are selected, in stacking order.
+     * Selected Shapes kept in ShapeStores are made from their records and stay in the stores.
+     * @return the Shapes, Layer by Layer from the bottom of each stack up
+     */
+    private List<Shape> selectedShapes() {
+        ArrayList<Shape> shapes = new ArrayList<>();
+        if (!selection.isEmpty() || !stored.isEmpty()) {
+            shapes.addAll(selection);
+            shapes.addAll(stored.toShapes());
+        } else if (shape != null && shape.committed) {
+            shapes.add(shape);
+        }
+        shapes.sort(Comparator.comparingInt((Shape s) -> s.layer == null ? 0 : s.layer.index)
+                .thenComparingLong(s -> s.id));
+        return shapes;
+    }
+
+    /**
+     * Copies Shapes and moves the copies by the same distance on both axes.
+     * @param shapes the Shapes to copy
+     * @param offset the distance to move the copies
+     * @return the copies, in the same order
+     */
+    private static List<Shape> copiesOf(List<Shape> shapes, double offset) {
+        ArrayList<Shape> copies = new ArrayList<>(shapes.size());
+        for (Shape s : shapes) {
+            Shape c = s.copy();
+            if (offset != 0) {
+                c.translate(offset, offset);
+            }
+            copies.add(c);
+        }
+        return copies;
+    }
+
+    /**
+     * Records a keyframe of the selected Shapes, or of the active Shape, as they are now. Each
+     * keyframe comes one step after the one before.
+     */
+    void keyframeSelection() {
+        animator.stop();
+        takeStored();
+        List<Shape> keyed = selectedShapes();
+        if (!keyed.isEmpty()) {
+            animator.addKeyframes(keyed);
+        }
+    }
+
+    /** Plays the keyframes, or stops them if they are playing. */
+    void togglePlayback() {
+        if (animator.isPlaying()) {
+            animator.stop();
+        } else {
+            animator.play();
+        }
+    }
+
+    /**
+     * Adds copies to the top of the active Layer in one batch and selects them.
+     * @param copies the copies, from the bottom up
+     */
+    private void place(List<Shape> copies) {
+        surface.pasteShapes(copies, surface.getActiveLayer());
+        select(copies, new StoredShapes());
+    }
+
+    /** Replaces the selected Shapes with a Group of them, which becomes the selection. */
+    void groupSelection() {
+        animator.stop();
+        takeStored();
+        Group group = surface.groupShapes(selection);
+        if (group != null) {
+            selection.clear();
+            selection.add(group);
+            shape = group;
+            handles.show(group);
+        }
+    }
+
+    /**
+     * Replaces the selected Shapes with a Compound of the area they make together, which becomes
+     * the selection. For a subtraction, the Shapes selected after the first are cut out of it.
+     * @param operation PolygonClipper.UNION, INTERSECTION or DIFFERENCE
+     */
+    void combineSelection(int operation) {
+        animator.stop();
+        takeStored();
+        Compound compound = surface.combineShapes(selection, operation);
+        if (compound != null) {
+            selection.clear();
+            selection.add(compound);
+            shape = compound;
+            handles.show(compound);
+        }
+    }
+
+    /** Replaces the active Shape, if it is a Group, with its children, which become selected. */
+    void ungroupSelection() {
+        animator.stop();
+        if (shape instanceof Group) {
+            List<Shape> children = surface.ungroupShape((Group) shape);
+            selection.clear();
+            stored.clear();
+            selection.addAll(children);
+            shape = children.get(children.size() - 1);
+            handles.show(shape);
+        }
+    }
+
     /**
      * Sets up the MousePressed event for initDraw(). Points the currently active shape to the
      * shape to be drawn, then creates a new Shape. Adds that shape to the Surface's Stack and root.
@@ -113,7 +445,9 @@ class Pen {
             newShape();
             surface.addNewShape(shape);
             surface.addNewCanvas(shape.getCanvas());
-            shape.setStartCoords(event.getX(), event.getY());
+            double[] point = snapper.snap(event.getX(), event.getY());
+            shape.setStartCoords(point[0], point[1]);
+            dragged = false;
         });
     }
 
@@ -153,24 +487,64 @@ class Pen {
      * drags. Removes the MouseEvent drag and release events set up with initDraw().
      */
     void setPolygon() {
+        animator.stop();
         shapeToDraw = new Polygon(color, this);
         shape = shapeToDraw;
         surface.setOnMousePressed(event -> {
             shape = shapeToDraw;
-            shape.draw(event.getX(), event.getY());
+            double[] point = snapper.snap(event.getX(), event.getY());
+            shape.draw(point[0], point[1]);
+            showBand(point[0], point[1]);
+        });
+        surface.setOnMouseMoved(event -> {
+            double[] point = snapper.snap(event.getX(), event.getY());
+            showBand(point[0], point[1]);
         });
         surface.setOnMouseDragged(null);
         surface.setOnMouseReleased(null);
     }
 
-    /** Starts a Polygon by adding it to the Surface's Stack and root. */
+    /**
+     * Shows the rubber band of the Polygon being drawn on the overlay, reaching to the Cursor.
+     * Nothing is shown until the Polygon has its first point.
+     * @param x the X coordinate of the snapped Cursor
+     * @param y the Y coordinate of the snapped Cursor
+     */
+    private void showBand(double x, double y) {
+        if (shapeToDraw instanceof Polygon) {
+            surface.overlay.showBand((Polygon) shapeToDraw, x, y);
+        }
+    }
+
+    /**
+     * Sets up the bucket fill. Each click fills the region of the same colour around the Cursor
+     * with the current Color, as a new Raster. Removes the MouseEvent drag and release events set
+     * up with initDraw().
+     */
+    void setBucket() {
+        animator.stop();
+        handles.show(null);
+        surface.overlay.hideBand();
+        surface.setOnMouseMoved(null);
+        surface.setOnMousePressed(event -> surface.fillRegion(event.getX(), event.getY(), color));
+        surface.setOnMouseDragged(null);
+        surface.setOnMouseReleased(null);
+    }
+
+    /**
+     * Starts a Polygon by adding it to the Surface's Stack. Until it is finished, the Polygon is
+     * only shown by its rubber band on the overlay.
+     */
     void startPolygon() {
         surface.addNewShape(shape);
-        surface.addNewCanvas(shape.getCanvas());
     }
 
-    /** Ends a Polygon by creating a new Polygon shape and setting the currently-shape to it. */
+    /**
+     * Ends a Polygon by telling the Surface it is finished, then creating a new Polygon shape and
+     * setting the currently-shape to it.
+     */
     void endPolygon() {
+        surface.commitShape(shape);
         shapeToDraw = new Polygon(color, this);
         shape = shapeToDraw;
     }
@@ -1,5 +1,6 @@
+import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.paint.Color;
-import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * Polygon shape.
@@ -8,11 +9,17 @@ import java.util.ArrayList;
  */
 class Polygon extends Shape {
 
-    /** ArrayList buffer that stores X coordinates as the Polygon is being drawn */
-    private ArrayList<Double> xBuffer = new ArrayList<>();
+    /** Distance within which a click closes the Polygon, when no Pen says otherwise */
+    private static final double CLOSE_DISTANCE = 5;
 
-    /** ArrayList buffer that stores Y coordinates as the Polygon is being drawn */
-    private ArrayList<Double> yBuffer = new ArrayList<>();
+    /** Buffer that stores X coordinates as the Polygon is being drawn */
+    private double[] xBuffer = new double[8];
+
+    /** Buffer that stores Y coordinates as the Polygon is being drawn */
+    private double[] yBuffer = new double[8];
+
+    /** Number of points stored in the buffers */
+    private int size;
 
     /** The Pen that is drawing the shape */
     private Pen pen;
@@ -33,12 +40,11 @@ class Polygon extends Shape {
 
     /**
      * Drawing the Polygon first starts with signaling the Pen that there is a new Polygon being
-     * drawn, which adds the Canvas and Shape to the Surface.
+     * drawn, which adds the Shape to the Surface.
      * Coordinates of each click are stored in the X and Y buffers until there is at least three
      * points in the buffers and the Cursor is clicked very closely to one of the points in the
-     * buffers. At that point, the buffers are converted to arrays of doubles and the total amount
-     * of points is added up. This information is sent to the GraphicsContext, which fills the
-     * shape.
+     * buffers. At that point, the Polygon takes the Pen's Color and the Pen finishes it, which
+     * paints it onto its Layer. Until then the Polygon is only shown by its rubber band.
      * @param x X coordinate of the cursor
      * @param y Y coordinate of the cursor
      */
@@ -48,81 +54,121 @@ class Polygon extends Shape {
             pen.startPolygon();
             start = false;
         }
-        gc.setFill(color);
-        if (checkProximity(x, y) && xBuffer.size() >= 3) {
-            clear();
-            gc.setFill(pen.getColor());
+        if (checkProximity(x, y) && size >= 3) {
             setColor(pen.getColor());
-            gc.fillPolygon(createPointArray(xBuffer), createPointArray(yBuffer), xBuffer.size());
             pen.endPolygon();
-        } else {
-            if (xBuffer.size() >= 2) {
-                // Creates a line while the Polygon is being drawn
-                gc.setStroke(pen.getColor());
-                gc.strokeLine(createPointArray(xBuffer)[xBuffer.size() - 2],
-                        createPointArray(yBuffer)[xBuffer.size() - 2],
-                        createPointArray(xBuffer)[xBuffer.size() - 1],
-                        createPointArray(yBuffer)[xBuffer.size() - 1]);
-            }
         }
     }
 
     /**
-     * Converts the specified ArrayList buffer into an array of doubles.
-     * @param p the ArrayList buffer
-     * @return an equivalent array of doubles
+     * Strokes the rubber band of the Polygon while it is being drawn: the sides between the points
+     * added so far, and a line from the last point to the Cursor. The stroke is expected to be set
+     * by the caller.
+     * @param g the GraphicsContext to stroke on
+     * @param x the X coordinate of the Cursor
+     * @param y the Y coordinate of the Cursor
+     */
+    void strokeBand(GraphicsContext g, double x, double y) {
+        if (size == 0) {
+            return;
+        }
+        g.strokePolyline(xBuffer, yBuffer, size);
+        g.strokeLine(xBuffer[size - 1], yBuffer[size - 1], x, y);
+    }
+
+    /**
+     * Adds a point to the end of the X and Y buffers, growing them if they are full.
+     * @param x the X coordinate of the point
+     * @param y the Y coordinate of the point
      */
-    private double[] createPointArray(ArrayList<Double> p) {
-        double[] pa = new double[p.size()];
-        for (int i = 0; i < p.size(); i++) {
-            pa[i] = p.get(i);
+    private void addPoint(double x, double y) {
+        if (size == xBuffer.length) {
+            xBuffer = Arrays.copyOf(xBuffer, size * 2);
+            yBuffer = Arrays.copyOf(yBuffer, size * 2);
         }
-        return pa;
+        xBuffer[size] = x;
+        yBuffer[size] = y;
+        size++;
     }
 
     /**
      * Checks if the coordinates of the Mouse Press are within a close proximity to any of the
-     * points in the X and Y buffers. If false, adds the point to the buffers.
+     * points in the X and Y buffers. If false, adds the point to the buffers. The proximity is the
+     * Pen's snapping distance.
      * @param x the X coordinate of the Cursor
      * @param y the Y coordinate of the Cursor
      * @return boolean true or false
      */
     private boolean checkProximity(double x, double y) {
-        if (!xBuffer.isEmpty()) {
-            for (int i = 0; i < xBuffer.size(); i++) {
-                if (Math.abs(x - xBuffer.get(i)) < 5 && Math.abs(y - yBuffer.get(i)) < 5) {
-                    return true;
-                }
+        double distance = pen == null ? CLOSE_DISTANCE : pen.snapper.getTolerance();
+        for (int i = 0; i < size; i++) {
+            if (Math.abs(x - xBuffer[i]) < distance && Math.abs(y - yBuffer[i]) < distance) {
+                return true;
             }
         }
-        xBuffer.add(x);
-        yBuffer.add(y);
+        addPoint(x, y);
         return false;
     }
 
     /**
-     * Clears the GraphicsContext and redraws the Polygon with the with its X and Y coordinates
-     * translated by the specified distance.
-     * @param distanceX distance translated on the X axis
-     * @param distanceY distance translated on the Y axis
+     * Moves the points of the Polygon by the specified distance in place, without redrawing it.
+     * @param distanceX distance to move on the X axis
+     * @param distanceY distance to move on the Y axis
      */
     @Override
-    void move(double distanceX, double distanceY) {
-        clear();
-        gc.setFill(color);
-
-        // Recalculates where the corners of the Polygon are
-        topLeft[0] -= distanceX;
-        topLeft[1] -= distanceY;
-        bottomRight[0] -= distanceX;
-        bottomRight[1] -= distanceY;
-
-        // Modifies the values in the buffers with the X and Y translations
-        for (int i = 0; i < xBuffer.size(); i++) {
-            xBuffer.set(i, xBuffer.get(i) - distanceX);
-            yBuffer.set(i, yBuffer.get(i) - distanceY);
+    void translate(double distanceX, double distanceY) {
+        for (int i = 0; i < size; i++) {
+            xBuffer[i] += distanceX;
+            yBuffer[i] += distanceY;
         }
-        gc.fillPolygon(createPointArray(xBuffer), createPointArray(yBuffer), xBuffer.size());
+        determineCorners();
+    }
+
+    /**
+     * Paints the Polygon on the specified GraphicsContext.
+     * @param g the GraphicsContext to paint on
+     */
+    @Override
+    void paint(GraphicsContext g) {
+        g.fillPolygon(xBuffer, yBuffer, size);
+    }
+
+    /**
+     * Gets the geometry of the Polygon as the X and Y coordinates of each of its points.
+     * @return the coordinates describing the Polygon
+     */
+    @Override
+    double[] getGeometry() {
+        return getOutline();
+    }
+
+    /**
+     * Sets the points of the Polygon from a flat array of coordinates created by getGeometry().
+     * The Polygon is treated as finished, so further calls to draw() will not restart it.
+     * @param g the coordinates describing the Polygon
+     */
+    @Override
+    void setGeometry(double[] g) {
+        size = 0;
+        for (int i = 0; i + 1 < g.length; i += 2) {
+            addPoint(g[i], g[i + 1]);
+        }
+        start = false;
+        determineCorners();
+    }
+
+    /**
+     * Gets the outline of the Polygon, which is the points in its buffers.
+     * @return the X and Y coordinates of each point
+     */
+    @Override
+    double[] getOutline() {
+        double[] g = new double[size * 2];
+        for (int i = 0; i < size; i++) {
+            g[i * 2] = xBuffer[i];
+            g[i * 2 + 1] = yBuffer[i];
+        }
+        return g;
     }
 
     /**
@@ -132,24 +178,54 @@ class Polygon extends Shape {
      */
     @Override
     void determineCorners() {
-        topLeft[0] = xBuffer.get(0);
-        topLeft[1] = yBuffer.get(0);
-        bottomRight[0] = xBuffer.get(0);
-        bottomRight[1] = yBuffer.get(0);
-
-        for (int i = 0; i < xBuffer.size(); i++) {
-            if (xBuffer.get(i) < topLeft[0]) {
-                topLeft[0] = xBuffer.get(i);
+        if (size == 0) {
+            return;
+        }
+        topLeft[0] = xBuffer[0];
+        topLeft[1] = yBuffer[0];
+        bottomRight[0] = xBuffer[0];
+        bottomRight[1] = yBuffer[0];
+
+        for (int i = 0; i < size; i++) {
+            if (xBuffer[i] < topLeft[0]) {
+                topLeft[0] = xBuffer[i];
             }
-            if (xBuffer.get(i) > bottomRight[0]) {
-                bottomRight[0] = xBuffer.get(i);
+            if (xBuffer[i] > bottomRight[0]) {
+                bottomRight[0] = xBuffer[i];
             }
-            if (yBuffer.get(i) < topLeft[1]) {
-                topLeft[1] = yBuffer.get(i);
+            if (yBuffer[i] < topLeft[1]) {
+                topLeft[1] = yBuffer[i];
             }
-            if (yBuffer.get(i) > bottomRight[1]) {
-                bottomRight[1] = yBuffer.get(i);
+            if (yBuffer[i] > bottomRight[1]) {
+                bottomRight[1] = yBuffer[i];
             }
         }
     }
+
+    /**
+     * Adds the outline of the Polygon to the current path of the specified GraphicsContext.
+     * @param g the GraphicsContext whose path is added to
+     */
+    @Override
+    void appendPath(GraphicsContext g) {
+        g.moveTo(xBuffer[0], yBuffer[0]);
+        for (int i = 1; i < size; i++) {
+            g.lineTo(xBuffer[i], yBuffer[i]);
+        }
+        g.closePath();
+    }
+
+    /**
+     * Makes a copy of the finished Polygon, with its own copies of the arrays of points.
+     * @return the copy
+     */
+    @Override
+    Polygon copy() {
+        Polygon p = (Polygon) super.copy();
+        p.xBuffer = Arrays.copyOf(xBuffer, Math.max(size, 1));
+        p.yBuffer = Arrays.copyOf(yBuffer, Math.max(size, 1));
+        p.pen = null;
+        p.start = false;
+        return p;
+    }
 }
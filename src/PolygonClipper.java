@@ -0,0 +1,1119 @@
+import java.util.Arrays;
+
+/**
+ * PolygonClipper. Combines two areas into their union, their intersection or the first less the
+ * second. An area is one or more closed rings of points, given as a flat array of X and Y
+ * coordinates with the rings separated by a pair of NaNs, and is filled with the even-odd rule,
+ * so rings inside other rings are holes.
+ * <p>
+ * The edges of both areas are entered in a uniform grid, and only edges sharing a cell are tested
+ * for crossings, so the work grows with the number of edges and crossings rather than with their
+ * product. Every edge is split where it crosses or touches the other area. Walking each ring, a
+ * piece of edge is inside the other area if the piece before it was and the two are separated by
+ * a plain crossing, or outside if they were separated by a plain vertex; only the first piece of a
+ * ring and pieces starting where the areas touch are tested against the other area directly. The
+ * pieces the operation keeps are joined end to end into new rings. Points closer together than a
+ * billionth of the size of the areas are treated as the same point, and pieces lying along both
+ * areas are kept once or not at all depending on which side of them each area lies.
+ * <p>
+ * The result is given in the same form as the areas. Its rings are also turned so that outer
+ * rings run one way and holes the other, so it fills the same with the non-zero rule.
+ * @author Emily DeLisle
+ * @version 1.0
+ */
+final class PolygonClipper {
+
+    /** Operation keeping everything inside either area */
+    static final int UNION = 0;
+
+    /** Operation keeping only what is inside both areas */
+    static final int INTERSECTION = 1;
+
+    /** Operation keeping what is inside the first area but not the second */
+    static final int DIFFERENCE = 2;
+
+    /** Tolerance on the fraction along an edge, within which a crossing is at the edge's end */
+    private static final double EPSILON = 1e-10;
+
+    /** Size of the areas that points are treated as the same within, as a fraction */
+    private static final double WELD = 1e-9;
+
+    /** Start, end and ring of every edge; edges of the first area come first */
+    private Edges edges = new Edges();
+
+    /** Number of edges of the first area */
+    private int firstEdges;
+
+    /** Whether each edge touches the other area at its start (edge * 2) and end (edge * 2 + 1) */
+    private boolean[] touched;
+
+    /** Edge each split point lies on */
+    private int[] splitEdge = new int[16];
+
+    /** Fraction along its edge of each split point */
+    private double[] splitT = new double[16];
+
+    /** X coordinate of each split point */
+    private double[] splitX = new double[16];
+
+    /** Y coordinate of each split point */
+    private double[] splitY = new double[16];
+
+    /** Whether each split point is a plain crossing of two edges, rather than a touch */
+    private boolean[] splitCrossing = new boolean[16];
+
+    /** Number of split points */
+    private int splits;
+
+    /** Welded points: X coordinates, by point id */
+    private double[] pointX = new double[16];
+
+    /** Welded points: Y coordinates, by point id */
+    private double[] pointY = new double[16];
+
+    /** Number of welded points */
+    private int points;
+
+    /** Point ids by their coordinates rounded to the weld distance */
+    private PairMap welded = new PairMap();
+
+    /** Distance within which points are welded together */
+    private double weld;
+
+    /** Pairs of edges found lying along each other */
+    private PairMap along = new PairMap();
+
+    /** Private constructor, since the clipper is only used through combine(). */
+    private PolygonClipper() {
+    }
+
+    /**
+     * Combines two areas.
+     * @param first the rings of the first area
+     * @param second the rings of the second area
+     * @param operation UNION, INTERSECTION or DIFFERENCE
+     * @return the rings of the result, which has no rings if it is empty
+     */
+    static double[] combine(double[] first, double[] second, int operation) {
+        return new PolygonClipper().run(first, second, operation);
+    }
+
+    /**
+     * Combines two areas.
+     * @param first the rings of the first area
+     * @param second the rings of the second area
+     * @param operation UNION, INTERSECTION or DIFFERENCE
+     * @return the rings of the result
+     */
+    private double[] run(double[] first, double[] second, int operation) {
+        edges.addRings(first, 0);
+        firstEdges = edges.count;
+        edges.addRings(second, edges.rings);
+        touched = new boolean[edges.count * 2];
+        double[] bounds = edges.bounds(0, edges.count);
+        weld = WELD * Math.max(1, Math.max(bounds[2] - bounds[0], bounds[3] - bounds[1]));
+        findCrossings(bounds);
+        sortSplits();
+        Bands firstArea = new Bands(edges, 0, firstEdges);
+        Bands secondArea = new Bands(edges, firstEdges, edges.count);
+
+        Pieces pieces = new Pieces();
+        cut(0, firstEdges, secondArea, pieces);
+        int firstPieces = pieces.count;
+        cut(firstEdges, edges.count, firstArea, pieces);
+
+        PairMap shared = new PairMap();
+        for (int i = 0; i < firstPieces; i++) {
+            shared.put(Math.min(pieces.from[i], pieces.to[i]),
+                    Math.max(pieces.from[i], pieces.to[i]), i);
+        }
+        boolean[] keep = new boolean[pieces.count];
+        boolean[] decided = new boolean[pieces.count];
+        for (int i = firstPieces; i < pieces.count; i++) {
+            int match = shared.get(Math.min(pieces.from[i], pieces.to[i]),
+                    Math.max(pieces.from[i], pieces.to[i]));
+            if (match < 0) {
+                continue;
+            }
+            boolean sameSide = sidesMatch(pieces, match, firstArea, secondArea);
+            keep[match] = operation == DIFFERENCE ? !sameSide : sameSide;
+            decided[match] = true;
+            decided[i] = true;
+        }
+        for (int i = 0; i < pieces.count; i++) {
+            if (decided[i]) {
+                continue;
+            }
+            boolean inside = pieces.inside[i];
+            if (i < firstPieces) {
+                keep[i] = operation == INTERSECTION ? inside : !inside;
+            } else {
+                keep[i] = operation == UNION ? !inside : inside;
+            }
+        }
+        return orient(join(pieces, keep));
+    }
+
+    /**
+     * Finds every point where an edge of one area crosses or touches an edge of the other, using
+     * a grid of about as many cells as there are edges.
+     * @param bounds the left, top, right and bottom of both areas
+     */
+    private void findCrossings(double[] bounds) {
+        if (firstEdges == 0 || firstEdges == edges.count) {
+            return;
+        }
+        Grid grid = new Grid(edges, 0, edges.count, bounds,
+                Math.max(1, (int) Math.sqrt(edges.count)));
+        int[] firstInCell = new int[16];
+        int[] secondInCell = new int[16];
+        for (int cell = 0; cell < grid.cells(); cell++) {
+            int firstCount = 0;
+            int secondCount = 0;
+            for (int k = grid.start[cell]; k < grid.start[cell + 1]; k++) {
+                int e = grid.entries[k];
+                if (e < firstEdges) {
+                    if (firstCount == firstInCell.length) {
+                        firstInCell = Arrays.copyOf(firstInCell, firstCount * 2);
+                    }
+                    firstInCell[firstCount++] = e;
+                } else {
+                    if (secondCount == secondInCell.length) {
+                        secondInCell = Arrays.copyOf(secondInCell, secondCount * 2);
+                    }
+                    secondInCell[secondCount++] = e;
+                }
+            }
+            for (int a = 0; a < firstCount; a++) {
+                for (int b = 0; b < secondCount; b++) {
+                    int i = firstInCell[a];
+                    int j = secondInCell[b];
+                    if (edges.boxesOverlap(i, j)) {
+                        intersect(i, j, grid, cell);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds where an edge of the first area meets an edge of the second, splitting each edge at
+     * any point of the other that lies inside it. Two edges may share several cells, so a meeting
+     * point is only recorded in the cell it lies in, and edges lying along each other only the
+     * first time they are tested.
+     * @param i the edge of the first area
+     * @param j the edge of the second area
+     * @param grid the grid the edges were found in
+     * @param cell the cell being tested
+     */
+    private void intersect(int i, int j, Grid grid, int cell) {
+        double ax = edges.x0[i];
+        double ay = edges.y0[i];
+        double rx = edges.x1[i] - ax;
+        double ry = edges.y1[i] - ay;
+        double cx = edges.x0[j];
+        double cy = edges.y0[j];
+        double sx = edges.x1[j] - cx;
+        double sy = edges.y1[j] - cy;
+        double qx = cx - ax;
+        double qy = cy - ay;
+        double denominator = rx * sy - ry * sx;
+        double r2 = rx * rx + ry * ry;
+        if (denominator * denominator <= EPSILON * EPSILON * r2 * (sx * sx + sy * sy)) {
+            double offset = qx * ry - qy * rx;
+            if (offset * offset <= EPSILON * EPSILON * r2 * Math.max(qx * qx + qy * qy,
+                    weld * weld) && along.get(i, j) < 0) {
+                along.put(i, j, 1);
+                touchAlong(i, j);
+                touchAlong(j, i);
+            }
+            return;
+        }
+        double t = (qx * sy - qy * sx) / denominator;
+        double u = (qx * ry - qy * rx) / denominator;
+        if (t < -EPSILON || t > 1 + EPSILON || u < -EPSILON || u > 1 + EPSILON) {
+            return;
+        }
+        double x;
+        double y;
+        if (t <= EPSILON || t >= 1 - EPSILON) {
+            x = t <= EPSILON ? ax : edges.x1[i];
+            y = t <= EPSILON ? ay : edges.y1[i];
+        } else if (u <= EPSILON || u >= 1 - EPSILON) {
+            x = u <= EPSILON ? cx : edges.x1[j];
+            y = u <= EPSILON ? cy : edges.y1[j];
+        } else {
+            x = ax + t * rx;
+            y = ay + t * ry;
+        }
+        if (grid.cellOf(x, y) != cell) {
+            return;
+        }
+        if (t <= EPSILON || t >= 1 - EPSILON) {
+            touched[i * 2 + (t <= EPSILON ? 0 : 1)] = true;
+        }
+        if (u <= EPSILON || u >= 1 - EPSILON) {
+            touched[j * 2 + (u <= EPSILON ? 0 : 1)] = true;
+        }
+        boolean crossing = t > EPSILON && t < 1 - EPSILON && u > EPSILON && u < 1 - EPSILON;
+        if (t > EPSILON && t < 1 - EPSILON) {
+            addSplit(i, t, x, y, crossing);
+        }
+        if (u > EPSILON && u < 1 - EPSILON) {
+            addSplit(j, u, x, y, crossing);
+        }
+    }
+
+    /**
+     * Splits an edge at the ends of a second edge lying along it, and marks the ends of the first
+     * edge that lie on the second as touching the other area.
+     * @param i the edge to split
+     * @param j the edge lying along it
+     */
+    private void touchAlong(int i, int j) {
+        double ax = edges.x0[i];
+        double ay = edges.y0[i];
+        double rx = edges.x1[i] - ax;
+        double ry = edges.y1[i] - ay;
+        double squared = rx * rx + ry * ry;
+        for (int end = 0; end < 2; end++) {
+            double px = end == 0 ? edges.x0[j] : edges.x1[j];
+            double py = end == 0 ? edges.y0[j] : edges.y1[j];
+            double t = ((px - ax) * rx + (py - ay) * ry) / squared;
+            if (t > EPSILON && t < 1 - EPSILON) {
+                addSplit(i, t, px, py, false);
+            }
+        }
+        double sx = edges.x1[j] - edges.x0[j];
+        double sy = edges.y1[j] - edges.y0[j];
+        double length = sx * sx + sy * sy;
+        for (int end = 0; end < 2; end++) {
+            double px = end == 0 ? ax : edges.x1[i];
+            double py = end == 0 ? ay : edges.y1[i];
+            double u = ((px - edges.x0[j]) * sx + (py - edges.y0[j]) * sy) / length;
+            if (u > -EPSILON && u < 1 + EPSILON) {
+                touched[i * 2 + end] = true;
+            }
+        }
+    }
+
+    /**
+     * Records a point an edge is split at.
+     * @param edge the edge
+     * @param t the fraction along the edge
+     * @param x the X coordinate of the point
+     * @param y the Y coordinate of the point
+     * @param crossing whether the point is a plain crossing of two edges
+     */
+    private void addSplit(int edge, double t, double x, double y, boolean crossing) {
+        if (splits == splitEdge.length) {
+            int capacity = splits * 2;
+            splitEdge = Arrays.copyOf(splitEdge, capacity);
+            splitT = Arrays.copyOf(splitT, capacity);
+            splitX = Arrays.copyOf(splitX, capacity);
+            splitY = Arrays.copyOf(splitY, capacity);
+            splitCrossing = Arrays.copyOf(splitCrossing, capacity);
+        }
+        splitEdge[splits] = edge;
+        splitT[splits] = t;
+        splitX[splits] = x;
+        splitY[splits] = y;
+        splitCrossing[splits] = crossing;
+        splits++;
+    }
+
+    /**
+     * Sorts the split points by edge, counting how many each edge has, and then along each edge.
+     * Edges are seldom split more than a few times, so an insertion sort is used within an edge.
+     */
+    private void sortSplits() {
+        int[] start = new int[edges.count + 1];
+        for (int k = 0; k < splits; k++) {
+            start[splitEdge[k] + 1]++;
+        }
+        for (int e = 0; e < edges.count; e++) {
+            start[e + 1] += start[e];
+        }
+        int[] order = new int[splits];
+        int[] next = Arrays.copyOf(start, edges.count);
+        for (int k = 0; k < splits; k++) {
+            order[next[splitEdge[k]]++] = k;
+        }
+        for (int e = 0; e < edges.count; e++) {
+            for (int a = start[e] + 1; a < start[e + 1]; a++) {
+                int k = order[a];
+                int b = a - 1;
+                while (b >= start[e] && splitT[order[b]] > splitT[k]) {
+                    order[b + 1] = order[b];
+                    b--;
+                }
+                order[b + 1] = k;
+            }
+        }
+        splitEdge = permute(splitEdge, order);
+        splitT = permute(splitT, order);
+        splitX = permute(splitX, order);
+        splitY = permute(splitY, order);
+        splitCrossing = permute(splitCrossing, order);
+    }
+
+    /**
+     * Cuts the edges of one area into pieces at their split points, and finds which pieces are
+     * inside the other area.
+     * @param from the first edge of the area
+     * @param to one past the last edge of the area
+     * @param other the other area
+     * @param pieces receives the pieces
+     */
+    private void cut(int from, int to, Bands other, Pieces pieces) {
+        int k = 0;
+        while (k < splits && splitEdge[k] < from) {
+            k++;
+        }
+        boolean inside = false;
+        for (int e = from; e < to; e++) {
+            boolean ringStart = e == from || edges.ring[e - 1] != edges.ring[e];
+            double x = edges.x0[e];
+            double y = edges.y0[e];
+            boolean test = ringStart || touched[e * 2] || (e > from && touched[e * 2 - 1]);
+            while (true) {
+                boolean last = k >= splits || splitEdge[k] != e;
+                double nextX = last ? edges.x1[e] : splitX[k];
+                double nextY = last ? edges.y1[e] : splitY[k];
+                int a = weldPoint(x, y);
+                int b = weldPoint(nextX, nextY);
+                if (test) {
+                    inside = other.contains((x + nextX) / 2, (y + nextY) / 2);
+                    test = false;
+                }
+                if (a != b) {
+                    pieces.add(a, b, inside);
+                }
+                if (last) {
+                    break;
+                }
+                if (splitCrossing[k]) {
+                    inside = !inside;
+                } else {
+                    test = true;
+                }
+                x = nextX;
+                y = nextY;
+                k++;
+            }
+        }
+    }
+
+    /**
+     * Checks if the two areas lie on the same side of a piece of edge that both areas share.
+     * @param pieces the pieces
+     * @param piece the piece of the first area's edge
+     * @param first the first area
+     * @param second the second area
+     * @return true if both areas lie on the same side
+     */
+    private boolean sidesMatch(Pieces pieces, int piece, Bands first, Bands second) {
+        int a = pieces.from[piece];
+        int b = pieces.to[piece];
+        double dx = pointX[b] - pointX[a];
+        double dy = pointY[b] - pointY[a];
+        double length = Math.hypot(dx, dy);
+        double offset = Math.max(length * 1e-6, weld * 4) / length;
+        double x = (pointX[a] + pointX[b]) / 2 - dy * offset;
+        double y = (pointY[a] + pointY[b]) / 2 + dx * offset;
+        return first.contains(x, y) == second.contains(x, y);
+    }
+
+    /**
+     * Finds the id of a point, welding it to a point already seen within the weld distance.
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     * @return the point id
+     */
+    private int weldPoint(double x, double y) {
+        long keyX = Math.round(x / weld);
+        long keyY = Math.round(y / weld);
+        for (long dx = -1; dx <= 1; dx++) {
+            for (long dy = -1; dy <= 1; dy++) {
+                int id = welded.get(keyX + dx, keyY + dy);
+                if (id >= 0) {
+                    return id;
+                }
+            }
+        }
+        if (points == pointX.length) {
+            pointX = Arrays.copyOf(pointX, points * 2);
+            pointY = Arrays.copyOf(pointY, points * 2);
+        }
+        pointX[points] = x;
+        pointY[points] = y;
+        welded.put(keyX, keyY, points);
+        return points++;
+    }
+
+    /**
+     * Joins the kept pieces end to end into rings. Where more than two kept pieces meet, any
+     * unused piece is taken next, which gives the same area under the even-odd rule.
+     * @param pieces the pieces
+     * @param keep whether each piece is kept
+     * @return the rings, separated by a pair of NaNs
+     */
+    private double[] join(Pieces pieces, boolean[] keep) {
+        int[] start = new int[points + 1];
+        for (int i = 0; i < pieces.count; i++) {
+            if (keep[i]) {
+                start[pieces.from[i] + 1]++;
+                start[pieces.to[i] + 1]++;
+            }
+        }
+        for (int p = 0; p < points; p++) {
+            start[p + 1] += start[p];
+        }
+        int[] incident = new int[start[points]];
+        int[] next = Arrays.copyOf(start, points);
+        for (int i = 0; i < pieces.count; i++) {
+            if (keep[i]) {
+                incident[next[pieces.from[i]]++] = i;
+                incident[next[pieces.to[i]]++] = i;
+            }
+        }
+        next = Arrays.copyOf(start, points);
+        boolean[] used = new boolean[pieces.count];
+        double[] result = new double[16];
+        int length = 0;
+        int[] ring = new int[16];
+        for (int first = 0; first < pieces.count; first++) {
+            if (!keep[first] || used[first]) {
+                continue;
+            }
+            used[first] = true;
+            int begin = pieces.from[first];
+            int at = pieces.to[first];
+            int size = 0;
+            ring[size++] = begin;
+            boolean closed = true;
+            while (at != begin) {
+                if (size == ring.length) {
+                    ring = Arrays.copyOf(ring, size * 2);
+                }
+                ring[size++] = at;
+                while (next[at] < start[at + 1] && used[incident[next[at]]]) {
+                    next[at]++;
+                }
+                if (next[at] == start[at + 1]) {
+                    closed = false;
+                    break;
+                }
+                int piece = incident[next[at]];
+                used[piece] = true;
+                at = pieces.from[piece] == at ? pieces.to[piece] : pieces.from[piece];
+            }
+            if (!closed || size < 3) {
+                continue;
+            }
+            if (length + size * 2 + 2 > result.length) {
+                result = Arrays.copyOf(result, Math.max(result.length * 2, length + size * 2 + 2));
+            }
+            if (length > 0) {
+                result[length++] = Double.NaN;
+                result[length++] = Double.NaN;
+            }
+            for (int k = 0; k < size; k++) {
+                result[length++] = pointX[ring[k]];
+                result[length++] = pointY[ring[k]];
+            }
+        }
+        return Arrays.copyOf(result, length);
+    }
+
+    /**
+     * Turns the rings so that rings inside an even number of others run one way and the rest the
+     * other way.
+     * @param rings the rings, separated by a pair of NaNs
+     * @return the rings
+     */
+    private static double[] orient(double[] rings) {
+        Edges result = new Edges();
+        result.addRings(rings, 0);
+        if (result.count == 0) {
+            return rings;
+        }
+        Bands bands = new Bands(result, 0, result.count);
+        int e = 0;
+        int ring = 0;
+        int start = 0;
+        while (start < rings.length) {
+            int end = start;
+            while (end < rings.length && !Double.isNaN(rings[end])) {
+                end += 2;
+            }
+            double area = 0;
+            for (int i = start; i < end; i += 2) {
+                int j = i + 2 < end ? i + 2 : start;
+                area += rings[i] * rings[j + 1] - rings[j] * rings[i + 1];
+            }
+            while (result.ring[e] != ring) {
+                e++;
+            }
+            double x = (result.x0[e] + result.x1[e]) / 2;
+            double y = (result.y0[e] + result.y1[e]) / 2;
+            if ((area < 0) != bands.contains(x, y, ring)) {
+                for (int i = start, j = end - 2; i < j; i += 2, j -= 2) {
+                    swap(rings, i, j);
+                    swap(rings, i + 1, j + 1);
+                }
+            }
+            ring++;
+            start = end + 2;
+        }
+        return rings;
+    }
+
+    /**
+     * Swaps two values in an array.
+     * @param a the array
+     * @param i the index of one value
+     * @param j the index of the other value
+     */
+    private static void swap(double[] a, int i, int j) {
+        double d = a[i];
+        a[i] = a[j];
+        a[j] = d;
+    }
+
+    /**
+     * Reorders an array.
+     * @param a the array
+     * @param order the index in the array of each value of the result
+     * @return the reordered array
+     */
+    private static int[] permute(int[] a, int[] order) {
+        int[] result = new int[a.length];
+        for (int k = 0; k < order.length; k++) {
+            result[k] = a[order[k]];
+        }
+        return result;
+    }
+
+    /**
+     * Reorders an array.
+     * @param a the array
+     * @param order the index in the array of each value of the result
+     * @return the reordered array
+     */
+    private static double[] permute(double[] a, int[] order) {
+        double[] result = new double[a.length];
+        for (int k = 0; k < order.length; k++) {
+            result[k] = a[order[k]];
+        }
+        return result;
+    }
+
+    /**
+     * Reorders an array.
+     * @param a the array
+     * @param order the index in the array of each value of the result
+     * @return the reordered array
+     */
+    private static boolean[] permute(boolean[] a, int[] order) {
+        boolean[] result = new boolean[a.length];
+        for (int k = 0; k < order.length; k++) {
+            result[k] = a[order[k]];
+        }
+        return result;
+    }
+
+    /**
+     * Edges. The edges of the rings of one or more areas, kept in parallel arrays.
+     */
+    private static final class Edges {
+
+        /** X coordinate of the start of each edge */
+        double[] x0 = new double[16];
+
+        /** Y coordinate of the start of each edge */
+        double[] y0 = new double[16];
+
+        /** X coordinate of the end of each edge */
+        double[] x1 = new double[16];
+
+        /** Y coordinate of the end of each edge */
+        double[] y1 = new double[16];
+
+        /** Ring each edge belongs to */
+        int[] ring = new int[16];
+
+        /** Number of edges */
+        int count;
+
+        /** Number of rings added so far */
+        int rings;
+
+        /**
+         * Adds the edges of the rings of an area. Edges of no length and rings of fewer than
+         * three points are left out.
+         * @param area the rings, separated by a pair of NaNs
+         * @param firstRing the id given to the first ring
+         */
+        void addRings(double[] area, int firstRing) {
+            rings = firstRing;
+            int start = 0;
+            while (start < area.length) {
+                int end = start;
+                while (end < area.length && !Double.isNaN(area[end])) {
+                    end += 2;
+                }
+                if (end - start >= 6) {
+                    for (int i = start; i < end; i += 2) {
+                        int j = i + 2 < end ? i + 2 : start;
+                        if (area[i] != area[j] || area[i + 1] != area[j + 1]) {
+                            add(area[i], area[i + 1], area[j], area[j + 1]);
+                        }
+                    }
+                    rings++;
+                }
+                start = end + 2;
+            }
+        }
+
+        /**
+         * Adds an edge to the current ring.
+         * @param ax X coordinate of the start
+         * @param ay Y coordinate of the start
+         * @param bx X coordinate of the end
+         * @param by Y coordinate of the end
+         */
+        private void add(double ax, double ay, double bx, double by) {
+            if (count == x0.length) {
+                int capacity = count * 2;
+                x0 = Arrays.copyOf(x0, capacity);
+                y0 = Arrays.copyOf(y0, capacity);
+                x1 = Arrays.copyOf(x1, capacity);
+                y1 = Arrays.copyOf(y1, capacity);
+                ring = Arrays.copyOf(ring, capacity);
+            }
+            x0[count] = ax;
+            y0[count] = ay;
+            x1[count] = bx;
+            y1[count] = by;
+            ring[count] = rings;
+            count++;
+        }
+
+        /**
+         * Finds the box holding a range of edges.
+         * @param from the first edge
+         * @param to one past the last edge
+         * @return the left, top, right and bottom of the box
+         */
+        double[] bounds(int from, int to) {
+            double[] b = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+                    Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+            for (int e = from; e < to; e++) {
+                b[0] = Math.min(b[0], Math.min(x0[e], x1[e]));
+                b[1] = Math.min(b[1], Math.min(y0[e], y1[e]));
+                b[2] = Math.max(b[2], Math.max(x0[e], x1[e]));
+                b[3] = Math.max(b[3], Math.max(y0[e], y1[e]));
+            }
+            return b;
+        }
+
+        /**
+         * Checks if the boxes holding two edges overlap.
+         * @param i one edge
+         * @param j the other edge
+         * @return true if they overlap
+         */
+        boolean boxesOverlap(int i, int j) {
+            return Math.max(x0[i], x1[i]) >= Math.min(x0[j], x1[j])
+                    && Math.max(x0[j], x1[j]) >= Math.min(x0[i], x1[i])
+                    && Math.max(y0[i], y1[i]) >= Math.min(y0[j], y1[j])
+                    && Math.max(y0[j], y1[j]) >= Math.min(y0[i], y1[i]);
+        }
+    }
+
+    /**
+     * Grid. A uniform grid holding each of a range of edges in every cell it passes through, kept
+     * as one array of entries with the entries of each cell together.
+     */
+    private static final class Grid {
+
+        /** The edges */
+        private final Edges edges;
+
+        /** Left of the grid */
+        private final double left;
+
+        /** Top of the grid */
+        private final double top;
+
+        /** Width of a cell */
+        private final double cellWidth;
+
+        /** Height of a cell */
+        private final double cellHeight;
+
+        /** Number of cells across and down */
+        private final int side;
+
+        /** Index in entries of the first entry of each cell, and one past the last cell */
+        final int[] start;
+
+        /** The edges in each cell */
+        int[] entries;
+
+        /**
+         * Constructor for the Grid. Passes over the edges twice, counting the entries of each cell
+         * and then filling them in.
+         * @param edges the edges
+         * @param from the first edge
+         * @param to one past the last edge
+         * @param bounds the left, top, right and bottom of the edges
+         * @param side the number of cells across and down
+         */
+        Grid(Edges edges, int from, int to, double[] bounds, int side) {
+            this.edges = edges;
+            this.left = bounds[0];
+            this.top = bounds[1];
+            this.side = side;
+            this.cellWidth = Math.max(bounds[2] - bounds[0], Double.MIN_NORMAL) / side;
+            this.cellHeight = Math.max(bounds[3] - bounds[1], Double.MIN_NORMAL) / side;
+            start = new int[side * side + 1];
+            for (int e = from; e < to; e++) {
+                enter(e, null);
+            }
+            for (int c = 0; c < side * side; c++) {
+                start[c + 1] += start[c];
+            }
+            entries = new int[start[side * side]];
+            int[] next = Arrays.copyOf(start, side * side);
+            for (int e = from; e < to; e++) {
+                enter(e, next);
+            }
+        }
+
+        /**
+         * Gets the number of cells.
+         * @return the number of cells
+         */
+        int cells() {
+            return side * side;
+        }
+
+        /**
+         * Finds the cell a point falls in.
+         * @param x the X coordinate
+         * @param y the Y coordinate
+         * @return the cell, clamped to the grid
+         */
+        int cellOf(double x, double y) {
+            return index(y, top, cellHeight) * side + index(x, left, cellWidth);
+        }
+
+        /**
+         * Visits the cells an edge passes through, row by row, either counting them or entering
+         * the edge in them. The edge's span in each row is widened a little so an edge passing
+         * exactly through a corner is not missed.
+         * @param e the edge
+         * @param next the next free entry of each cell, or null to count entries
+         */
+        private void enter(int e, int[] next) {
+            double ax = edges.x0[e];
+            double ay = edges.y0[e];
+            double bx = edges.x1[e];
+            double by = edges.y1[e];
+            double minY = Math.min(ay, by);
+            double maxY = Math.max(ay, by);
+            int firstRow = index(minY, top, cellHeight);
+            int lastRow = index(maxY, top, cellHeight);
+            double slack = cellWidth * 1e-6;
+            for (int row = firstRow; row <= lastRow; row++) {
+                double from = Math.max(minY, top + row * cellHeight);
+                double to = Math.min(maxY, top + (row + 1) * cellHeight);
+                double xa;
+                double xb;
+                if (ay == by) {
+                    xa = Math.min(ax, bx);
+                    xb = Math.max(ax, bx);
+                } else {
+                    double u = ax + (from - ay) * (bx - ax) / (by - ay);
+                    double v = ax + (to - ay) * (bx - ax) / (by - ay);
+                    xa = Math.min(u, v);
+                    xb = Math.max(u, v);
+                }
+                int firstColumn = index(xa - slack, left, cellWidth);
+                int lastColumn = index(xb + slack, left, cellWidth);
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    int cell = row * side + column;
+                    if (next == null) {
+                        start[cell + 1]++;
+                    } else {
+                        entries[next[cell]++] = e;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Finds the row or column a coordinate falls in.
+         * @param d the coordinate
+         * @param origin the coordinate of the first row or column
+         * @param size the size of a cell
+         * @return the row or column, clamped to the grid
+         */
+        private int index(double d, double origin, double size) {
+            int i = (int) Math.floor((d - origin) / size);
+            return Math.max(0, Math.min(side - 1, i));
+        }
+    }
+
+    /**
+     * Bands. Horizontal bands over the edges of an area, used to test if a point is inside the
+     * area by counting the edges crossed going right from it without testing every edge.
+     */
+    private static final class Bands {
+
+        /** The edges */
+        private final Edges edges;
+
+        /** Top of the first band */
+        private final double top;
+
+        /** Bottom of the last band */
+        private final double bottom;
+
+        /** Height of a band */
+        private final double height;
+
+        /** Index in entries of the first entry of each band, and one past the last band */
+        private final int[] start;
+
+        /** The edges in each band */
+        private final int[] entries;
+
+        /**
+         * Constructor for the Bands. There are about as many bands as edges, fewer if the edges
+         * are so tall that the entries would take too much room.
+         * @param edges the edges
+         * @param from the first edge of the area
+         * @param to one past the last edge of the area
+         */
+        Bands(Edges edges, int from, int to) {
+            this.edges = edges;
+            double[] b = edges.bounds(from, to);
+            top = b[1];
+            bottom = b[3];
+            double span = Math.max(bottom - top, Double.MIN_NORMAL);
+            double tall = 0;
+            for (int e = from; e < to; e++) {
+                tall += Math.abs(edges.y1[e] - edges.y0[e]) / span;
+            }
+            int count = Math.max(1, to - from);
+            if (tall > 8) {
+                count = Math.max(1, (int) (8.0 * count / tall));
+            }
+            height = span / count;
+            start = new int[count + 1];
+            for (int e = from; e < to; e++) {
+                int last = band(Math.max(edges.y0[e], edges.y1[e]), count);
+                for (int k = band(Math.min(edges.y0[e], edges.y1[e]), count); k <= last; k++) {
+                    start[k + 1]++;
+                }
+            }
+            for (int k = 0; k < count; k++) {
+                start[k + 1] += start[k];
+            }
+            entries = new int[start[count]];
+            int[] next = Arrays.copyOf(start, count);
+            for (int e = from; e < to; e++) {
+                int last = band(Math.max(edges.y0[e], edges.y1[e]), count);
+                for (int k = band(Math.min(edges.y0[e], edges.y1[e]), count); k <= last; k++) {
+                    entries[next[k]++] = e;
+                }
+            }
+        }
+
+        /**
+         * Finds the band a Y coordinate falls in.
+         * @param y the Y coordinate
+         * @param count the number of bands
+         * @return the band, clamped to the bands
+         */
+        private int band(double y, int count) {
+            return Math.max(0, Math.min(count - 1, (int) Math.floor((y - top) / height)));
+        }
+
+        /**
+         * Checks if a point is inside the area, by the even-odd rule.
+         * @param x the X coordinate
+         * @param y the Y coordinate
+         * @return true if the point is inside
+         */
+        boolean contains(double x, double y) {
+            return contains(x, y, -1);
+        }
+
+        /**
+         * Checks if a point is inside the area, by the even-odd rule, leaving out one ring.
+         * @param x the X coordinate
+         * @param y the Y coordinate
+         * @param skipRing the ring to leave out, or -1
+         * @return true if the point is inside the other rings
+         */
+        boolean contains(double x, double y, int skipRing) {
+            if (entries.length == 0 || y < top || y > bottom) {
+                return false;
+            }
+            int k = band(y, start.length - 1);
+            boolean inside = false;
+            for (int i = start[k]; i < start[k + 1]; i++) {
+                int e = entries[i];
+                double y0 = edges.y0[e];
+                double y1 = edges.y1[e];
+                if (edges.ring[e] != skipRing && ((y0 <= y && y < y1) || (y1 <= y && y < y0))) {
+                    double crossing = edges.x0[e] + (y - y0) * (edges.x1[e] - edges.x0[e])
+                            / (y1 - y0);
+                    if (crossing > x) {
+                        inside = !inside;
+                    }
+                }
+            }
+            return inside;
+        }
+    }
+
+    /**
+     * Pieces. The pieces edges are cut into, each running between two welded points.
+     */
+    private static final class Pieces {
+
+        /** Point each piece starts at */
+        int[] from = new int[16];
+
+        /** Point each piece ends at */
+        int[] to = new int[16];
+
+        /** Whether each piece is inside the other area */
+        boolean[] inside = new boolean[16];
+
+        /** Number of pieces */
+        int count;
+
+        /**
+         * Adds a piece.
+         * @param a the point it starts at
+         * @param b the point it ends at
+         * @param in whether it is inside the other area
+         */
+        void add(int a, int b, boolean in) {
+            if (count == from.length) {
+                from = Arrays.copyOf(from, count * 2);
+                to = Arrays.copyOf(to, count * 2);
+                inside = Arrays.copyOf(inside, count * 2);
+            }
+            from[count] = a;
+            to[count] = b;
+            inside[count] = in;
+            count++;
+        }
+    }
+
+    /**
+     * PairMap. A hash map from pairs of longs to non-negative ints, kept in primitive arrays with
+     * open addressing, so millions of points can be looked up without boxing.
+     */
+    private static final class PairMap {
+
+        /** First key of each slot */
+        private long[] firstKeys = new long[64];
+
+        /** Second key of each slot */
+        private long[] secondKeys = new long[64];
+
+        /** Value of each slot, or -1 if the slot is empty */
+        private int[] values = filled(64);
+
+        /** Number of slots in use */
+        private int size;
+
+        /**
+         * Gets the value for a pair of keys.
+         * @param a the first key
+         * @param b the second key
+         * @return the value, or -1 if there is none
+         */
+        int get(long a, long b) {
+            int mask = values.length - 1;
+            for (int i = slot(a, b, mask); values[i] >= 0; i = (i + 1) & mask) {
+                if (firstKeys[i] == a && secondKeys[i] == b) {
+                    return values[i];
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Sets the value for a pair of keys.
+         * @param a the first key
+         * @param b the second key
+         * @param value the value, not negative
+         */
+        void put(long a, long b, int value) {
+            if ((size + 1) * 2 > values.length) {
+                grow();
+            }
+            int mask = values.length - 1;
+            int i = slot(a, b, mask);
+            while (values[i] >= 0) {
+                if (firstKeys[i] == a && secondKeys[i] == b) {
+                    values[i] = value;
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            firstKeys[i] = a;
+            secondKeys[i] = b;
+            values[i] = value;
+            size++;
+        }
+
+        /** Doubles the number of slots, entering every pair again. */
+        private void grow() {
+            long[] oldFirst = firstKeys;
+            long[] oldSecond = secondKeys;
+            int[] oldValues = values;
+            firstKeys = new long[oldValues.length * 2];
+            secondKeys = new long[oldValues.length * 2];
+            values = filled(oldValues.length * 2);
+            size = 0;
+            for (int i = 0; i < oldValues.length; i++) {
+                if (oldValues[i] >= 0) {
+                    put(oldFirst[i], oldSecond[i], oldValues[i]);
+                }
+            }
+        }
+
+        /**
+         * Finds the first slot to look in for a pair of keys.
+         * @param a the first key
+         * @param b the second key
+         * @param mask one less than the number of slots
+         * @return the slot
+         */
+        private static int slot(long a, long b, int mask) {
+            long h = (a * 0x9E3779B97F4A7C15L) ^ (b * 0xC2B2AE3D27D4EB4FL);
+            return (int) (h ^ (h >>> 29)) & mask;
+        }
+
+        /**
+         * Creates an array of empty slots.
+         * @param length the number of slots
+         * @return the array
+         */
+        private static int[] filled(int length) {
+            int[] a = new int[length];
+            Arrays.fill(a, -1);
+            return a;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+/**
+ * Raster shape. A region of pixels filled with one Color, such as the result of the bucket fill.
+ * The pixels are kept as spans along each row of a grid of columns and rows, and the grid is
+ * stretched over the Raster's box, so the Raster can be moved, resized and rotated like any other
+ * Shape. The spans are sorted by row, so a click can be tested with a binary search.
+ * @author Emily DeLisle
+ * @version 1.0
+ */
+class Raster extends Shape {
+
+    /** Number of values in the geometry before the spans */
+    private static final int HEADER = 6;
+
+    /** Number of columns of pixels */
+    private int columns;
+
+    /** Number of rows of pixels */
+    private int rows;
+
+    /** The row, first column and one past the last column of each span, sorted by row */
+    private int[] spans = new int[0];
+
+    /**
+     * Constructor for the Raster.
+     * @param color Color value for this Raster
+     */
+    Raster(Color color) {
+        super(color);
+    }
+
+    /**
+     * Constructor for a Raster whose pixels are one unit square on the Surface.
+     * @param color Color value for this Raster
+     * @param left the left edge of the first column
+     * @param top the top edge of the first row
+     * @param columns the number of columns
+     * @param rows the number of rows
+     * @param spans the row, first column and one past the last column of each span, sorted by
+     * row
+     */
+    Raster(Color color, double left, double top, int columns, int rows, int[] spans) {
+        super(color);
+        this.columns = columns;
+        this.rows = rows;
+        this.spans = spans;
+        pointA[0] = left;
+        pointA[1] = top;
+        pointB[0] = left + columns;
+        pointB[1] = top + rows;
+        determineCorners();
+    }
+
+    /**
+     * Rasters are made by the bucket fill rather than drawn with the Cursor, so this only repaints
+     * the Raster.
+     * @param x X coordinate of the cursor
+     * @param y Y coordinate of the cursor
+     */
+    @Override
+    void draw(double x, double y) {
+        redraw();
+    }
+
+    /**
+     * Paints the Raster on the specified GraphicsContext, one rectangle per span.
+     * @param g the GraphicsContext to paint on
+     */
+    @Override
+    void paint(GraphicsContext g) {
+        double width = pixelWidth();
+        double height = pixelHeight();
+        for (int k = 0; k < spans.length; k += 3) {
+            g.fillRect(topLeft[0] + spans[k + 1] * width, topLeft[1] + spans[k] * height,
+                    (spans[k + 2] - spans[k + 1]) * width, height);
+        }
+    }
+
+    /**
+     * Adds a rectangle for each span of the Raster to the current path of the specified
+     * GraphicsContext.
+     * @param g the GraphicsContext whose path is added to
+     */
+    @Override
+    void appendPath(GraphicsContext g) {
+        double width = pixelWidth();
+        double height = pixelHeight();
+        for (int k = 0; k < spans.length; k += 3) {
+            double left = topLeft[0] + spans[k + 1] * width;
+            double right = topLeft[0] + spans[k + 2] * width;
+            double top = topLeft[1] + spans[k] * height;
+            g.moveTo(left, top);
+            g.lineTo(right, top);
+            g.lineTo(right, top + height);
+            g.lineTo(left, top + height);
+            g.closePath();
+        }
+    }
+
+    /**
+     * Moves the box of the Raster by the specified distance, without redrawing it.
+     * @param distanceX distance to move on the X axis
+     * @param distanceY distance to move on the Y axis
+     */
+    @Override
+    void translate(double distanceX, double distanceY) {
+        pointA[0] += distanceX;
+        pointA[1] += distanceY;
+        pointB[0] += distanceX;
+        pointB[1] += distanceY;
+        determineCorners();
+    }
+
+    /**
+     * Stretches the grid of pixels over the specified box, without redrawing it.
+     * @param left the new left edge
+     * @param top the new top edge
+     * @param right the new right edge
+     * @param bottom the new bottom edge
+     */
+    @Override
+    void resize(double left, double top, double right, double bottom) {
+        pointA[0] = left;
+        pointA[1] = top;
+        pointB[0] = right;
+        pointB[1] = bottom;
+        determineCorners();
+    }
+
+    /**
+     * Checks if the coordinates fall on one of the Raster's pixels, looking up the spans of the
+     * row they fall in.
+     * @param x the X coordinate, in the coordinates of the geometry
+     * @param y the Y coordinate, in the coordinates of the geometry
+     * @return true if the point is on a filled pixel
+     */
+    @Override
+    boolean contains(double x, double y) {
+        if (!super.contains(x, y)) {
+            return false;
+        }
+        int column = (int) Math.min(columns - 1, Math.floor((x - topLeft[0]) / pixelWidth()));
+        int row = (int) Math.min(rows - 1, Math.floor((y - topLeft[1]) / pixelHeight()));
+        int low = 0;
+        int high = spans.length / 3;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (spans[middle * 3] < row) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for (int k = low * 3; k < spans.length && spans[k] == row; k += 3) {
+            if (column >= spans[k + 1] && column < spans[k + 2]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the geometry of the Raster: its box, the size of its grid and then its spans.
+     * @return the coordinates describing the Raster
+     */
+    @Override
+    double[] getGeometry() {
+        determineCorners();
+        double[] g = new double[HEADER + spans.length];
+        g[0] = topLeft[0];
+        g[1] = topLeft[1];
+        g[2] = bottomRight[0];
+        g[3] = bottomRight[1];
+        g[4] = columns;
+        g[5] = rows;
+        for (int k = 0; k < spans.length; k++) {
+            g[HEADER + k] = spans[k];
+        }
+        return g;
+    }
+
+    /**
+     * Sets the box, grid and spans of the Raster from an array created by getGeometry().
+     * @param g the coordinates describing the Raster
+     */
+    @Override
+    void setGeometry(double[] g) {
+        pointA[0] = g[0];
+        pointA[1] = g[1];
+        pointB[0] = g[2];
+        pointB[1] = g[3];
+        columns = (int) g[4];
+        rows = (int) g[5];
+        spans = new int[(g.length - HEADER) / 3 * 3];
+        for (int k = 0; k < spans.length; k++) {
+            spans[k] = (int) g[HEADER + k];
+        }
+        determineCorners();
+    }
+
+    /**
+     * Gets the outline of the Raster as one rectangular ring per span, separated by a pair of
+     * NaNs.
+     * @return the X and Y coordinates of each point
+     */
+    @Override
+    double[] getOutline() {
+        determineCorners();
+        double width = pixelWidth();
+        double height = pixelHeight();
+        int count = spans.length / 3;
+        double[] rings = new double[Math.max(0, count * 10 - 2)];
+        int n = 0;
+        for (int k = 0; k < spans.length; k += 3) {
+            if (n > 0) {
+                rings[n++] = Double.NaN;
+                rings[n++] = Double.NaN;
+            }
+            double left = topLeft[0] + spans[k + 1] * width;
+            double right = topLeft[0] + spans[k + 2] * width;
+            double top = topLeft[1] + spans[k] * height;
+            double[] corners = {left, top, right, top, right, top + height, left, top + height};
+            System.arraycopy(corners, 0, rings, n, corners.length);
+            n += corners.length;
+        }
+        return rings;
+    }
+
+    /**
+     * Gets the points of the Raster that other Shapes can snap to, which are the corners of its
+     * box.
+     * @return the X and Y coordinates of each point, one after the other
+     */
+    @Override
+    double[] getSnapPoints() {
+        determineCorners();
+        return new double[] {topLeft[0], topLeft[1], bottomRight[0], topLeft[1],
+                bottomRight[0], bottomRight[1], topLeft[0], bottomRight[1]};
+    }
+
+    /**
+     * Gets the area of the Raster, which is the area of its filled pixels.
+     * @return the area, in square pixels
+     */
+    @Override
+    double getArea() {
+        determineCorners();
+        long filled = 0;
+        for (int k = 0; k < spans.length; k += 3) {
+            filled += spans[k + 2] - spans[k + 1];
+        }
+        return filled * pixelWidth() * pixelHeight();
+    }
+
+    /**
+     * Gets the width of one column of pixels on the Surface.
+     * @return the width
+     */
+    private double pixelWidth() {
+        return columns == 0 ? 0 : (bottomRight[0] - topLeft[0]) / columns;
+    }
+
+    /**
+     * Gets the height of one row of pixels on the Surface.
+     * @return the height
+     */
+    private double pixelHeight() {
+        return rows == 0 ? 0 : (bottomRight[1] - topLeft[1]) / rows;
+    }
+
+    /**
+     * Makes a copy of the Raster. The spans are never changed in place, so the copy shares them.
+     * @return the copy
+     */
+    @Override
+    Raster copy() {
+        return (Raster) super.copy();
+    }
+}
@@ -0,0 +1,160 @@
+import java.util.Arrays;
+
+/**
+ * Rasterizer. Fills polygons into an array of ARGB pixels without JavaFX, so pictures can be
+ * made on any thread and without a screen. Each row of pixels is filled between the points where
+ * the row's centre line crosses the polygon's edges, using the non-zero winding rule as the
+ * Canvas does. Colors with some transparency are blended over the pixels already there. Edges
+ * are not smoothed.
+ * @author Emily DeLisle
+ * @version 1.0
+ */
+class Rasterizer {
+
+    /** Width of the picture, in pixels */
+    final int width;
+
+    /** Height of the picture, in pixels */
+    final int height;
+
+    /** The pixels, row by row, packed as 32-bit ARGB */
+    final int[] pixels;
+
+    /** X coordinates where the current row crosses an edge. Grown as needed */
+    private double[] crossings = new double[16];
+
+    /** Direction of the edge at each crossing: 1 going down, -1 going up */
+    private int[] directions = new int[16];
+
+    /**
+     * Constructor for the Rasterizer.
+     * @param width width of the picture, in pixels
+     * @param height height of the picture, in pixels
+     * @param background the packed ARGB Color every pixel starts with
+     */
+    Rasterizer(int width, int height, int background) {
+        this.width = width;
+        this.height = height;
+        this.pixels = new int[width * height];
+        Arrays.fill(pixels, background);
+    }
+
+    /**
+     * Fills a polygon.
+     * @param points the X and Y coordinates of each corner in pixels, one after the other. The
+     * polygon is closed from the last corner back to the first. A pair of NaNs ends one ring of
+     * corners and starts another, filled together with the first
+     * @param argb the packed ARGB Color to fill with
+     */
+    void fillPolygon(double[] points, int argb) {
+        int n = points.length / 2;
+        if (n < 3 || (argb >>> 24) == 0) {
+            return;
+        }
+        double top = Double.POSITIVE_INFINITY;
+        double bottom = Double.NEGATIVE_INFINITY;
+        for (int i = 1; i < points.length; i += 2) {
+            if (!Double.isNaN(points[i])) {
+                top = Math.min(top, points[i]);
+                bottom = Math.max(bottom, points[i]);
+            }
+        }
+        int firstRow = Math.max(0, (int) Math.ceil(top - 0.5));
+        int lastRow = Math.min(height - 1, (int) Math.ceil(bottom - 0.5) - 1);
+        for (int row = firstRow; row <= lastRow; row++) {
+            double y = row + 0.5;
+            int count = 0;
+            int ringStart = 0;
+            for (int i = 0; i < n; i++) {
+                if (Double.isNaN(points[i * 2])) {
+                    ringStart = i + 1;
+                    continue;
+                }
+                int j = i + 1 < n && !Double.isNaN(points[i * 2 + 2]) ? i + 1 : ringStart;
+                double y0 = points[i * 2 + 1];
+                double y1 = points[j * 2 + 1];
+                if ((y0 <= y && y < y1) || (y1 <= y && y < y0)) {
+                    double x0 = points[i * 2];
+                    double x1 = points[j * 2];
+                    if (count == crossings.length) {
+                        crossings = Arrays.copyOf(crossings, count * 2);
+                        directions = Arrays.copyOf(directions, count * 2);
+                    }
+                    crossings[count] = x0 + (y - y0) * (x1 - x0) / (y1 - y0);
+                    directions[count] = y1 > y0 ? 1 : -1;
+                    count++;
+                }
+            }
+            sortCrossings(count);
+            int winding = 0;
+            for (int i = 0; i + 1 < count; i++) {
+                winding += directions[i];
+                if (winding != 0) {
+                    fillSpan(row, crossings[i], crossings[i + 1], argb);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sorts the crossings of the current row from left to right, keeping each direction with its
+     * crossing. A row of a simple Shape only crosses a few edges, so an insertion sort is used.
+     * @param count the number of crossings
+     */
+    private void sortCrossings(int count) {
+        for (int i = 1; i < count; i++) {
+            double x = crossings[i];
+            int d = directions[i];
+            int j = i - 1;
+            while (j >= 0 && crossings[j] > x) {
+                crossings[j + 1] = crossings[j];
+                directions[j + 1] = directions[j];
+                j--;
+            }
+            crossings[j + 1] = x;
+            directions[j + 1] = d;
+        }
+    }
+
+    /**
+     * Fills the pixels of a row whose centres lie between two X coordinates.
+     * @param row the row
+     * @param left the left X coordinate
+     * @param right the right X coordinate
+     * @param argb the packed ARGB Color to fill with
+     */
+    private void fillSpan(int row, double left, double right, int argb) {
+        int first = Math.max(0, (int) Math.ceil(left - 0.5));
+        int last = Math.min(width - 1, (int) Math.ceil(right - 0.5) - 1);
+        int offset = row * width;
+        if ((argb >>> 24) == 255) {
+            if (first <= last) {
+                Arrays.fill(pixels, offset + first, offset + last + 1, argb);
+            }
+            return;
+        }
+        for (int x = first; x <= last; x++) {
+            pixels[offset + x] = blend(argb, pixels[offset + x]);
+        }
+    }
+
+    /**
+     * Blends a partly transparent Color over another.
+     * @param src the packed ARGB Color on top
+     * @param dst the packed ARGB Color underneath
+     * @return the packed ARGB result
+     */
+    private static int blend(int src, int dst) {
+        int sa = src >>> 24;
+        int da = dst >>> 24;
+        int keep = da * (255 - sa) / 255;
+        int a = sa + keep;
+        if (a == 0) {
+            return 0;
+        }
+        int r = (((src >> 16) & 0xFF) * sa + ((dst >> 16) & 0xFF) * keep) / a;
+        int g = (((src >> 8) & 0xFF) * sa + ((dst >> 8) & 0xFF) * keep) / a;
+        int b = ((src & 0xFF) * sa + (dst & 0xFF) * keep) / a;
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+}
@@ -1,3 +1,4 @@
+import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.paint.Color;
 
 /**
@@ -29,15 +30,23 @@ class Rectangle extends Shape {
     }
 
     /**
-     * Clears the GraphicsContext and redraws the Rectangle with the with its X and Y coordinates
-     * translated by the specified distance.
-     * @param distanceX distance translated on the X axis
-     * @param distanceY distance translated on the Y axis
+     * Paints the Rectangle on the specified GraphicsContext.
+     * @param g the GraphicsContext to paint on
      */
     @Override
-    void move(double distanceX, double distanceY) {
-        super.move(distanceX, distanceY);
-        gc.fillRect(topLeft[0], topLeft[1],
+    void paint(GraphicsContext g) {
+        g.fillRect(topLeft[0], topLeft[1],
+                bottomRight[0] - topLeft[0],
+                bottomRight[1] - topLeft[1]);
+    }
+
+    /**
+     * Adds the outline of the Rectangle to the current path of the specified GraphicsContext.
+     * @param g the GraphicsContext whose path is added to
+     */
+    @Override
+    void appendPath(GraphicsContext g) {
+        g.rect(topLeft[0], topLeft[1],
                 bottomRight[0] - topLeft[0],
                 bottomRight[1] - topLeft[1]);
     }
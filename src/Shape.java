@@ -5,11 +5,21 @@ import javafx.scene.paint.Color;
 /**
  * Shape. This is the abstract parent class from which all of the other shapes extend. This abstract
  * class handles most of necessary functions needed for calculating how the shape is drawn. New
- * shapes can easily be extended from this superclass by overriding the draw() and move() methods.
+ * shapes can easily be extended from this superclass by overriding the draw() and paint() methods.
+ * <p>
+ * While a Shape is being moved, its geometry stays where it is and only the translation of a ghost
+ * copy of it changes. The translation is applied when a Shape is painted and searched, and the
+ * Shape's geometry is moved by it once the move is finished. A Shape can also be rotated about
+ * the centre of its geometry. The rotation is kept rather than added to the geometry, since most
+ * Shapes can only describe boxes that line up with the axes, so it is applied whenever the Shape
+ * is painted, searched or snapped to.
  * @author Emily DeLisle
  * @version 1.0
  */
-abstract class Shape {
+abstract class Shape implements Cloneable {
+
+    /** Number of straight segments used to outline round Shapes */
+    static final int ELLIPSE_SEGMENTS = 32;
 
     /** Starting point */
     double[] pointA = new double[2];
@@ -26,22 +36,56 @@ abstract class Shape {
     /** The Color value of this shape */
     Color color;
 
-    /** Canvas associated with this Shape. */
+    /**
+     * Canvas associated with this Shape, used while the Shape is being drawn. Created
+     * when first needed, since finished Shapes are painted onto their Layer's cache instead.
+     */
     private Canvas canvas;
 
     /** The GraphicsContext object associated with this Shape's Canvas */
     GraphicsContext gc;
 
+    /** The Layer this Shape belongs to */
+    Layer layer;
+
     /** The side length used for some Shapes */
     double side;
 
+    /** Identifier assigned by the Surface when this Shape is added to its stack */
+    long id;
+
+    /** Distance the Shape is shown from its geometry on the X axis, as a ghost or when animated */
+    double translateX;
+
+    /** Distance the Shape is shown from its geometry on the Y axis, as a ghost or when animated */
+    double translateY;
+
+    /** Angle the Shape is rotated by about the centre of its geometry, in radians */
+    double rotation;
+
+    /** Whether the user has finished drawing this Shape */
+    boolean committed;
+
+    /** Whether the Shape is being played back by an Animator, and so is shown on a motion Canvas */
+    boolean animated;
+
+    /**
+     * Whether this Shape was only made from a record kept in a ShapeStore, to tell the listeners
+     * about it, and is not kept by the Surface
+     */
+    boolean stored;
+
+    /**
+     * Record of this Shape as it was when last committed, moved or recoloured. Immutable, so it
+     * can be handed to other threads while the Shape keeps changing.
+     */
+    ShapeRecord record;
+
     /**
      * Constructor for the Shape.
      * @param color Color value for this Shape
      */
     Shape(Color color) {
-        canvas = new Canvas(1000, 780);
-        gc = canvas.getGraphicsContext2D();
         this.color = color;
     }
 
@@ -54,38 +98,232 @@ abstract class Shape {
     abstract void draw(double x, double y);
 
     /**
-     * Clears the GraphicsContext and redraws the Shape with the with its X and Y coordinates
-     * translated by the specified distance.
-     * Other shapes call this super class method before they call their own move() method, as the
-     * general process of the move is mostly the same, but how the Shape is redrawn when moved is
-     * different for each Shape.
-     * @param distanceX distance translated on the X axis
-     * @param distanceY distance translated on the Y axis
+     * Paints the Shape's current geometry on the specified GraphicsContext. The fill Color is
+     * expected to be set by the caller. Abstract method because every Shape is painted differently.
+     * @param g the GraphicsContext to paint on
+     */
+    abstract void paint(GraphicsContext g);
+
+    /**
+     * Adds the outline of the Shape's current geometry to the current path of the specified
+     * GraphicsContext as a closed sub-path, so that many Shapes can be filled with one call.
+     * Abstract method because every Shape has a different outline.
+     * @param g the GraphicsContext whose path is added to
      */
-    void move(double distanceX, double distanceY) {
+    abstract void appendPath(GraphicsContext g);
+
+    /**
+     * Clears the GraphicsContext and repaints the Shape with its current geometry, translation,
+     * rotation and Color.
+     */
+    void redraw() {
         clear();
-        topLeft[0] -= distanceX;
-        topLeft[1] -= distanceY;
-        bottomRight[0] -= distanceX;
-        bottomRight[1] -= distanceY;
-        pointA[0] = topLeft[0];
-        pointB[0] = bottomRight[0];
-        pointA[1] = topLeft[1];
-        pointB[1] = bottomRight[1];
         gc.setFill(color);
+        paintTransformed(gc);
+    }
+
+    /**
+     * Paints the Shape with its translation and rotation applied. The fill Color is expected to be
+     * set by the caller.
+     * @param g the GraphicsContext to paint on
+     */
+    void paintTransformed(GraphicsContext g) {
+        if (isTransformed()) {
+            g.save();
+            applyTransform(g);
+            paint(g);
+            g.restore();
+        } else {
+            paint(g);
+        }
     }
 
     /**
-     * Gets the Canvas associated with this Shape.
+     * Adds the outline of the Shape, with its translation and rotation applied, to the current path
+     * of the specified GraphicsContext.
+     * @param g the GraphicsContext whose path is added to
+     */
+    void appendTransformedPath(GraphicsContext g) {
+        if (isTransformed()) {
+            g.save();
+            applyTransform(g);
+            appendPath(g);
+            g.restore();
+        } else {
+            appendPath(g);
+        }
+    }
+
+    /**
+     * Checks if the Shape is shown anywhere other than where its geometry says.
+     * @return true if the Shape is translated or rotated
+     */
+    boolean isTransformed() {
+        return translateX != 0 || translateY != 0 || rotation != 0;
+    }
+
+    /**
+     * Adds the Shape's translation and rotation to the transform of a GraphicsContext.
+     * @param g the GraphicsContext
+     */
+    private void applyTransform(GraphicsContext g) {
+        g.translate(translateX, translateY);
+        if (rotation != 0) {
+            determineCorners();
+            double centreX = (topLeft[0] + bottomRight[0]) / 2;
+            double centreY = (topLeft[1] + bottomRight[1]) / 2;
+            g.translate(centreX, centreY);
+            g.rotate(Math.toDegrees(rotation));
+            g.translate(-centreX, -centreY);
+        }
+    }
+
+    /**
+     * Applies the Shape's rotation and translation to points given in the coordinates of its
+     * geometry.
+     * @param points the X and Y coordinates of each point, one after the other, which are replaced
+     * @return the points
+     */
+    double[] toSurface(double[] points) {
+        determineCorners();
+        double centreX = (topLeft[0] + bottomRight[0]) / 2;
+        double centreY = (topLeft[1] + bottomRight[1]) / 2;
+        double cos = Math.cos(rotation);
+        double sin = Math.sin(rotation);
+        for (int i = 0; i + 1 < points.length; i += 2) {
+            double x = points[i] - centreX;
+            double y = points[i + 1] - centreY;
+            points[i] = centreX + x * cos - y * sin + translateX;
+            points[i + 1] = centreY + x * sin + y * cos + translateY;
+        }
+        return points;
+    }
+
+    /**
+     * Takes away the Shape's translation and rotation from a point on the Surface, giving the
+     * point in the coordinates of its geometry.
+     * @param x the X coordinate on the Surface
+     * @param y the Y coordinate on the Surface
+     * @param result receives the X and Y coordinates of the point
+     */
+    void toGeometry(double x, double y, double[] result) {
+        determineCorners();
+        double centreX = (topLeft[0] + bottomRight[0]) / 2;
+        double centreY = (topLeft[1] + bottomRight[1]) / 2;
+        double cos = Math.cos(rotation);
+        double sin = Math.sin(rotation);
+        double dx = x - translateX - centreX;
+        double dy = y - translateY - centreY;
+        result[0] = centreX + dx * cos + dy * sin;
+        result[1] = centreY - dx * sin + dy * cos;
+    }
+
+    /**
+     * Gets the corners of the Shape's box as they are shown on the Surface, so rotated with the
+     * Shape: top left, top right, bottom right and bottom left.
+     * @return the X and Y coordinates of each corner, one after the other
+     */
+    double[] getOrientedBox() {
+        determineCorners();
+        return toSurface(new double[] {topLeft[0], topLeft[1], bottomRight[0], topLeft[1],
+                bottomRight[0], bottomRight[1], topLeft[0], bottomRight[1]});
+    }
+
+    /**
+     * Gets the smallest box lining up with the axes that holds the Shape as it is shown on the
+     * Surface.
+     * @param result receives the left, top, right and bottom edges of the box
+     */
+    void getSurfaceBounds(double[] result) {
+        if (!isTransformed()) {
+            determineCorners();
+            result[0] = topLeft[0];
+            result[1] = topLeft[1];
+            result[2] = bottomRight[0];
+            result[3] = bottomRight[1];
+            return;
+        }
+        double[] box = getOrientedBox();
+        result[0] = Math.min(Math.min(box[0], box[2]), Math.min(box[4], box[6]));
+        result[1] = Math.min(Math.min(box[1], box[3]), Math.min(box[5], box[7]));
+        result[2] = Math.max(Math.max(box[0], box[2]), Math.max(box[4], box[6]));
+        result[3] = Math.max(Math.max(box[1], box[3]), Math.max(box[5], box[7]));
+    }
+
+    /**
+     * Checks if the Shape keeps the ratio of its width to its height when it is resized.
+     * @return true if the sides are locked together
+     */
+    boolean keepsAspectRatio() {
+        return false;
+    }
+
+    /**
+     * Stretches the geometry of the Shape so that its box becomes the specified box, without
+     * redrawing it.
+     * @param left the new left edge
+     * @param top the new top edge
+     * @param right the new right edge
+     * @param bottom the new bottom edge
+     */
+    void resize(double left, double top, double right, double bottom) {
+        determineCorners();
+        double width = bottomRight[0] - topLeft[0];
+        double height = bottomRight[1] - topLeft[1];
+        double scaleX = width == 0 ? 0 : (right - left) / width;
+        double scaleY = height == 0 ? 0 : (bottom - top) / height;
+        double oldLeft = topLeft[0];
+        double oldTop = topLeft[1];
+        double[] g = getGeometry();
+        for (int i = 0; i + 1 < g.length; i += 2) {
+            g[i] = left + (g[i] - oldLeft) * scaleX;
+            g[i + 1] = top + (g[i + 1] - oldTop) * scaleY;
+        }
+        setGeometry(g);
+    }
+
+    /**
+     * Moves the Shape's geometry by the specified distance without redrawing it.
+     * @param distanceX distance to move on the X axis
+     * @param distanceY distance to move on the Y axis
+     */
+    void translate(double distanceX, double distanceY) {
+        double[] g = getGeometry();
+        for (int i = 0; i + 1 < g.length; i += 2) {
+            g[i] += distanceX;
+            g[i + 1] += distanceY;
+        }
+        setGeometry(g);
+    }
+
+    /**
+     * Gets the Canvas associated with this Shape, creating it if needed.
      * @return the Canvas
      */
     Canvas getCanvas() {
+        if (canvas == null) {
+            canvas = new Canvas(1000, 780);
+            gc = canvas.getGraphicsContext2D();
+        }
         return canvas;
     }
 
+    /**
+     * Lets go of the Canvas associated with this Shape once it is no longer shown. A new Canvas
+     * is created if one is needed again.
+     * @return the Canvas, or null if the Shape had none
+     */
+    Canvas releaseCanvas() {
+        Canvas c = canvas;
+        canvas = null;
+        gc = null;
+        return c;
+    }
+
     /** Clears the GraphicsContext by creating a clear rectangle on the Canvas the same size as the
      * Canvas */
     void clear() {
+        getCanvas();
         gc.clearRect(0, 0, 1000, 780);
     }
 
@@ -203,23 +441,191 @@ abstract class Shape {
     }
 
     /**
-     * First calls determineCorners() to find which points are the outer limits of the shape. Then
-     * uses the coordinates of the Cursor click to determine if the click is within those limits.
+     * Takes away the translation and rotation from the coordinates of the Cursor click, then
+     * checks if the click falls within the Shape's geometry.
      * @param x the X coordinate of the Cursor
      * @param y the Y coordinate of the Cursor
      * @return the Shape, if found. Null if not found.
      */
     boolean shapeExists(double x, double y) {
+        if (rotation == 0) {
+            return contains(x - translateX, y - translateY);
+        }
+        double[] local = new double[2];
+        toGeometry(x, y, local);
+        return contains(local[0], local[1]);
+    }
+
+    /**
+     * First calls determineCorners() to find which points are the outer limits of the shape. Then
+     * uses the coordinates to determine if they are within those limits.
+     * @param x the X coordinate, in the coordinates of the geometry
+     * @param y the Y coordinate, in the coordinates of the geometry
+     * @return true if the point is within the Shape
+     */
+    boolean contains(double x, double y) {
         determineCorners();
         return (x >= topLeft[0] && x <= bottomRight[0])
                 && (y >= topLeft[1] && y <= bottomRight[1]);
     }
 
     /**
-     * Sets the Shape's color value.
+     * Gets the geometry of the Shape as a flat array of coordinates, used for saving the Shape.
+     * Most Shapes are described by their top left and bottom right corners.
+     * @return the coordinates describing the Shape
+     */
+    double[] getGeometry() {
+        determineCorners();
+        return new double[] {topLeft[0], topLeft[1], bottomRight[0], bottomRight[1]};
+    }
+
+    /**
+     * Sets the geometry of the Shape from a flat array of coordinates created by getGeometry().
+     * Does not redraw the Shape.
+     * @param g the coordinates describing the Shape
+     */
+    void setGeometry(double[] g) {
+        pointA[0] = g[0];
+        pointA[1] = g[1];
+        pointB[0] = g[2];
+        pointB[1] = g[3];
+        side = g[2] - g[0];
+        determineCorners();
+    }
+
+    /**
+     * Gets the outline of the Shape as a closed ring of points. Most Shapes are outlined by their
+     * corners.
+     * @return the X and Y coordinates of each point, one after the other
+     */
+    double[] getOutline() {
+        determineCorners();
+        return new double[] {topLeft[0], topLeft[1], bottomRight[0], topLeft[1],
+                bottomRight[0], bottomRight[1], topLeft[0], bottomRight[1]};
+    }
+
+    /**
+     * Gets the points of the Shape that other Shapes can snap to. For most Shapes these are the
+     * points of the outline.
+     * @return the X and Y coordinates of each point, one after the other
+     */
+    double[] getSnapPoints() {
+        return getOutline();
+    }
+
+    /**
+     * Gets the area the Shape covers, in square pixels. Most Shapes cover the area inside their
+     * outline. Rotation does not change the area.
+     * @return the area
+     */
+    double getArea() {
+        return ringArea(getOutline());
+    }
+
+    /**
+     * Finds the area inside rings of points with the shoelace formula. Rings that run the other
+     * way around, such as the holes of a Compound, take their area away.
+     * @param rings the X and Y coordinates of each point, the rings separated by a pair of NaNs
+     * @return the area
+     */
+    static double ringArea(double[] rings) {
+        double twice = 0;
+        int start = 0;
+        while (start < rings.length) {
+            int end = start;
+            while (end < rings.length && !Double.isNaN(rings[end])) {
+                end += 2;
+            }
+            for (int i = start; i < end; i += 2) {
+                int j = i + 2 < end ? i + 2 : start;
+                twice += rings[i] * rings[j + 1] - rings[j] * rings[i + 1];
+            }
+            start = end + 2;
+        }
+        return Math.abs(twice) / 2;
+    }
+
+    /**
+     * Gets the area of an ellipse that fills the corners of the Shape. Used by the round Shapes.
+     * @return the area, in square pixels
+     */
+    double ellipseArea() {
+        determineCorners();
+        return Math.PI / 4 * (bottomRight[0] - topLeft[0]) * (bottomRight[1] - topLeft[1]);
+    }
+
+    /**
+     * Gets the outline of an ellipse that fills the corners of the Shape, made of straight
+     * segments. Used by the round Shapes.
+     * @return the X and Y coordinates of each point, one after the other
+     */
+    double[] ellipseOutline() {
+        determineCorners();
+        double radiusX = (bottomRight[0] - topLeft[0]) / 2;
+        double radiusY = (bottomRight[1] - topLeft[1]) / 2;
+        double[] ring = new double[ELLIPSE_SEGMENTS * 2];
+        for (int i = 0; i < ELLIPSE_SEGMENTS; i++) {
+            double angle = 2 * Math.PI * i / ELLIPSE_SEGMENTS;
+            ring[i * 2] = topLeft[0] + radiusX + radiusX * Math.cos(angle);
+            ring[i * 2 + 1] = topLeft[1] + radiusY + radiusY * Math.sin(angle);
+        }
+        return ring;
+    }
+
+    /**
+     * Gets the centre and the four outermost points of an ellipse that fills the corners of the
+     * Shape. Used by the round Shapes as their snap points.
+     * @return the X and Y coordinates of each point, one after the other
+     */
+    double[] ellipseSnapPoints() {
+        determineCorners();
+        double centreX = (topLeft[0] + bottomRight[0]) / 2;
+        double centreY = (topLeft[1] + bottomRight[1]) / 2;
+        return new double[] {centreX, centreY, bottomRight[0], centreY, centreX, bottomRight[1],
+                topLeft[0], centreY, centreX, topLeft[1]};
+    }
+
+    /**
+     * Makes a finished copy of the Shape that is not on any Layer and has no identifier yet. The
+     * fields are copied at once and the arrays of points are copied whole, so the copy is not
+     * rebuilt point by point, and it gets no Canvas until it needs one. Shapes with arrays of
+     * their own copy them too. The copy is not translated, so a Shape copied while it is being
+     * played back is copied where it rests.
+     * @return the copy
+     */
+    Shape copy() {
+        Shape s;
+        try {
+            s = (Shape) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+        s.pointA = pointA.clone();
+        s.pointB = pointB.clone();
+        s.topLeft = topLeft.clone();
+        s.bottomRight = bottomRight.clone();
+        s.canvas = null;
+        s.gc = null;
+        s.layer = null;
+        s.stored = false;
+        s.animated = false;
+        s.committed = true;
+        s.record = null;
+        s.id = 0;
+        s.translateX = 0;
+        s.translateY = 0;
+        return s;
+    }
+
+    /**
+     * Sets the Shape's color value, and moves the Shape to its new Color in its Layer's
+     * AttributeIndex if it is indexed there.
      * @param c the Color value to set
      */
     void setColor(Color c) {
         this.color = c;
+        if (layer != null) {
+            layer.attributeIndex.recoloured(this);
+        }
     }
 }
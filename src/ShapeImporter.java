@@ -0,0 +1,322 @@
+import javafx.scene.paint.Color;
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * ShapeImporter. Turns lines of shape data produced by other programs into Shapes, one line at a
+ * time, so a file of any size can be streamed in without holding its text in memory. Two line
+ * formats are understood:
+ * <p>
+ * CSV, with the type, the Color and then the coordinates. A first line starting with "type" is
+ * taken as a header and skipped:
+ * <pre>
+ * rectangle,#ff0000,x,y,width,height      oval,#ff0000,x,y,width,height
+ * square,#ff0000,x,y,size                 circle,#ff0000,x,y,size
+ * triangle,#ff0000,x1,y1,x2,y2,x3,y3      polygon,#ff0000,x1,y1,x2,y2,...
+ * </pre>
+ * Line-delimited JSON, with one flat object per line using the same names, an optional rotation
+ * in degrees, and the points of triangles and polygons in an array:
+ * <pre>
+ * {"type":"rectangle","color":"#ff0000","x":10,"y":20,"width":30,"height":40,"rotation":45}
+ * {"type":"polygon","color":"red","points":[10,10,50,10,30,40]}
+ * </pre>
+ * Colors are anything Color.web() accepts. Each distinct Color is only parsed once.
+ * @author Emily DeLisle
+ * @version 1.0
+ */
+class ShapeImporter {
+
+    /** Packed Colors already parsed, by the text they were parsed from */
+    private HashMap<String, Integer> colors = new HashMap<>();
+
+    /** Number of the line being parsed, counting from 1 */
+    private long lineNumber;
+
+    /** Fields of the JSON object being parsed, by name. Reused for every line */
+    private HashMap<String, Object> fields = new HashMap<>();
+
+    /** The line being parsed as JSON */
+    private String json;
+
+    /** Position in the line being parsed as JSON */
+    private int pos;
+
+    /**
+     * Parses one line of shape data, in either format.
+     * @param line the line to parse
+     * @return the new Shape, or null if the line is blank or a header
+     * @throws IOException if the line does not describe a Shape
+     */
+    Shape parse(String line) throws IOException {
+        lineNumber++;
+        line = line.trim();
+        if (line.isEmpty() || (lineNumber == 1 && line.regionMatches(true, 0, "type", 0, 4))) {
+            return null;
+        }
+        try {
+            return line.charAt(0) == '{' ? parseJson(line) : parseCsv(line);
+        } catch (RuntimeException e) {
+            throw new IOException("Bad shape on line " + lineNumber + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Parses one CSV line.
+     * @param line the line to parse
+     * @return the new Shape
+     */
+    private Shape parseCsv(String line) {
+        String[] cells = line.split(",");
+        if (cells.length < 2) {
+            throw new IllegalArgumentException("missing type or color");
+        }
+        double[] numbers = new double[cells.length - 2];
+        for (int i = 0; i < numbers.length; i++) {
+            numbers[i] = Double.parseDouble(cells[i + 2].trim());
+        }
+        byte type = typeCode(cells[0].trim());
+        double[] geometry;
+        if (type == ShapeRecord.TRIANGLE || type == ShapeRecord.POLYGON) {
+            geometry = points(type, numbers);
+        } else {
+            int needed = type == ShapeRecord.SQUARE || type == ShapeRecord.CIRCLE ? 3 : 4;
+            if (numbers.length != needed) {
+                throw new IllegalArgumentException("expected " + needed + " coordinates");
+            }
+            geometry = box(numbers[0], numbers[1], numbers[2],
+                    needed == 3 ? numbers[2] : numbers[3]);
+        }
+        return toShape(type, cells[1].trim(), 0, geometry);
+    }
+
+    /**
+     * Parses one line of JSON.
+     * @param line the line to parse
+     * @return the new Shape
+     */
+    private Shape parseJson(String line) {
+        json = line;
+        pos = 0;
+        fields.clear();
+        readObject();
+        byte type = typeCode((String) field("type"));
+        double[] geometry;
+        if (type == ShapeRecord.TRIANGLE || type == ShapeRecord.POLYGON) {
+            geometry = points(type, (double[]) field("points"));
+        } else if (type == ShapeRecord.SQUARE || type == ShapeRecord.CIRCLE) {
+            double size = number("size");
+            geometry = box(number("x"), number("y"), size, size);
+        } else {
+            geometry = box(number("x"), number("y"), number("width"), number("height"));
+        }
+        Object rotation = fields.get("rotation");
+        double radians = rotation == null ? 0 : Math.toRadians((Double) rotation);
+        return toShape(type, (String) field("color"), radians, geometry);
+    }
+
+    /**
+     * Gets a field of the JSON object being parsed.
+     * @param name the name of the field
+     * @return the value of the field
+     */
+    private Object field(String name) {
+        Object value = fields.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("missing \"" + name + "\"");
+        }
+        return value;
+    }
+
+    /**
+     * Gets a number field of the JSON object being parsed.
+     * @param name the name of the field
+     * @return the number
+     */
+    private double number(String name) {
+        return (Double) field(name);
+    }
+
+    /** Reads a flat JSON object into the fields. */
+    private void readObject() {
+        expect('{');
+        if (peek() == '}') {
+            pos++;
+            return;
+        }
+        do {
+            String name = readString();
+            expect(':');
+            fields.put(name, readValue());
+        } while (next() == ',');
+        pos--;
+        expect('}');
+    }
+
+    /**
+     * Reads a JSON value: a string, a number, or an array of numbers.
+     * @return a String, a Double or a double[]
+     */
+    private Object readValue() {
+        char c = peek();
+        if (c == '"') {
+            return readString();
+        }
+        if (c != '[') {
+            return readNumber();
+        }
+        pos++;
+        double[] numbers = new double[8];
+        int count = 0;
+        if (peek() == ']') {
+            pos++;
+            return new double[0];
+        }
+        do {
+            if (count == numbers.length) {
+                double[] grown = new double[count * 2];
+                System.arraycopy(numbers, 0, grown, 0, count);
+                numbers = grown;
+            }
+            numbers[count++] = readNumber();
+        } while (next() == ',');
+        pos--;
+        expect(']');
+        double[] result = new double[count];
+        System.arraycopy(numbers, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * Reads a JSON string. A backslash makes the character after it be taken as it is, which is
+     * all that shape data needs.
+     * @return the string
+     */
+    private String readString() {
+        expect('"');
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            char c = json.charAt(pos++);
+            if (c == '"') {
+                return sb.toString();
+            }
+            if (c == '\\') {
+                c = json.charAt(pos++);
+            }
+            sb.append(c);
+        }
+    }
+
+    /**
+     * Reads a JSON number.
+     * @return the number
+     */
+    private double readNumber() {
+        peek();
+        int start = pos;
+        while (pos < json.length() && "+-.0123456789eE".indexOf(json.charAt(pos)) >= 0) {
+            pos++;
+        }
+        return Double.parseDouble(json.substring(start, pos));
+    }
+
+    /**
+     * Skips white space and gets the next character without reading it.
+     * @return the next character
+     */
+    private char peek() {
+        while (Character.isWhitespace(json.charAt(pos))) {
+            pos++;
+        }
+        return json.charAt(pos);
+    }
+
+    /**
+     * Skips white space and reads the next character.
+     * @return the character
+     */
+    private char next() {
+        char c = peek();
+        pos++;
+        return c;
+    }
+
+    /**
+     * Reads the next character, which must be the specified one.
+     * @param c the expected character
+     */
+    private void expect(char c) {
+        if (next() != c) {
+            throw new IllegalArgumentException("expected '" + c + "' at column " + pos);
+        }
+    }
+
+    /**
+     * Finds the type code for a type name.
+     * @param name the name of the type, in any case
+     * @return the type code
+     */
+    private static byte typeCode(String name) {
+        switch (name.toLowerCase()) {
+            case "rectangle":
+                return ShapeRecord.RECTANGLE;
+            case "square":
+                return ShapeRecord.SQUARE;
+            case "oval":
+                return ShapeRecord.OVAL;
+            case "circle":
+                return ShapeRecord.CIRCLE;
+            case "triangle":
+                return ShapeRecord.TRIANGLE;
+            case "polygon":
+                return ShapeRecord.POLYGON;
+            default:
+                throw new IllegalArgumentException("unknown type \"" + name + "\"");
+        }
+    }
+
+    /**
+     * Creates the geometry of a Shape that is described by its box.
+     * @param x the left edge
+     * @param y the top edge
+     * @param width the width
+     * @param height the height
+     * @return the geometry
+     */
+    private static double[] box(double x, double y, double width, double height) {
+        if (width < 0 || height < 0) {
+            throw new IllegalArgumentException("negative size");
+        }
+        return new double[] {x, y, x + width, y + height};
+    }
+
+    /**
+     * Checks the points of a Triangle or Polygon.
+     * @param type the type code
+     * @param points the X and Y coordinates of each point
+     * @return the geometry
+     */
+    private static double[] points(byte type, double[] points) {
+        if (type == ShapeRecord.TRIANGLE ? points.length != 6
+                : points.length < 6 || points.length % 2 != 0) {
+            throw new IllegalArgumentException("wrong number of point coordinates");
+        }
+        return points;
+    }
+
+    /**
+     * Creates a finished Shape.
+     * @param type the type code
+     * @param color the text of the Color
+     * @param rotation the rotation, in radians
+     * @param geometry the geometry
+     * @return the new Shape
+     */
+    private Shape toShape(byte type, String color, double rotation, double[] geometry) {
+        Integer argb = colors.get(color);
+        if (argb == null) {
+            argb = ShapeRecord.toArgb(Color.web(color));
+            colors.put(color, argb);
+        }
+        return new ShapeRecord(0, type, argb, 0, rotation, geometry).toShape();
+    }
+}
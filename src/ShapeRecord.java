@@ -0,0 +1,241 @@
+import javafx.scene.paint.Color;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * ShapeRecord. An immutable description of a Shape (its type, Color and geometry) that can be
+ * written to and read from a stream. Used to save Shapes and to recreate them later.
+ * @author Emily DeLisle
+ * @version 1.0
+ */
+final class ShapeRecord {
+
+    /**
+     * Version of the layout written by write(). Version 2 added the Layer index and version 3 the
+     * rotation.
+     */
+    static final int FORMAT = 3;
+
+    /** Type code for a Rectangle */
+    static final byte RECTANGLE = 0;
+
+    /** Type code for a Square */
+    static final byte SQUARE = 1;
+
+    /** Type code for an Oval */
+    static final byte OVAL = 2;
+
+    /** Type code for a Circle */
+    static final byte CIRCLE = 3;
+
+    /** Type code for a Triangle */
+    static final byte TRIANGLE = 4;
+
+    /** Type code for a Polygon */
+    static final byte POLYGON = 5;
+
+    /** Type code for a Group */
+    static final byte GROUP = 6;
+
+    /** Type code for a Compound */
+    static final byte COMPOUND = 7;
+
+    /** Type code for a Raster */
+    static final byte RASTER = 8;
+
+    /** Identifier of the Shape */
+    final long id;
+
+    /** Type code of the Shape */
+    final byte type;
+
+    /** Color of the Shape, packed as 32-bit ARGB */
+    final int argb;
+
+    /** Index of the Layer the Shape belongs to */
+    final int layer;
+
+    /** Angle the Shape is rotated by about the centre of its geometry, in radians */
+    final double rotation;
+
+    /** Coordinates describing the Shape, as returned by Shape.getGeometry() */
+    private final double[] geometry;
+
+    /**
+     * Constructor for the ShapeRecord.
+     * @param id identifier of the Shape
+     * @param type type code of the Shape
+     * @param argb Color of the Shape, packed as 32-bit ARGB
+     * @param layer index of the Layer the Shape belongs to
+     * @param rotation angle the Shape is rotated by, in radians
+     * @param geometry coordinates describing the Shape
+     */
+    ShapeRecord(long id, byte type, int argb, int layer, double rotation, double[] geometry) {
+        this.id = id;
+        this.type = type;
+        this.argb = argb;
+        this.layer = layer;
+        this.rotation = rotation;
+        this.geometry = geometry;
+    }
+
+    /**
+     * Creates a record of the current state of the specified Shape.
+     * @param s the Shape to record
+     * @return the ShapeRecord
+     */
+    static ShapeRecord of(Shape s) {
+        return new ShapeRecord(s.id, typeOf(s), toArgb(s.color),
+                s.layer == null ? 0 : s.layer.index, s.rotation, s.getGeometry());
+    }
+
+    /**
+     * Finds the type code of the specified Shape by examining what the Shape is.
+     * @param s the Shape
+     * @return the type code
+     */
+    static byte typeOf(Shape s) {
+        if (s instanceof Group) {
+            return GROUP;
+        } else if (s instanceof Compound) {
+            return COMPOUND;
+        } else if (s instanceof Raster) {
+            return RASTER;
+        } else if (s instanceof Polygon) {
+            return POLYGON;
+        } else if (s instanceof Square) {
+            return SQUARE;
+        } else if (s instanceof Oval) {
+            return OVAL;
+        } else if (s instanceof Circle) {
+            return CIRCLE;
+        } else if (s instanceof Triangle) {
+            return TRIANGLE;
+        }
+        return RECTANGLE;
+    }
+
+    /**
+     * Creates a new Shape from this record. The Shape is not drawn until redraw() is called, and
+     * keeps this record so that the Surface knows which Layer to restore it to.
+     * @return the new Shape
+     */
+    Shape toShape() {
+        Color color = toColor(argb);
+        Shape s;
+        switch (type) {
+            case GROUP:
+                s = new Group(color);
+                break;
+            case POLYGON:
+                s = new Polygon(color, null);
+                break;
+            case COMPOUND:
+                s = new Compound(color);
+                break;
+            case RASTER:
+                s = new Raster(color);
+                break;
+            case SQUARE:
+                s = new Square(color);
+                break;
+            case OVAL:
+                s = new Oval(color);
+                break;
+            case CIRCLE:
+                s = new Circle(color);
+                break;
+            case TRIANGLE:
+                s = new Triangle(color);
+                break;
+            default:
+                s = new Rectangle(color);
+        }
+        s.id = id;
+        s.setGeometry(geometry);
+        s.rotation = rotation;
+        s.committed = true;
+        s.record = this;
+        return s;
+    }
+
+    /**
+     * Gets the coordinates describing the Shape.
+     * @return a copy of the coordinates
+     */
+    double[] getGeometry() {
+        return geometry.clone();
+    }
+
+    /**
+     * Writes this record to the specified output.
+     * @param out the output to write to
+     * @throws IOException if the output cannot be written
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeLong(id);
+        out.writeByte(type);
+        out.writeInt(argb);
+        out.writeInt(layer);
+        out.writeDouble(rotation);
+        out.writeInt(geometry.length);
+        for (double d : geometry) {
+            out.writeDouble(d);
+        }
+    }
+
+    /**
+     * Reads a record written by write() from the specified input. Records written before Shapes
+     * had Layers are read into the bottom Layer, and records written before Shapes could be
+     * rotated are not rotated.
+     * @param in the input to read from
+     * @param format the version of the layout the record was written with
+     * @return the ShapeRecord
+     * @throws IOException if the input cannot be read
+     */
+    static ShapeRecord read(DataInput in, int format) throws IOException {
+        long id = in.readLong();
+        byte type = in.readByte();
+        int argb = in.readInt();
+        int layer = format >= 2 ? in.readInt() : 0;
+        double rotation = format >= 3 ? in.readDouble() : 0;
+        if (layer < 0 || layer > 1024) {
+            throw new IOException("Invalid layer " + layer);
+        }
+        int length = in.readInt();
+        if (length < 0 || length > (1 << 24)) {
+            throw new IOException("Invalid geometry length " + length);
+        }
+        double[] geometry = new double[length];
+        for (int i = 0; i < length; i++) {
+            geometry[i] = in.readDouble();
+        }
+        if (type == GROUP && format < 3) {
+            geometry = Group.upgradeGeometry(geometry);
+        }
+        return new ShapeRecord(id, type, argb, layer, rotation, geometry);
+    }
+
+    /**
+     * Packs the specified Color into a 32-bit ARGB value.
+     * @param c the Color to pack
+     * @return the ARGB value
+     */
+    static int toArgb(Color c) {
+        return ((int) Math.round(c.getOpacity() * 255) << 24)
+                | ((int) Math.round(c.getRed() * 255) << 16)
+                | ((int) Math.round(c.getGreen() * 255) << 8)
+                | (int) Math.round(c.getBlue() * 255);
+    }
+
+    /**
+     * Unpacks a 32-bit ARGB value into a Color.
+     * @param argb the ARGB value
+     * @return the Color
+     */
+    static Color toColor(int argb) {
+        return Color.rgb((argb >> 16) & 0xFF, (argb >> 8) & 0xFF, argb & 0xFF,
+                ((argb >>> 24) & 0xFF) / 255.0);
+    }
+}
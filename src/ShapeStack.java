@@ -0,0 +1,400 @@
+import java.util.AbstractCollection;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * ShapeStack. An immutable stack of Shapes ordered by their identifiers, so the Shape with the
+ * highest identifier is at the top. Every change returns a new ShapeStack that shares all of its
+ * unchanged parts with the old one (a persistent treap), so a change only copies the path to the
+ * changed Shape. Because a ShapeStack never changes, it can be handed to another thread as a
+ * snapshot without copying or locking.
+ * <p>
+ * Each entry also holds the immutable ShapeRecord of its Shape as it was when the entry was last
+ * put, or null if the Shape has not been finished yet. Other threads should only read the
+ * records, since the Shapes themselves keep changing on the JavaFX thread.
+ * @author Emily DeLisle
+ * @version 1.0
+ */
+final class ShapeStack implements Iterable<Shape> {
+
+    /** The empty ShapeStack */
+    static final ShapeStack EMPTY = new ShapeStack(null);
+
+    /** An entry of the treap */
+    private static final class Node {
+
+        /** Identifier of the Shape, used as the key */
+        final long id;
+
+        /** Priority of the entry, derived from the key so that the treap stays balanced */
+        final int priority;
+
+        /** The Shape */
+        final Shape shape;
+
+        /** Record of the Shape, or null if the Shape is not finished */
+        final ShapeRecord record;
+
+        /** Entries with lower identifiers */
+        final Node left;
+
+        /** Entries with higher identifiers */
+        final Node right;
+
+        /** Number of entries in this subtree */
+        final int size;
+
+        /** Number of entries with a record in this subtree */
+        final int records;
+
+        Node(long id, int priority, Shape shape, ShapeRecord record, Node left, Node right) {
+            this.id = id;
+            this.priority = priority;
+            this.shape = shape;
+            this.record = record;
+            this.left = left;
+            this.right = right;
+            this.size = 1 + size(left) + size(right);
+            this.records = (record == null ? 0 : 1) + records(left) + records(right);
+        }
+
+        /**
+         * Creates a copy of this entry with different children.
+         * @param l the new left child
+         * @param r the new right child
+         * @return the copy
+         */
+        Node with(Node l, Node r) {
+            return new Node(id, priority, shape, record, l, r);
+        }
+    }
+
+    /** Root of the treap */
+    private final Node root;
+
+    /**
+     * Constructor for the ShapeStack.
+     * @param root root of the treap
+     */
+    private ShapeStack(Node root) {
+        this.root = root;
+    }
+
+    private static int size(Node n) {
+        return n == null ? 0 : n.size;
+    }
+
+    private static int records(Node n) {
+        return n == null ? 0 : n.records;
+    }
+
+    /**
+     * Derives a well-mixed priority from an identifier.
+     * @param id the identifier
+     * @return the priority
+     */
+    private static int priority(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 31;
+        h *= 0xBF58476D1CE4E5B9L;
+        return (int) (h ^ (h >>> 29));
+    }
+
+    /**
+     * Gets the number of Shapes in the stack.
+     * @return the number of Shapes
+     */
+    int size() {
+        return size(root);
+    }
+
+    /**
+     * Checks if the stack has no Shapes.
+     * @return true if the stack is empty
+     */
+    boolean isEmpty() {
+        return root == null;
+    }
+
+    /**
+     * Gets the Shape at the top of the stack.
+     * @return the top Shape
+     * @throws NoSuchElementException if the stack is empty
+     */
+    Shape top() {
+        Node n = root;
+        if (n == null) {
+            throw new NoSuchElementException();
+        }
+        while (n.right != null) {
+            n = n.right;
+        }
+        return n.shape;
+    }
+
+    /**
+     * Checks if the stack holds a Shape with the specified identifier.
+     * @param id the identifier
+     * @return true if the Shape is in the stack
+     */
+    boolean contains(long id) {
+        Node n = root;
+        while (n != null && n.id != id) {
+            n = id < n.id ? n.left : n.right;
+        }
+        return n != null;
+    }
+
+    /**
+     * Gets the Shape with the specified identifier.
+     * @param id the identifier
+     * @return the Shape, or null if it is not in the stack
+     */
+    Shape get(long id) {
+        Node n = root;
+        while (n != null && n.id != id) {
+            n = id < n.id ? n.left : n.right;
+        }
+        return n == null ? null : n.shape;
+    }
+
+    /**
+     * Returns a stack with the specified Shape put at the position given by its identifier,
+     * replacing any entry with the same identifier.
+     * @param s the Shape
+     * @param record the record of the Shape, or null if it is not finished
+     * @return the new stack
+     */
+    ShapeStack put(Shape s, ShapeRecord record) {
+        return new ShapeStack(put(root, s, record));
+    }
+
+    private static Node put(Node n, Shape s, ShapeRecord record) {
+        if (n == null) {
+            return new Node(s.id, priority(s.id), s, record, null, null);
+        }
+        if (s.id == n.id) {
+            return new Node(n.id, n.priority, s, record, n.left, n.right);
+        }
+        if (s.id < n.id) {
+            Node l = put(n.left, s, record);
+            if (l.priority > n.priority) {
+                // Rotate right
+                return l.with(l.left, n.with(l.right, n.right));
+            }
+            return n.with(l, n.right);
+        }
+        Node r = put(n.right, s, record);
+        if (r.priority > n.priority) {
+            // Rotate left
+            return r.with(n.with(n.left, r.left), r.right);
+        }
+        return n.with(n.left, r);
+    }
+
+    /**
+     * Returns a stack with the specified finished Shapes added to the top. The Shapes must be in
+     * order of their identifiers, all higher than any identifier already in the stack. The added
+     * Shapes are built into a treap of their own in a single pass (a Cartesian tree, built with a
+     * stack of its right spine), which is then joined to the top of this one, so adding n Shapes
+     * takes time in proportion to n rather than n log n.
+     * @param added the Shapes to add, from the bottom up
+     * @return the new stack
+     */
+    ShapeStack append(List<Shape> added) {
+        int n = added.size();
+        if (n == 0) {
+            return this;
+        }
+        int[] priorities = new int[n];
+        int[] left = new int[n];
+        int[] right = new int[n];
+        int[] spine = new int[n];
+        int depth = 0;
+        for (int i = 0; i < n; i++) {
+            priorities[i] = priority(added.get(i).id);
+            int last = -1;
+            while (depth > 0 && priorities[spine[depth - 1]] < priorities[i]) {
+                last = spine[--depth];
+            }
+            left[i] = last;
+            right[i] = -1;
+            if (depth > 0) {
+                right[spine[depth - 1]] = i;
+            }
+            spine[depth++] = i;
+        }
+        return new ShapeStack(merge(root, build(added, priorities, left, right, spine[0])));
+    }
+
+    /**
+     * Creates the entries of a Cartesian tree found by append().
+     * @param added the Shapes being added
+     * @param priorities the priority of each Shape
+     * @param left the index of the left child of each Shape, or -1
+     * @param right the index of the right child of each Shape, or -1
+     * @param i the index of the root of the subtree to create, or -1
+     * @return the root entry of the subtree
+     */
+    private static Node build(List<Shape> added, int[] priorities, int[] left, int[] right,
+            int i) {
+        if (i < 0) {
+            return null;
+        }
+        Shape s = added.get(i);
+        return new Node(s.id, priorities[i], s, s.record,
+                build(added, priorities, left, right, left[i]),
+                build(added, priorities, left, right, right[i]));
+    }
+
+    /**
+     * Returns a stack without the Shape with the specified identifier.
+     * @param id the identifier
+     * @return the new stack, or this stack if the Shape was not in it
+     */
+    ShapeStack remove(long id) {
+        Node r = remove(root, id);
+        return r == root ? this : new ShapeStack(r);
+    }
+
+    private static Node remove(Node n, long id) {
+        if (n == null) {
+            return null;
+        }
+        if (id < n.id) {
+            Node l = remove(n.left, id);
+            return l == n.left ? n : n.with(l, n.right);
+        }
+        if (id > n.id) {
+            Node r = remove(n.right, id);
+            return r == n.right ? n : n.with(n.left, r);
+        }
+        return merge(n.left, n.right);
+    }
+
+    /**
+     * Merges two treaps where every identifier in the first is lower than in the second.
+     * @param a the lower treap
+     * @param b the higher treap
+     * @return the merged treap
+     */
+    private static Node merge(Node a, Node b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority > b.priority) {
+            return a.with(a.left, merge(a.right, b));
+        }
+        return b.with(merge(a, b.left), b.right);
+    }
+
+    /**
+     * Iterates over the Shapes from the top of the stack down.
+     * @return the iterator
+     */
+    @Override
+    public Iterator<Shape> iterator() {
+        return new InOrder(root, true);
+    }
+
+    /**
+     * Gets the Shapes from the bottom of the stack up, which is the order they are painted in.
+     * @return the Shapes from the bottom up
+     */
+    Iterable<Shape> bottomUp() {
+        return () -> new InOrder(root, false);
+    }
+
+    /** Iterates over the Shapes of a treap in order of their identifiers */
+    private static final class InOrder implements Iterator<Shape> {
+
+        /** Entries still to be visited */
+        private final ArrayDeque<Node> path = new ArrayDeque<>();
+
+        /** Whether the highest identifiers come first */
+        private final boolean descending;
+
+        InOrder(Node root, boolean descending) {
+            this.descending = descending;
+            descend(root);
+        }
+
+        private void descend(Node n) {
+            while (n != null) {
+                path.push(n);
+                n = descending ? n.right : n.left;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !path.isEmpty();
+        }
+
+        @Override
+        public Shape next() {
+            if (path.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            Node n = path.pop();
+            descend(descending ? n.left : n.right);
+            return n.shape;
+        }
+    }
+
+    /**
+     * Gets a view of the records of the finished Shapes, from the bottom of the stack to the top.
+     * The view never changes, so it can be read on any thread.
+     * @return the records
+     */
+    Collection<ShapeRecord> records() {
+        return new AbstractCollection<ShapeRecord>() {
+            @Override
+            public int size() {
+                return records(root);
+            }
+
+            @Override
+            public Iterator<ShapeRecord> iterator() {
+                return new Iterator<ShapeRecord>() {
+                    private final ArrayDeque<Node> path = new ArrayDeque<>();
+
+                    {
+                        descendLeft(root);
+                    }
+
+                    private void descendLeft(Node n) {
+                        while (n != null && n.records > 0) {
+                            path.push(n);
+                            n = n.left;
+                        }
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        while (!path.isEmpty() && path.peek().record == null) {
+                            descendLeft(path.pop().right);
+                        }
+                        return !path.isEmpty();
+                    }
+
+                    @Override
+                    public ShapeRecord next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        Node n = path.pop();
+                        descendLeft(n.right);
+                        return n.record;
+                    }
+                };
+            }
+        };
+    }
+}
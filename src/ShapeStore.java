@@ -0,0 +1,653 @@
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * ShapeStore. Keeps finished Shapes of a Layer outside the Java heap, so that documents of
+ * millions of Shapes need neither a Shape object nor a ShapeRecord for each of them. The record
+ * of every Shape (its identifier, type, Color, rotation, bounds and geometry) is appended to
+ * direct ByteBuffers, or to buffers mapped from a temporary file so the operating system can page
+ * them out, and is reached through a handle: the position of the record in the order the records
+ * were added. On the heap each record only costs its offset and its entries in a coarse grid used
+ * to find the record under the Cursor, and its entries in the lists of records of each type and
+ * of each Color, so selecting by either reads only the records that match.
+ * <p>
+ * Records are never changed once written. A record that is taken out of the store, to be edited
+ * as an ordinary Shape, is only marked as removed. Since the Surface gives out identifiers in
+ * increasing order, records are kept sorted by identifier and are looked up by binary search;
+ * Shapes whose identifier is not greater than the last one added are refused, as are Shapes too
+ * large for one buffer, and stay on the heap.
+ * @author Emily DeLisle
+ * @version 1.0
+ */
+final class ShapeStore {
+
+    /** Number of bits in the size of one buffer */
+    private static final int CHUNK_BITS = 26;
+
+    /** Size of one buffer, in bytes. No record is split between two buffers */
+    private static final int CHUNK = 1 << CHUNK_BITS;
+
+    /** Offset of the type code within a record */
+    private static final int TYPE = 8;
+
+    /** Offset of the Color within a record */
+    private static final int ARGB = 9;
+
+    /** Offset of the Layer index within a record */
+    private static final int LAYER = 13;
+
+    /** Offset of the rotation within a record */
+    private static final int ROTATION = 17;
+
+    /** Offset of the bounds, four floats, within a record */
+    private static final int BOUNDS = 25;
+
+    /** Offset of the number of values in the geometry within a record */
+    private static final int LENGTH = 41;
+
+    /** Size of a record before its geometry, in bytes */
+    private static final int HEADER = 45;
+
+    /** Width and height of a grid cell, in pixels */
+    private static final double CELL = 64;
+
+    /** Largest number of cells a record is entered in before it is kept in the large list */
+    private static final int MAX_CELLS = 256;
+
+    /** The file the buffers are mapped from, or null if they are in memory */
+    private final FileChannel file;
+
+    /** The buffers, each CHUNK bytes long */
+    private final ArrayList<ByteBuffer> chunks = new ArrayList<>();
+
+    /** Position the next record is written at, counting across every buffer */
+    private long end;
+
+    /** Position of each record, by handle */
+    private long[] offsets = new long[1024];
+
+    /** Number of records added, including those since removed */
+    private int count;
+
+    /** One bit per handle, set once its record has been taken out */
+    private long[] removed = new long[16];
+
+    /** Number of records not removed */
+    private int live;
+
+    /** Handles of the records entered in each grid cell, by cell key, in increasing order */
+    private final HashMap<Long, IntList> cells = new HashMap<>();
+
+    /** Handles of records too large to enter in the grid, in increasing order */
+    private final IntList large = new IntList();
+
+    /** Handles of the records of each type, by type code, in increasing order */
+    private final HashMap<Integer, IntList> byType = new HashMap<>();
+
+    /** Handles of the records of each Color, by packed Color, in increasing order */
+    private final HashMap<Integer, IntList> byColour = new HashMap<>();
+
+    /** Coordinates of a Triangle or Polygon being painted, reused between records */
+    private double[] xs = new double[16];
+
+    /** See xs */
+    private double[] ys = new double[16];
+
+    /**
+     * Constructor for a ShapeStore kept in direct ByteBuffers.
+     */
+    ShapeStore() {
+        this.file = null;
+    }
+
+    /**
+     * Constructor for a ShapeStore kept in a temporary file in the specified directory, which is
+     * deleted when the store is closed or the program exits.
+     * @param directory the directory to put the file in
+     * @throws IOException if the file cannot be created
+     */
+    ShapeStore(Path directory) throws IOException {
+        Path path = Files.createTempFile(Files.createDirectories(directory), "shapes", ".bin");
+        this.file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+        path.toFile().deleteOnExit();
+    }
+
+    /**
+     * Adds the record of a finished Shape to the store.
+     * @param s the Shape, whose record is up to date
+     * @return the handle of the record, or -1 if the Shape cannot be kept in the store
+     */
+    int add(Shape s) {
+        ShapeRecord r = s.record;
+        double[] geometry = r.getGeometry();
+        long size = HEADER + 8L * geometry.length;
+        if (size > CHUNK || (count > 0 && r.id <= id(count - 1))) {
+            return -1;
+        }
+        if ((end & (CHUNK - 1)) + size > CHUNK) {
+            end = (end | (CHUNK - 1)) + 1;
+        }
+        ByteBuffer b;
+        try {
+            b = chunk(end);
+        } catch (IOException e) {
+            return -1;
+        }
+        double[] box = new double[4];
+        s.getSurfaceBounds(box);
+        int at = (int) (end & (CHUNK - 1));
+        b.putLong(at, r.id);
+        b.put(at + TYPE, r.type);
+        b.putInt(at + ARGB, r.argb);
+        b.putInt(at + LAYER, r.layer);
+        b.putDouble(at + ROTATION, r.rotation);
+        b.putFloat(at + BOUNDS, Math.nextDown((float) box[0]));
+        b.putFloat(at + BOUNDS + 4, Math.nextDown((float) box[1]));
+        b.putFloat(at + BOUNDS + 8, Math.nextUp((float) box[2]));
+        b.putFloat(at + BOUNDS + 12, Math.nextUp((float) box[3]));
+        b.putInt(at + LENGTH, geometry.length);
+        for (int i = 0; i < geometry.length; i++) {
+            b.putDouble(at + HEADER + 8 * i, geometry[i]);
+        }
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, count * 2);
+        }
+        if ((count >> 6) >= removed.length) {
+            removed = Arrays.copyOf(removed, removed.length * 2);
+        }
+        int handle = count++;
+        offsets[handle] = end;
+        end += size;
+        live++;
+        enter(handle, box);
+        byType.computeIfAbsent((int) r.type, k -> new IntList()).add(handle);
+        byColour.computeIfAbsent(r.argb, k -> new IntList()).add(handle);
+        return handle;
+    }
+
+    /**
+     * Enters a record in every grid cell its bounds cover, or in the large list.
+     * @param handle the handle of the record
+     * @param box the bounds of the record
+     */
+    private void enter(int handle, double[] box) {
+        int left = cell(box[0]);
+        int top = cell(box[1]);
+        int right = cell(box[2]);
+        int bottom = cell(box[3]);
+        if (((long) right - left + 1) * ((long) bottom - top + 1) > MAX_CELLS) {
+            large.add(handle);
+            return;
+        }
+        for (int row = top; row <= bottom; row++) {
+            for (int column = left; column <= right; column++) {
+                cells.computeIfAbsent(key(column, row), k -> new IntList()).add(handle);
+            }
+        }
+    }
+
+    /**
+     * Gets the buffer holding the specified position, creating it if the position is just past
+     * the last buffer.
+     * @param position the position
+     * @return the buffer
+     * @throws IOException if a new buffer cannot be mapped from the file
+     */
+    private ByteBuffer chunk(long position) throws IOException {
+        int index = (int) (position >>> CHUNK_BITS);
+        if (index == chunks.size()) {
+            chunks.add(file == null ? ByteBuffer.allocateDirect(CHUNK)
+                    : file.map(FileChannel.MapMode.READ_WRITE, (long) index << CHUNK_BITS,
+                            CHUNK));
+        }
+        return chunks.get(index);
+    }
+
+    /**
+     * Gets the number of records in the store that have not been taken out.
+     * @return the number of records
+     */
+    int size() {
+        return live;
+    }
+
+    /**
+     * Checks whether every record has been taken out of the store.
+     * @return true if there are no records
+     */
+    boolean isEmpty() {
+        return live == 0;
+    }
+
+    /**
+     * Gets the identifier of the Shape recorded under a handle.
+     * @param handle the handle
+     * @return the identifier
+     */
+    long id(int handle) {
+        long at = offsets[handle];
+        return chunks.get((int) (at >>> CHUNK_BITS)).getLong((int) (at & (CHUNK - 1)));
+    }
+
+    /**
+     * Checks whether the record under a handle has been taken out.
+     * @param handle the handle
+     * @return true if the record has been taken out
+     */
+    boolean isRemoved(int handle) {
+        return (removed[handle >> 6] & (1L << handle)) != 0;
+    }
+
+    /**
+     * Finds the handle of the record of the Shape with the specified identifier.
+     * @param id the identifier
+     * @return the handle, or -1 if there is no such record or it has been taken out
+     */
+    int handleOf(long id) {
+        int handle = first(id);
+        return handle < count && id(handle) == id && !isRemoved(handle) ? handle : -1;
+    }
+
+    /**
+     * Finds the first handle whose record has an identifier at least as high as the specified
+     * one, including records that have been taken out.
+     * @param id the identifier
+     * @return the handle, or the number of records if every identifier is lower
+     */
+    private int first(long id) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (id(middle) < id) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Checks whether the store holds any record, not taken out, with an identifier in a range.
+     * @param fromId the lowest identifier of the range
+     * @param toId the identifier just above the range
+     * @return true if there is such a record
+     */
+    boolean holds(long fromId, long toId) {
+        int end = first(toId);
+        for (int handle = first(fromId); handle < end; handle++) {
+            if (!isRemoved(handle)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the record under a handle.
+     * @param handle the handle
+     * @return the ShapeRecord
+     */
+    ShapeRecord record(int handle) {
+        return read(chunks, offsets[handle]);
+    }
+
+    /**
+     * Reads a record from the specified buffers.
+     * @param from the buffers
+     * @param position the position of the record
+     * @return the ShapeRecord
+     */
+    private static ShapeRecord read(List<ByteBuffer> from, long position) {
+        ByteBuffer b = from.get((int) (position >>> CHUNK_BITS));
+        int at = (int) (position & (CHUNK - 1));
+        double[] geometry = new double[b.getInt(at + LENGTH)];
+        for (int i = 0; i < geometry.length; i++) {
+            geometry[i] = b.getDouble(at + HEADER + 8 * i);
+        }
+        return new ShapeRecord(b.getLong(at), b.get(at + TYPE), b.getInt(at + ARGB),
+                b.getInt(at + LAYER), b.getDouble(at + ROTATION), geometry);
+    }
+
+    /**
+     * Takes a record out of the store and makes a Shape of it.
+     * @param handle the handle of the record
+     * @return the Shape
+     */
+    Shape take(int handle) {
+        Shape s = record(handle).toShape();
+        remove(handle);
+        return s;
+    }
+
+    /**
+     * Marks a record as taken out of the store without making a Shape of it, so that it is no
+     * longer painted or found.
+     * @param handle the handle of the record, which has not been taken out
+     */
+    void remove(int handle) {
+        removed[handle >> 6] |= 1L << handle;
+        live--;
+    }
+
+    /**
+     * Reads the bounds of a record on the Surface.
+     * @param handle the handle of the record
+     * @param box the array to put the left, top, right and bottom edges in
+     */
+    void bounds(int handle, double[] box) {
+        long position = offsets[handle];
+        ByteBuffer b = chunks.get((int) (position >>> CHUNK_BITS));
+        int at = (int) (position & (CHUNK - 1)) + BOUNDS;
+        for (int i = 0; i < 4; i++) {
+            box[i] = b.getFloat(at + 4 * i);
+        }
+    }
+
+    /**
+     * Finds the topmost record whose Shape the specified coordinates fall within. Only the
+     * records entered in the grid cell under the coordinates, and those in the large list, are
+     * tested.
+     * @param x the X coordinate to search with
+     * @param y the Y coordinate to search with
+     * @return the handle of the record, or -1 if none was found
+     */
+    int find(double x, double y) {
+        int found = -1;
+        IntList cell = cells.get(key(cell(x), cell(y)));
+        for (IntList list : new IntList[] {cell, large}) {
+            for (int i = list == null ? -1 : list.size - 1; i >= 0; i--) {
+                int handle = list.values[i];
+                if (handle <= found) {
+                    break;
+                }
+                if (!isRemoved(handle) && boundsContain(handle, x, y)
+                        && record(handle).toShape().shapeExists(x, y)) {
+                    found = handle;
+                    break;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds every record, not taken out, of a type. No record is read.
+     * @param type the type code
+     * @return the handles of the records, in increasing order
+     */
+    int[] ofType(byte type) {
+        return notRemoved(byType.get((int) type));
+    }
+
+    /**
+     * Finds every record, not taken out, of a Color. No record is read.
+     * @param argb the Color, packed as by ShapeRecord.toArgb()
+     * @return the handles of the records, in increasing order
+     */
+    int[] ofColour(int argb) {
+        return notRemoved(byColour.get(argb));
+    }
+
+    /**
+     * Copies the handles in a list whose records have not been taken out.
+     * @param list the list, or null for none
+     * @return the handles, in the order of the list
+     */
+    private int[] notRemoved(IntList list) {
+        if (list == null) {
+            return new int[0];
+        }
+        IntList found = new IntList();
+        for (int i = 0; i < list.size; i++) {
+            if (!isRemoved(list.values[i])) {
+                found.add(list.values[i]);
+            }
+        }
+        return Arrays.copyOf(found.values, found.size);
+    }
+
+    /**
+     * Finds every record, not taken out, whose Shape covers more than an area. A Shape covers no
+     * more than its bounds, so only the records with larger bounds are made into Shapes to
+     * measure.
+     * @param area the area, in square pixels
+     * @return the handles of the records, in increasing order
+     */
+    int[] largerThan(double area) {
+        IntList found = new IntList();
+        for (int handle = 0; handle < count; handle++) {
+            long position = offsets[handle];
+            ByteBuffer b = chunks.get((int) (position >>> CHUNK_BITS));
+            int at = (int) (position & (CHUNK - 1)) + BOUNDS;
+            double bounds = ((double) b.getFloat(at + 8) - b.getFloat(at))
+                    * ((double) b.getFloat(at + 12) - b.getFloat(at + 4));
+            if (!isRemoved(handle) && bounds > area
+                    && record(handle).toShape().getArea() > area) {
+                found.add(handle);
+            }
+        }
+        return Arrays.copyOf(found.values, found.size);
+    }
+
+    /**
+     * Checks whether the bounds of a record hold the specified coordinates.
+     * @param handle the handle of the record
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     * @return true if the coordinates are within the bounds
+     */
+    private boolean boundsContain(int handle, double x, double y) {
+        long position = offsets[handle];
+        ByteBuffer b = chunks.get((int) (position >>> CHUNK_BITS));
+        int at = (int) (position & (CHUNK - 1)) + BOUNDS;
+        return x >= b.getFloat(at) && y >= b.getFloat(at + 4)
+                && x <= b.getFloat(at + 8) && y <= b.getFloat(at + 12);
+    }
+
+    /**
+     * Paints every record in the store with an identifier in a range and bounds that overlap the
+     * specified area, from the first added to the last. Rectangles, Squares, Ovals, Circles,
+     * Triangles and Polygons are painted straight from the buffers; other Shapes are made from
+     * their records to be painted.
+     * @param g the GraphicsContext to paint on
+     * @param width the width of the area, from the origin
+     * @param height the height of the area, from the origin
+     * @param fromId the lowest identifier of the range
+     * @param toId the identifier just above the range
+     */
+    void paint(GraphicsContext g, double width, double height, long fromId, long toId) {
+        int fill = 0;
+        Color color = null;
+        int end = first(toId);
+        for (int handle = first(fromId); handle < end; handle++) {
+            if (isRemoved(handle)) {
+                continue;
+            }
+            long position = offsets[handle];
+            ByteBuffer b = chunks.get((int) (position >>> CHUNK_BITS));
+            int at = (int) (position & (CHUNK - 1));
+            if (b.getFloat(at + BOUNDS + 8) < 0 || b.getFloat(at + BOUNDS + 12) < 0
+                    || b.getFloat(at + BOUNDS) > width || b.getFloat(at + BOUNDS + 4) > height) {
+                continue;
+            }
+            int argb = b.getInt(at + ARGB);
+            if (color == null || argb != fill) {
+                fill = argb;
+                color = ShapeRecord.toColor(argb);
+                g.setFill(color);
+            }
+            byte type = b.get(at + TYPE);
+            int length = b.getInt(at + LENGTH);
+            if (type > ShapeRecord.POLYGON || (type < ShapeRecord.TRIANGLE && length < 4)) {
+                record(handle).toShape().paintTransformed(g);
+                continue;
+            }
+            int points = length / 2;
+            if (points > xs.length) {
+                xs = new double[points * 2];
+                ys = new double[points * 2];
+            }
+            double left = Double.POSITIVE_INFINITY;
+            double top = Double.POSITIVE_INFINITY;
+            double right = Double.NEGATIVE_INFINITY;
+            double bottom = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < points; i++) {
+                xs[i] = b.getDouble(at + HEADER + 16 * i);
+                ys[i] = b.getDouble(at + HEADER + 16 * i + 8);
+                left = Math.min(left, xs[i]);
+                top = Math.min(top, ys[i]);
+                right = Math.max(right, xs[i]);
+                bottom = Math.max(bottom, ys[i]);
+            }
+            double rotation = b.getDouble(at + ROTATION);
+            if (rotation != 0) {
+                g.save();
+                g.translate((left + right) / 2, (top + bottom) / 2);
+                g.rotate(Math.toDegrees(rotation));
+                g.translate(-(left + right) / 2, -(top + bottom) / 2);
+            }
+            if (type == ShapeRecord.OVAL || type == ShapeRecord.CIRCLE) {
+                g.fillOval(left, top, right - left, bottom - top);
+            } else if (type == ShapeRecord.TRIANGLE || type == ShapeRecord.POLYGON) {
+                g.fillPolygon(xs, ys, points);
+            } else {
+                g.fillRect(left, top, right - left, bottom - top);
+            }
+            if (rotation != 0) {
+                g.restore();
+            }
+        }
+    }
+
+    /**
+     * Takes a snapshot of the records in the store for use on another thread. Records are never
+     * changed once written, so only the list of buffers and the marks of the records taken out
+     * are copied.
+     * @return the records, in the order they were added
+     */
+    Collection<ShapeRecord> records() {
+        ArrayList<ByteBuffer> buffers = new ArrayList<>(chunks);
+        long[] positions = offsets;
+        long[] gone = removed.clone();
+        int total = count;
+        int size = live;
+        return new AbstractCollection<ShapeRecord>() {
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public Iterator<ShapeRecord> iterator() {
+                return new Iterator<ShapeRecord>() {
+                    private int next = skip(0);
+
+                    /**
+                     * Finds the first record at or after a handle that was not taken out.
+                     * @param handle the handle to start from
+                     * @return the handle found, or the number of records if there is none
+                     */
+                    private int skip(int handle) {
+                        while (handle < total && (gone[handle >> 6] & (1L << handle)) != 0) {
+                            handle++;
+                        }
+                        return handle;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < total;
+                    }
+
+                    @Override
+                    public ShapeRecord next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        ShapeRecord r = read(buffers, positions[next]);
+                        next = skip(next + 1);
+                        return r;
+                    }
+                };
+            }
+        };
+    }
+
+    /** Releases the buffers and deletes the file, if any. The store cannot be used afterwards. */
+    void close() {
+        chunks.clear();
+        cells.clear();
+        large.size = 0;
+        byType.clear();
+        byColour.clear();
+        offsets = new long[0];
+        count = 0;
+        live = 0;
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // Deleted when the program exits
+            }
+        }
+    }
+
+    /**
+     * Finds the grid column or row holding a coordinate.
+     * @param coordinate the X or Y coordinate
+     * @return the column or row
+     */
+    private static int cell(double coordinate) {
+        return (int) Math.floor(coordinate / CELL);
+    }
+
+    /**
+     * Packs a grid column and row into one key.
+     * @param column the column
+     * @param row the row
+     * @return the key
+     */
+    private static long key(int column, int row) {
+        return ((long) column << 32) | (row & 0xFFFFFFFFL);
+    }
+
+    /**
+     * A growable list of primitive ints, so grid cells do not box every handle.
+     */
+    private static final class IntList {
+
+        /** The values, of which the first size are used */
+        int[] values = new int[4];
+
+        /** Number of values in the list */
+        int size;
+
+        /**
+         * Adds a value to the end of the list.
+         * @param v the value
+         */
+        void add(int v) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = v;
+        }
+    }
+}
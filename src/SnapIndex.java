@@ -0,0 +1,323 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * SnapIndex. A uniform grid over the snap points and outline edges of every Shape, used to find
+ * the closest point or edge to the Cursor without looking at every Shape. Each grid cell keeps
+ * the indexes of the points and edges that pass through it, so a lookup only has to look at the
+ * cells within snapping distance of the Cursor, however large the document is.
+ * <p>
+ * Points and edges are kept in flat primitive arrays. Removing a Shape only marks its entries as
+ * dead; the index is rebuilt once more than half of its entries are dead.
+ * @author Emily DeLisle
+ * @version 1.0
+ */
+class SnapIndex {
+
+    /** Width and height of a grid cell, in pixels */
+    private static final double CELL = 32;
+
+    /** A growable list of ints, used for the contents of a grid cell */
+    private static final class IntList {
+
+        /** The values */
+        int[] values = new int[4];
+
+        /** Number of values in the list */
+        int size;
+
+        /**
+         * Adds a value to the end of the list.
+         * @param v the value to add
+         */
+        void add(int v) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = v;
+        }
+    }
+
+    /** Snap point coordinates, two per point */
+    private double[] points = new double[64];
+
+    /** The Shape each snap point belongs to, or null if the point is dead */
+    private Shape[] pointOwners = new Shape[32];
+
+    /** Number of snap points, including dead ones */
+    private int pointCount;
+
+    /** Edge end point coordinates, four per edge */
+    private double[] edges = new double[128];
+
+    /** The Shape each edge belongs to, or null if the edge is dead */
+    private Shape[] edgeOwners = new Shape[32];
+
+    /** Number of edges, including dead ones */
+    private int edgeCount;
+
+    /** Number of dead points and edges */
+    private int dead;
+
+    /** Indexes of the snap points in each grid cell, by cell key */
+    private HashMap<Long, IntList> pointCells = new HashMap<>();
+
+    /** Indexes of the edges in each grid cell, by cell key */
+    private HashMap<Long, IntList> edgeCells = new HashMap<>();
+
+    /** The first and last point and edge indexes of each indexed Shape */
+    private IdentityHashMap<Shape, int[]> ranges = new IdentityHashMap<>();
+
+    /**
+     * Adds the snap points and outline edges of a Shape to the index.
+     * @param s the Shape to add
+     */
+    void add(Shape s) {
+        if (ranges.containsKey(s)) {
+            remove(s);
+        }
+        int[] range = new int[4];
+        range[0] = pointCount;
+        double[] snapPoints = s.toSurface(s.getSnapPoints());
+        for (int i = 0; i + 1 < snapPoints.length; i += 2) {
+            addPoint(s, snapPoints[i], snapPoints[i + 1]);
+        }
+        range[1] = pointCount;
+        range[2] = edgeCount;
+        double[] outline = s.toSurface(s.getOutline());
+        int start = 0;
+        while (start < outline.length) {
+            int end = start;
+            while (end < outline.length && !Double.isNaN(outline[end])) {
+                end += 2;
+            }
+            for (int i = start; i < end && end - start > 2; i += 2) {
+                int j = i + 2 < end ? i + 2 : start;
+                addEdge(s, outline[i], outline[i + 1], outline[j], outline[j + 1]);
+            }
+            start = end + 2;
+        }
+        range[3] = edgeCount;
+        ranges.put(s, range);
+    }
+
+    /**
+     * Removes a Shape from the index.
+     * @param s the Shape to remove
+     */
+    void remove(Shape s) {
+        int[] range = ranges.remove(s);
+        if (range == null) {
+            return;
+        }
+        for (int i = range[0]; i < range[1]; i++) {
+            pointOwners[i] = null;
+        }
+        for (int i = range[2]; i < range[3]; i++) {
+            edgeOwners[i] = null;
+        }
+        dead += (range[1] - range[0]) + (range[3] - range[2]);
+        if (dead > (pointCount + edgeCount) / 2) {
+            rebuild();
+        }
+    }
+
+    /** Drops every dead entry by indexing the remaining Shapes again. */
+    private void rebuild() {
+        Shape[] live = ranges.keySet().toArray(new Shape[0]);
+        clear();
+        for (Shape s : live) {
+            add(s);
+        }
+    }
+
+    /** Removes every Shape from the index. */
+    void clear() {
+        Arrays.fill(pointOwners, 0, pointCount, null);
+        Arrays.fill(edgeOwners, 0, edgeCount, null);
+        pointCount = 0;
+        edgeCount = 0;
+        dead = 0;
+        pointCells.clear();
+        edgeCells.clear();
+        ranges.clear();
+    }
+
+    /**
+     * Finds the closest snap point within the specified distance of a location.
+     * @param x the X coordinate of the location
+     * @param y the Y coordinate of the location
+     * @param distance the greatest distance to look within
+     * @param result receives the X and Y coordinates of the point, if one is found
+     * @return true if a point was found
+     */
+    boolean nearestPoint(double x, double y, double distance, double[] result) {
+        double best = distance * distance;
+        boolean found = false;
+        for (long key : cellsAround(x, y, distance)) {
+            IntList cell = pointCells.get(key);
+            if (cell == null) {
+                continue;
+            }
+            for (int k = 0; k < cell.size; k++) {
+                int i = cell.values[k];
+                if (pointOwners[i] == null) {
+                    continue;
+                }
+                double dx = points[i * 2] - x;
+                double dy = points[i * 2 + 1] - y;
+                double d = dx * dx + dy * dy;
+                if (d <= best) {
+                    best = d;
+                    result[0] = points[i * 2];
+                    result[1] = points[i * 2 + 1];
+                    found = true;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds the closest point on any edge within the specified distance of a location.
+     * @param x the X coordinate of the location
+     * @param y the Y coordinate of the location
+     * @param distance the greatest distance to look within
+     * @param result receives the X and Y coordinates of the point, if one is found
+     * @return true if a point was found
+     */
+    boolean nearestEdge(double x, double y, double distance, double[] result) {
+        double best = distance * distance;
+        boolean found = false;
+        for (long key : cellsAround(x, y, distance)) {
+            IntList cell = edgeCells.get(key);
+            if (cell == null) {
+                continue;
+            }
+            for (int k = 0; k < cell.size; k++) {
+                int i = cell.values[k];
+                if (edgeOwners[i] == null) {
+                    continue;
+                }
+                double x1 = edges[i * 4];
+                double y1 = edges[i * 4 + 1];
+                double dx = edges[i * 4 + 2] - x1;
+                double dy = edges[i * 4 + 3] - y1;
+                double lengthSquared = dx * dx + dy * dy;
+                double t = lengthSquared == 0 ? 0
+                        : Math.max(0, Math.min(1, ((x - x1) * dx + (y - y1) * dy) / lengthSquared));
+                double px = x1 + t * dx;
+                double py = y1 + t * dy;
+                double d = (px - x) * (px - x) + (py - y) * (py - y);
+                if (d <= best) {
+                    best = d;
+                    result[0] = px;
+                    result[1] = py;
+                    found = true;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Gets the keys of every grid cell within the specified distance of a location.
+     * @param x the X coordinate of the location
+     * @param y the Y coordinate of the location
+     * @param distance the distance
+     * @return the cell keys
+     */
+    private long[] cellsAround(double x, double y, double distance) {
+        int left = cell(x - distance);
+        int right = cell(x + distance);
+        int top = cell(y - distance);
+        int bottom = cell(y + distance);
+        long[] keys = new long[(right - left + 1) * (bottom - top + 1)];
+        int k = 0;
+        for (int row = top; row <= bottom; row++) {
+            for (int column = left; column <= right; column++) {
+                keys[k++] = key(column, row);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Finds the grid row or column a coordinate falls in.
+     * @param coordinate the X or Y coordinate
+     * @return the row or column
+     */
+    private static int cell(double coordinate) {
+        return (int) Math.floor(coordinate / CELL);
+    }
+
+    /**
+     * Packs a grid column and row into a single cell key.
+     * @param column the column
+     * @param row the row
+     * @return the cell key
+     */
+    private static long key(int column, int row) {
+        return ((long) column << 32) | (row & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Adds a snap point to the arrays and to the grid cell it falls in.
+     * @param owner the Shape the point belongs to
+     * @param x the X coordinate of the point
+     * @param y the Y coordinate of the point
+     */
+    private void addPoint(Shape owner, double x, double y) {
+        if (pointCount == pointOwners.length) {
+            pointOwners = Arrays.copyOf(pointOwners, pointCount * 2);
+            points = Arrays.copyOf(points, pointCount * 4);
+        }
+        points[pointCount * 2] = x;
+        points[pointCount * 2 + 1] = y;
+        pointOwners[pointCount] = owner;
+        pointCells.computeIfAbsent(key(cell(x), cell(y)), k -> new IntList()).add(pointCount);
+        pointCount++;
+    }
+
+    /**
+     * Adds an edge to the arrays and to every grid cell it passes through. The cells are found
+     * one row at a time from where the edge enters and leaves the row.
+     * @param owner the Shape the edge belongs to
+     * @param x1 the X coordinate of the first end
+     * @param y1 the Y coordinate of the first end
+     * @param x2 the X coordinate of the second end
+     * @param y2 the Y coordinate of the second end
+     */
+    private void addEdge(Shape owner, double x1, double y1, double x2, double y2) {
+        if (edgeCount == edgeOwners.length) {
+            edgeOwners = Arrays.copyOf(edgeOwners, edgeCount * 2);
+            edges = Arrays.copyOf(edges, edgeCount * 8);
+        }
+        int e = edgeCount * 4;
+        edges[e] = x1;
+        edges[e + 1] = y1;
+        edges[e + 2] = x2;
+        edges[e + 3] = y2;
+        edgeOwners[edgeCount] = owner;
+        int top = cell(Math.min(y1, y2));
+        int bottom = cell(Math.max(y1, y2));
+        for (int row = top; row <= bottom; row++) {
+            double minX = Math.min(x1, x2);
+            double maxX = Math.max(x1, x2);
+            if (y1 != y2) {
+                // Where the edge crosses the top and bottom of this row
+                double bandTop = Math.max(row * CELL, Math.min(y1, y2));
+                double bandBottom = Math.min((row + 1) * CELL, Math.max(y1, y2));
+                double xTop = x1 + (x2 - x1) * (bandTop - y1) / (y2 - y1);
+                double xBottom = x1 + (x2 - x1) * (bandBottom - y1) / (y2 - y1);
+                minX = Math.min(xTop, xBottom);
+                maxX = Math.max(xTop, xBottom);
+            }
+            for (int column = cell(minX); column <= cell(maxX); column++) {
+                edgeCells.computeIfAbsent(key(column, row), k -> new IntList()).add(edgeCount);
+            }
+        }
+        edgeCount++;
+    }
+}
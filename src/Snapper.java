@@ -0,0 +1,116 @@
+/**
+ * Snapper. Moves the Cursor's coordinates onto nearby features while drawing: the snap points
+ * and edges of every other Shape, or the nearest point of a grid. Keeps a SnapIndex of every
+ * finished Shape up to date by listening to the Surface. Shapes kept outside the heap in a
+ * ShapeStore are left out, since the index would keep every one of them on the heap; they can be
+ * snapped to once they have been edited.
+ * @author Emily DeLisle
+ * @version 1.0
+ */
+class Snapper implements SurfaceListener {
+
+    /** Index of the snap points and edges of every finished Shape */
+    private SnapIndex index = new SnapIndex();
+
+    /** Whether to snap to the points and edges of other Shapes */
+    private boolean snapToShapes;
+
+    /** Whether to snap to the grid */
+    private boolean snapToGrid;
+
+    /** Spacing of the grid, in pixels */
+    private double gridSize = 20;
+
+    /** Greatest distance from the Cursor that a Shape's point or edge is snapped to */
+    private double tolerance = 5;
+
+    /** The snapped coordinates returned by snap() */
+    private double[] snapped = new double[2];
+
+    /**
+     * Snaps the specified coordinates. Points of other Shapes are preferred over their edges,
+     * and both are preferred over the grid.
+     * @param x the X coordinate of the Cursor
+     * @param y the Y coordinate of the Cursor
+     * @return the snapped X and Y coordinates. The array is reused by the next call
+     */
+    double[] snap(double x, double y) {
+        snapped[0] = x;
+        snapped[1] = y;
+        if (snapToShapes && (index.nearestPoint(x, y, tolerance, snapped)
+                || index.nearestEdge(x, y, tolerance, snapped))) {
+            return snapped;
+        }
+        if (snapToGrid) {
+            snapped[0] = Math.round(x / gridSize) * gridSize;
+            snapped[1] = Math.round(y / gridSize) * gridSize;
+        }
+        return snapped;
+    }
+
+    /**
+     * Sets whether to snap to the points and edges of other Shapes.
+     * @param snap true to snap to other Shapes
+     */
+    void setSnapToShapes(boolean snap) {
+        snapToShapes = snap;
+    }
+
+    /**
+     * Sets whether to snap to the grid.
+     * @param snap true to snap to the grid
+     */
+    void setSnapToGrid(boolean snap) {
+        snapToGrid = snap;
+    }
+
+    /**
+     * Sets the spacing of the grid.
+     * @param size the spacing, in pixels
+     */
+    void setGridSize(double size) {
+        gridSize = size;
+    }
+
+    /**
+     * Sets the greatest distance from the Cursor that a Shape's point or edge is snapped to.
+     * @param distance the distance, in pixels
+     */
+    void setTolerance(double distance) {
+        tolerance = distance;
+    }
+
+    /**
+     * Gets the greatest distance from the Cursor that a Shape's point or edge is snapped to.
+     * @return the distance, in pixels
+     */
+    double getTolerance() {
+        return tolerance;
+    }
+
+    @Override
+    public void shapeAdded(Shape s) {
+        if (!s.stored) {
+            index.add(s);
+        }
+    }
+
+    @Override
+    public void shapeMoved(Shape s, double distanceX, double distanceY) {
+        index.add(s);
+    }
+
+    @Override
+    public void shapeTransformed(Shape s) {
+        index.add(s);
+    }
+
+    @Override
+    public void shapeRemoved(Shape s) {
+        index.remove(s);
+    }
+
+    @Override
+    public void shapeRecoloured(Shape s) {
+    }
+}
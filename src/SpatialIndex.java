@@ -0,0 +1,228 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * SpatialIndex. A uniform grid over the Shapes of a Layer, used to find the Shape under the
+ * Cursor without testing every Shape. Each Shape is entered in every cell covered by the box
+ * that holds it as it is shown, rotation included, so a lookup only has to test the Shapes
+ * entered in the one cell under the Cursor. Shapes that cover a great many cells are kept in a
+ * separate list that every lookup tests instead.
+ * @author Emily DeLisle
+ * @version 1.0
+ */
+class SpatialIndex {
+
+    /** Width and height of a grid cell, in pixels */
+    private static final double CELL = 64;
+
+    /** Largest number of cells a Shape is entered in before it is kept in the large list */
+    private static final int MAX_CELLS = 256;
+
+    /** The Shapes entered in each grid cell, by cell key */
+    private HashMap<Long, ArrayList<Shape>> cells = new HashMap<>();
+
+    /** Shapes too large to enter in the grid */
+    private ArrayList<Shape> large = new ArrayList<>();
+
+    /**
+     * The first and last column and row each indexed Shape is entered in, or null for Shapes in
+     * the large list
+     */
+    private IdentityHashMap<Shape, int[]> entries = new IdentityHashMap<>();
+
+    /** Box of the Shape being entered, reused between calls */
+    private double[] box = new double[4];
+
+    /**
+     * Adds a Shape to the index, or updates its entry if it has changed since it was added.
+     * @param s the Shape to add
+     */
+    void add(Shape s) {
+        if (entries.containsKey(s)) {
+            remove(s);
+        }
+        s.getSurfaceBounds(box);
+        int left = cell(box[0]);
+        int top = cell(box[1]);
+        int right = cell(box[2]);
+        int bottom = cell(box[3]);
+        if (((long) right - left + 1) * ((long) bottom - top + 1) > MAX_CELLS) {
+            large.add(s);
+            entries.put(s, null);
+            return;
+        }
+        for (int row = top; row <= bottom; row++) {
+            for (int column = left; column <= right; column++) {
+                cells.computeIfAbsent(key(column, row), k -> new ArrayList<>()).add(s);
+            }
+        }
+        entries.put(s, new int[] {left, top, right, bottom});
+    }
+
+    /**
+     * Adds many Shapes at once, none of which may be in the index yet. The cells each Shape
+     * covers are found first and counted, so every cell list is grown to its final size once
+     * before the Shapes are entered.
+     * @param added the Shapes to add
+     */
+    void addAll(List<Shape> added) {
+        int[][] ranges = new int[added.size()][];
+        HashMap<Long, Integer> counts = new HashMap<>();
+        for (int i = 0; i < ranges.length; i++) {
+            Shape s = added.get(i);
+            s.getSurfaceBounds(box);
+            int left = cell(box[0]);
+            int top = cell(box[1]);
+            int right = cell(box[2]);
+            int bottom = cell(box[3]);
+            if (((long) right - left + 1) * ((long) bottom - top + 1) > MAX_CELLS) {
+                large.add(s);
+                entries.put(s, null);
+                continue;
+            }
+            ranges[i] = new int[] {left, top, right, bottom};
+            for (int row = top; row <= bottom; row++) {
+                for (int column = left; column <= right; column++) {
+                    counts.merge(key(column, row), 1, Integer::sum);
+                }
+            }
+        }
+        for (Map.Entry<Long, Integer> e : counts.entrySet()) {
+            ArrayList<Shape> cell = cells.get(e.getKey());
+            if (cell == null) {
+                cells.put(e.getKey(), new ArrayList<>(e.getValue()));
+            } else {
+                cell.ensureCapacity(cell.size() + e.getValue());
+            }
+        }
+        for (int i = 0; i < ranges.length; i++) {
+            int[] range = ranges[i];
+            if (range == null) {
+                continue;
+            }
+            Shape s = added.get(i);
+            for (int row = range[1]; row <= range[3]; row++) {
+                for (int column = range[0]; column <= range[2]; column++) {
+                    cells.get(key(column, row)).add(s);
+                }
+            }
+            entries.put(s, range);
+        }
+    }
+
+    /**
+     * Removes a Shape from the index.
+     * @param s the Shape to remove
+     */
+    void remove(Shape s) {
+        if (!entries.containsKey(s)) {
+            return;
+        }
+        int[] range = entries.remove(s);
+        if (range == null) {
+            large.remove(s);
+            return;
+        }
+        for (int row = range[1]; row <= range[3]; row++) {
+            for (int column = range[0]; column <= range[2]; column++) {
+                long key = key(column, row);
+                ArrayList<Shape> cell = cells.get(key);
+                cell.remove(s);
+                if (cell.isEmpty()) {
+                    cells.remove(key);
+                }
+            }
+        }
+    }
+
+    /** Removes every Shape from the index. */
+    void clear() {
+        cells.clear();
+        large.clear();
+        entries.clear();
+    }
+
+    /**
+     * Finds the Shapes whose entries may overlap a box: those entered in any cell the box covers
+     * and those in the large list, each once. If the box covers a great many cells, every Shape
+     * in the index is returned.
+     * @param bounds the left, top, right and bottom edges of the box
+     * @return the Shapes, in no particular order
+     */
+    List<Shape> near(double[] bounds) {
+        int left = cell(bounds[0]);
+        int top = cell(bounds[1]);
+        int right = cell(bounds[2]);
+        int bottom = cell(bounds[3]);
+        if (((long) right - left + 1) * ((long) bottom - top + 1) > MAX_CELLS) {
+            return new ArrayList<>(entries.keySet());
+        }
+        Set<Shape> found = Collections.newSetFromMap(new IdentityHashMap<>());
+        found.addAll(large);
+        for (int row = top; row <= bottom; row++) {
+            for (int column = left; column <= right; column++) {
+                ArrayList<Shape> cell = cells.get(key(column, row));
+                if (cell != null) {
+                    found.addAll(cell);
+                }
+            }
+        }
+        return new ArrayList<>(found);
+    }
+
+    /**
+     * Finds the top Shape (the one with the highest identifier) that the specified coordinates
+     * fall within.
+     * @param x the X coordinate to search with
+     * @param y the Y coordinate to search with
+     * @return the Shape, or null if no Shape was found
+     */
+    Shape find(double x, double y) {
+        Shape found = top(cells.get(key(cell(x), cell(y))), x, y, null);
+        return top(large, x, y, found);
+    }
+
+    /**
+     * Finds the Shape with the highest identifier in a list that the coordinates fall within.
+     * @param candidates the Shapes to test, or null
+     * @param x the X coordinate to search with
+     * @param y the Y coordinate to search with
+     * @param found the best Shape found so far, or null
+     * @return the best Shape found
+     */
+    private static Shape top(ArrayList<Shape> candidates, double x, double y, Shape found) {
+        if (candidates == null) {
+            return found;
+        }
+        for (Shape s : candidates) {
+            if ((found == null || s.id > found.id) && s.shapeExists(x, y)) {
+                found = s;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds the grid row or column a coordinate falls in.
+     * @param coordinate the X or Y coordinate
+     * @return the row or column
+     */
+    private static int cell(double coordinate) {
+        return (int) Math.floor(coordinate / CELL);
+    }
+
+    /**
+     * Packs a grid column and row into a single cell key.
+     * @param column the column
+     * @param row the row
+     * @return the cell key
+     */
+    private static long key(int column, int row) {
+        return ((long) column << 32) | (row & 0xFFFFFFFFL);
+    }
+}
@@ -1,3 +1,4 @@
+import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.paint.Color;
 
 /**
@@ -48,14 +49,29 @@ public class Square extends Shape {
     }
 
     /**
-     * Clears the GraphicsContext and redraws the Square with the with its X and Y coordinates
-     * translated by the specified distance.
-     * @param distanceX distance translated on the X axis
-     * @param distanceY distance translated on the Y axis
+     * Squares keep their sides equal when resized.
+     * @return true
      */
     @Override
-    void move(double distanceX, double distanceY) {
-        super.move(distanceX, distanceY);
-        gc.fillRect(topLeft[0], topLeft[1], side, side);
+    boolean keepsAspectRatio() {
+        return true;
+    }
+
+    /**
+     * Paints the Square on the specified GraphicsContext.
+     * @param g the GraphicsContext to paint on
+     */
+    @Override
+    void paint(GraphicsContext g) {
+        g.fillRect(topLeft[0], topLeft[1], side, side);
+    }
+
+    /**
+     * Adds the outline of the Square to the current path of the specified GraphicsContext.
+     * @param g the GraphicsContext whose path is added to
+     */
+    @Override
+    void appendPath(GraphicsContext g) {
+        g.rect(topLeft[0], topLeft[1], side, side);
     }
 }
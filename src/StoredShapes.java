@@ -0,0 +1,158 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * StoredShapes. Shapes kept in the ShapeStores of their Layers that have been selected, named by
+ * the handles of their records, so that any number of them can be selected, outlined, copied
+ * and deleted without being taken out of the stores. They are only taken out once they are
+ * changed; see Surface.takeStored(). Records taken out since they were selected, and those of a
+ * store the Layer no longer uses, are skipped.
+ * @author Emily DeLisle
+ * @version 1.0
+ */
+final class StoredShapes {
+
+    /** The Layer of each part */
+    private final ArrayList<Layer> layers = new ArrayList<>();
+
+    /** The store the handles of each part belong to */
+    private final ArrayList<ShapeStore> stores = new ArrayList<>();
+
+    /** The handles of each part, in increasing order */
+    private final ArrayList<int[]> handles = new ArrayList<>();
+
+    /** Number of handles in every part */
+    private int size;
+
+    /**
+     * Adds the records of a Layer's ShapeStore to the Shapes.
+     * @param layer the Layer
+     * @param found the handles of the records in the Layer's store, in increasing order
+     */
+    void add(Layer layer, int[] found) {
+        if (found.length > 0) {
+            layers.add(layer);
+            stores.add(layer.store);
+            handles.add(found);
+            size += found.length;
+        }
+    }
+
+    /**
+     * Adds every record of other StoredShapes to the Shapes.
+     * @param other the StoredShapes
+     */
+    void addAll(StoredShapes other) {
+        layers.addAll(other.layers);
+        stores.addAll(other.stores);
+        handles.addAll(other.handles);
+        size += other.size;
+    }
+
+    /** Empties the Shapes. */
+    void clear() {
+        layers.clear();
+        stores.clear();
+        handles.clear();
+        size = 0;
+    }
+
+    /**
+     * Gets the number of Shapes, as they were when they were added.
+     * @return the number of Shapes
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Checks whether no Shapes have been added.
+     * @return true if there are no Shapes
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Gets the number of parts, one for each Layer the Shapes were added from.
+     * @return the number of parts
+     */
+    int parts() {
+        return layers.size();
+    }
+
+    /**
+     * Gets the Layer of a part.
+     * @param part the part
+     * @return the Layer
+     */
+    Layer layer(int part) {
+        return layers.get(part);
+    }
+
+    /**
+     * Gets the store of a part, if its Layer still uses it.
+     * @param part the part
+     * @return the ShapeStore, or null if the Layer's store has since been closed
+     */
+    ShapeStore store(int part) {
+        ShapeStore store = stores.get(part);
+        return layers.get(part).store == store ? store : null;
+    }
+
+    /**
+     * Gets the handles of a part, including those of records since taken out.
+     * @param part the part
+     * @return the handles, in increasing order, which must not be changed
+     */
+    int[] handles(int part) {
+        return handles.get(part);
+    }
+
+    /**
+     * Widens a box to take in the bounds of every Shape still in its store.
+     * @param box the left, top, right and bottom edges of the box, which are widened
+     */
+    void widen(double[] box) {
+        double[] bounds = new double[4];
+        for (int part = 0; part < parts(); part++) {
+            ShapeStore store = store(part);
+            if (store == null) {
+                continue;
+            }
+            for (int handle : handles.get(part)) {
+                if (!store.isRemoved(handle)) {
+                    store.bounds(handle, bounds);
+                    box[0] = Math.min(box[0], bounds[0]);
+                    box[1] = Math.min(box[1], bounds[1]);
+                    box[2] = Math.max(box[2], bounds[2]);
+                    box[3] = Math.max(box[3], bounds[3]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes a Shape of every record still in its store, on the record's Layer but not in its
+     * stack, to be read or copied. The records stay in the stores.
+     * @return the Shapes, part by part in order of identifiers
+     */
+    List<Shape> toShapes() {
+        ArrayList<Shape> shapes = new ArrayList<>();
+        for (int part = 0; part < parts(); part++) {
+            ShapeStore store = store(part);
+            if (store == null) {
+                continue;
+            }
+            for (int handle : handles.get(part)) {
+                if (!store.isRemoved(handle)) {
+                    Shape s = store.record(handle).toShape();
+                    s.layer = layers.get(part);
+                    s.stored = true;
+                    shapes.add(s);
+                }
+            }
+        }
+        return shapes;
+    }
+}
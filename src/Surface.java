@@ -1,56 +1,1090 @@
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
 import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.layout.StackPane;
-import java.util.ArrayDeque;
+import javafx.scene.paint.Color;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
 
 /**
- * Surface. This is the drawing surface class, which extends from StackPane. Canvases are added
- * from the bottom up to the root. Also keeps track of the Shapes in the same order in an
- * ArrayDeque.
+ * Surface. This is the drawing surface class, which extends from StackPane. The Shapes are kept
+ * in Layers, which are added from the bottom up to the root. Each Layer keeps its Shapes in a
+ * ShapeStack, which is replaced on every change so that other threads can read it without
+ * locking, and paints its finished Shapes onto its own cache, so a change to one Layer leaves the
+ * others alone. New Shapes are added to the active Layer. Changes to the Shapes are reported to
+ * any registered SurfaceListeners. An Overlay above every Layer shows the feedback for what the
+ * user is doing, such as the handles of the selected Shape.
  * @author Emily DeLisle
  * @version 1.0
  */
 class Surface extends StackPane {
 
-    /** Stack of Shapes */
-    ArrayDeque<Shape> shapes = new ArrayDeque<>();
+    /** The Layers, from the bottom up */
+    final ObservableList<Layer> layers = FXCollections.observableArrayList();
+
+    /** The Layer that new Shapes are added to */
+    private Layer activeLayer;
+
+    /** Listeners notified when the Shapes change */
+    private ArrayList<SurfaceListener> listeners = new ArrayList<>();
+
+    /** Paints the finished Shapes when they are all drawn onto one Canvas */
+    private BatchRenderer renderer = new BatchRenderer();
+
+    /** Lowest identifier that may be given to the next Shape added to the stack */
+    private long nextId = 1;
+
+    /** Identifiers given to new Shapes are a multiple of this apart */
+    private int idStride = 1;
+
+    /** Remainder left by every identifier given to a new Shape when divided by the stride */
+    private int idOffset;
+
+    /** Whether Shapes loaded or imported onto an empty Layer are kept in its ShapeStore */
+    private boolean offHeap;
+
+    /** Directory the files of the ShapeStores are kept in, or null to keep them in memory */
+    private Path storeDirectory;
+
+    /** Canvas above every Layer, used for feedback such as handles. Does not take mouse events */
+    final Overlay overlay = new Overlay(1000, 780);
+
+    /** Constructor for the Surface. Starts with a single Layer, which is active. */
+    Surface() {
+        overlay.setMouseTransparent(true);
+        this.getChildren().add(overlay);
+        activeLayer = addLayer();
+    }
+
+    /**
+     * Makes every identifier given to a new Shape from now on leave the specified remainder when
+     * divided by the stride. Surfaces given different remainders of the same stride never give
+     * out the same identifier, so they can share Shapes. Since a restored Shape raises the next
+     * identifier above its own, a new Shape still goes on top of every Shape already seen.
+     * @param stride the stride
+     * @param offset the remainder, from 0 to stride - 1
+     */
+    void setIdSpace(int stride, int offset) {
+        idStride = stride;
+        idOffset = offset;
+    }
+
+    /**
+     * Keeps the Shapes loaded or imported from now on outside the heap, in a ShapeStore for each
+     * Layer, as long as the Layer holds no other Shapes. The listeners are still told about every
+     * Shape added, with a Shape made only for the purpose. A stored Shape becomes an ordinary
+     * Shape, keeping its place among the other Shapes of its Layer, once it is found under the
+     * Cursor or looked up by its identifier to be changed.
+     * @param directory the directory to keep the stores' files in, or null to keep the stores
+     * in memory
+     */
+    void useShapeStores(Path directory) {
+        offHeap = true;
+        storeDirectory = directory;
+    }
+
+    /**
+     * Keeps a finished Shape in the ShapeStore of its Layer if Shapes are being kept outside the
+     * heap and the Layer's stack is empty, so that every stored Shape stays below the Shapes in
+     * the stack.
+     * @param s the Shape, with its Layer and record set
+     * @return true if the Shape was stored, and so should not be put in the stack
+     */
+    private boolean storeShape(Shape s) {
+        Layer layer = s.layer;
+        if (!offHeap || !layer.shapes.isEmpty()) {
+            return false;
+        }
+        if (layer.store == null) {
+            try {
+                layer.store = storeDirectory == null ? new ShapeStore()
+                        : new ShapeStore(storeDirectory);
+            } catch (IOException e) {
+                System.err.println("Could not create a shape store: " + e);
+                offHeap = false;
+                return false;
+            }
+        }
+        s.stored = layer.store.add(s) >= 0;
+        return s.stored;
+    }
+
+    /**
+     * Takes a Shape out of the ShapeStore of its Layer and puts it in the Layer's stack, without
+     * notifying the listeners, since the Shape itself has not changed. The stack and the store
+     * are painted together in order of identifiers, so the Shape stays at its place among the
+     * stored Shapes.
+     * @param layer the Layer
+     * @param handle the handle of the Shape's record in the store
+     * @return the Shape
+     */
+    private Shape promoteShape(Layer layer, int handle) {
+        Shape s = layer.store.take(handle);
+        s.layer = layer;
+        layer.shapes = layer.shapes.put(s, s.record);
+        layer.spatialIndex.add(s);
+        layer.attributeIndex.add(s);
+        layer.invalidate();
+        return s;
+    }
 
     /**
-     * Adds a new Canvas to the Surface's root.
+     * Gives out the next identifier for a new Shape.
+     * @return the identifier
+     */
+    private long newId() {
+        long id = nextId + Math.floorMod(idOffset - nextId, (long) idStride);
+        nextId = id + 1;
+        return id;
+    }
+
+    /**
+     * Registers a listener to be notified when the Shapes change.
+     * @param l the listener to add
+     */
+    void addListener(SurfaceListener l) {
+        listeners.add(l);
+    }
+
+    /**
+     * Adds a new, empty Layer on top of the others, below the overlay.
+     * @return the new Layer
+     */
+    Layer addLayer() {
+        Layer layer = new Layer(layers.size(), new BatchRenderer());
+        this.getChildren().add(layers.size(), layer);
+        layers.add(layer);
+        return layer;
+    }
+
+    /**
+     * Gets the Layer at the specified index, adding empty Layers until there is one.
+     * @param index the index of the Layer
+     * @return the Layer
+     */
+    private Layer layerAt(int index) {
+        while (layers.size() <= index) {
+            addLayer();
+        }
+        return layers.get(index);
+    }
+
+    /**
+     * Gets the Layer that new Shapes are added to.
+     * @return the active Layer
+     */
+    Layer getActiveLayer() {
+        return activeLayer;
+    }
+
+    /**
+     * Sets the Layer that new Shapes are added to.
+     * @param layer the Layer to make active
+     */
+    void setActiveLayer(Layer layer) {
+        activeLayer = layer;
+    }
+
+    /**
+     * Adds a new Canvas to the active Layer.
      * @param c Canvas to add
      */
     void addNewCanvas(Canvas c) {
-        this.getChildren().add(c);
+        activeLayer.getChildren().add(c);
     }
 
     /**
-     * Adds a new Shape to the Surface's stack.
+     * Adds a new Shape to the active Layer's stack and gives it an identifier.
      * @param s the Shape to add
      */
     void addNewShape(Shape s) {
-        shapes.addFirst(s);
+        s.id = newId();
+        s.layer = activeLayer;
+        activeLayer.shapes = activeLayer.shapes.put(s, null);
     }
 
     /**
-     * Removes a Shape from the Surface's stack.
+     * Takes an unfinished Shape off its Layer's stack and removes its Canvas, without notifying
+     * the listeners, since they were never told about it. Used when the user clicks without
+     * drawing anything.
+     * @param s the unfinished Shape
+     */
+    void discardShape(Shape s) {
+        s.layer.getChildren().remove(s.releaseCanvas());
+        s.layer.shapes = s.layer.shapes.remove(s.id);
+    }
+
+    /**
+     * Gets the Shape at the top of the active Layer.
+     * @return the top Shape, or null if the active Layer is empty
+     */
+    Shape topShape() {
+        return activeLayer.shapes.isEmpty() ? null : activeLayer.shapes.top();
+    }
+
+    /**
+     * Adds a previously saved Shape to the top of the stack of the Layer it was saved in, keeping
+     * its identifier, and notifies the listeners that it was added.
+     * @param s the Shape to restore
+     */
+    void restoreShape(Shape s) {
+        nextId = Math.max(nextId, s.id + 1);
+        s.layer = layerAt(s.record == null ? 0 : s.record.layer);
+        s.record = ShapeRecord.of(s);
+        s.layer.shapes = s.layer.shapes.put(s, s.record);
+        s.layer.spatialIndex.add(s);
+        s.layer.attributeIndex.add(s);
+        s.layer.invalidate();
+        for (SurfaceListener l : listeners) {
+            l.shapeAdded(s);
+        }
+    }
+
+    /**
+     * Marks a Shape as finished once the user has stopped drawing it, moves it from its own
+     * Canvas onto its Layer's cache, and notifies the listeners that it was added.
+     * @param s the finished Shape
+     */
+    void commitShape(Shape s) {
+        s.committed = true;
+        s.record = ShapeRecord.of(s);
+        s.layer.shapes = s.layer.shapes.put(s, s.record);
+        s.layer.spatialIndex.add(s);
+        s.layer.attributeIndex.add(s);
+        s.layer.getChildren().remove(s.releaseCanvas());
+        s.layer.invalidate();
+        s.layer.repaint();
+        for (SurfaceListener l : listeners) {
+            l.shapeAdded(s);
+        }
+    }
+
+    /**
+     * Checks if a Shape is still in its Layer's stack. A Shape can be removed while the user is
+     * still working on it, for example by another user editing the same drawing, and changes
+     * reported for it afterwards are ignored.
+     * @param s the Shape
+     * @return true if the Shape is in its Layer's stack
+     */
+    boolean isOnSurface(Shape s) {
+        return s.layer != null && s.layer.shapes.contains(s.id);
+    }
+
+    /**
+     * Gets the Shape with the specified identifier, on any Layer, to be changed. A Shape kept in
+     * a ShapeStore is taken out of it; use hasShape() to only check that the Shape exists.
+     * @param id the identifier
+     * @return the Shape, or null if there is none
+     */
+    Shape getShape(long id) {
+        for (Layer layer : layers) {
+            Shape s = layer.shapes.get(id);
+            if (s != null) {
+                return s;
+            }
+            int handle = layer.store == null ? -1 : layer.store.handleOf(id);
+            if (handle >= 0) {
+                return promoteShape(layer, handle);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks if there is a finished or unfinished Shape with the specified identifier on any
+     * Layer, without taking it out of a ShapeStore.
+     * @param id the identifier
+     * @return true if there is such a Shape
+     */
+    boolean hasShape(long id) {
+        for (Layer layer : layers) {
+            if (layer.shapes.contains(id)
+                    || (layer.store != null && layer.store.handleOf(id) >= 0)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Notifies the listeners that a Shape has been moved.
+     * @param s the Shape that was moved
+     * @param distanceX distance translated on the X axis
+     * @param distanceY distance translated on the Y axis
+     */
+    void shapeMoved(Shape s, double distanceX, double distanceY) {
+        if (!isOnSurface(s)) {
+            return;
+        }
+        s.record = ShapeRecord.of(s);
+        s.layer.shapes = s.layer.shapes.put(s, s.record);
+        s.layer.spatialIndex.add(s);
+        s.layer.invalidate();
+        for (SurfaceListener l : listeners) {
+            l.shapeMoved(s, distanceX, distanceY);
+        }
+    }
+
+    /**
+     * Notifies the listeners that a Shape has been rotated or resized.
+     * @param s the Shape that was changed
+     */
+    void shapeTransformed(Shape s) {
+        if (!isOnSurface(s)) {
+            return;
+        }
+        s.record = ShapeRecord.of(s);
+        s.layer.shapes = s.layer.shapes.put(s, s.record);
+        s.layer.spatialIndex.add(s);
+        s.layer.attributeIndex.add(s);
+        s.layer.invalidate();
+        for (SurfaceListener l : listeners) {
+            l.shapeTransformed(s);
+        }
+    }
+
+    /**
+     * Gives a Shape a new Color, redraws it and notifies the listeners.
+     * @param s the Shape to recolour
+     * @param c the new Color
+     */
+    void recolourShape(Shape s, Color c) {
+        if (!applyColour(s, c)) {
+            return;
+        }
+        s.layer.invalidate();
+        for (SurfaceListener l : listeners) {
+            l.shapeRecoloured(s);
+        }
+    }
+
+    /**
+     * Gives a Shape a new Color and records it in its Layer's stack, without repainting the
+     * Layer or notifying the listeners.
+     * @param s the Shape to recolour
+     * @param c the new Color
+     * @return true if the Shape is on the Surface and was recoloured
+     */
+    private boolean applyColour(Shape s, Color c) {
+        if (!isOnSurface(s)) {
+            return false;
+        }
+        s.setColor(c);
+        s.record = ShapeRecord.of(s);
+        s.layer.shapes = s.layer.shapes.put(s, s.record);
+        return true;
+    }
+
+    /**
+     * Removes a Shape from its Layer's stack.
      * @param s the Shape to remove.
      */
     void removeShape(Shape s) {
-        if (!this.getChildren().isEmpty()) {
-            this.getChildren().remove(s.getCanvas());
+        if (detachShape(s)) {
+            s.layer.invalidate();
+            for (SurfaceListener l : listeners) {
+                l.shapeRemoved(s);
+            }
+        }
+    }
+
+    /**
+     * Takes a Shape off its Layer's stack and out of its indexes, without repainting the Layer
+     * or notifying the listeners.
+     * @param s the Shape to remove
+     * @return true if the Shape was in the stack
+     */
+    private boolean detachShape(Shape s) {
+        Layer layer = s.layer;
+        if (layer == null) {
+            return false;
+        }
+        layer.getChildren().remove(s.releaseCanvas());
+        layer.spatialIndex.remove(s);
+        layer.attributeIndex.remove(s);
+        ShapeStack removed = layer.shapes.remove(s.id);
+        if (removed == layer.shapes) {
+            return false;
+        }
+        layer.shapes = removed;
+        return true;
+    }
+
+    /**
+     * Replaces the specified Shapes with a Group of them, added to the top of their Layer. Only
+     * the Shapes on the same Layer as the first one are grouped, keeping their stacking order.
+     * @param selected the Shapes to group
+     * @return the new Group, or null if fewer than two Shapes could be grouped
+     */
+    Group groupShapes(List<Shape> selected) {
+        if (selected.isEmpty()) {
+            return null;
+        }
+        Layer layer = selected.get(0).layer;
+        ArrayList<Shape> children = new ArrayList<>();
+        for (Shape s : selected) {
+            if (s.layer == layer && s.committed && layer.shapes.contains(s.id)
+                    && !children.contains(s)) {
+                children.add(s);
+            }
+        }
+        if (children.size() < 2) {
+            return null;
+        }
+        children.sort(Comparator.comparingLong(s -> s.id));
+        for (Shape s : children) {
+            removeShape(s);
+        }
+        Group group = new Group(children);
+        insertShape(group, layer);
+        return group;
+    }
+
+    /**
+     * Replaces a Group with its children, added to the top of its Layer in their stacking order.
+     * @param group the Group to take apart
+     * @return the children
+     */
+    List<Shape> ungroupShape(Group group) {
+        Layer layer = group.layer;
+        removeShape(group);
+        List<Shape> children = group.ungroup();
+        for (Shape s : children) {
+            insertShape(s, layer);
         }
-        shapes.remove(s);
+        return children;
     }
 
     /**
-     * Finds the first Shape in the stack (going down, starting from the top) that the specified X
-     * and Y coordinates fall within.
+     * Replaces the specified Shapes with a Compound covering the area they make together: their
+     * union, their intersection, or the first Shape less the others. Only the Shapes on the same
+     * Layer as the first one are combined, in the order they were given. The Compound takes the
+     * Color of the first Shape and is added to the top of the Layer.
+     * @param selected the Shapes to combine
+     * @param operation PolygonClipper.UNION, INTERSECTION or DIFFERENCE
+     * @return the new Compound, or null if fewer than two Shapes could be combined or nothing
+     * would be left
+     */
+    Compound combineShapes(List<Shape> selected, int operation) {
+        if (selected.isEmpty()) {
+            return null;
+        }
+        Layer layer = selected.get(0).layer;
+        ArrayList<Shape> operands = new ArrayList<>();
+        for (Shape s : selected) {
+            if (s.layer == layer && s.committed && layer.shapes.contains(s.id)
+                    && !operands.contains(s)) {
+                operands.add(s);
+            }
+        }
+        if (operands.size() < 2) {
+            return null;
+        }
+        double[] rings = areaOf(operands.get(0));
+        for (int i = 1; i < operands.size(); i++) {
+            rings = PolygonClipper.combine(rings, areaOf(operands.get(i)), operation);
+        }
+        if (rings.length == 0) {
+            return null;
+        }
+        for (Shape s : operands) {
+            removeShape(s);
+        }
+        Compound compound = new Compound(operands.get(0).color, rings);
+        insertShape(compound, layer);
+        return compound;
+    }
+
+    /**
+     * Fills the region of the picture around a point that has the same colour as the point, as
+     * it would be painted without smoothing, with a new Raster on the active Layer. The picture
+     * is painted from the finished Shapes into an array of pixels, one per unit of the Surface.
+     * @param x the X coordinate of the point
+     * @param y the Y coordinate of the point
+     * @param c the Color to fill with
+     * @return the new Raster, or null if the point is outside the Surface
+     */
+    Raster fillRegion(double x, double y, Color c) {
+        int width = (int) overlay.getWidth();
+        int height = (int) overlay.getHeight();
+        int[] pixels = Thumbnails.render(documentSnapshot(), width, height).pixels;
+        int[] spans = FloodFill.fill(pixels, width, height, (int) Math.floor(x),
+                (int) Math.floor(y));
+        if (spans.length == 0) {
+            return null;
+        }
+        int left = width;
+        int right = 0;
+        for (int k = 0; k < spans.length; k += 3) {
+            left = Math.min(left, spans[k + 1]);
+            right = Math.max(right, spans[k + 2]);
+        }
+        int top = spans[0];
+        int rows = spans[spans.length - 3] - top + 1;
+        for (int k = 0; k < spans.length; k += 3) {
+            spans[k] -= top;
+            spans[k + 1] -= left;
+            spans[k + 2] -= left;
+        }
+        Raster raster = new Raster(c, left, top, right - left, rows, spans);
+        insertShape(raster, getActiveLayer());
+        return raster;
+    }
+
+    /**
+     * Gets the area a Shape covers on the Surface as rings of points, with round Shapes outlined
+     * by straight segments. The area of a Group is the union of its children's.
+     * @param s the Shape
+     * @return the points of every ring, the rings separated by a pair of NaNs
+     */
+    static double[] areaOf(Shape s) {
+        if (!(s instanceof Group)) {
+            return s.toSurface(s.getOutline());
+        }
+        Group group = (Group) s;
+        double[] offset = group.getOffset();
+        double[] area = new double[0];
+        for (Shape child : group.getChildren()) {
+            double[] points = areaOf(child);
+            for (int i = 0; i + 1 < points.length; i += 2) {
+                points[i] += offset[0];
+                points[i + 1] += offset[1];
+            }
+            area = PolygonClipper.combine(area, group.toSurface(points), PolygonClipper.UNION);
+        }
+        return area;
+    }
+
+    /**
+     * Finds every finished Shape of a type in the stacks of the shown Layers. Shapes kept in
+     * ShapeStores are found by storedOfType() instead, so they are not taken out of them.
+     * @param type the type code, as given by ShapeRecord.typeOf()
+     * @return the Shapes, Layer by Layer from the bottom of each stack up
+     */
+    List<Shape> shapesOfType(byte type) {
+        ArrayList<Shape> found = new ArrayList<>();
+        for (Layer layer : layers) {
+            if (layer.isVisible()) {
+                found.addAll(stackOrder(layer.attributeIndex.ofType(type)));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds every finished Shape of a Color in the stacks of the shown Layers. Shapes kept in
+     * ShapeStores are found by storedOfColour() instead.
+     * @param c the Color
+     * @return the Shapes, Layer by Layer from the bottom of each stack up
+     */
+    List<Shape> shapesOfColour(Color c) {
+        int argb = ShapeRecord.toArgb(c);
+        ArrayList<Shape> found = new ArrayList<>();
+        for (Layer layer : layers) {
+            if (layer.isVisible()) {
+                found.addAll(stackOrder(layer.attributeIndex.ofColour(argb)));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds every finished Shape in the stacks of the shown Layers that covers more than an
+     * area. Shapes kept in ShapeStores are found by storedLargerThan() instead.
+     * @param area the area, in square pixels
+     * @return the Shapes, Layer by Layer from the bottom of each stack up
+     */
+    List<Shape> shapesLargerThan(double area) {
+        ArrayList<Shape> found = new ArrayList<>();
+        for (Layer layer : layers) {
+            if (layer.isVisible()) {
+                found.addAll(stackOrder(layer.attributeIndex.largerThan(area)));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds every Shape of a type kept in the ShapeStores of the shown Layers, leaving them in
+     * the stores.
+     * @param type the type code, as given by ShapeRecord.typeOf()
+     * @return the Shapes
+     */
+    StoredShapes storedOfType(byte type) {
+        StoredShapes found = new StoredShapes();
+        for (Layer layer : layers) {
+            if (layer.isVisible() && layer.store != null) {
+                found.add(layer, layer.store.ofType(type));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds every Shape of a Color kept in the ShapeStores of the shown Layers, leaving them in
+     * the stores.
+     * @param c the Color
+     * @return the Shapes
+     */
+    StoredShapes storedOfColour(Color c) {
+        int argb = ShapeRecord.toArgb(c);
+        StoredShapes found = new StoredShapes();
+        for (Layer layer : layers) {
+            if (layer.isVisible() && layer.store != null) {
+                found.add(layer, layer.store.ofColour(argb));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds every Shape kept in the ShapeStores of the shown Layers that covers more than an
+     * area, leaving them in the stores.
+     * @param area the area, in square pixels
+     * @return the Shapes
+     */
+    StoredShapes storedLargerThan(double area) {
+        StoredShapes found = new StoredShapes();
+        for (Layer layer : layers) {
+            if (layer.isVisible() && layer.store != null) {
+                found.add(layer, layer.store.largerThan(area));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Takes Shapes out of the ShapeStores of their Layers, so that they can be changed; see
+     * promoteShape(). Shapes already taken out are left alone.
+     * @param stored the Shapes
+     * @return the Shapes taken out, Layer by Layer in order of identifiers
+     */
+    List<Shape> takeStored(StoredShapes stored) {
+        ArrayList<Shape> taken = new ArrayList<>();
+        for (int part = 0; part < stored.parts(); part++) {
+            ShapeStore store = stored.store(part);
+            if (store == null) {
+                continue;
+            }
+            for (int handle : stored.handles(part)) {
+                if (!store.isRemoved(handle)) {
+                    taken.add(promoteShape(stored.layer(part), handle));
+                }
+            }
+        }
+        return taken;
+    }
+
+    /**
+     * Removes Shapes from the ShapeStores of their Layers without taking them out as Shapes, and
+     * notifies the listeners of them all at once, as clearShapes() does, with Shapes made only
+     * for the purpose as they are read. Each Layer is repainted once.
+     * @param stored the Shapes to remove; those already taken out are left alone
+     */
+    void removeStored(StoredShapes stored) {
+        ArrayList<Layer> from = new ArrayList<>();
+        ArrayList<ShapeStore> stores = new ArrayList<>();
+        ArrayList<int[]> removed = new ArrayList<>();
+        int size = 0;
+        for (int part = 0; part < stored.parts(); part++) {
+            ShapeStore store = stored.store(part);
+            if (store == null) {
+                continue;
+            }
+            int[] handles = stored.handles(part);
+            int[] gone = new int[handles.length];
+            int count = 0;
+            for (int handle : handles) {
+                if (!store.isRemoved(handle)) {
+                    store.remove(handle);
+                    gone[count++] = handle;
+                }
+            }
+            if (count > 0) {
+                from.add(stored.layer(part));
+                stores.add(store);
+                removed.add(Arrays.copyOf(gone, count));
+                size += count;
+                stored.layer(part).invalidate();
+            }
+        }
+        if (size == 0) {
+            return;
+        }
+        final int total = size;
+        Collection<Shape> shapes = new AbstractCollection<Shape>() {
+            @Override
+            public int size() {
+                return total;
+            }
+
+            @Override
+            public Iterator<Shape> iterator() {
+                return new Iterator<Shape>() {
+                    private int part;
+                    private int next;
+
+                    @Override
+                    public boolean hasNext() {
+                        while (part < removed.size() && next == removed.get(part).length) {
+                            part++;
+                            next = 0;
+                        }
+                        return part < removed.size();
+                    }
+
+                    @Override
+                    public Shape next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        Shape s = stores.get(part).record(removed.get(part)[next++]).toShape();
+                        s.layer = from.get(part);
+                        s.stored = true;
+                        return s;
+                    }
+                };
+            }
+        };
+        for (SurfaceListener l : listeners) {
+            l.shapesRemoved(shapes);
+        }
+    }
+
+    /**
+     * Sorts Shapes of one Layer into the order of its stack.
+     * @param shapes the Shapes, which are sorted in place
+     * @return the Shapes
+     */
+    private static List<Shape> stackOrder(List<Shape> shapes) {
+        shapes.sort(Comparator.comparingLong(s -> s.id));
+        return shapes;
+    }
+
+    /**
+     * Gives Shapes a new Color and notifies the listeners of them all at once. Each Layer is
+     * repainted once, after every Shape has been recoloured.
+     * @param shapes the Shapes to recolour
+     * @param c the new Color
+     */
+    void recolourShapes(List<Shape> shapes, Color c) {
+        ArrayList<Shape> recoloured = new ArrayList<>(shapes.size());
+        LinkedHashSet<Layer> changed = new LinkedHashSet<>();
+        for (Shape s : shapes) {
+            if (applyColour(s, c)) {
+                recoloured.add(s);
+                changed.add(s.layer);
+            }
+        }
+        for (Layer layer : changed) {
+            layer.invalidate();
+        }
+        if (!recoloured.isEmpty()) {
+            for (SurfaceListener l : listeners) {
+                l.shapesRecoloured(recoloured);
+            }
+        }
+    }
+
+    /**
+     * Removes Shapes from their Layers' stacks and notifies the listeners of them all at once.
+     * Each Layer is repainted once, after every Shape has been removed.
+     * @param shapes the Shapes to remove
+     */
+    void removeShapes(List<Shape> shapes) {
+        ArrayList<Shape> removed = new ArrayList<>(shapes.size());
+        LinkedHashSet<Layer> changed = new LinkedHashSet<>();
+        for (Shape s : shapes) {
+            if (detachShape(s)) {
+                removed.add(s);
+                changed.add(s.layer);
+            }
+        }
+        for (Layer layer : changed) {
+            layer.invalidate();
+        }
+        if (!removed.isEmpty()) {
+            for (SurfaceListener l : listeners) {
+                l.shapesRemoved(removed);
+            }
+        }
+    }
+
+    /**
+     * Finds the finished Shapes, on every Layer, that overlap or touch a Shape as they are shown.
+     * Only Shapes whose boxes share a cell of their Layer's SpatialIndex with the Shape's box are
+     * compared exactly. Shapes kept in a ShapeStore are not searched.
+     * @param s the Shape
+     * @return the overlapping Shapes, Layer by Layer from the bottom of each stack up
+     */
+    List<Shape> overlappingShapes(Shape s) {
+        double[] box = new double[4];
+        s.getSurfaceBounds(box);
+        ArrayList<Shape> found = new ArrayList<>();
+        for (Layer layer : layers) {
+            List<Shape> near = layer.spatialIndex.near(box);
+            near.sort(Comparator.comparingLong(other -> other.id));
+            for (Shape other : near) {
+                if (other != s && other.committed && Collisions.overlap(s, other)) {
+                    found.add(other);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds every pair of finished Shapes that overlap or touch, on any Layers, including the
+     * Shapes kept in ShapeStores. Works on a snapshot of the Shapes, so it can be called from any
+     * thread once the snapshot has been taken on the JavaFX thread; see Collisions.pairs().
+     * @return the identifiers of the Shapes in each overlapping pair, one pair after the other
+     * with the lower identifier first
+     */
+    long[] overlappingPairs() {
+        return Collisions.pairs(documentSnapshot());
+    }
+
+    /**
+     * Adds a finished Shape to the top of a Layer with a new identifier, and notifies the
+     * listeners that it was added.
+     * @param s the Shape to add
+     * @param layer the Layer to add it to
+     */
+    private void insertShape(Shape s, Layer layer) {
+        s.id = newId();
+        s.layer = layer;
+        s.committed = true;
+        s.record = ShapeRecord.of(s);
+        layer.shapes = layer.shapes.put(s, s.record);
+        layer.spatialIndex.add(s);
+        layer.attributeIndex.add(s);
+        layer.invalidate();
+        for (SurfaceListener l : listeners) {
+            l.shapeAdded(s);
+        }
+    }
+
+    /**
+     * Adds previously saved Shapes to the top of their Layers' stacks, or to their ShapeStores,
+     * keeping their identifiers, and notifies the listeners that they were added, in one batch.
+     * @param loaded the Shapes to add, from the bottom of the stack to the top
+     */
+    void loadShapes(Collection<Shape> loaded) {
+        for (Shape s : loaded) {
+            nextId = Math.max(nextId, s.id + 1);
+            s.layer = layerAt(s.record == null ? 0 : s.record.layer);
+            s.record = ShapeRecord.of(s);
+            if (!storeShape(s)) {
+                s.layer.shapes = s.layer.shapes.put(s, s.record);
+                s.layer.spatialIndex.add(s);
+                s.layer.attributeIndex.add(s);
+            }
+            s.layer.invalidate();
+        }
+        for (SurfaceListener l : listeners) {
+            l.shapesAdded(loaded);
+            l.batchesFinished();
+        }
+    }
+
+    /**
+     * Adds a batch of imported Shapes to the top of a Layer with new identifiers, and notifies
+     * the listeners that the batch was added. The Shapes are kept in the Layer's ShapeStore where
+     * possible; the rest of the batch is added to the Layer's stack and SpatialIndex at once. The
+     * Layer is not repainted; call finishImport() once the last batch has been added.
+     * @param batch the finished Shapes to add, from the bottom up
+     * @param layer the Layer to add them to
+     */
+    void importShapes(List<Shape> batch, Layer layer) {
+        ArrayList<Shape> kept = new ArrayList<>();
+        for (Shape s : batch) {
+            s.id = newId();
+            s.layer = layer;
+            s.committed = true;
+            s.record = ShapeRecord.of(s);
+            if (!kept.isEmpty() || !storeShape(s)) {
+                kept.add(s);
+            }
+        }
+        appendShapes(kept, layer);
+        for (SurfaceListener l : listeners) {
+            l.shapesAdded(batch);
+        }
+    }
+
+    /**
+     * Adds copies of Shapes to the top of a Layer with new identifiers, in one batch, and
+     * notifies the listeners that the batch was added. The Layer is repainted once, after every
+     * copy has been added.
+     * @param copies the copies to add, made by Shape.copy(), from the bottom up
+     * @param layer the Layer to add them to
+     */
+    void pasteShapes(List<Shape> copies, Layer layer) {
+        for (Shape s : copies) {
+            s.id = newId();
+            s.layer = layer;
+            s.committed = true;
+            s.record = ShapeRecord.of(s);
+        }
+        appendShapes(copies, layer);
+        layer.invalidate();
+        for (SurfaceListener l : listeners) {
+            l.shapesAdded(copies);
+            l.batchesFinished();
+        }
+    }
+
+    /**
+     * Adds finished Shapes, with their identifiers and records set, to the top of a Layer's stack
+     * and to its indexes at once.
+     * @param added the Shapes to add, from the bottom up
+     * @param layer the Layer to add them to
+     */
+    private void appendShapes(List<Shape> added, Layer layer) {
+        layer.shapes = layer.shapes.append(added);
+        layer.spatialIndex.addAll(added);
+        layer.attributeIndex.addAll(added);
+    }
+
+    /**
+     * Repaints a Layer once every batch of an import has been added to it, and tells the
+     * listeners that the import is finished.
+     * @param layer the Layer the Shapes were imported into
+     */
+    void finishImport(Layer layer) {
+        layer.invalidate();
+        for (SurfaceListener l : listeners) {
+            l.batchesFinished();
+        }
+    }
+
+    /** Removes every Shape from every Layer, and empties and closes the ShapeStores. */
+    void clearShapes() {
+        for (Layer layer : layers) {
+            while (!layer.shapes.isEmpty()) {
+                removeShape(layer.shapes.top());
+            }
+            if (layer.store != null) {
+                ShapeStore store = layer.store;
+                layer.store = null;
+                for (ShapeRecord r : store.records()) {
+                    Shape s = r.toShape();
+                    s.layer = layer;
+                    s.stored = true;
+                    for (SurfaceListener l : listeners) {
+                        l.shapeRemoved(s);
+                    }
+                }
+                store.close();
+                layer.invalidate();
+            }
+        }
+    }
+
+    /**
+     * Takes a snapshot of the finished Shapes for use on another thread. The ShapeStacks never
+     * change, so this takes time in proportion to the number of Layers, plus the number of
+     * Shapes in ShapeStores divided by 64, and later changes to the Shapes do not affect the
+     * snapshot.
+     * @return the records of the finished Shapes, Layer by Layer from the Shapes in the Layer's
+     * ShapeStore and then from the bottom of its stack to the top
+     */
+    Collection<ShapeRecord> documentSnapshot() {
+        ArrayList<Collection<ShapeRecord>> parts = new ArrayList<>(layers.size() * 2);
+        int size = 0;
+        for (Layer layer : layers) {
+            if (layer.store != null) {
+                Collection<ShapeRecord> stored = layer.store.records();
+                parts.add(stored);
+                size += stored.size();
+            }
+            Collection<ShapeRecord> records = layer.shapes.records();
+            parts.add(records);
+            size += records.size();
+        }
+        final int total = size;
+        return new AbstractCollection<ShapeRecord>() {
+            @Override
+            public int size() {
+                return total;
+            }
+
+            @Override
+            public Iterator<ShapeRecord> iterator() {
+                return new Iterator<ShapeRecord>() {
+                    private Iterator<Collection<ShapeRecord>> part = parts.iterator();
+                    private Iterator<ShapeRecord> current = Collections.emptyIterator();
+
+                    @Override
+                    public boolean hasNext() {
+                        while (!current.hasNext() && part.hasNext()) {
+                            current = part.next().iterator();
+                        }
+                        return current.hasNext();
+                    }
+
+                    @Override
+                    public ShapeRecord next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        return current.next();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Paints every finished Shape of the shown Layers onto a single GraphicsContext, batching
+     * Shapes of the same Color into one fill wherever stacking order allows. The Shapes in a
+     * Layer's ShapeStore are painted straight from the store, in order among the rest of the
+     * Layer.
+     * @param g the GraphicsContext to paint on
+     */
+    void renderTo(GraphicsContext g) {
+        ArrayList<Shape> finished = new ArrayList<>();
+        for (Layer layer : layers) {
+            if (!layer.isVisible()) {
+                continue;
+            }
+            layer.paintShapes(g, renderer, finished, true);
+        }
+        renderer.render(g, finished);
+    }
+
+    /**
+     * Finds the first finished Shape (going down through the shown Layers, starting from the top
+     * of the top Layer) that the specified X and Y coordinates fall within. Within a Layer, the
+     * Shape with the highest identifier is found, whether it is in the stack or the ShapeStore. A
+     * Shape found in a Layer's ShapeStore is taken out of it, so that it can be edited.
      * @param x the X coordinate to search with
      * @param y the Y coordinate to search with
      * @return the Shape, if found. Returns null if no shape was found.
      */
     Shape findShape(double x, double y) {
-        for (Shape s : shapes) {
-            if (s.shapeExists(x, y)) {
+        for (int i = layers.size() - 1; i >= 0; i--) {
+            Layer layer = layers.get(i);
+            if (!layer.isVisible()) {
+                continue;
+            }
+            Shape s = layer.spatialIndex.find(x, y);
+            int handle = layer.store == null ? -1 : layer.store.find(x, y);
+            if (handle >= 0 && (s == null || layer.store.id(handle) > s.id)) {
+                return promoteShape(layer, handle);
+            }
+            if (s != null) {
                 return s;
             }
         }
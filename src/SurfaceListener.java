@@ -0,0 +1,82 @@
+import java.util.Collection;
+
+/**
+ * SurfaceListener. Receives notifications whenever the Shapes on a Surface are changed, so that
+ * the changes can be recorded or sent elsewhere.
+ * @author Emily DeLisle
+ * @version 1.0
+ */
+interface SurfaceListener {
+
+    /**
+     * Called when a Shape has been finished and added to the Surface.
+     * @param s the Shape that was added
+     */
+    void shapeAdded(Shape s);
+
+    /**
+     * Called when a batch of finished Shapes has been added to the Surface at once, by an import,
+     * a paste or a load. An import adds its Shapes in many batches, and batchesFinished() is
+     * called once the last of them has been added. By default each Shape is passed to
+     * shapeAdded().
+     * @param added the Shapes that were added, from the bottom of the stack up
+     */
+    default void shapesAdded(Collection<Shape> added) {
+        for (Shape s : added) {
+            shapeAdded(s);
+        }
+    }
+
+    /** Called once the last batch of Shapes passed to shapesAdded() has been added. */
+    default void batchesFinished() {
+    }
+
+    /**
+     * Called when a Shape has been moved. The distances are measured from where the Shape ended
+     * up back to where it started, so a move to the right has a negative X distance.
+     * @param s the Shape that was moved
+     * @param distanceX distance translated on the X axis
+     * @param distanceY distance translated on the Y axis
+     */
+    void shapeMoved(Shape s, double distanceX, double distanceY);
+
+    /**
+     * Called when a Shape has been rotated or resized.
+     * @param s the Shape that was changed
+     */
+    void shapeTransformed(Shape s);
+
+    /**
+     * Called when a Shape has been removed from the Surface.
+     * @param s the Shape that was removed
+     */
+    void shapeRemoved(Shape s);
+
+    /**
+     * Called when a Shape has been given a new Color.
+     * @param s the Shape that was recoloured
+     */
+    void shapeRecoloured(Shape s);
+
+    /**
+     * Called when many Shapes have been removed from the Surface at once. By default each Shape
+     * is passed to shapeRemoved().
+     * @param removed the Shapes that were removed
+     */
+    default void shapesRemoved(Collection<Shape> removed) {
+        for (Shape s : removed) {
+            shapeRemoved(s);
+        }
+    }
+
+    /**
+     * Called when many Shapes have been given the same new Color at once. By default each Shape
+     * is passed to shapeRecoloured().
+     * @param recoloured the Shapes that were recoloured
+     */
+    default void shapesRecoloured(Collection<Shape> recoloured) {
+        for (Shape s : recoloured) {
+            shapeRecoloured(s);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+/**
+ * SyncChannel. One direction of a connection between a SyncClient and a SyncServer, carrying
+ * whole messages. Messages sent on a channel arrive in the order they were sent. A channel may
+ * deliver a message on any thread, and send() may be called from any thread.
+ * @author Emily DeLisle
+ * @version 1.0
+ */
+interface SyncChannel {
+
+    /**
+     * Sends a message. The array must not be changed afterwards.
+     * @param message the message
+     */
+    void send(byte[] message);
+}
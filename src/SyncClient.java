@@ -0,0 +1,550 @@
+import javafx.animation.AnimationTimer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * SyncClient. Shares the Shapes on a Surface with other users editing the same drawing through a
+ * SyncServer. Changes made on this Surface are shown at once and collected as small operations.
+ * Once a frame they are sent to the server as one batch, with the moves of each Shape in the
+ * frame added together into one. The server puts the batches of every client into one order and
+ * sends them back to every client.
+ * <p>
+ * Batches from other clients are applied in the server's order. Moves are added to whatever the
+ * Shape's position is, so they never conflict with each other. A Shape's Color, or its geometry
+ * and rotation, are set outright, and the change sequenced last wins. A change of this client's
+ * own that has not come back from the server yet will be sequenced after anything arriving from
+ * other clients now, so it is treated as already winning: while it waits, other clients'
+ * changes of the same kind are skipped, as are their moves of a Shape this client has reshaped,
+ * and this client's waiting moves are added again on top of a geometry set by another client. A
+ * deleted Shape stays deleted. So every client ends up with the same drawing.
+ * <p>
+ * Each client gets its own id from the server and gives out Shape identifiers that leave that id
+ * as their remainder, so clients never give out the same identifier. A client that joins drops
+ * its own Shapes and takes the server's drawing.
+ * <p>
+ * A batch is a count followed by operations, each an operation code and its values. Identifiers,
+ * counts and whole-number moves are written as variable-length numbers, so most moves take only
+ * a few bytes:
+ * <pre>
+ * ADD       record          RESHAPE   record
+ * MOVE      id, dx, dy      MOVE_INT  id, dx, dy as zig-zag variable-length numbers
+ * DELETE    id              RECOLOUR  id, packed Color
+ * </pre>
+ * @author Emily DeLisle
+ * @version 1.0
+ */
+class SyncClient implements SurfaceListener {
+
+    /** Largest number of clients whose Shape identifiers never clash */
+    static final int MAX_CLIENTS = 1024;
+
+    /** Operation code for a Shape being added, followed by its record */
+    private static final byte ADD = 1;
+
+    /** Operation code for a Shape being moved, followed by its identifier and the distances */
+    private static final byte MOVE = 2;
+
+    /** Operation code for a Shape being deleted, followed by its identifier */
+    private static final byte DELETE = 3;
+
+    /** Operation code for a Shape being recoloured, followed by its identifier and Color */
+    private static final byte RECOLOUR = 4;
+
+    /** Operation code for a Shape being rotated or resized, followed by its whole record */
+    private static final byte RESHAPE = 5;
+
+    /** Operation code for a move by whole numbers of pixels, written as variable-length numbers */
+    private static final byte MOVE_INT = 6;
+
+    /** A change made on this Surface that has not been sent yet */
+    private static final class Operation {
+
+        /** The operation code */
+        final byte code;
+
+        /** Identifier of the Shape */
+        final long id;
+
+        /** The record of the Shape, for ADD and RESHAPE */
+        final ShapeRecord record;
+
+        /** The packed Color, for RECOLOUR */
+        final int argb;
+
+        /** Distance moved on the X axis, for MOVE */
+        double distanceX;
+
+        /** Distance moved on the Y axis, for MOVE */
+        double distanceY;
+
+        Operation(byte code, long id, ShapeRecord record, int argb) {
+            this.code = code;
+            this.id = id;
+            this.record = record;
+            this.argb = argb;
+        }
+    }
+
+    /** The Surface being shared */
+    private Surface surface;
+
+    /** Runs the changes received from the server, on the thread that owns the Surface */
+    private Executor applyOn;
+
+    /** The channel to the server, or null until connected */
+    private SyncChannel server;
+
+    /** Id given by the server, or 0 until the server has sent it */
+    private int clientId;
+
+    /** Whether changes from the server are being applied, so they are not sent back */
+    private boolean applying;
+
+    /** Changes not sent yet, in the order they were made */
+    private ArrayList<Operation> outgoing = new ArrayList<>();
+
+    /**
+     * For each Shape, the unsent move that later moves can still be added to. Cleared for a
+     * Shape once any other change to it is queued, so moves never jump over other changes
+     */
+    private HashMap<Long, Operation> openMoves = new HashMap<>();
+
+    /** The changes in each batch sent and not yet back from the server, oldest first */
+    private ArrayDeque<ArrayList<Operation>> unacknowledged = new ArrayDeque<>();
+
+    /** Number of recolours of each Shape queued or sent and not yet back from the server */
+    private HashMap<Long, Integer> pendingRecolours = new HashMap<>();
+
+    /** Number of reshapes of each Shape queued or sent and not yet back from the server */
+    private HashMap<Long, Integer> pendingReshapes = new HashMap<>();
+
+    /**
+     * Total distance of the moves of each Shape queued or sent and not yet back from the server,
+     * and the number of those moves
+     */
+    private HashMap<Long, double[]> pendingMoves = new HashMap<>();
+
+    /** Sends the queued changes once a frame */
+    private AnimationTimer timer;
+
+    /**
+     * Constructor for the SyncClient.
+     * @param surface the Surface to share
+     * @param applyOn runs the changes received from the server on the thread that owns the
+     * Surface, such as Platform::runLater
+     */
+    SyncClient(Surface surface, Executor applyOn) {
+        this.surface = surface;
+        this.applyOn = applyOn;
+    }
+
+    /**
+     * Sets the channel to the server. Called by the transport when it connects.
+     * @param server the channel to the server
+     */
+    void setServer(SyncChannel server) {
+        this.server = server;
+    }
+
+    /**
+     * Gets the id given to this client by the server.
+     * @return the id, or 0 if the server has not sent it yet
+     */
+    int getClientId() {
+        return clientId;
+    }
+
+    /** Starts sending the queued changes once a frame. */
+    void start() {
+        timer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                flush();
+            }
+        };
+        timer.start();
+    }
+
+    /** Stops sending the queued changes. */
+    void stop() {
+        if (timer != null) {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Receives a message from the server. May be called on any thread; the message is handled
+     * on the Surface's thread.
+     * @param message the message
+     */
+    void receive(byte[] message) {
+        applyOn.execute(() -> handle(message));
+    }
+
+    /**
+     * Handles a message from the server.
+     * @param message the message
+     */
+    private void handle(byte[] message) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(message));
+        try {
+            byte type = in.readByte();
+            if (type == SyncServer.WELCOME) {
+                join((int) readVarLong(in));
+                return;
+            }
+            readVarLong(in);
+            int origin = (int) readVarLong(in);
+            if (origin == clientId) {
+                acknowledge();
+            } else {
+                apply(in);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Bad message from the sync server", e);
+        }
+    }
+
+    /**
+     * Starts sharing the Surface once the server has given this client its id. The Shapes
+     * already on the Surface are dropped; the server sends its drawing next.
+     * @param id the id given by the server
+     */
+    private void join(int id) {
+        clientId = id;
+        surface.setIdSpace(MAX_CLIENTS, id % MAX_CLIENTS);
+        surface.clearShapes();
+        surface.addListener(this);
+    }
+
+    /** Marks the oldest batch sent by this client as sequenced by the server. */
+    private void acknowledge() {
+        ArrayList<Operation> batch = unacknowledged.poll();
+        if (batch == null) {
+            return;
+        }
+        for (Operation op : batch) {
+            if (op.code == RECOLOUR) {
+                pendingRecolours.computeIfPresent(op.id, (k, n) -> n == 1 ? null : n - 1);
+            } else if (op.code == RESHAPE) {
+                pendingReshapes.computeIfPresent(op.id, (k, n) -> n == 1 ? null : n - 1);
+            } else if (op.code == MOVE) {
+                double[] total = pendingMoves.get(op.id);
+                if (total != null && --total[2] == 0) {
+                    pendingMoves.remove(op.id);
+                } else if (total != null) {
+                    total[0] -= op.distanceX;
+                    total[1] -= op.distanceY;
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies a batch from another client to the Surface.
+     * @param in the batch
+     * @throws IOException if the batch cannot be read
+     */
+    private void apply(DataInput in) throws IOException {
+        applying = true;
+        try {
+            long count = readVarLong(in);
+            for (long i = 0; i < count; i++) {
+                applyOperation(in);
+            }
+        } finally {
+            applying = false;
+        }
+    }
+
+    /**
+     * Applies one operation from another client to the Surface.
+     * @param in the batch, positioned at the operation
+     * @throws IOException if the operation cannot be read
+     */
+    private void applyOperation(DataInput in) throws IOException {
+        byte code = in.readByte();
+        if (code == ADD) {
+            ShapeRecord r = ShapeRecord.read(in, ShapeRecord.FORMAT);
+            if (!surface.hasShape(r.id)) {
+                surface.restoreShape(r.toShape());
+            }
+            return;
+        }
+        if (code == RESHAPE) {
+            ShapeRecord r = ShapeRecord.read(in, ShapeRecord.FORMAT);
+            Shape s = surface.getShape(r.id);
+            if (s != null && !pendingReshapes.containsKey(r.id)) {
+                s.setGeometry(r.getGeometry());
+                s.rotation = r.rotation;
+                double[] moved = pendingMoves.get(r.id);
+                if (moved != null) {
+                    s.translate(-moved[0], -moved[1]);
+                }
+                surface.shapeTransformed(s);
+            }
+            return;
+        }
+        long id = readVarLong(in);
+        Shape s = surface.getShape(id);
+        if (code == MOVE || code == MOVE_INT) {
+            double dx = code == MOVE ? in.readDouble() : unzigzag(readVarLong(in));
+            double dy = code == MOVE ? in.readDouble() : unzigzag(readVarLong(in));
+            if (s != null && !pendingReshapes.containsKey(id)) {
+                s.translate(-dx, -dy);
+                surface.shapeMoved(s, dx, dy);
+            }
+        } else if (code == RECOLOUR) {
+            int argb = in.readInt();
+            if (s != null && !pendingRecolours.containsKey(id)) {
+                surface.recolourShape(s, ShapeRecord.toColor(argb));
+            }
+        } else if (code == DELETE) {
+            if (s != null) {
+                surface.removeShape(s);
+            }
+        } else {
+            throw new IOException("Unknown sync operation " + code);
+        }
+    }
+
+    @Override
+    public void shapeAdded(Shape s) {
+        queue(new Operation(ADD, s.id, s.record, 0));
+    }
+
+    @Override
+    public void shapeMoved(Shape s, double distanceX, double distanceY) {
+        if (applying) {
+            return;
+        }
+        Operation move = openMoves.get(s.id);
+        if (move == null) {
+            move = new Operation(MOVE, s.id, null, 0);
+            queue(move);
+            openMoves.put(s.id, move);
+            pendingMoves.computeIfAbsent(s.id, k -> new double[3])[2]++;
+        }
+        move.distanceX += distanceX;
+        move.distanceY += distanceY;
+        double[] total = pendingMoves.get(s.id);
+        total[0] += distanceX;
+        total[1] += distanceY;
+    }
+
+    @Override
+    public void shapeTransformed(Shape s) {
+        queue(new Operation(RESHAPE, s.id, s.record, 0));
+    }
+
+    @Override
+    public void shapeRemoved(Shape s) {
+        queue(new Operation(DELETE, s.id, null, 0));
+    }
+
+    @Override
+    public void shapeRecoloured(Shape s) {
+        queue(new Operation(RECOLOUR, s.id, null, ShapeRecord.toArgb(s.color)));
+    }
+
+    /**
+     * Queues a change made on this Surface, unless it is a change from the server being applied.
+     * @param op the change
+     */
+    private void queue(Operation op) {
+        if (applying) {
+            return;
+        }
+        openMoves.remove(op.id);
+        outgoing.add(op);
+        if (op.code == RECOLOUR) {
+            pendingRecolours.merge(op.id, 1, Integer::sum);
+        } else if (op.code == RESHAPE) {
+            pendingReshapes.merge(op.id, 1, Integer::sum);
+        }
+    }
+
+    /** Sends every queued change to the server as one batch. */
+    void flush() {
+        if (outgoing.isEmpty() || server == null || clientId == 0) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            writeVarLong(out, outgoing.size());
+            for (Operation op : outgoing) {
+                write(op, out);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        unacknowledged.add(new ArrayList<>(outgoing));
+        outgoing.clear();
+        openMoves.clear();
+        server.send(bytes.toByteArray());
+    }
+
+    /**
+     * Writes one operation.
+     * @param op the operation
+     * @param out the output to write to
+     * @throws IOException if the operation cannot be written
+     */
+    private static void write(Operation op, DataOutput out) throws IOException {
+        if (op.code == ADD || op.code == RESHAPE) {
+            out.writeByte(op.code);
+            op.record.write(out);
+            return;
+        }
+        if (op.code == MOVE && isWhole(op.distanceX) && isWhole(op.distanceY)) {
+            out.writeByte(MOVE_INT);
+            writeVarLong(out, op.id);
+            writeVarLong(out, zigzag((long) op.distanceX));
+            writeVarLong(out, zigzag((long) op.distanceY));
+            return;
+        }
+        out.writeByte(op.code);
+        writeVarLong(out, op.id);
+        if (op.code == MOVE) {
+            out.writeDouble(op.distanceX);
+            out.writeDouble(op.distanceY);
+        } else if (op.code == RECOLOUR) {
+            out.writeInt(op.argb);
+        }
+    }
+
+    /**
+     * Replays a batch on a drawing held as records, as the SyncServer does to fold the batches it
+     * has sequenced into one. Operations on Shapes that are not in the drawing are skipped.
+     * @param in the batch
+     * @param document the records of the Shapes by identifier, from the bottom up
+     * @throws IOException if the batch cannot be read
+     */
+    static void replay(DataInput in, LinkedHashMap<Long, ShapeRecord> document)
+            throws IOException {
+        long count = readVarLong(in);
+        for (long i = 0; i < count; i++) {
+            byte code = in.readByte();
+            if (code == ADD || code == RESHAPE) {
+                ShapeRecord r = ShapeRecord.read(in, ShapeRecord.FORMAT);
+                if (code == ADD || document.containsKey(r.id)) {
+                    document.put(r.id, r);
+                }
+                continue;
+            }
+            long id = readVarLong(in);
+            ShapeRecord r = document.get(id);
+            if (code == MOVE || code == MOVE_INT) {
+                double dx = code == MOVE ? in.readDouble() : unzigzag(readVarLong(in));
+                double dy = code == MOVE ? in.readDouble() : unzigzag(readVarLong(in));
+                if (r != null) {
+                    Shape s = r.toShape();
+                    s.translate(-dx, -dy);
+                    document.put(id, new ShapeRecord(id, r.type, r.argb, r.layer, r.rotation,
+                            s.getGeometry()));
+                }
+            } else if (code == RECOLOUR) {
+                int argb = in.readInt();
+                if (r != null) {
+                    document.put(id, new ShapeRecord(id, r.type, argb, r.layer, r.rotation,
+                            r.getGeometry()));
+                }
+            } else if (code == DELETE) {
+                document.remove(id);
+            } else {
+                throw new IOException("Unknown sync operation " + code);
+            }
+        }
+    }
+
+    /**
+     * Encodes a batch that adds the specified Shapes, used to start a server with a drawing.
+     * @param records the records of the Shapes, from the bottom up
+     * @return the batch
+     */
+    static byte[] encodeAdds(Collection<ShapeRecord> records) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            writeVarLong(out, records.size());
+            for (ShapeRecord r : records) {
+                out.writeByte(ADD);
+                r.write(out);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Checks if a distance is a whole number small enough to write as a variable-length number.
+     * @param d the distance
+     * @return true if it is
+     */
+    private static boolean isWhole(double d) {
+        return d == Math.rint(d) && Math.abs(d) < (1L << 52);
+    }
+
+    /**
+     * Maps a signed number onto an unsigned one, so small negative numbers stay small.
+     * @param n the signed number
+     * @return the unsigned number
+     */
+    private static long zigzag(long n) {
+        return (n << 1) ^ (n >> 63);
+    }
+
+    /**
+     * Undoes zigzag().
+     * @param n the unsigned number
+     * @return the signed number
+     */
+    private static long unzigzag(long n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    /**
+     * Writes a non-negative number in as few bytes as it needs, seven bits to a byte.
+     * @param out the output to write to
+     * @param n the number
+     * @throws IOException if the number cannot be written
+     */
+    static void writeVarLong(DataOutput out, long n) throws IOException {
+        while ((n & ~0x7FL) != 0) {
+            out.writeByte((int) ((n & 0x7F) | 0x80));
+            n >>>= 7;
+        }
+        out.writeByte((int) n);
+    }
+
+    /**
+     * Reads a number written by writeVarLong().
+     * @param in the input to read from
+     * @return the number
+     * @throws IOException if the number cannot be read
+     */
+    static long readVarLong(DataInput in) throws IOException {
+        long n = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            n |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return n;
+            }
+        }
+        throw new IOException("Variable-length number is too long");
+    }
+}
@@ -0,0 +1,178 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+
+/**
+ * SyncServer. Puts the changes made by every SyncClient editing a drawing into one order. Each
+ * batch of changes a client sends is given the next sequence number and sent on to every client,
+ * including the one that sent it, so every client applies every change in the same order. The
+ * server does not look inside a batch when sequencing it.
+ * <p>
+ * A client that connects is first sent the drawing as it is, so it starts from the same drawing
+ * as everyone else. The server keeps a snapshot of the drawing, as a single batch that adds every
+ * Shape, and the batches sequenced after it. Once enough batches have been sequenced they are
+ * replayed onto the snapshot and dropped, as the Journal does, so a joining client is sent the
+ * snapshot and a short tail rather than every batch since the server started.
+ * <p>
+ * Messages sent to clients are a type byte followed by variable-length numbers:
+ * <pre>
+ * WELCOME   client id
+ * SEQUENCED sequence number, id of the client that sent the batch (0 for the server), batch
+ * </pre>
+ * @author Emily DeLisle
+ * @version 1.0
+ */
+class SyncServer {
+
+    /** Message type telling a client its id */
+    static final byte WELCOME = 0;
+
+    /** Message type carrying a sequenced batch */
+    static final byte SEQUENCED = 1;
+
+    /** Number of batches sequenced after the snapshot before they are folded into it */
+    private static final int COMPACT_THRESHOLD = 2000;
+
+    /** Channels to the connected clients */
+    private ArrayList<SyncChannel> clients = new ArrayList<>();
+
+    /** The records of the Shapes in the snapshot, by identifier, from the bottom up */
+    private LinkedHashMap<Long, ShapeRecord> document = new LinkedHashMap<>();
+
+    /** The message carrying the snapshot, or null if the snapshot is empty */
+    private byte[] snapshot;
+
+    /** Every sequenced message sent since the snapshot, in order */
+    private ArrayList<byte[]> tail = new ArrayList<>();
+
+    /** Sequence number of the last batch */
+    private long sequence;
+
+    /** Id given to the next client that connects */
+    private int nextClient = 1;
+
+    /** Constructor for a SyncServer with an empty drawing. */
+    SyncServer() {
+    }
+
+    /**
+     * Constructor for a SyncServer that starts with a drawing. The drawing becomes the first
+     * snapshot, sent by the server itself.
+     * @param document the records of the Shapes in the drawing, from the bottom up
+     */
+    SyncServer(Collection<ShapeRecord> document) {
+        for (ShapeRecord r : document) {
+            this.document.put(r.id, r);
+        }
+        snapshot = encodeSnapshot();
+    }
+
+    /**
+     * Connects a client. The client is sent its id, then the snapshot and every batch sequenced
+     * since.
+     * @param client the channel to the client
+     * @return the channel the client sends its batches on
+     */
+    synchronized SyncChannel connect(SyncChannel client) {
+        int id = nextClient++;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(WELCOME);
+            SyncClient.writeVarLong(out, id);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        client.send(bytes.toByteArray());
+        if (snapshot != null) {
+            client.send(snapshot);
+        }
+        for (byte[] m : tail) {
+            client.send(m);
+        }
+        clients.add(client);
+        return batch -> receive(id, batch);
+    }
+
+    /**
+     * Disconnects a client. Nothing more is sent to it.
+     * @param client the channel to the client
+     */
+    synchronized void disconnect(SyncChannel client) {
+        clients.remove(client);
+    }
+
+    /**
+     * Sequences a batch and sends it to every client, folding the batches into the snapshot once
+     * enough have been sequenced.
+     * @param origin id of the client that sent the batch
+     * @param batch the batch
+     */
+    private synchronized void receive(int origin, byte[] batch) {
+        byte[] message = sequenced(++sequence, origin, batch);
+        tail.add(message);
+        for (SyncChannel c : clients) {
+            c.send(message);
+        }
+        if (tail.size() >= COMPACT_THRESHOLD) {
+            compact();
+        }
+    }
+
+    /**
+     * Replays every batch sequenced since the snapshot onto it, and starts a new, empty tail.
+     */
+    private void compact() {
+        try {
+            for (byte[] m : tail) {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(m));
+                in.readByte();
+                SyncClient.readVarLong(in);
+                SyncClient.readVarLong(in);
+                SyncClient.replay(in, document);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Bad batch from a sync client", e);
+        }
+        tail.clear();
+        snapshot = encodeSnapshot();
+    }
+
+    /**
+     * Encodes the snapshot as a message from the server, carrying the sequence number of the
+     * last batch it holds.
+     * @return the message, or null if the drawing is empty
+     */
+    private byte[] encodeSnapshot() {
+        if (document.isEmpty()) {
+            return null;
+        }
+        return sequenced(sequence, 0, SyncClient.encodeAdds(document.values()));
+    }
+
+    /**
+     * Encodes a sequenced message.
+     * @param number the sequence number
+     * @param origin id of the client that sent the batch
+     * @param batch the batch
+     * @return the message
+     */
+    private static byte[] sequenced(long number, int origin, byte[] batch) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(batch.length + 12);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(SEQUENCED);
+            SyncClient.writeVarLong(out, number);
+            SyncClient.writeVarLong(out, origin);
+            out.write(batch);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,142 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * SyncSocket. Carries the messages between SyncClients and a SyncServer over TCP, each message
+ * written as its length followed by its bytes. Every connection has a thread that reads messages
+ * and a thread that writes them, so sending never waits for the network.
+ * @author Emily DeLisle
+ * @version 1.0
+ */
+class SyncSocket implements SyncChannel {
+
+    /** Largest message accepted, in bytes */
+    private static final int MAX_MESSAGE = 1 << 28;
+
+    /** Queued in place of a message to stop the writer thread */
+    private static final byte[] CLOSE = new byte[0];
+
+    /** The connection */
+    private Socket socket;
+
+    /** Messages waiting to be written */
+    private LinkedBlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
+
+    /**
+     * Constructor for the SyncSocket. Starts the writer thread.
+     * @param socket the connection
+     */
+    private SyncSocket(Socket socket) {
+        this.socket = socket;
+        Thread writer = new Thread(this::writeLoop, "Sync writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Accepts clients on a port and connects each of them to a server, on a background thread.
+     * @param server the server
+     * @param port the port to listen on
+     * @return the listening socket, which stops accepting clients when closed
+     * @throws IOException if the port cannot be listened on
+     */
+    static ServerSocket serve(SyncServer server, int port) throws IOException {
+        ServerSocket listener = new ServerSocket(port);
+        Thread acceptor = new Thread(() -> {
+            while (!listener.isClosed()) {
+                try {
+                    SyncSocket toClient = new SyncSocket(listener.accept());
+                    SyncChannel toServer = server.connect(toClient);
+                    toClient.startReading(toServer, () -> server.disconnect(toClient));
+                } catch (IOException e) {
+                    // The listener was closed, or one client failed to connect
+                }
+            }
+        }, "Sync acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return listener;
+    }
+
+    /**
+     * Connects a client to a server listening on another machine.
+     * @param host the name of the server's machine
+     * @param port the port the server listens on
+     * @param client the client
+     * @throws IOException if the server cannot be reached
+     */
+    static void connect(String host, int port, SyncClient client) throws IOException {
+        SyncSocket toServer = new SyncSocket(new Socket(host, port));
+        client.setServer(toServer);
+        toServer.startReading(client::receive, () -> { });
+    }
+
+    @Override
+    public void send(byte[] message) {
+        queue.add(message);
+    }
+
+    /**
+     * Starts reading messages on a background thread.
+     * @param to the channel each message read is sent on
+     * @param closed run once the connection has closed
+     */
+    private void startReading(SyncChannel to, Runnable closed) {
+        Thread reader = new Thread(() -> {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    socket.getInputStream()))) {
+                while (true) {
+                    int length = in.readInt();
+                    if (length < 0 || length > MAX_MESSAGE) {
+                        throw new IOException("Invalid message length " + length);
+                    }
+                    byte[] message = new byte[length];
+                    in.readFully(message);
+                    to.send(message);
+                }
+            } catch (EOFException e) {
+                // The other end closed the connection
+            } catch (IOException e) {
+                System.err.println("Sync connection failed: " + e);
+            } finally {
+                queue.add(CLOSE);
+                closed.run();
+            }
+        }, "Sync reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /** Writes queued messages until the connection closes, flushing once the queue is empty. */
+    private void writeLoop() {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                socket.getOutputStream()))) {
+            while (true) {
+                byte[] message = queue.take();
+                if (message == CLOSE) {
+                    return;
+                }
+                out.writeInt(message.length);
+                out.write(message);
+                if (queue.isEmpty()) {
+                    out.flush();
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            // The connection closed; the reader reports why
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+    }
+}
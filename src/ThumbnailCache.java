@@ -0,0 +1,197 @@
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.imageio.ImageIO;
+
+/**
+ * ThumbnailCache. Keeps rendered thumbnails in memory and as PNG files on disk, each bounded by
+ * a number of bytes. Both levels drop the thumbnail used least recently once they are over their
+ * bound. A thumbnail found on disk is put back in memory. The time a disk file was last used is
+ * kept as its modification time, so the order survives between runs. All methods may be called
+ * from any thread.
+ * @author Emily DeLisle
+ * @version 1.0
+ */
+class ThumbnailCache {
+
+    /** Thumbnails held in memory by key, least recently used first */
+    private LinkedHashMap<String, Thumbnail> memory = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Sizes of the PNG files on disk by key, least recently used first */
+    private LinkedHashMap<String, Long> disk = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Bytes of pixels held in memory */
+    private long memoryBytes;
+
+    /** Bytes of PNG files on disk */
+    private long diskBytes;
+
+    /** Largest number of bytes of pixels to hold in memory */
+    private final long memoryLimit;
+
+    /** Largest number of bytes of PNG files to keep on disk */
+    private final long diskLimit;
+
+    /** The directory the PNG files are kept in */
+    private final Path directory;
+
+    /** A rendered thumbnail */
+    static final class Thumbnail {
+
+        /** Width in pixels */
+        final int width;
+
+        /** Height in pixels */
+        final int height;
+
+        /** The pixels, row by row, packed as 32-bit ARGB */
+        final int[] pixels;
+
+        /**
+         * Constructor for the Thumbnail.
+         * @param width width in pixels
+         * @param height height in pixels
+         * @param pixels the pixels, row by row
+         */
+        Thumbnail(int width, int height, int[] pixels) {
+            this.width = width;
+            this.height = height;
+            this.pixels = pixels;
+        }
+
+        /**
+         * Gets the number of bytes the pixels take up.
+         * @return the number of bytes
+         */
+        long bytes() {
+            return (long) pixels.length * 4;
+        }
+    }
+
+    /**
+     * Constructor for the ThumbnailCache. Files already in the directory are taken into the
+     * cache, oldest first, and dropped if there are too many.
+     * @param directory the directory to keep the PNG files in, created if needed
+     * @param memoryLimit largest number of bytes of pixels to hold in memory
+     * @param diskLimit largest number of bytes of PNG files to keep on disk
+     * @throws IOException if the directory cannot be created or read
+     */
+    ThumbnailCache(Path directory, long memoryLimit, long diskLimit) throws IOException {
+        this.directory = directory;
+        this.memoryLimit = memoryLimit;
+        this.diskLimit = diskLimit;
+        Files.createDirectories(directory);
+        ArrayList<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.png")) {
+            for (Path p : stream) {
+                files.add(p);
+            }
+        }
+        files.sort(Comparator.comparingLong(p -> p.toFile().lastModified()));
+        for (Path p : files) {
+            String name = p.getFileName().toString();
+            long size = Files.size(p);
+            disk.put(name.substring(0, name.length() - 4), size);
+            diskBytes += size;
+        }
+        trimDisk();
+    }
+
+    /**
+     * Gets a thumbnail, looking in memory first and then on disk.
+     * @param key the key of the thumbnail
+     * @return the thumbnail, or null if it is not cached
+     */
+    synchronized Thumbnail get(String key) {
+        Thumbnail t = memory.get(key);
+        if (t != null) {
+            return t;
+        }
+        if (disk.get(key) == null) {
+            return null;
+        }
+        Path file = file(key);
+        try {
+            BufferedImage image = ImageIO.read(file.toFile());
+            if (image == null) {
+                throw new IOException("Not a PNG file: " + file);
+            }
+            int w = image.getWidth();
+            int h = image.getHeight();
+            t = new Thumbnail(w, h, image.getRGB(0, 0, w, h, null, 0, w));
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            diskBytes -= disk.remove(key);
+            return null;
+        }
+        putInMemory(key, t);
+        return t;
+    }
+
+    /**
+     * Adds a thumbnail to memory and writes it to disk.
+     * @param key the key of the thumbnail
+     * @param t the thumbnail
+     * @throws IOException if the PNG file cannot be written
+     */
+    synchronized void put(String key, Thumbnail t) throws IOException {
+        putInMemory(key, t);
+        BufferedImage image = new BufferedImage(t.width, t.height, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, t.width, t.height, t.pixels, 0, t.width);
+        Path file = file(key);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        ImageIO.write(image, "png", temp.toFile());
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        Long old = disk.put(key, Files.size(file));
+        diskBytes += disk.get(key) - (old == null ? 0 : old);
+        trimDisk();
+    }
+
+    /**
+     * Adds a thumbnail to memory, dropping the least recently used ones until it fits.
+     * @param key the key of the thumbnail
+     * @param t the thumbnail
+     */
+    private void putInMemory(String key, Thumbnail t) {
+        Thumbnail old = memory.put(key, t);
+        memoryBytes += t.bytes() - (old == null ? 0 : old.bytes());
+        Iterator<Thumbnail> it = memory.values().iterator();
+        while (memoryBytes > memoryLimit && it.hasNext()) {
+            memoryBytes -= it.next().bytes();
+            it.remove();
+        }
+    }
+
+    /** Deletes the least recently used PNG files until the disk is under its bound. */
+    private void trimDisk() {
+        Iterator<Map.Entry<String, Long>> it = disk.entrySet().iterator();
+        while (diskBytes > diskLimit && it.hasNext()) {
+            Map.Entry<String, Long> e = it.next();
+            try {
+                Files.deleteIfExists(file(e.getKey()));
+            } catch (IOException ex) {
+                // Counted as gone; a file that could not be deleted is found again next run
+            }
+            diskBytes -= e.getValue();
+            it.remove();
+        }
+    }
+
+    /**
+     * Gets the PNG file for a key.
+     * @param key the key of the thumbnail
+     * @return the path of the file
+     */
+    private Path file(String key) {
+        return directory.resolve(key + ".png");
+    }
+}
@@ -0,0 +1,127 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.function.UnaryOperator;
+
+/**
+ * Thumbnails. Renders small pictures of documents for browsing a library of drawings. Documents
+ * are read and rendered without JavaFX, from the outlines of their Shapes, so thumbnails can be
+ * made on any thread and on machines without a screen. Shapes that would cover less than a pixel
+ * in the thumbnail are left out, and so are Groups whose whole box is that small, without looking
+ * at their children. Rendered thumbnails are kept in a ThumbnailCache, keyed by the document's
+ * path, size and modification time, so a changed document is rendered again.
+ * @author Emily DeLisle
+ * @version 1.0
+ */
+class Thumbnails {
+
+    /** Width of the Surface that documents are drawn on, in pixels */
+    private static final double SURFACE_WIDTH = 1000;
+
+    /** Height of the Surface that documents are drawn on, in pixels */
+    private static final double SURFACE_HEIGHT = 780;
+
+    /** Color of the background of a thumbnail, packed as 32-bit ARGB */
+    private static final int BACKGROUND = 0xFFFFFFFF;
+
+    /** Shapes narrower and shorter than this in the thumbnail are left out, in pixels */
+    private static final double MIN_SIZE = 1;
+
+    /** Keeps rendered thumbnails in memory and on disk */
+    private ThumbnailCache cache;
+
+    /**
+     * Constructor for the Thumbnails.
+     * @param directory the directory to keep thumbnails in on disk
+     * @param memoryLimit largest number of bytes of thumbnails to hold in memory
+     * @param diskLimit largest number of bytes of thumbnails to keep on disk
+     * @throws IOException if the directory cannot be created or read
+     */
+    Thumbnails(Path directory, long memoryLimit, long diskLimit) throws IOException {
+        cache = new ThumbnailCache(directory, memoryLimit, diskLimit);
+    }
+
+    /**
+     * Gets a thumbnail of a document file, rendering it if it is not cached. May be called from
+     * any thread; different documents are rendered in parallel.
+     * @param document the document file
+     * @param width width of the thumbnail, in pixels
+     * @param height height of the thumbnail, in pixels
+     * @return the thumbnail
+     * @throws IOException if the document cannot be read
+     */
+    ThumbnailCache.Thumbnail get(File document, int width, int height) throws IOException {
+        String key = UUID.nameUUIDFromBytes((document.getAbsolutePath() + '|' + document.length()
+                + '|' + document.lastModified() + '|' + width + 'x' + height)
+                .getBytes(StandardCharsets.UTF_8)).toString();
+        ThumbnailCache.Thumbnail t = cache.get(key);
+        if (t == null) {
+            t = render(DocumentIO.readRecords(document), width, height);
+            cache.put(key, t);
+        }
+        return t;
+    }
+
+    /**
+     * Renders Shape records at a reduced size. The whole Surface is scaled to fit the thumbnail,
+     * keeping its shape.
+     * @param records the records, from the bottom of the stack to the top
+     * @param width width of the thumbnail, in pixels
+     * @param height height of the thumbnail, in pixels
+     * @return the thumbnail
+     */
+    static ThumbnailCache.Thumbnail render(Collection<ShapeRecord> records, int width,
+            int height) {
+        Rasterizer out = new Rasterizer(width, height, BACKGROUND);
+        double scale = Math.min(width / SURFACE_WIDTH, height / SURFACE_HEIGHT);
+        for (ShapeRecord r : records) {
+            paint(out, r.toShape(), scale, points -> points);
+        }
+        return new ThumbnailCache.Thumbnail(width, height, out.pixels);
+    }
+
+    /**
+     * Paints one Shape, unless it falls outside the thumbnail or is too small to see. The
+     * children of a Group are painted one by one with the Group's offset and rotation added.
+     * @param out the Rasterizer to paint with
+     * @param s the Shape
+     * @param scale the size of the thumbnail compared to the Surface
+     * @param outer places points given on the Surface of the Shape's parent on the Surface, for
+     * Shapes inside Groups. Changes the points it is given
+     */
+    private static void paint(Rasterizer out, Shape s, double scale,
+            UnaryOperator<double[]> outer) {
+        double[] box = outer.apply(s.getOrientedBox());
+        double left = Math.min(Math.min(box[0], box[2]), Math.min(box[4], box[6])) * scale;
+        double top = Math.min(Math.min(box[1], box[3]), Math.min(box[5], box[7])) * scale;
+        double right = Math.max(Math.max(box[0], box[2]), Math.max(box[4], box[6])) * scale;
+        double bottom = Math.max(Math.max(box[1], box[3]), Math.max(box[5], box[7])) * scale;
+        if (right < 0 || bottom < 0 || left > out.width || top > out.height
+                || (right - left < MIN_SIZE && bottom - top < MIN_SIZE)) {
+            return;
+        }
+        if (s instanceof Group) {
+            Group g = (Group) s;
+            double[] offset = g.getOffset();
+            UnaryOperator<double[]> inner = points -> {
+                for (int i = 0; i + 1 < points.length; i += 2) {
+                    points[i] += offset[0];
+                    points[i + 1] += offset[1];
+                }
+                return outer.apply(g.toSurface(points));
+            };
+            for (Shape child : g.getChildren()) {
+                paint(out, child, scale, inner);
+            }
+            return;
+        }
+        double[] points = outer.apply(s.toSurface(s.getOutline()));
+        for (int i = 0; i < points.length; i++) {
+            points[i] *= scale;
+        }
+        out.fillPolygon(points, ShapeRecord.toArgb(s.color));
+    }
+}
@@ -1,3 +1,4 @@
+import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.paint.Color;
 
 /**
@@ -67,25 +68,71 @@ class Triangle extends Shape {
     }
 
     /**
-     * Clears the GraphicsContext and redraws the Triangle with the with its X and Y coordinates
-     * translated by the specified distance.
-     * @param distanceX distance translated on the X axis
-     * @param distanceY distance translated on the Y axis
+     * Paints the Triangle on the specified GraphicsContext.
+     * @param g the GraphicsContext to paint on
      */
     @Override
-    void move(double distanceX, double distanceY) {
-        pointA[0] -= distanceX;
-        pointA[1] -= distanceY;
-        pointB[0] -= distanceX;
-        pointB[1] -= distanceY;
-        clear();
-        x[0] -= distanceX;
-        x[1] -= distanceX;
-        x[2] -= distanceX;
-        y[0] -= distanceY;
-        y[1] -= distanceY;
-        y[2] -= distanceY;
-        clear();
-        gc.fillPolygon(this.x, this.y, numPoints);
+    void paint(GraphicsContext g) {
+        g.fillPolygon(this.x, this.y, numPoints);
+    }
+
+    /**
+     * Gets the geometry of the Triangle as the X and Y coordinates of each of its points, since
+     * the corners alone do not tell which way the Triangle points.
+     * @return the coordinates describing the Triangle
+     */
+    @Override
+    double[] getGeometry() {
+        return new double[] {x[0], y[0], x[1], y[1], x[2], y[2]};
+    }
+
+    /**
+     * Sets the points of the Triangle from a flat array of coordinates created by getGeometry().
+     * @param g the coordinates describing the Triangle
+     */
+    @Override
+    void setGeometry(double[] g) {
+        for (int i = 0; i < numPoints; i++) {
+            x[i] = g[i * 2];
+            y[i] = g[i * 2 + 1];
+        }
+        pointA[0] = x[0];
+        pointA[1] = y[0];
+        pointB[0] = x[2];
+        pointB[1] = y[1];
+        determineCorners();
+    }
+
+    /**
+     * Adds the outline of the Triangle to the current path of the specified GraphicsContext.
+     * @param g the GraphicsContext whose path is added to
+     */
+    @Override
+    void appendPath(GraphicsContext g) {
+        g.moveTo(x[0], y[0]);
+        g.lineTo(x[1], y[1]);
+        g.lineTo(x[2], y[2]);
+        g.closePath();
+    }
+
+    /**
+     * Gets the outline of the Triangle, which is its three points.
+     * @return the X and Y coordinates of each point, one after the other
+     */
+    @Override
+    double[] getOutline() {
+        return getGeometry();
+    }
+
+    /**
+     * Makes a copy of the Triangle, with its own copies of the arrays of points.
+     * @return the copy
+     */
+    @Override
+    Triangle copy() {
+        Triangle t = (Triangle) super.copy();
+        t.x = x.clone();
+        t.y = y.clone();
+        return t;
     }
 }
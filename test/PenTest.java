@@ -0,0 +1,175 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import javafx.application.Platform;
+import javafx.event.EventHandler;
+import javafx.event.EventType;
+import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * PenTest. Drives the Pen's Draw mode with mouse events made here and checks which Shapes end up
+ * finished on the Surface and which the listeners are told about. The JavaFX toolkit runs without
+ * a screen, on the headless Monocle platform set up in the pom, and every step of a test runs on
+ * the JavaFX thread, as it would in the application.
+ * @author Emily DeLisle
+ * @version 1.0
+ */
+class PenTest {
+
+    /** The Surface drawn on */
+    private Surface surface;
+
+    /** The Pen drawing on the Surface */
+    private Pen pen;
+
+    /** The Shapes the listeners were told were added */
+    private List<Shape> added = new ArrayList<>();
+
+    /** Starts the JavaFX toolkit, unless another test already has. */
+    @BeforeAll
+    static void startToolkit() {
+        try {
+            Platform.startup(() -> { });
+        } catch (IllegalStateException e) {
+            // Already started
+        }
+    }
+
+    /**
+     * Sets up an empty Surface with a Pen in Draw mode and a listener that records adds.
+     * @throws Exception if the JavaFX thread does not finish in time
+     */
+    @BeforeEach
+    void setUp() throws Exception {
+        onFxThread(this::createSurface);
+    }
+
+    /** Creates the Surface, the Pen and the listener. */
+    private void createSurface() {
+        surface = new Surface();
+        pen = new Pen(surface);
+        surface.addListener(new SurfaceListener() {
+            @Override
+            public void shapeAdded(Shape s) {
+                added.add(s);
+            }
+
+            @Override
+            public void shapeMoved(Shape s, double distanceX, double distanceY) {
+            }
+
+            @Override
+            public void shapeTransformed(Shape s) {
+            }
+
+            @Override
+            public void shapeRemoved(Shape s) {
+            }
+
+            @Override
+            public void shapeRecoloured(Shape s) {
+            }
+        });
+    }
+
+    /**
+     * A click without a drag draws nothing, and leaves no Canvas behind.
+     * @throws Exception if the JavaFX thread does not finish in time
+     */
+    @Test
+    void clickWithoutDragAddsNoShape() throws Exception {
+        onFxThread(() -> {
+            int children = surface.getActiveLayer().getChildren().size();
+            fire(surface.getOnMousePressed(), MouseEvent.MOUSE_PRESSED, 120, 80);
+            fire(surface.getOnMouseReleased(), MouseEvent.MOUSE_RELEASED, 120, 80);
+            assertTrue(surface.getActiveLayer().shapes.isEmpty());
+            assertEquals(children, surface.getActiveLayer().getChildren().size());
+        });
+        assertTrue(added.isEmpty());
+    }
+
+    /**
+     * A drag draws one Shape, from where the mouse was pressed to where it was released.
+     * @throws Exception if the JavaFX thread does not finish in time
+     */
+    @Test
+    void dragAddsOneShape() throws Exception {
+        onFxThread(() -> {
+            fire(surface.getOnMousePressed(), MouseEvent.MOUSE_PRESSED, 120, 80);
+            fire(surface.getOnMouseDragged(), MouseEvent.MOUSE_DRAGGED, 170, 110);
+            fire(surface.getOnMouseReleased(), MouseEvent.MOUSE_RELEASED, 170, 110);
+        });
+        assertEquals(1, surface.getActiveLayer().shapes.size());
+        assertEquals(1, added.size());
+        double[] box = new double[4];
+        added.get(0).getSurfaceBounds(box);
+        assertEquals(120, box[0], 1e-9);
+        assertEquals(80, box[1], 1e-9);
+    }
+
+    /**
+     * A duplicate of a Shape caught mid-playback, when it is shown away from where it rests, is
+     * placed by where the Shape rests, and its record agrees with where it is shown.
+     * @throws Exception if the JavaFX thread does not finish in time
+     */
+    @Test
+    void duplicateIgnoresPlaybackOffset() throws Exception {
+        onFxThread(() -> {
+            fire(surface.getOnMousePressed(), MouseEvent.MOUSE_PRESSED, 120, 80);
+            fire(surface.getOnMouseDragged(), MouseEvent.MOUSE_DRAGGED, 170, 110);
+            fire(surface.getOnMouseReleased(), MouseEvent.MOUSE_RELEASED, 170, 110);
+            added.get(0).translateX = 200;
+            added.get(0).translateY = 100;
+            pen.duplicateSelection();
+        });
+        assertEquals(2, added.size());
+        Shape copy = added.get(1);
+        double[] box = new double[4];
+        copy.getSurfaceBounds(box);
+        assertEquals(130, box[0], 1e-9);
+        assertEquals(90, box[1], 1e-9);
+        double[] recorded = new double[4];
+        copy.record.toShape().getSurfaceBounds(recorded);
+        assertArrayEquals(recorded, box, 1e-9);
+    }
+
+    /**
+     * Runs a step of a test on the JavaFX thread and waits for it, passing on anything it throws.
+     * @param step the step
+     * @throws Exception if the step fails or does not finish in time
+     */
+    private static void onFxThread(Runnable step) throws Exception {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        Platform.runLater(() -> {
+            try {
+                step.run();
+                done.complete(null);
+            } catch (Throwable t) {
+                done.completeExceptionally(t);
+            }
+        });
+        done.get(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Sends a primary-button mouse event to a handler.
+     * @param handler the handler
+     * @param type the type of the event
+     * @param x the X coordinate of the Cursor
+     * @param y the Y coordinate of the Cursor
+     */
+    private static void fire(EventHandler<? super MouseEvent> handler,
+            EventType<MouseEvent> type, double x, double y) {
+        handler.handle(new MouseEvent(type, x, y, x, y, MouseButton.PRIMARY, 1, false, false,
+                false, false, true, false, false, false, false, false, null));
+    }
+}
@@ -0,0 +1,326 @@
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+import java.util.stream.Stream;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * RenderRegressionTest. Renders reference scenes of every kind of Shape without a screen, through
+ * the Rasterizer that paints thumbnails, and checks both what they look like and how much they
+ * cost. Each scene is a file of line-delimited JSON in test/scenes, read with the ShapeImporter,
+ * plus one crowd of random Shapes made here.
+ * <p>
+ * Each picture is compared with a golden PNG in test/golden. A pixel differs when one of its
+ * channels is further from the golden pixel than a small tolerance, and a scene fails when more
+ * than a small share of its pixels differ. The picture of a failed scene is written to
+ * target/render-diffs, next to a picture of the pixels that differ.
+ * <p>
+ * Each scene is also rendered several times to find its fastest render and the fewest bytes a
+ * render allocates. A scene fails when either goes over its budget in test/budgets.properties by
+ * more than the tolerance kept in the same file. Times depend on the machine, so the budgets are
+ * recorded again with -Dbudgets.update=true when the suite moves to a new one. After an intended
+ * change to how Shapes look, -Dgolden.update=true rewrites the golden images.
+ * @author Emily DeLisle
+ * @version 1.0
+ */
+class RenderRegressionTest {
+
+    /** Width of the Surface, and of every rendered picture */
+    private static final int WIDTH = 1000;
+
+    /** Height of the Surface, and of every rendered picture */
+    private static final int HEIGHT = 780;
+
+    /** Directory holding the scene files */
+    private static final Path SCENES = Paths.get("test", "scenes");
+
+    /** Directory holding the golden images */
+    private static final Path GOLDEN = Paths.get("test", "golden");
+
+    /** File holding the budgets and their tolerances */
+    private static final Path BUDGETS = Paths.get("test", "budgets.properties");
+
+    /** Directory failed pictures are written to */
+    private static final Path DIFFS = Paths.get("target", "render-diffs");
+
+    /** Extension of the scene files */
+    private static final String SCENE_EXTENSION = ".ndjson";
+
+    /** Name of the scene of random Shapes */
+    private static final String CROWD = "crowd";
+
+    /** Number of Shapes in the crowd */
+    private static final int CROWD_SIZE = 5000;
+
+    /** Largest difference in any channel for a pixel to still match its golden pixel */
+    private static final int CHANNEL_TOLERANCE = 8;
+
+    /** Largest share of a picture's pixels that may differ from the golden image */
+    private static final double MAX_DIFFERENT = 0.001;
+
+    /** Time spent rendering before any render is measured, so that the code has been compiled */
+    private static final long WARM_UP_NANOS = 1_000_000_000L;
+
+    /** Number of renders measured, of which the cheapest counts */
+    private static final int RUNS = 30;
+
+    /** Whether to rewrite the golden images instead of comparing with them */
+    private static final boolean UPDATE_GOLDEN = Boolean.getBoolean("golden.update");
+
+    /** Whether to record new budgets instead of checking against them */
+    private static final boolean UPDATE_BUDGETS = Boolean.getBoolean("budgets.update");
+
+    /** The budgets, and the measurements to record when updating them */
+    private static Properties budgets = new Properties();
+
+    static {
+        try (InputStream in = Files.newInputStream(BUDGETS)) {
+            budgets.load(in);
+        } catch (IOException e) {
+            if (!UPDATE_BUDGETS) {
+                throw new IllegalStateException("Cannot read " + BUDGETS, e);
+            }
+        }
+    }
+
+    /**
+     * Gets the names of the scenes: one for each scene file, and the crowd.
+     * @return the names
+     * @throws IOException if the scene files cannot be listed
+     */
+    static Stream<String> scenes() throws IOException {
+        List<String> names = new ArrayList<>();
+        try (Stream<Path> files = Files.list(SCENES)) {
+            files.map(f -> f.getFileName().toString())
+                    .filter(f -> f.endsWith(SCENE_EXTENSION))
+                    .map(f -> f.substring(0, f.length() - SCENE_EXTENSION.length()))
+                    .sorted()
+                    .forEach(names::add);
+        }
+        names.add(CROWD);
+        return names.stream();
+    }
+
+    /**
+     * Renders a scene and compares it with its golden image, or rewrites the golden image.
+     * @param scene the name of the scene
+     * @throws IOException if a file cannot be read or written
+     */
+    @ParameterizedTest
+    @MethodSource("scenes")
+    void matchesGolden(String scene) throws IOException {
+        ThumbnailCache.Thumbnail picture = Thumbnails.render(load(scene), WIDTH, HEIGHT);
+        Path golden = GOLDEN.resolve(scene + ".png");
+        if (UPDATE_GOLDEN) {
+            Files.createDirectories(GOLDEN);
+            write(picture.pixels, golden);
+            return;
+        }
+        assertTrue(Files.exists(golden), "No golden image for " + scene
+                + "; run with -Dgolden.update=true to make one");
+        BufferedImage expected = ImageIO.read(golden.toFile());
+        assertNotNull(expected, "Cannot decode " + golden);
+        assertTrue(expected.getWidth() == WIDTH && expected.getHeight() == HEIGHT,
+                golden + " is not " + WIDTH + "x" + HEIGHT);
+        int[] want = expected.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+        int[] marks = new int[want.length];
+        int different = 0;
+        for (int i = 0; i < want.length; i++) {
+            if (!close(picture.pixels[i], want[i])) {
+                different++;
+                marks[i] = 0xFFFF0000;
+            } else {
+                marks[i] = 0xFFFFFFFF;
+            }
+        }
+        double share = (double) different / want.length;
+        if (share > MAX_DIFFERENT) {
+            Files.createDirectories(DIFFS);
+            write(picture.pixels, DIFFS.resolve(scene + ".png"));
+            write(marks, DIFFS.resolve(scene + "-diff.png"));
+        }
+        assertTrue(share <= MAX_DIFFERENT, String.format(Locale.ROOT,
+                "%s: %d pixels (%.3f%%) differ from %s; see %s", scene, different, share * 100,
+                golden, DIFFS.resolve(scene + "-diff.png")));
+    }
+
+    /**
+     * Measures the fastest render of a scene and the fewest bytes one allocates, and checks them
+     * against the scene's budgets, or records them as the new budgets.
+     * @param scene the name of the scene
+     * @throws IOException if the scene cannot be read
+     */
+    @ParameterizedTest
+    @MethodSource("scenes")
+    void staysWithinBudget(String scene) throws IOException {
+        List<ShapeRecord> records = load(scene);
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long warmUntil = System.nanoTime() + WARM_UP_NANOS;
+        while (System.nanoTime() < warmUntil) {
+            Thumbnails.render(records, WIDTH, HEIGHT);
+        }
+        long micros = Long.MAX_VALUE;
+        long bytes = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long allocated = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            Thumbnails.render(records, WIDTH, HEIGHT);
+            micros = Math.min(micros, (System.nanoTime() - start) / 1000);
+            bytes = Math.min(bytes, threads.getThreadAllocatedBytes(thread) - allocated);
+        }
+        if (UPDATE_BUDGETS) {
+            budgets.setProperty(scene + ".micros", Long.toString(micros));
+            budgets.setProperty(scene + ".bytes", Long.toString(bytes));
+            return;
+        }
+        long fastest = micros;
+        long fewest = bytes;
+        assertAll(() -> check(scene, "micros", fastest, "tolerance.time"),
+                () -> check(scene, "bytes", fewest, "tolerance.bytes"));
+    }
+
+    /**
+     * Writes the budgets measured while updating them, keeping the tolerances.
+     * @throws IOException if the file cannot be written
+     */
+    @AfterAll
+    static void saveBudgets() throws IOException {
+        if (!UPDATE_BUDGETS) {
+            return;
+        }
+        budgets.putIfAbsent("tolerance.time", "1.0");
+        budgets.putIfAbsent("tolerance.bytes", "0.1");
+        try (OutputStream out = Files.newOutputStream(BUDGETS)) {
+            budgets.store(out, "Render budgets per scene, written by RenderRegressionTest with"
+                    + " -Dbudgets.update=true. A scene fails when it takes more than its budget"
+                    + " times one plus the tolerance");
+        }
+    }
+
+    /**
+     * Checks one measurement of a scene against its budget.
+     * @param scene the name of the scene
+     * @param unit the unit of the measurement, which names the budget
+     * @param measured the measurement
+     * @param tolerance the name of the tolerance allowed over the budget
+     */
+    private static void check(String scene, String unit, long measured, String tolerance) {
+        String budget = budgets.getProperty(scene + "." + unit);
+        assertNotNull(budget, "No " + unit + " budget for " + scene
+                + "; run with -Dbudgets.update=true to record one");
+        long limit = (long) (Long.parseLong(budget)
+                * (1 + Double.parseDouble(budgets.getProperty(tolerance))));
+        assertTrue(measured <= limit, scene + " took " + measured + " " + unit + ", over its "
+                + "budget of " + budget + " by more than the " + tolerance + " allows");
+    }
+
+    /**
+     * Reads a scene into records, as the Surface would hold them.
+     * @param scene the name of the scene
+     * @return the records, from the bottom up
+     * @throws IOException if the scene cannot be read or has a bad line
+     */
+    private static List<ShapeRecord> load(String scene) throws IOException {
+        List<String> lines = scene.equals(CROWD) ? crowd()
+                : Files.readAllLines(SCENES.resolve(scene + SCENE_EXTENSION));
+        ShapeImporter importer = new ShapeImporter();
+        List<ShapeRecord> records = new ArrayList<>(lines.size());
+        long id = 1;
+        for (String line : lines) {
+            Shape s = importer.parse(line);
+            if (s != null) {
+                s.id = id++;
+                records.add(ShapeRecord.of(s));
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Makes the lines of the crowd: Shapes of every kind, of random sizes, places, rotations and
+     * Colors, the same every time.
+     * @return the lines, in CSV and JSON
+     */
+    private static List<String> crowd() {
+        Random random = new Random(48);
+        List<String> lines = new ArrayList<>(CROWD_SIZE);
+        for (int i = 0; i < CROWD_SIZE; i++) {
+            double x = random.nextInt(WIDTH - 40);
+            double y = random.nextInt(HEIGHT - 40);
+            double w = 2 + random.nextInt(38);
+            double h = 2 + random.nextInt(38);
+            String colour = String.format(Locale.ROOT, "#%06x", random.nextInt(0x1000000));
+            switch (i % 6) {
+                case 0:
+                    lines.add("rectangle," + colour + "," + x + "," + y + "," + w + "," + h);
+                    break;
+                case 1:
+                    lines.add("square," + colour + "," + x + "," + y + "," + w);
+                    break;
+                case 2:
+                    lines.add("oval," + colour + "," + x + "," + y + "," + w + "," + h);
+                    break;
+                case 3:
+                    lines.add("circle," + colour + "," + x + "," + y + "," + w);
+                    break;
+                case 4:
+                    lines.add("triangle," + colour + "," + x + "," + (y + h) + "," + (x + w / 2)
+                            + "," + y + "," + (x + w) + "," + (y + h));
+                    break;
+                default:
+                    lines.add(String.format(Locale.ROOT, "{\"type\":\"polygon\",\"color\":\"%s\","
+                            + "\"points\":[%s,%s,%s,%s,%s,%s,%s,%s],\"rotation\":%d}", colour,
+                            x, y, x + w, y + h / 3, x + w / 2, y + h, x, y + h / 2,
+                            random.nextInt(360)));
+                    break;
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Checks if two pixels are the same within the channel tolerance.
+     * @param a the first pixel, packed as 32-bit ARGB
+     * @param b the second pixel, packed as 32-bit ARGB
+     * @return true if no channel differs by more than the tolerance
+     */
+    private static boolean close(int a, int b) {
+        for (int shift = 0; shift < 32; shift += 8) {
+            if (Math.abs(((a >>> shift) & 0xFF) - ((b >>> shift) & 0xFF)) > CHANNEL_TOLERANCE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes pixels to a PNG file.
+     * @param pixels the pixels, row by row, packed as 32-bit ARGB
+     * @param file the file to write
+     * @throws IOException if the file cannot be written
+     */
+    private static void write(int[] pixels, Path file) throws IOException {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, WIDTH, HEIGHT, pixels, 0, WIDTH);
+        ImageIO.write(image, "png", file.toFile());
+    }
+}